@@ -0,0 +1,81 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2017 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jpos.iso;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * {@link ISOMsg} field access and cloning on a typical 0200 request.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ISOMsgBenchmark {
+    private static final int[] FIELDS = { 2, 3, 4, 7, 11, 12, 13, 14, 18, 22, 32, 35, 37, 41, 42, 43, 49 };
+
+    private ISOMsg msg;
+
+    @Setup
+    public void setup() throws ISOException {
+        msg = PackagerBenchmark.createMsg();
+    }
+
+    @Benchmark
+    public ISOMsg set() throws ISOException {
+        return PackagerBenchmark.createMsg();
+    }
+
+    @Benchmark
+    public void get(Blackhole bh) {
+        for (int f : FIELDS)
+            bh.consume(msg.getString(f));
+    }
+
+    @Benchmark
+    public void hasField(Blackhole bh) {
+        for (int i = 1; i <= 64; i++)
+            bh.consume(msg.hasField(i));
+    }
+
+    @Benchmark
+    public Object cloneMsg() {
+        return msg.clone();
+    }
+
+    @Benchmark
+    public ISOMsg cloneFields() {
+        return (ISOMsg) msg.clone(FIELDS);
+    }
+}
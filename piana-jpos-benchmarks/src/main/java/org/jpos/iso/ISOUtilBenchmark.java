@@ -0,0 +1,91 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2017 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jpos.iso;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link ISOUtil} hex, BCD and EBCDIC conversions on field sized values.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ISOUtilBenchmark {
+    private String digits;
+    private String text;
+    private byte[] bytes;
+    private byte[] hex;
+    private byte[] bcd;
+    private byte[] ebcdic;
+
+    @Setup
+    public void setup() {
+        digits = "4111111111111111";
+        text = "PIANA SWITCH             TEHRAN       IR";
+        bytes = ISOUtil.hex2byte("0123456789ABCDEFFEDCBA98765432100123456789ABCDEF");
+        hex = ISOUtil.hexString(bytes).getBytes();
+        bcd = ISOUtil.str2bcd(digits, false);
+        ebcdic = ISOUtil.asciiToEbcdic(text);
+    }
+
+    @Benchmark
+    public String hexString() {
+        return ISOUtil.hexString(bytes);
+    }
+
+    @Benchmark
+    public byte[] hex2byte() {
+        return ISOUtil.hex2byte(hex, 0, bytes.length);
+    }
+
+    @Benchmark
+    public byte[] str2bcd() {
+        return ISOUtil.str2bcd(digits, false);
+    }
+
+    @Benchmark
+    public String bcd2str() {
+        return ISOUtil.bcd2str(bcd, 0, digits.length(), false);
+    }
+
+    @Benchmark
+    public byte[] asciiToEbcdic() {
+        return ISOUtil.asciiToEbcdic(text);
+    }
+
+    @Benchmark
+    public String ebcdicToAscii() {
+        return ISOUtil.ebcdicToAscii(ebcdic);
+    }
+}
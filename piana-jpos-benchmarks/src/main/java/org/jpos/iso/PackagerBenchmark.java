@@ -0,0 +1,110 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2017 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jpos.iso;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jpos.iso.packager.GenericPackager;
+import org.jpos.iso.packager.ISO87APackager;
+import org.jpos.iso.packager.ISO87BPackager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Pack and unpack with the stock {@link ISO87APackager}/{@link ISO87BPackager},
+ * {@link GenericPackager} definitions, and their {@link PackagerCompiler}
+ * generated counterparts.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PackagerBenchmark {
+    @Param({ "ISO87APackager", "ISO87BPackager", "iso87binary", "base24", "postpack" })
+    public String definition;
+
+    @Param({ "generic", "compiled" })
+    public String mode;
+
+    private ISOPackager packager;
+    private ISOMsg msg;
+    private byte[] image;
+
+    @Setup
+    public void setup() throws ISOException {
+        ISOBasePackager p;
+        if ("ISO87APackager".equals(definition))
+            p = new ISO87APackager();
+        else if ("ISO87BPackager".equals(definition))
+            p = new ISO87BPackager();
+        else
+            p = new GenericPackager("jar:packager/" + definition + ".xml");
+        packager = "compiled".equals(mode) ? PackagerCompiler.compile(p) : p;
+        msg = createMsg();
+        msg.setPackager(packager);
+        image = msg.pack();
+    }
+
+    @Benchmark
+    public byte[] pack() throws ISOException {
+        return packager.pack(msg);
+    }
+
+    @Benchmark
+    public ISOMsg unpack() throws ISOException {
+        ISOMsg m = new ISOMsg();
+        packager.unpack(m, image);
+        return m;
+    }
+
+    static ISOMsg createMsg() throws ISOException {
+        ISOMsg m = new ISOMsg("0200");
+        m.set(2, "4111111111111111");
+        m.set(3, "000000");
+        m.set(4, "000000010000");
+        m.set(7, "1015123456");
+        m.set(11, "000001");
+        m.set(12, "123456");
+        m.set(13, "1015");
+        m.set(14, "2512");
+        m.set(18, "5411");
+        m.set(22, "051");
+        m.set(32, "123456");
+        m.set(35, "4111111111111111=25121010000000000000");
+        m.set(37, "000000000001");
+        m.set(41, "TERM0001");
+        m.set(42, "MERCHANT0000001");
+        m.set(43, "PIANA SWITCH             TEHRAN       IR");
+        m.set(49, "364");
+        m.recalcBitMap();
+        return m;
+    }
+}
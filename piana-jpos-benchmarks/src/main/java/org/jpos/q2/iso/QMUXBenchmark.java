@@ -0,0 +1,130 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2017 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jpos.q2.iso;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jdom2.Element;
+import org.jpos.core.SimpleConfiguration;
+import org.jpos.iso.ISOException;
+import org.jpos.iso.ISOMsg;
+import org.jpos.iso.ISOUtil;
+import org.jpos.iso.channel.LoopbackChannel;
+import org.jpos.q2.QBean;
+import org.jpos.space.LocalSpace;
+import org.jpos.space.SpaceFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link QMUX#request(ISOMsg, long)} round trips through a {@link LoopbackChannel}
+ * that echoes every request back as its response.
+ * <p>
+ * Run with <code>-t N</code> to have N threads with outstanding requests.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QMUXBenchmark {
+    private static final String SPACE = "tspace:qmux-benchmark";
+
+    private final AtomicInteger stan = new AtomicInteger();
+    private QMUX mux;
+    private LoopbackChannel channel;
+    private LocalSpace sp;
+    private Thread responder;
+    private volatile boolean running;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() throws Exception {
+        sp = (LocalSpace) SpaceFactory.getSpace(SPACE);
+        channel = new LoopbackChannel();
+
+        Element e = new Element("qmux");
+        e.addContent(new Element("space").setText(SPACE));
+        e.addContent(new Element("in").setText("bench-receive"));
+        e.addContent(new Element("out").setText("bench-send"));
+        mux = new QMUX();
+        mux.setName("qmux-benchmark");
+        mux.setPersist(e);
+        mux.setConfiguration(new SimpleConfiguration(new Properties()));
+        mux.initService();
+        mux.setState(QBean.STARTED);
+        mux.startService();
+
+        running = true;
+        responder = new Thread(this::respond, "qmux-benchmark-responder");
+        responder.setDaemon(true);
+        responder.start();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        running = false;
+        responder.join();
+        mux.stopService();
+        mux.destroyService();
+    }
+
+    @Benchmark
+    public ISOMsg request() throws ISOException {
+        ISOMsg m = new ISOMsg("0800");
+        m.set(11, ISOUtil.zeropad(stan.incrementAndGet() % 1000000, 6));
+        m.set(41, "29110001");
+        m.set(70, "301");
+        ISOMsg resp = mux.request(m, 5000L);
+        if (resp == null)
+            throw new IllegalStateException("no response for " + m.getString(11));
+        return resp;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void respond() {
+        while (running) {
+            try {
+                Object o = sp.in("bench-send", 100L);
+                if (o instanceof ISOMsg) {
+                    channel.send((ISOMsg) o);
+                    ISOMsg resp = channel.receive();
+                    resp.setResponseMTI();
+                    resp.set(39, "00");
+                    sp.out("bench-receive", resp);
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2017 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jpos.security.jceadapter;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.jpos.core.SimpleConfiguration;
+import org.jpos.security.EncryptedPIN;
+import org.jpos.security.SMAdapter;
+import org.jpos.security.SMException;
+import org.jpos.security.SecureDESKey;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link JCESecurityModule} PIN translation between two ZPKs (acquirer
+ * to issuer zone), through the audited {@link SMAdapter} entry point and
+ * the bare implementation, plus the bare retail CBC-MAC and CVV
+ * verification.
+ * <p>
+ * Keys are generated under a throw away LMK, created on setup. The
+ * BouncyCastle provider is used, as the default <code>cbc-mac</code>
+ * algorithm comes from it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JCESecurityModuleBenchmark {
+    private File lmk;
+    private JCESecurityModule sm;
+    private SecureDESKey zpkA;
+    private SecureDESKey zpkB;
+    private EncryptedPIN pinUnderZpkA;
+    private SecureDESKey tak;
+    private SecureDESKey cvkA;
+    private SecureDESKey cvkB;
+    private String cvv;
+    private Date expDate;
+    private byte[] macData;
+
+    @Setup
+    public void setup() throws Exception {
+        lmk = File.createTempFile("jmh", ".lmk");
+        Properties props = new Properties();
+        props.put("lmk", lmk.getAbsolutePath());
+        props.put("rebuildlmk", "true");
+        props.put("provider", "org.bouncycastle.jce.provider.BouncyCastleProvider");
+        sm = new JCESecurityModule();
+        sm.setConfiguration(new SimpleConfiguration(props));
+        zpkA = sm.generateKey(SMAdapter.LENGTH_DES3_2KEY, SMAdapter.TYPE_ZPK);
+        zpkB = sm.generateKey(SMAdapter.LENGTH_DES3_2KEY, SMAdapter.TYPE_ZPK);
+        EncryptedPIN pinUnderLmk = sm.encryptPIN("1234", "1234567890123456");
+        pinUnderZpkA = sm.exportPIN(pinUnderLmk, zpkA, SMAdapter.FORMAT01);
+        tak = sm.generateKey(SMAdapter.LENGTH_DES3_2KEY, SMAdapter.TYPE_TAK);
+        cvkA = sm.generateKey(SMAdapter.LENGTH_DES, SMAdapter.TYPE_CVK);
+        cvkB = sm.generateKey(SMAdapter.LENGTH_DES, SMAdapter.TYPE_CVK);
+        expDate = new SimpleDateFormat("yyMM").parse("2512");
+        cvv = sm.calculateCVV("4111111111111111", cvkA, cvkB, expDate, "101");
+        // a typical 0200 image
+        macData = new byte[180];
+        new Random(1).nextBytes(macData);
+    }
+
+    @TearDown
+    public void tearDown() {
+        lmk.delete();
+    }
+
+    @Benchmark
+    public EncryptedPIN translatePIN() throws SMException {
+        return sm.translatePIN(pinUnderZpkA, zpkA, zpkB, SMAdapter.FORMAT01);
+    }
+
+    @Benchmark
+    public EncryptedPIN translatePINImpl() throws SMException {
+        return sm.translatePINImpl(pinUnderZpkA, zpkA, zpkB, SMAdapter.FORMAT01);
+    }
+
+    @Benchmark
+    public byte[] generateCBC_MACImpl() throws SMException {
+        return sm.generateCBC_MACImpl(macData, tak);
+    }
+
+    @Benchmark
+    public boolean verifyCVVImpl() throws SMException {
+        return sm.verifyCVVImpl("4111111111111111", cvkA, cvkB, cvv, expDate, "101");
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2017 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jpos.transaction;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.jdom2.Element;
+import org.jpos.core.SimpleConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link TransactionManager} throughput with participants that do nothing,
+ * i.e. the cost of the manager itself (queueing, sessions, prepare/commit
+ * dispatch and the persistent space bookkeeping).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransactionManagerBenchmark {
+    private static final int BATCH = 1000;
+
+    @Param({ "false", "true" })
+    public boolean executor;
+
+    @Param({ "1", "10" })
+    public int participants;
+
+    @Param({ "4" })
+    public int sessions;
+
+    private final Semaphore completed = new Semaphore(0);
+    private TransactionManager txnmgr;
+
+    @Setup
+    public void setup() throws Exception {
+        String name = "txnmgr-benchmark";
+        TransactionManager tm = new TransactionManager();
+        Properties props = new Properties();
+        props.put("queue", name);
+        props.put("space", "tspace:" + name);
+        props.put("persistent-space", "tspace:" + name + "-persistent");
+        props.put("sessions", Integer.toString(sessions));
+        props.put("executor", Boolean.toString(executor));
+        props.put("executor-threads", Integer.toString(sessions));
+        props.put("max-in-flight", Integer.toString(BATCH));
+        props.put("debug", "false");
+        props.put("profiler", "false");
+        tm.setName(name);
+        tm.setConfiguration(new SimpleConfiguration(props));
+        tm.setPersist(new Element("txnmgr"));
+        tm.init();
+        List<TransactionParticipant> list = new ArrayList<>();
+        for (int i = 1; i < participants; i++)
+            list.add(new NoOp());
+        list.add(new Completion());
+        tm.groups.put(TransactionManager.DEFAULT_GROUP, list);
+        tm.start();
+        txnmgr = tm;
+    }
+
+    @TearDown
+    public void tearDown() {
+        txnmgr.destroy();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void queue() throws InterruptedException {
+        for (int i = 0; i < BATCH; i++)
+            txnmgr.queue(new Context());
+        completed.acquire(BATCH);
+    }
+
+    static class NoOp implements TransactionParticipant {
+        @Override
+        public int prepare(long id, Serializable context) {
+            return PREPARED | READONLY;
+        }
+    }
+
+    class Completion extends NoOp {
+        @Override
+        public void commit(long id, Serializable context) {
+            completed.release();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2017 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jpos.util;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of <code>benchmarks.jar</code>.
+ * <p>
+ * Takes the regular JMH command line, but writes results as JSON
+ * (<code>jmh-result.json</code> unless <code>-rff</code> says otherwise) so
+ * runs from different commits can be kept side by side and compared, i.e.:
+ * <pre>
+ * java -jar benchmarks.jar -rff jmh-$(git rev-parse --short HEAD).json
+ * java -jar benchmarks.jar QMUXBenchmark -t 8
+ * </pre>
+ */
+public class BenchmarkRunner {
+    public static void main(String[] args) throws IOException, RunnerException {
+        CommandLineOptions cmd;
+        try {
+            cmd = new CommandLineOptions(args);
+        } catch (CommandLineOptionException e) {
+            Main.main(args); // let JMH report the error
+            return;
+        }
+        if (cmd.shouldHelp() || cmd.shouldList() || cmd.shouldListWithParams()
+          || cmd.shouldListProfilers() || cmd.shouldListResultFormats()) {
+            Main.main(args);
+            return;
+        }
+        OptionsBuilder opts = new OptionsBuilder();
+        opts.parent(cmd);
+        if (!cmd.getResultFormat().hasValue())
+            opts.resultFormat(ResultFormatType.JSON);
+        if (!cmd.getResult().hasValue())
+            opts.result("jmh-result.json");
+        new Runner(opts.build()).run();
+    }
+}
@@ -18,7 +18,6 @@
 
 package org.jpos.bsh;
 
-import bsh.Interpreter;
 import bsh.TargetError;
 import org.jpos.core.Configurable;
 import org.jpos.core.Configuration;
@@ -28,6 +27,9 @@ import org.jpos.iso.ISOMsg;
 import org.jpos.iso.RawIncomingFilter;
 import org.jpos.util.LogEvent;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * BSHFilter - BeanShell based filter
  * @author <a href="mailto:apr@cs.com.uy">Alejandro P. Revilla</a>
@@ -42,6 +44,7 @@ public class BSHFilter implements RawIncomingFilter, Configurable {
     * @param cfg
     * <ul>
     *  <li>source - BSH script(s) to run (can be more than one)
+    *  <li>compiled - parse scripts once per thread (see {@link BSHScript})
     * </ul>
     */
     public void setConfiguration (Configuration cfg) 
@@ -58,22 +61,25 @@ public class BSHFilter implements RawIncomingFilter, Configurable {
         throws VetoException
     {
         String[] source = cfg.getAll ("source");
+        boolean compiled = cfg.getBoolean ("compiled");
         for (String aSource : source) {
             try {
-                Interpreter bsh = new Interpreter();
-                bsh.set("channel", channel);
-                bsh.set("message", m);
+                Map<String,Object> args = new HashMap<>();
+                args.put("channel", channel);
+                args.put("message", m);
                 if (header != null)
-                    bsh.set("header", header);
+                    args.put("header", header);
                 if (image != null)
-                    bsh.set("image", image);
-                bsh.set("evt", evt);
-                bsh.set("cfg", cfg);
-                Object r = bsh.source(aSource);
+                    args.put("image", image);
+                args.put("evt", evt);
+                args.put("cfg", cfg);
+                Map<String,Object> vars = new HashMap<>();
+                vars.put("message", null);
+                Object r = BSHScript.forFile(aSource, compiled).eval(args, vars);
                 if (r instanceof ISOMsg)
                     m = (ISOMsg) r;
                 else
-                    m = (ISOMsg) bsh.get("message");
+                    m = (ISOMsg) vars.get("message");
             } catch (TargetError e) {
                 if (e.getTarget() instanceof VetoException)
                     throw (VetoException) e.getTarget();
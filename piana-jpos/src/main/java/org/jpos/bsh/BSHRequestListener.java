@@ -18,7 +18,6 @@
 
 package org.jpos.bsh;
 
-import bsh.Interpreter;
 import org.jpos.core.Configurable;
 import org.jpos.core.Configuration;
 import org.jpos.core.ConfigurationException;
@@ -28,7 +27,9 @@ import org.jpos.iso.ISOSource;
 import org.jpos.util.Log;
 
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 
 /**
  * BSHRequestListener - BeanShell based request listener
@@ -42,6 +43,7 @@ public class BSHRequestListener extends Log
     protected static final String MTI_MACRO = "$mti";
     protected HashSet whitelist;
     protected String[] bshSource;
+    protected boolean compiled;
     Configuration cfg;
     public BSHRequestListener () {
         super();
@@ -51,6 +53,7 @@ public class BSHRequestListener extends Log
     * <ul>
     *  <li>whitelist - supported message types (example: "1100,1220")
     *  <li>source - BSH script(s) to run (can be more than one)
+    *  <li>compiled - parse scripts once per thread (see {@link BSHScript})
     * </ul>
     */
     public void setConfiguration (Configuration cfg) 
@@ -58,6 +61,7 @@ public class BSHRequestListener extends Log
     {
         this.cfg = cfg;
         bshSource = cfg.getAll ("source");
+        compiled = cfg.getBoolean ("compiled");
         String[] mti = cfg.get ("whitelist", "*").split(",");
         whitelist = new HashSet( Arrays.asList(mti) );
     }
@@ -70,11 +74,11 @@ public class BSHRequestListener extends Log
 
             for (String aBshSource : bshSource) {
                 try {
-                    Interpreter bsh = new Interpreter();
-                    bsh.set("source", source);
-                    bsh.set("message", m);
-                    bsh.set("log", this);
-                    bsh.set("cfg", cfg);
+                    Map<String,Object> args = new HashMap<>();
+                    args.put("source", source);
+                    args.put("message", m);
+                    args.put("log", this);
+                    args.put("cfg", cfg);
 
                     int idx = aBshSource.indexOf(MTI_MACRO);
                     String script;
@@ -87,7 +91,7 @@ public class BSHRequestListener extends Log
                         script = aBshSource;
                     }
 
-                    Object ret= bsh.source(script);
+                    Object ret= BSHScript.forFile(script, compiled).eval(args, null);
 
                     // any non-null and non-boolean value is considered "true-ish"
                     // a null return is considered false
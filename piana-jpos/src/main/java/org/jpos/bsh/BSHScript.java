@@ -0,0 +1,280 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2017 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jpos.bsh;
+
+import bsh.EvalError;
+import bsh.Interpreter;
+import bsh.NameSpace;
+import bsh.Primitive;
+import bsh.This;
+import bsh.UtilEvalError;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A BeanShell script, either inline text or a file, evaluated on
+ * interpreters pooled per thread.
+ * <p>
+ * Creating an {@link Interpreter} (class manager, default imports) costs far
+ * more than running a typical routing script, so each thread keeps the
+ * interpreter it used last time, and every evaluation runs in a fresh
+ * {@link NameSpace} on top of it, so variables don't leak from one
+ * evaluation to the next. File scripts are read once and read again only
+ * when their modification time changes.
+ * <p>
+ * A <i>compiled</i> script goes one step further: its text is wrapped in a
+ * scripted method, parsed once per thread and re-invoked on every
+ * evaluation. The script's value is that of its <code>return</code>
+ * statement or of its last statement, as usual, but line 1 error columns
+ * are shifted by the wrapper.
+ */
+public class BSHScript {
+    private static final String RUN = "__script";
+    private static final String SCOPE = "__scope";
+    private static final Map<String,BSHScript> files = new ConcurrentHashMap<> ();
+
+    private final String file;
+    private final boolean compiled;
+    private final ThreadLocal<Slot> pool = new ThreadLocal<> ();
+    private volatile Source source;
+
+    private BSHScript (String file, String text, boolean compiled) {
+        this.file = file;
+        this.compiled = compiled;
+        if (text != null)
+            source = new Source (text, 0L);
+    }
+
+    /**
+     * @param file script file
+     * @param compiled true to parse once per thread (see class comment)
+     * @return the (shared) script for the given file
+     */
+    public static BSHScript forFile (String file, boolean compiled) {
+        Objects.requireNonNull (file);
+        return files.computeIfAbsent (
+          (compiled ? "c:" : "i:") + file, k -> new BSHScript (file, null, compiled)
+        );
+    }
+
+    /**
+     * @param text script text
+     * @param compiled true to parse once per thread (see class comment)
+     * @return a new script
+     */
+    public static BSHScript forText (String text, boolean compiled) {
+        return new BSHScript (null, Objects.requireNonNull (text), compiled);
+    }
+
+    /**
+     * Evaluates the script.
+     *
+     * @param arguments variables set before evaluation, keys must be Strings
+     * @param variables if not null, each of its keys is looked up after
+     *                  evaluation and its value replaced with the script
+     *                  variable's (null if undefined)
+     * @return the script's value
+     */
+    public Object eval (Map<String,?> arguments, Map<String,Object> variables)
+        throws EvalError, IOException
+    {
+        String[] names = new String[arguments.size()];
+        Object[] values = new Object[names.length];
+        int n = 0;
+        for (Map.Entry<String,?> entry : arguments.entrySet()) {
+            names[n] = entry.getKey();
+            values[n++] = entry.getValue();
+        }
+        Source src = load ();
+        Slot slot = acquire (src);
+        try {
+            return compiled ?
+              invoke (slot, names, values, variables) :
+              eval (slot, src, names, values, variables);
+        } finally {
+            slot.busy = false;
+        }
+    }
+
+    public boolean isCompiled () {
+        return compiled;
+    }
+
+    public String toString () {
+        return file != null ? file : source.text;
+    }
+
+    private Object eval (Slot slot, Source src, String[] names, Object[] values, Map<String,Object> variables)
+        throws EvalError
+    {
+        Interpreter bsh = slot.interpreter;
+        NameSpace ns = new NameSpace (bsh.getNameSpace(), "script");
+        try {
+            for (int i=0; i<names.length; i++)
+                ns.setVariable (names[i], values[i] != null ? values[i] : Primitive.NULL, false);
+        } catch (UtilEvalError e) {
+            throw e.toEvalError (null, null);
+        }
+        Object ret = file != null ?
+          bsh.eval (new StringReader (src.text), ns, file) : bsh.eval (src.text, ns);
+        get (bsh, ns, variables);
+        return ret;
+    }
+
+    private Object invoke (Slot slot, String[] names, Object[] values, Map<String,Object> variables)
+        throws EvalError
+    {
+        Interpreter bsh = slot.interpreter;
+        NameSpace global = bsh.getNameSpace();
+        try {
+            for (int i=0; i<names.length; i++)
+                global.setVariable (names[i], values[i] != null ? values[i] : Primitive.NULL, false);
+            Object ret = Primitive.unwrap (global.invokeMethod (RUN, new Object[0], bsh));
+            Object scope = Primitive.unwrap (global.get (SCOPE, bsh));
+            if (scope instanceof This) {
+                get (bsh, ((This) scope).getNameSpace(), variables);
+                if (ret == scope)
+                    ret = null; // empty script, the wrapper's own assignment
+            }
+            return ret;
+        } catch (UtilEvalError e) {
+            throw e.toEvalError (null, null);
+        } finally {
+            // don't hold on to arguments (messages, contexts) between evaluations
+            for (String name : names)
+                global.unsetVariable (name);
+            try {
+                global.setVariable (SCOPE, Primitive.NULL, false);
+            } catch (UtilEvalError ignored) { }
+        }
+    }
+
+    private void get (Interpreter bsh, NameSpace ns, Map<String,Object> variables) throws EvalError {
+        if (variables == null)
+            return;
+        try {
+            for (Map.Entry<String,Object> entry : variables.entrySet())
+                entry.setValue (Primitive.unwrap (ns.get (entry.getKey(), bsh)));
+        } catch (UtilEvalError e) {
+            throw e.toEvalError (null, null);
+        }
+    }
+
+    private Source load () throws IOException {
+        Source src = source;
+        if (file == null)
+            return src;
+        long lastModified = new File (file).lastModified();
+        if (src == null || src.lastModified != lastModified) {
+            synchronized (this) {
+                src = source;
+                if (src == null || src.lastModified != lastModified)
+                    source = src = new Source (read (file), lastModified);
+            }
+        }
+        return src;
+    }
+
+    private Slot acquire (Source src) throws EvalError {
+        Slot slot = pool.get();
+        if (slot == null || slot.busy) {
+            // a script evaluating itself gets a throwaway interpreter
+            Slot s = new Slot ();
+            if (slot == null)
+                pool.set (s);
+            slot = s;
+        }
+        if (compiled && !src.equals (slot.source)) {
+            if (slot.source != null)
+                slot.interpreter = new Interpreter ();
+            slot.source = null;
+            compile (slot.interpreter, src);
+            slot.source = src;
+        }
+        slot.busy = true;
+        return slot;
+    }
+
+    private void compile (Interpreter bsh, Source src) throws EvalError {
+        NameSpace global = bsh.getNameSpace();
+        try {
+            global.setVariable (SCOPE, Primitive.NULL, false);
+        } catch (UtilEvalError e) {
+            throw e.toEvalError (null, null);
+        }
+        // same line, so that line numbers still match the script's
+        String method = RUN + "() { " + SCOPE + " = this; " + src.text + ";\n}";
+        if (file != null)
+            bsh.eval (new StringReader (method), global, file);
+        else
+            bsh.eval (method);
+    }
+
+    private static String read (String file) throws IOException {
+        StringBuilder sb = new StringBuilder ();
+        char[] buf = new char[4096];
+        try (Reader r = new FileReader (file)) {
+            int n;
+            while ((n = r.read (buf)) != -1)
+                sb.append (buf, 0, n);
+        }
+        return sb.toString();
+    }
+
+    private static class Slot {
+        Interpreter interpreter = new Interpreter ();
+        Source source;
+        boolean busy;
+    }
+
+    private static class Source {
+        final String text;
+        final long lastModified;
+        final int hash;
+
+        Source (String text, long lastModified) {
+            this.text = text;
+            this.lastModified = lastModified;
+            this.hash = text.hashCode();
+        }
+
+        @Override
+        public boolean equals (Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Source))
+                return false;
+            Source s = (Source) o;
+            return hash == s.hash && text.equals (s.text);
+        }
+
+        @Override
+        public int hashCode () {
+            return hash;
+        }
+    }
+}
@@ -71,12 +71,18 @@ public class AsciiPrefixer implements Prefixer
 
     @Override
     public void encodeLength(int length, byte[] b) throws ISOException
+    {
+        encodeLength(length, b, 0);
+    }
+
+    @Override
+    public void encodeLength(int length, byte[] b, int offset) throws ISOException
     {
         int n = length;
         // Write the string backwards - I don't know why I didn't see this at first.
         for (int i = nDigits - 1; i >= 0; i--)
         {
-            b[i] = (byte)(n % 10 + '0');
+            b[offset + i] = (byte)(n % 10 + '0');
             n /= 10;
         }
         if (n != 0)
@@ -23,6 +23,7 @@ import org.jpos.core.Configuration;
 import org.jpos.core.ConfigurationException;
 import org.jpos.iso.ISOFilter.VetoException;
 import org.jpos.iso.header.BaseHeader;
+import org.jpos.transaction.ContextPool;
 import org.jpos.util.LogEvent;
 import org.jpos.util.LogSource;
 import org.jpos.util.Logger;
@@ -31,10 +32,15 @@ import org.jpos.util.NameRegistrar;
 import javax.net.ssl.SSLSocket;
 import java.io.*;
 import java.net.*;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Observable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /*
  * BaseChannel was ISOChannel. Now ISOChannel is an interface
@@ -104,6 +110,18 @@ public abstract class BaseChannel extends Observable
     private static final int DEFAULT_TIMEOUT = 300000;
     private int nextHostPort = 0;
     private boolean roundRobin = false;
+    private boolean zeroCopyReceive = false;
+    private ContextPool messagePool;
+    private byte[] rxbuf;
+    private static final int DEFAULT_RXBUF_SIZE = 4096;
+    private boolean zeroCopySend = false;
+    private final Queue<ByteBuffer> txbufs = new ConcurrentLinkedQueue<>();
+    private static final int DEFAULT_TXBUF_SIZE = 4096;
+    private boolean coalesceWrites = false;
+    private int maxBatchSize = 64;
+    private long maxLinger = 0L;
+    private int maxQueueSize = 1024;
+    private CoalescingWriter writer;
 
     /**
      * constructor shared by server and client
@@ -270,9 +288,15 @@ public abstract class BaseChannel extends Observable
             );
         }
         synchronized (serverOutLock) {
-            serverOut = new DataOutputStream(
-                new BufferedOutputStream(socket.getOutputStream(), 2048)
-            );
+            if (coalesceWrites) {
+                writer = new CoalescingWriter (this, socket, maxBatchSize, maxLinger, maxQueueSize);
+                serverOut = new DataOutputStream (writer.getOutputStream());
+                writer.start();
+            } else {
+                serverOut = new DataOutputStream(
+                    new BufferedOutputStream(socket.getOutputStream(), 2048)
+                );
+            }
         }
         postConnectHook();
         usable = true;
@@ -280,6 +304,30 @@ public abstract class BaseChannel extends Observable
         setChanged();
         notifyObservers();
     }
+    /**
+     * setup this channel over a socket whose I/O is driven by someone
+     * else (i.e. ISOServer's non-blocking mode). Outgoing frames are
+     * written to <code>out</code>, incoming frames are handed to
+     * {@link #receive(byte[], byte[])} by the caller.
+     * @param socket a connected Socket
+     * @param out where outgoing frames are written (flushed once per message)
+     * @exception IOException on error
+     */
+    protected void connect (Socket socket, OutputStream out)
+        throws IOException
+    {
+        this.socket = socket;
+        this.name = socket.getInetAddress().getHostAddress()+":"+socket.getPort();
+        applyTimeout();
+        setLogger(getLogger(), getOriginalRealm() + "/" + name);
+        synchronized (serverOutLock) {
+            serverOut = new DataOutputStream(out);
+        }
+        usable = true;
+        cnt[CONNECT]++;
+        setChanged();
+        notifyObservers();
+    }
     protected void postConnectHook() throws IOException {
         // do nothing
     }
@@ -298,7 +346,18 @@ public abstract class BaseChannel extends Observable
             if (socketFactory != null)
                 return socketFactory.createSocket (host, port);
             else {
-                if (connectTimeout > 0) {
+                if (coalesceWrites) {
+                    // channel backed socket, allows gathering writes
+                    Socket s = SocketChannel.open().socket();
+                    if (localIface != null || localPort != 0) {
+                        InetAddress addr = localIface == null ?
+                            InetAddress.getLocalHost() :
+                            InetAddress.getByName(localIface);
+                        s.bind (new InetSocketAddress (addr, localPort));
+                    }
+                    s.connect (new InetSocketAddress (host, port), connectTimeout);
+                    return s;
+                } else if (connectTimeout > 0) {
                     Socket s = new Socket();
                     s.connect (
                         new InetSocketAddress (host, port),
@@ -488,10 +547,16 @@ public abstract class BaseChannel extends Observable
     }
     protected void sendMessageLength(int len) throws IOException { }
     protected void sendMessageHeader(ISOMsg m, int len) throws IOException { 
-        if (!isOverrideHeader() && m.getHeader() != null)
-            serverOut.write(m.getHeader());
-        else if (header != null) 
-            serverOut.write(header);
+        byte[] h = getOutgoingHeader (m);
+        if (h != null)
+            serverOut.write(h);
+    }
+    /**
+     * @param m outgoing message
+     * @return header to be sent along with <code>m</code> (may be null)
+     */
+    protected byte[] getOutgoingHeader (ISOMsg m) {
+        return !isOverrideHeader() && m.getHeader() != null ? m.getHeader() : header;
     }
     /**
      * @deprecated use sendMessageTrailer(ISOMsg m, byte[] b) instead.
@@ -585,13 +650,17 @@ public abstract class BaseChannel extends Observable
             evt.addMessage (m);
             m.setDirection(ISOMsg.OUTGOING); // filter may have dropped this info
             m.setPackager (p); // and could have dropped packager as well
-            byte[] b = pack(m);
-            synchronized (serverOutLock) {
-                sendMessageLength(b.length + getHeaderLength(m));
-                sendMessageHeader(m, b.length);
-                sendMessage (b, 0, b.length);
-                sendMessageTrailer(m, b);
-                serverOut.flush ();
+            if (zeroCopySend && getLengthPrefixer() != null) {
+                sendInPlace (m);
+            } else {
+                byte[] b = pack(m);
+                synchronized (serverOutLock) {
+                    sendMessageLength(b.length + getHeaderLength(m));
+                    sendMessageHeader(m, b.length);
+                    sendMessage (b, 0, b.length);
+                    sendMessageTrailer(m, b);
+                    serverOut.flush ();
+                }
             }
             cnt[TX]++;
             setChanged();
@@ -641,6 +710,45 @@ public abstract class BaseChannel extends Observable
             Logger.log (evt);
         }
     }
+    /**
+     * Zero-copy flavour of the framing done by {@link #send(ISOMsg)}
+     * (see {@link #setZeroCopySend(boolean)}).
+     * <p>
+     * Length prefix, header and image are written into a single pooled
+     * buffer, the message being packed in place via
+     * {@link ISOMsg#pack(ByteBuffer)}, and sent with one write.
+     */
+    private void sendInPlace (ISOMsg m) throws IOException, ISOException {
+        Prefixer prefixer = getLengthPrefixer();
+        int pLen = prefixer.getPackedLength();
+        byte[] h = getOutgoingHeader (m);
+        ByteBuffer buf = txbufs.poll();
+        if (buf == null)
+            buf = ByteBuffer.allocate (DEFAULT_TXBUF_SIZE);
+        try {
+            for (;;) {
+                buf.clear();
+                try {
+                    buf.position (pLen);
+                    if (h != null)
+                        buf.put (h);
+                    m.pack (buf);
+                    break;
+                } catch (BufferOverflowException e) {
+                    buf = ByteBuffer.allocate (buf.capacity() << 1);
+                }
+            }
+            int len = buf.position();
+            prefixer.encodeLength (len - pLen, buf.array(), 0);
+            synchronized (serverOutLock) {
+                serverOut.write (buf.array(), 0, len);
+                serverOut.flush ();
+            }
+        } finally {
+            if (buf.capacity() <= DEFAULT_TXBUF_SIZE + getMaxPacketLength())
+                txbufs.offer (buf);
+        }
+    }
     /**
      * Sends a high-level keep-alive message (zero length)
      * @throws IOException on exception
@@ -668,6 +776,11 @@ public abstract class BaseChannel extends Observable
         return createISOMsg();
     }
     protected ISOMsg createISOMsg () {
+        if (messagePool != null && packager instanceof ISOBasePackager) {
+            ISOMsg m = messagePool.borrowMessage ();
+            if (m != null)
+                return m;
+        }
         return packager.createISOMsg ();
     }
 	
@@ -690,6 +803,8 @@ public abstract class BaseChannel extends Observable
      * @throws ISOException
      */
     public ISOMsg receive() throws IOException, ISOException {
+        if (zeroCopyReceive)
+            return receiveInPlace();
         byte[] b=null;
         byte[] header=null;
         LogEvent evt = new LogEvent (this, "receive");
@@ -782,6 +897,198 @@ public abstract class BaseChannel extends Observable
         }
         return m;
     }
+    /**
+     * Zero-copy flavour of {@link #receive()} (see {@link #setZeroCopyReceive(boolean)}).
+     * <p>
+     * The length prefix, header and image are read into a per channel
+     * buffer that is reused across messages and the image is unpacked in
+     * place, so apart from the resulting ISOMsg (and its header, if any)
+     * nothing is allocated per message. The LogEvent is only created if
+     * this channel has a logger with listeners or incoming filters are
+     * configured.
+     */
+    private ISOMsg receiveInPlace() throws IOException, ISOException {
+        boolean hasFilters = !incomingFilters.isEmpty();
+        LogEvent evt = hasFilters || logger != null && logger.hasListeners() ?
+          new LogEvent (this, "receive") : null;
+        byte[] header = null;
+        int len = 0;
+        int hLen = 0;
+        ISOMsg m = createMsg ();
+        m.setSource (this);
+        try {
+            if (!isConnected())
+                throw new IOException ("unconnected ISOChannel");
+
+            byte[] image = null;
+            synchronized (serverInLock) {
+                len = getMessageLength();
+                if (expectKeepAlive) {
+                    while (len == 0) {
+                        //If zero length, this is a keep alive msg
+                        Logger.log(new LogEvent(this, "receive", "Zero length keep alive message received"));
+                        len = getMessageLength();
+                    }
+                }
+                hLen = getHeaderLength();
+                if (len <= 0 || len < hLen || len > getMaxPacketLength())
+                    throw new ISOException(
+                        "receive length " +len + " seems strange - maxPacketLength = " + getMaxPacketLength());
+                serverIn.readFully (rxbuf(len), 0, len);
+                if (hLen > 0) {
+                    header = new byte[hLen];
+                    System.arraycopy (rxbuf, 0, header, 0, hLen);
+                }
+                m.setPackager (getDynamicPackager(header, null));
+                m.setHeader (getDynamicHeader(header));
+                if (len > hLen && !shouldIgnore (header))  // Ignore NULL messages
+                    unpack (m, rxbuf, hLen, len - hLen);
+                if (hasFilters && hasRawIncomingFilters()) {
+                    image = new byte[len - hLen];
+                    System.arraycopy (rxbuf, hLen, image, 0, image.length);
+                }
+            }
+            m.setDirection(ISOMsg.INCOMING);
+            if (hasFilters) {
+                evt.addMessage (m);
+                m = applyIncomingFilters (m, header, image, evt);
+                m.setDirection(ISOMsg.INCOMING);
+            } else if (evt != null) {
+                evt.addMessage (m);
+            }
+            cnt[RX]++;
+            if (countObservers() > 0) {
+                setChanged();
+                notifyObservers(m);
+            }
+        } catch (ISOException e) {
+            evt = evt != null ? evt : new LogEvent (this, "receive");
+            evt.addMessage (e);
+            if (header != null) {
+                evt.addMessage ("--- header ---");
+                evt.addMessage (ISOUtil.hexdump (header));
+            }
+            if (len > hLen && rxbuf != null && len <= rxbuf.length) {
+                evt.addMessage ("--- data ---");
+                evt.addMessage (ISOUtil.hexdump (rxbuf, hLen, len - hLen));
+            }
+            throw e;
+        } catch (EOFException e) {
+            closeSocket();
+            evt = evt != null ? evt : new LogEvent (this, "receive");
+            evt.addMessage ("<peer-disconnect/>");
+            throw e;
+        } catch (SocketException e) {
+            closeSocket();
+            evt = evt != null ? evt : new LogEvent (this, "receive");
+            if (usable)
+                evt.addMessage ("<peer-disconnect>" + e.getMessage() + "</peer-disconnect>");
+            throw e;
+        } catch (InterruptedIOException e) {
+            closeSocket();
+            evt = evt != null ? evt : new LogEvent (this, "receive");
+            evt.addMessage ("<io-timeout/>");
+            throw e;
+        } catch (IOException e) {
+            closeSocket();
+            evt = evt != null ? evt : new LogEvent (this, "receive");
+            if (usable)
+                evt.addMessage (e);
+            throw e;
+        } catch (Exception e) {
+            closeSocket();
+            evt = evt != null ? evt : new LogEvent (this, "receive");
+            evt.addMessage (m);
+            evt.addMessage (e);
+            throw new IOException ("unexpected exception", e);
+        } finally {
+            if (evt != null)
+                Logger.log (evt);
+        }
+        return m;
+    }
+    /**
+     * @param size minimum size
+     * @return receive buffer, grown if necessary
+     */
+    private byte[] rxbuf (int size) {
+        if (rxbuf == null || rxbuf.length < size)
+            rxbuf = new byte[Math.max (size, rxbuf == null ? DEFAULT_RXBUF_SIZE : rxbuf.length << 1)];
+        return rxbuf;
+    }
+    private boolean hasRawIncomingFilters() {
+        for (int i=0; i<incomingFilters.size(); i++) {
+            if (incomingFilters.get(i) instanceof RawIncomingFilter)
+                return true;
+        }
+        return false;
+    }
+    /**
+     * Unpacks a frame read by an external I/O loop (see ISOServer's
+     * non-blocking mode), applying the same packager, header and
+     * filter logic used by {@link #receive()}.
+     * @param header message header (may be null)
+     * @param b message image, without length prefix nor header
+     * @return the Message received
+     * @throws ISOException
+     */
+    public ISOMsg receive (byte[] header, byte[] b) throws ISOException {
+        LogEvent evt = new LogEvent (this, "receive");
+        ISOMsg m = createMsg ();
+        m.setSource (this);
+        try {
+            m.setPackager (getDynamicPackager(header, b));
+            m.setHeader (getDynamicHeader(header));
+            if (b.length > 0 && !shouldIgnore (header))  // Ignore NULL messages
+                unpack (m, b);
+            m.setDirection(ISOMsg.INCOMING);
+            evt.addMessage (m);
+            m = applyIncomingFilters (m, header, b, evt);
+            m.setDirection(ISOMsg.INCOMING);
+            cnt[RX]++;
+            setChanged();
+            notifyObservers(m);
+        } catch (ISOException e) {
+            evt.addMessage (e);
+            if (header != null) {
+                evt.addMessage ("--- header ---");
+                evt.addMessage (ISOUtil.hexdump (header));
+            }
+            evt.addMessage ("--- data ---");
+            evt.addMessage (ISOUtil.hexdump (b));
+            throw e;
+        } finally {
+            Logger.log (evt);
+        }
+        return m;
+    }
+    /**
+     * Channels whose framing is a plain length prefix followed by an
+     * optional fixed-length header can be served by ISOServer's
+     * non-blocking mode.
+     * @return the wire length prefix, or null if this channel's framing
+     * can only be handled by its own stream based receive()
+     */
+    public Prefixer getLengthPrefixer() {
+        return null;
+    }
+    /**
+     * Called by ISOServer's non-blocking mode, which decodes frames with
+     * {@link #getLengthPrefixer()} instead of calling {@link #getMessageLength()},
+     * when a zero length prefix arrives.
+     * <p>
+     * Mirrors {@link #receive()}: zero length messages are keep-alives if
+     * <code>expect-keep-alive</code> is set. Channels whose getMessageLength()
+     * answers keep-alives should override this method the same way.
+     * @param prefix the length prefix as received
+     * @return true if the frame is a keep-alive to be skipped, false if zero length messages are unexpected
+     * @throws IOException on error
+     */
+    protected boolean keepAliveReceived (byte[] prefix) throws IOException {
+        if (expectKeepAlive)
+            Logger.log(new LogEvent(this, "receive", "Zero length keep alive message received"));
+        return expectKeepAlive;
+    }
     /**
      * Low level receive
      * @param b byte array
@@ -808,6 +1115,8 @@ public abstract class BaseChannel extends Observable
             usable = false;
             setChanged();
             notifyObservers();
+            if (writer != null)
+                writer.close(); // write what is queued while the socket is still open
             closeSocket();
             if (serverIn != null) {
                 try {
@@ -821,6 +1130,8 @@ public abstract class BaseChannel extends Observable
                 } catch (IOException ex) { evt.addMessage (ex); }
                 serverOut = null;
             }
+            rxbuf = null;
+            writer = null;
         } catch (IOException e) {
             evt.addMessage (e);
             Logger.log (evt);
@@ -967,6 +1278,9 @@ public abstract class BaseChannel extends Observable
     protected void unpack (ISOMsg m, byte[] b) throws ISOException {
         m.unpack (b);
     }
+    protected void unpack (ISOMsg m, byte[] b, int offset, int len) throws ISOException {
+        m.unpack (b, offset, len);
+    }
     protected byte[] pack (ISOMsg m) throws ISOException {
         return m.pack();
     }
@@ -978,6 +1292,17 @@ public abstract class BaseChannel extends Observable
     * <li>port - port number      (if ClientChannel)
     * <li>local-iface - local interfase to use (if ClientChannel)
     * <li>local-port - local port to bind (if ClientChannel)
+    * <li>zero-copy-receive - reuse a per channel receive buffer
+    *     (see {@link #setZeroCopyReceive(boolean)})
+    * <li>zero-copy-send - pack and frame outgoing messages in a pooled buffer
+    *     (see {@link #setZeroCopySend(boolean)})
+    * <li>coalesce-writes - queue outgoing messages to a single writer
+    *     (see {@link #setCoalesceWrites(boolean)})
+    * <li>max-batch-size - max messages per coalesced write (default 64)
+    * <li>max-linger - microseconds the writer waits for more messages (default 0)
+    * <li>max-queue-size - max messages waiting for the writer (default 1024)
+    * <li>message-pool - queue name of a recycling TransactionManager to take
+    *     incoming messages from (see {@link ContextPool})
     * </ul>
     * (host not present indicates a ServerChannel)
     *
@@ -1015,6 +1340,24 @@ public abstract class BaseChannel extends Observable
         keepAlive = cfg.getBoolean ("keep-alive", false);
         expectKeepAlive = cfg.getBoolean ("expect-keep-alive", false);
         roundRobin = cfg.getBoolean ("round-robin", false);
+        setCoalesceWrites (cfg.getBoolean ("coalesce-writes", false));
+        setMaxBatchSize (cfg.getInt ("max-batch-size", 64));
+        setMaxLinger (cfg.getLong ("max-linger", 0L));
+        setMaxQueueSize (cfg.getInt ("max-queue-size", 1024));
+        String pool = cfg.get ("message-pool", null);
+        messagePool = pool != null ? ContextPool.getPool (pool) : null;
+        if (cfg.getBoolean ("zero-copy-receive", false)) {
+            if (getLengthPrefixer() == null)
+                throw new ConfigurationException (
+                    "zero-copy-receive not supported by " + getClass().getName());
+            setZeroCopyReceive (true);
+        }
+        if (cfg.getBoolean ("zero-copy-send", false)) {
+            if (getLengthPrefixer() == null)
+                throw new ConfigurationException (
+                    "zero-copy-send not supported by " + getClass().getName());
+            setZeroCopySend (true);
+        }
         if (socketFactory != this && socketFactory instanceof Configurable)
             ((Configurable)socketFactory).setConfiguration (cfg);
         try {
@@ -1083,6 +1426,95 @@ public abstract class BaseChannel extends Observable
     public void setSocketFactory(ISOClientSocketFactory socketFactory) {
         this.socketFactory = socketFactory;
     }
+    /**
+     * Enables zero-copy receive: messages are read into a reusable
+     * per channel buffer and unpacked in place.
+     * <p>
+     * Only available on channels with a plain length prefix (see
+     * {@link #getLengthPrefixer()}). The length is still read by
+     * {@link #getMessageLength()}, so keep-alives are handled as in
+     * {@link #receive()}. In this mode
+     * {@link #getDynamicPackager(byte[], byte[])} is called with
+     * a null image.
+     * @param zeroCopyReceive true to enable
+     */
+    public void setZeroCopyReceive (boolean zeroCopyReceive) {
+        this.zeroCopyReceive = zeroCopyReceive;
+    }
+    public boolean isZeroCopyReceive () {
+        return zeroCopyReceive;
+    }
+    /**
+     * Enables zero-copy send: length prefix, header and packed image are
+     * written into a pooled per channel buffer and sent with a single write.
+     * <p>
+     * Only available on channels with a plain length prefix (see
+     * {@link #getLengthPrefixer()}). In this mode {@link #pack(ISOMsg)},
+     * the <code>sendMessage*</code> methods and message trailers are
+     * bypassed; the header is taken from {@link #getOutgoingHeader(ISOMsg)}.
+     * @param zeroCopySend true to enable
+     */
+    public void setZeroCopySend (boolean zeroCopySend) {
+        this.zeroCopySend = zeroCopySend;
+    }
+    public boolean isZeroCopySend () {
+        return zeroCopySend;
+    }
+    /**
+     * Enables write coalescing, taking effect on the next connect.
+     * <p>
+     * In this mode {@link #send(ISOMsg)} frames the message into memory
+     * and queues it; a per channel writer thread drains the queue and
+     * writes up to {@link #setMaxBatchSize(int) max-batch-size} frames
+     * with a single (gathering, if the socket has a SocketChannel) write.
+     * Write errors are logged and close the socket, so they surface on
+     * the next send or receive instead of on the send call itself.
+     * When {@link #setMaxQueueSize(int) max-queue-size} messages are
+     * waiting, send blocks until the writer catches up. Messages still
+     * queued on disconnect are written before the socket is closed.
+     * @param coalesceWrites true to enable
+     */
+    public void setCoalesceWrites (boolean coalesceWrites) {
+        this.coalesceWrites = coalesceWrites;
+    }
+    public boolean isCoalesceWrites () {
+        return coalesceWrites;
+    }
+    /**
+     * @param maxBatchSize max number of messages per coalesced write
+     */
+    public void setMaxBatchSize (int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+    public int getMaxBatchSize () {
+        return maxBatchSize;
+    }
+    /**
+     * @param maxLinger microseconds the writer waits for more messages
+     * before writing an incomplete batch (0 writes whatever is queued)
+     */
+    public void setMaxLinger (long maxLinger) {
+        this.maxLinger = maxLinger;
+    }
+    public long getMaxLinger () {
+        return maxLinger;
+    }
+    /**
+     * @param maxQueueSize max number of messages waiting for the coalescing
+     * writer; send blocks while the queue is full
+     */
+    public void setMaxQueueSize (int maxQueueSize) {
+        this.maxQueueSize = maxQueueSize;
+    }
+    public int getMaxQueueSize () {
+        return maxQueueSize;
+    }
+    /**
+     * @return current coalescing writer (null if not connected or coalescing disabled)
+     */
+    CoalescingWriter getCoalescingWriter() {
+        return writer;
+    }
     public int getMaxPacketLength() {
         return maxPacketLength;
     }
@@ -1128,6 +1560,8 @@ public abstract class BaseChannel extends Observable
             channel.serverOutLock = new Object();
             channel.serverIn = null;
             channel.serverOut = null;
+            channel.rxbuf = null;
+            channel.writer = null;
             channel.usable = false;
             channel.socket = null;
             return channel;
@@ -0,0 +1,248 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2017 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.iso;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.jpos.util.LogEvent;
+import org.jpos.util.Logger;
+
+/**
+ * Outbound queue and single writer used by {@link BaseChannel} when
+ * write coalescing is enabled.
+ * <p>
+ * Senders only frame their message into memory (see {@link #getOutputStream()});
+ * the writer thread drains up to <code>maxBatch</code> pending frames,
+ * optionally lingering up to <code>maxLinger</code> microseconds for more,
+ * and writes them with a single gathering write when the socket has an
+ * associated {@link SocketChannel}, or a single stream write otherwise.
+ * The channel, if any, has to be in blocking mode.
+ * <p>
+ * At most <code>maxQueueSize</code> frames are held; further senders block
+ * until the writer catches up, or fail if the writer goes away.
+ * {@link #close()} writes the frames still queued before returning, and
+ * logs the ones that could not be written.
+ *
+ * @see BaseChannel#setCoalesceWrites(boolean)
+ */
+class CoalescingWriter implements Runnable {
+    private final BaseChannel channel;
+    private final Socket socket;
+    private final SocketChannel gch;
+    private final OutputStream out;
+    private static final long POLL_MILLIS  = 100L;
+    private static final long CLOSE_MILLIS = 5000L;
+
+    private final BlockingQueue<ByteBuffer> queue;
+    private final ByteBuffer[] batch;
+    private final long maxLingerNanos;
+    private final FrameCollector collector = new FrameCollector();
+    private byte[] buf;
+    private volatile boolean running = true;
+    private volatile long frames;
+    private volatile long writes;
+    private Thread thread;
+
+    CoalescingWriter (BaseChannel channel, Socket socket, int maxBatch, long maxLinger, int maxQueueSize)
+        throws IOException
+    {
+        this.channel = channel;
+        this.socket  = socket;
+        this.gch     = socket.getChannel();
+        if (gch != null && !gch.isBlocking())
+            throw new IOException ("socket channel is in non-blocking mode");
+        this.out     = gch == null ? socket.getOutputStream() : null;
+        this.batch   = new ByteBuffer[Math.max (1, maxBatch)];
+        this.queue   = new ArrayBlockingQueue<> (Math.max (1, maxQueueSize));
+        this.maxLingerNanos = TimeUnit.MICROSECONDS.toNanos (maxLinger);
+    }
+
+    /**
+     * @return stream used as the channel's serverOut, every flush enqueues a frame
+     */
+    OutputStream getOutputStream() {
+        return collector;
+    }
+
+    void start() {
+        thread = new Thread (this, "coalescing-writer " + socket.getRemoteSocketAddress());
+        thread.setDaemon (true);
+        thread.start();
+    }
+
+    /**
+     * Stops accepting frames and waits (up to 5 seconds) for the writer
+     * to write the ones already queued. Frames left behind are discarded
+     * and logged.
+     */
+    void close() {
+        running = false;
+        if (thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join (CLOSE_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (thread.isAlive())
+                thread.interrupt();
+        }
+        discard();
+    }
+
+    /**
+     * @return number of frames waiting to be written
+     */
+    int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     * @return number of frames written
+     */
+    long getFrameCount() {
+        return frames;
+    }
+
+    /**
+     * @return number of (gathering) write calls issued
+     */
+    long getWriteCount() {
+        return writes;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while ((running || !queue.isEmpty()) && !socket.isClosed()) {
+                ByteBuffer first = queue.poll (POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null)
+                    continue;
+                int n = 0;
+                batch[n++] = first;
+                long deadline = System.nanoTime() + maxLingerNanos;
+                while (n < batch.length) {
+                    ByteBuffer b = queue.poll();
+                    if (b == null && maxLingerNanos > 0) {
+                        long wait = deadline - System.nanoTime();
+                        if (wait > 0)
+                            b = queue.poll (wait, TimeUnit.NANOSECONDS);
+                    }
+                    if (b == null)
+                        break;
+                    batch[n++] = b;
+                }
+                write (n);
+                Arrays.fill (batch, 0, n, null);
+            }
+        } catch (InterruptedException e) {
+            // closed
+        } catch (IOException e) {
+            if (running) {
+                Logger.log (new LogEvent (channel, "send", e));
+                try {
+                    channel.closeSocket();
+                } catch (IOException ignored) {
+                    // already closed
+                }
+            }
+        } finally {
+            running = false;
+            discard();
+        }
+    }
+
+    private void discard() {
+        int n = queue.size();
+        if (n > 0) {
+            queue.clear();
+            Logger.log (new LogEvent (channel, "send", "writer closed, " + n + " pending frame(s) discarded"));
+        }
+    }
+
+    private void write (int n) throws IOException {
+        long len = 0L;
+        for (int i=0; i<n; i++)
+            len += batch[i].remaining();
+        if (gch != null) {
+            while (len > 0) {
+                long l = gch.write (batch, 0, n);
+                if (l == 0 && !gch.isBlocking())
+                    throw new IOException ("socket channel is in non-blocking mode");
+                len -= l;
+            }
+        } else {
+            if (buf == null || buf.length < len)
+                buf = new byte[(int) len];
+            int k = 0;
+            for (int i=0; i<n; i++) {
+                int l = batch[i].remaining();
+                batch[i].get (buf, k, l);
+                k += l;
+            }
+            out.write (buf, 0, k);
+            out.flush ();
+        }
+        frames += n;
+        writes++;
+    }
+
+    /**
+     * Collects a whole message (length, header, image, trailer)
+     * and enqueues it on flush.
+     */
+    class FrameCollector extends ByteArrayOutputStream {
+        FrameCollector () {
+            super (256);
+        }
+        @Override
+        public void flush() throws IOException {
+            if (count == 0)
+                return;
+            if (!running)
+                throw new IOException ("writer closed");
+            ByteBuffer frame = ByteBuffer.wrap (toByteArray());
+            reset();
+            try {
+                while (!queue.offer (frame, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    if (!running)
+                        throw new IOException ("writer closed");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException ("interrupted waiting for writer queue");
+            }
+            if (!running && queue.remove (frame))
+                throw new IOException ("writer closed");
+        }
+        @Override
+        public void close() {
+            CoalescingWriter.this.close();
+        }
+    }
+}
@@ -0,0 +1,508 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2017 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jpos.iso;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Base class for packagers generated by {@link PackagerCompiler}.
+ * <p>
+ * Handles header and bitmap, holding the primary and secondary bitmaps
+ * as two <code>long</code>s, and delegates field 0 and the data elements
+ * to straight-line code generated for the source packager's field
+ * definitions. The static helpers below are what that code calls, one
+ * per prefixer, padder and interpreter it knows how to inline.
+ * <p>
+ * Messages the generated code can't handle as is (a logger that would
+ * get the per field unpack trace, fields above 128, a non ISOMsg
+ * component) go through the interpreted {@link ISOBasePackager} code
+ * with the same field packagers, so the result is always the same.
+ *
+ * @see PackagerCompiler#compile(ISOBasePackager)
+ */
+public abstract class CompiledPackager extends ISOBasePackager {
+    static final int BINARY_BITMAP = 0;
+    static final int HEX_BITMAP    = 1;
+
+    private static final int MAX_CACHED_BUFFER = 65536;
+    private static final ThreadLocal<ByteBuffer> BUFFER = new ThreadLocal<>();
+    private static final char[] BCD = "0123456789ABC=EF".toCharArray();
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(ISOUtil.CHARSET);
+
+    private String description;
+    private int bitmapType;
+    private int bitmapLength;
+    private long definedPrimary;
+    private long definedSecondary;
+    private long undefinedPrimary;
+    private long undefinedSecondary;
+
+    /**
+     * Takes over <code>source</code>'s field packagers and settings.
+     */
+    void init (ISOBasePackager source, int bitmapType) {
+        setFieldPackager (source.fld);
+        setHeaderLength (source.getHeaderLength());
+        setLogger (source.getLogger(), source.getRealm());
+        this.description = source.getDescription();
+        this.bitmapType = bitmapType;
+        this.bitmapLength = fld[1].getLength();
+        definedPrimary = Long.MIN_VALUE; // field 1 is the bitmap itself
+        for (int i=2; i<=128; i++) {
+            long mask = mask (i);
+            boolean defined = i < fld.length && fld[i] != null;
+            if (i <= 64) {
+                definedPrimary |= defined ? mask : 0L;
+                undefinedPrimary |= !defined && i < fld.length ? mask : 0L;
+            } else {
+                definedSecondary |= defined ? mask : 0L;
+                undefinedSecondary |= !defined && i < fld.length ? mask : 0L;
+            }
+        }
+    }
+
+    /**
+     * Packs field 0 (MTI).
+     */
+    protected abstract void packMTI (ISOMsg m, ByteBuffer buf) throws ISOException;
+
+    /**
+     * Packs data elements 2 to 128 present in the primary (<code>p</code>)
+     * and secondary (<code>s</code>) bitmaps.
+     */
+    protected abstract void packFields (ISOMsg m, long p, long s, ByteBuffer buf) throws ISOException;
+
+    /**
+     * Unpacks field 0 (MTI).
+     * @return new position
+     */
+    protected abstract int unpackMTI (ISOMsg m, byte[] b, int offset, int end, int pos) throws ISOException;
+
+    /**
+     * Unpacks data elements 2 to 128 present in the primary (<code>p</code>)
+     * and secondary (<code>s</code>) bitmaps.
+     * @return new position
+     */
+    protected abstract int unpackFields (ISOMsg m, byte[] b, int offset, int end, int pos, long p, long s)
+      throws ISOException;
+
+    @Override
+    public byte[] pack (ISOComponent c) throws ISOException {
+        if (!isCompilable (c))
+            return super.pack (c);
+        ISOMsg m = (ISOMsg) c;
+        ISOComponent bitmap = m.getComponent (-1);
+        if (bitmap == null || ((BitSet) bitmap.getValue()).length() > 129)
+            return super.pack (c);
+        // taken out of the ThreadLocal while in use, nested packagers get their own
+        ByteBuffer buf = BUFFER.get();
+        if (buf != null)
+            BUFFER.set (null);
+        else
+            buf = ByteBuffer.allocate (4096);
+        try {
+            for (;;) {
+                buf.clear();
+                try {
+                    write (m, (BitSet) bitmap.getValue(), buf);
+                    return Arrays.copyOf (buf.array(), buf.position());
+                } catch (BufferOverflowException e) {
+                    buf = ByteBuffer.allocate (buf.capacity() << 1);
+                }
+            }
+        } finally {
+            if (buf.capacity() <= MAX_CACHED_BUFFER)
+                BUFFER.set (buf);
+        }
+    }
+
+    @Override
+    public int pack (ISOComponent c, ByteBuffer buf) throws ISOException {
+        if (!isCompilable (c) || !buf.hasArray())
+            return super.pack (c, buf);
+        ISOMsg m = (ISOMsg) c;
+        ISOComponent bitmap = m.getComponent (-1);
+        if (bitmap == null || ((BitSet) bitmap.getValue()).length() > 129)
+            return super.pack (c, buf);
+        int start = buf.position();
+        try {
+            write (m, (BitSet) bitmap.getValue(), buf);
+        } catch (BufferOverflowException e) {
+            buf.position (start);
+            throw e;
+        }
+        return buf.position() - start;
+    }
+
+    @Override
+    public int unpack (ISOComponent c, byte[] b, int offset, int len) throws ISOException {
+        if (logger != null || !(c instanceof ISOMsg))
+            return super.unpack (c, b, offset, len);
+        ISOMsg m = (ISOMsg) c;
+        int pos = offset;
+        int end = offset + len; // b may hold stale data past the image
+        try {
+            if (headerLength > 0) {
+                need (pos, headerLength, end);
+                m.setHeader (Arrays.copyOfRange (b, pos, pos + headerLength));
+                pos += headerLength;
+            }
+            pos = unpackMTI (m, b, offset, end, pos);
+
+            long p, s = 0L;
+            if (bitmapType == BINARY_BITMAP) {
+                need (pos, 8, end);
+                p = getLong (b, pos);
+                pos += 8;
+                if (bitmapLength > 8 && p < 0L) {
+                    need (pos, 8, end);
+                    s = getLong (b, pos);
+                    pos += 8;
+                }
+            } else {
+                need (pos, 16, end);
+                p = getHexLong (b, pos);
+                pos += 16;
+                if (bitmapLength > 8 && p < 0L) {
+                    need (pos, 16, end);
+                    s = getHexLong (b, pos);
+                    pos += 16;
+                }
+            }
+            long rp = Long.reverse (p);
+            long rs = Long.reverse (s);
+            m.set (new ISOBitMap (-1, BitSet.valueOf (new long[] { rp << 1, rp >>> 63 | rs << 1, rs >>> 63 })));
+
+            long undefined = p & undefinedPrimary;
+            if (undefined == 0L)
+                undefined = s & undefinedSecondary;
+            if (undefined != 0L)
+                throw new ISOException (String.format ("field packager '%d' is null unpacking field=%1$d, consumed=%d",
+                  (p & undefinedPrimary) != 0L ? fieldNumber (undefined, 0) : fieldNumber (undefined, 64),
+                  pos - offset));
+            return unpackFields (m, b, offset, end, pos, p & definedPrimary, s & definedSecondary) - offset;
+        } catch (ISOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ISOException (e.getMessage() + " consumed=" + (pos - offset));
+        }
+    }
+
+    @Override
+    protected boolean emitBitMap () {
+        return true;
+    }
+
+    @Override
+    public String getDescription () {
+        return getClass().getName() + "[" + description + "]";
+    }
+
+    private boolean isCompilable (ISOComponent c) {
+        return c instanceof ISOMsg && (logger == null || !logger.hasListeners());
+    }
+
+    private void write (ISOMsg m, BitSet bmap, ByteBuffer buf) throws ISOException {
+        long[] w = bmap.toLongArray();
+        long w0 = w.length > 0 ? w[0] : 0L;
+        long w1 = w.length > 1 ? w[1] : 0L;
+        long w2 = w.length > 2 ? w[2] : 0L;
+        long p = Long.reverse (w0 >>> 1 | w1 << 63);
+        long s = Long.reverse (w1 >>> 1 | w2 << 63);
+        int bytes = bmap.length() + 62 >> 6 << 3;
+        if (bytes > 8)
+            p |= Long.MIN_VALUE;
+        else
+            s = 0L;
+
+        long undefined = p & ~definedPrimary;
+        if (undefined == 0L)
+            undefined = s & ~definedSecondary;
+        if (undefined != 0L) {
+            int i = (p & ~definedPrimary) != 0L ? fieldNumber (undefined, 0) : fieldNumber (undefined, 64);
+            throw new ISOException ("error packing field " + i, new ISOException ("null field " + i + " packager"));
+        }
+
+        if (headerLength > 0 && m.getHeader() != null)
+            buf.put (m.getHeader());
+        if (m.getComponent (0) != null)
+            packMTI (m, buf);
+        if (bitmapType == BINARY_BITMAP) {
+            if (bytes > 0)
+                putLong (buf, p);
+            if (bytes > 8)
+                putLong (buf, s);
+        } else {
+            if (bytes > 0)
+                putHexLong (buf, p);
+            if (bytes > 8)
+                putHexLong (buf, s);
+        }
+        packFields (m, p, s, buf);
+    }
+
+    /**
+     * @return bit corresponding to field <code>i</code> in its (primary or secondary) bitmap
+     */
+    static long mask (int i) {
+        return 1L << (i <= 64 ? 64 - i : 128 - i);
+    }
+
+    private static int fieldNumber (long bits, int base) {
+        return base + Long.numberOfLeadingZeros (bits) + 1;
+    }
+
+    private static long getLong (byte[] b, int pos) {
+        long l = 0L;
+        for (int i=0; i<8; i++)
+            l = l << 8 | b[pos + i] & 0xFF;
+        return l;
+    }
+
+    private static long getHexLong (byte[] b, int pos) {
+        long l = 0L;
+        for (int i=0; i<16; i++)
+            l = l << 4 | Character.digit ((char) b[pos + i], 16) & 0x0F;
+        return l;
+    }
+
+    private static void putLong (ByteBuffer buf, long l) {
+        ensure (buf, 8);
+        byte[] d = buf.array();
+        int off = buf.arrayOffset() + buf.position();
+        for (int i=7; i>=0; i--, l >>>= 8)
+            d[off + i] = (byte) l;
+        buf.position (buf.position() + 8);
+    }
+
+    private static void putHexLong (ByteBuffer buf, long l) {
+        ensure (buf, 16);
+        byte[] d = buf.array();
+        int off = buf.arrayOffset() + buf.position();
+        for (int i=15; i>=0; i--, l >>>= 4)
+            d[off + i] = HEX[(int) l & 0x0F];
+        buf.position (buf.position() + 16);
+    }
+
+    private static void ensure (ByteBuffer buf, int len) {
+        if (buf.remaining() < len)
+            throw new BufferOverflowException();
+    }
+
+    // ------------------------------------------------- generated code helpers
+
+    /**
+     * @return field value as a String, checked against <code>maxLength</code>
+     */
+    protected static String str (ISOComponent c, int maxLength) throws ISOException {
+        Object v = c.getValue();
+        String s;
+        if (v instanceof byte[])
+            s = new String ((byte[]) v, ISOUtil.CHARSET); // transparent handling of complex fields
+        else if (v instanceof String)
+            s = (String) v;
+        else
+            throw new ISOException ("Invalid value " + v);
+        if (s.length() > maxLength)
+            throw new ISOException ("Field length " + s.length() + " too long. Max: " + maxLength);
+        return s;
+    }
+
+    /**
+     * @return field value as a byte[], checked against <code>length</code> when <code>fixed</code>
+     */
+    protected static byte[] bytes (ISOComponent c, int length, boolean fixed) throws ISOException {
+        byte[] d = c.getBytes();
+        if (d == null)
+            throw new ISOException ("Invalid null value");
+        if (fixed && d.length != length)
+            throw new ISOException ("Binary data length not the same as the packager length (" + d.length + "/" + length + ")");
+        return d;
+    }
+
+    protected static String padLeft (String s, int length, char pad) {
+        int n = length - s.length();
+        if (n <= 0)
+            return s;
+        char[] c = new char[length];
+        Arrays.fill (c, 0, n, pad);
+        s.getChars (0, s.length(), c, n);
+        return new String (c);
+    }
+
+    protected static String padRight (String s, int length, char pad) {
+        int n = s.length();
+        if (n >= length)
+            return s;
+        char[] c = new char[length];
+        s.getChars (0, n, c, 0);
+        Arrays.fill (c, n, length, pad);
+        return new String (c);
+    }
+
+    protected static void asciiLength (ByteBuffer buf, int len, int digits) throws ISOException {
+        ensure (buf, digits);
+        byte[] d = buf.array();
+        int off = buf.arrayOffset() + buf.position();
+        int n = len;
+        for (int i=digits-1; i>=0; i--, n /= 10)
+            d[off + i] = (byte) (n % 10 + '0');
+        if (n != 0)
+            throw new ISOException ("invalid len " + len + ". Prefixing digits = " + digits);
+        buf.position (buf.position() + digits);
+    }
+
+    protected static void bcdLength (ByteBuffer buf, int len, int bytes) {
+        ensure (buf, bytes);
+        byte[] d = buf.array();
+        int off = buf.arrayOffset() + buf.position();
+        for (int i=bytes-1; i>=0; i--, len /= 100) {
+            int twoDigits = len % 100;
+            d[off + i] = (byte) ((twoDigits / 10 << 4) + twoDigits % 10);
+        }
+        buf.position (buf.position() + bytes);
+    }
+
+    protected static void binaryLength (ByteBuffer buf, int len, int bytes) {
+        ensure (buf, bytes);
+        byte[] d = buf.array();
+        int off = buf.arrayOffset() + buf.position();
+        for (int i=bytes-1; i>=0; i--, len >>= 8)
+            d[off + i] = (byte) len;
+        buf.position (buf.position() + bytes);
+    }
+
+    protected static void ascii (ByteBuffer buf, String s) {
+        int len = s.length();
+        ensure (buf, len);
+        byte[] d = buf.array();
+        int off = buf.arrayOffset() + buf.position();
+        for (int i=0; i<len; i++) {
+            char c = s.charAt (i);
+            d[off + i] = c > 0xFF ? (byte) '?' : (byte) c;
+        }
+        buf.position (buf.position() + len);
+    }
+
+    protected static void ebcdic (ByteBuffer buf, String s) {
+        ensure (buf, s.length());
+        ISOUtil.asciiToEbcdic (s, buf.array(), buf.arrayOffset() + buf.position());
+        buf.position (buf.position() + s.length());
+    }
+
+    protected static void bcd (ByteBuffer buf, String s, boolean padLeft, boolean padF) {
+        int len = s.length();
+        int bytes = len + 1 >> 1;
+        ensure (buf, bytes);
+        byte[] d = buf.array();
+        int off = buf.arrayOffset() + buf.position();
+        Arrays.fill (d, off, off + bytes, (byte) 0);
+        int start = (len & 1) == 1 && padLeft ? 1 : 0;
+        for (int i=start; i < len+start; i++)
+            d[off + (i >> 1)] |= s.charAt (i-start) - '0' << ((i & 1) == 1 ? 0 : 4);
+        if (padF && (len & 1) == 1) {
+            if (padLeft)
+                d[off] |= (byte) 0xF0;
+            else
+                d[off + (len >> 1)] |= (byte) 0x0F;
+        }
+        buf.position (buf.position() + bytes);
+    }
+
+    protected static void binary (ByteBuffer buf, byte[] b) {
+        buf.put (b);
+    }
+
+    /**
+     * @throws IndexOutOfBoundsException if <code>n</code> bytes from <code>pos</code> go past <code>end</code>
+     */
+    protected static void need (int pos, int n, int end) {
+        if (pos + n > end)
+            throw new IndexOutOfBoundsException (
+              String.format ("Required %d but just got %d bytes", n, end - pos)
+            );
+    }
+
+    protected static int asciiLength (byte[] b, int pos, int digits, int end) {
+        need (pos, digits, end);
+        int len = 0;
+        for (int i=0; i<digits; i++)
+            len = len * 10 + b[pos + i] - '0';
+        return len;
+    }
+
+    protected static int bcdLength (byte[] b, int pos, int bytes, int end) {
+        need (pos, bytes, end);
+        int len = 0;
+        for (int i=0; i<bytes; i++)
+            len = 100 * len + ((b[pos + i] & 0xF0) >> 4) * 10 + (b[pos + i] & 0x0F);
+        return len;
+    }
+
+    protected static int binaryLength (byte[] b, int pos, int bytes, int end) {
+        need (pos, bytes, end);
+        int len = 0;
+        for (int i=0; i<bytes; i++)
+            len = 256 * len + (b[pos + i] & 0xFF);
+        return len;
+    }
+
+    protected static void checkLength (int len, int maxLength) throws ISOException {
+        if (maxLength > 0 && len > maxLength)
+            throw new ISOException ("Field length " + len + " too long. Max: " + maxLength);
+    }
+
+    protected static String ascii (byte[] b, int pos, int len, int end) {
+        need (pos, len, end);
+        return new String (b, pos, len, ISOUtil.CHARSET);
+    }
+
+    protected static String ebcdic (byte[] b, int pos, int len, int end) {
+        need (pos, len, end);
+        return ISOUtil.ebcdicToAscii (b, pos, len);
+    }
+
+    protected static String bcd (byte[] b, int pos, int len, boolean padLeft, int end) {
+        need (pos, (len + 1) / 2, end);
+        char[] c = new char[len];
+        int start = (len & 1) == 1 && padLeft ? 1 : 0;
+        for (int i=start; i < len+start; i++)
+            c[i-start] = BCD[b[pos + (i >> 1)] >> ((i & 1) == 1 ? 0 : 4) & 0x0F];
+        return new String (c);
+    }
+
+    protected static byte[] binary (byte[] b, int pos, int len, int end) {
+        need (pos, len, end);
+        byte[] d = new byte[len];
+        System.arraycopy (b, pos, d, 0, len);
+        return d;
+    }
+
+    protected static ISOException packError (int i, ISOException e) {
+        return new ISOException ("error packing field " + i, e);
+    }
+
+    protected static ISOException unpackError (int i, int consumed, Exception e) {
+        return new ISOException (String.format ("%s unpacking field=%d, consumed=%d", e.getMessage(), i, consumed));
+    }
+}
@@ -58,10 +58,16 @@ public class EbcdicPrefixer implements Prefixer
 
     @Override
     public void encodeLength(int length, byte[] b)
+    {
+        encodeLength(length, b, 0);
+    }
+
+    @Override
+    public void encodeLength(int length, byte[] b, int offset)
     {
         for (int i = nDigits - 1; i >= 0; i--)
         {
-            b[i] = EBCDIC_DIGITS[length % 10];
+            b[offset + i] = EBCDIC_DIGITS[length % 10];
             length /= 10;
         }
     }
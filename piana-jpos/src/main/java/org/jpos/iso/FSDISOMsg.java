@@ -22,6 +22,7 @@ import org.jpos.util.FSDMsg;
 import org.jdom2.JDOMException;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.Iterator;
 import java.util.Map;
 
@@ -44,6 +45,12 @@ public class FSDISOMsg extends ISOMsg implements Cloneable  {
             throw new ISOException (e);
         }
     }
+    @Override
+    public int pack (ByteBuffer buf) throws ISOException {
+        byte[] b = pack();
+        buf.put (b);
+        return b.length;
+    }
     public int unpack(byte[] b) throws ISOException {
         try {
             fsd.unpack (b);
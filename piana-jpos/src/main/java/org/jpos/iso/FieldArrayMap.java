@@ -0,0 +1,331 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2017 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.iso;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Compact {@link ISOMsg} field storage.
+ * <p>
+ * Fields 0 to 192 are kept in an array indexed by field number along with
+ * a three word presence bitmap (bit <i>n-1</i> stands for field <i>n</i>),
+ * so that get, put, remove and in-order traversal neither box keys nor
+ * allocate entries, and cloning is just a couple of array copies.
+ * The bitmap (field -1) has its own slot; any other field number goes to
+ * an overflow TreeMap. Iteration order matches a TreeMap's.
+ *
+ * @see ISOMsg#setCompact(boolean)
+ */
+class FieldArrayMap extends AbstractMap<Integer,Object> implements Cloneable {
+    static final int SLOTS = 193;
+    static final int BITMAP = -1;
+    private static final long NONE = Long.MAX_VALUE;
+
+    private Object[] slots = new Object[SLOTS];
+    private long[] present = new long[3];
+    private boolean hasMTI;
+    private boolean hasBitmap;
+    private Object bitmap;
+    private TreeMap<Integer,Object> overflow;
+    private int size;
+    private Set<Map.Entry<Integer,Object>> entrySet;
+
+    FieldArrayMap () {
+        super();
+    }
+
+    FieldArrayMap (Map<Integer,Object> m) {
+        this();
+        putAll (m);
+    }
+
+    boolean contains (int fldno) {
+        if (fldno > 0 && fldno < SLOTS)
+            return (present[(fldno-1) >> 6] & 1L << (fldno-1)) != 0;
+        else if (fldno == 0)
+            return hasMTI;
+        else if (fldno == BITMAP)
+            return hasBitmap;
+        return overflow != null && overflow.containsKey (fldno);
+    }
+
+    /**
+     * @param word 0 (fields 1-64), 1 (65-128) or 2 (129-192)
+     * @return presence bits of that word
+     */
+    long present (int word) {
+        return present[word];
+    }
+
+    Object get (int fldno) {
+        if (fldno >= 0 && fldno < SLOTS)
+            return slots[fldno];
+        else if (fldno == BITMAP)
+            return bitmap;
+        return overflow != null ? overflow.get (fldno) : null;
+    }
+
+    Object put (int fldno, Object value) {
+        Object old;
+        if (fldno >= 0 && fldno < SLOTS) {
+            if (!contains (fldno)) {
+                size++;
+                if (fldno == 0)
+                    hasMTI = true;
+                else
+                    present[(fldno-1) >> 6] |= 1L << (fldno-1);
+            }
+            old = slots[fldno];
+            slots[fldno] = value;
+        } else if (fldno == BITMAP) {
+            if (!hasBitmap) {
+                size++;
+                hasBitmap = true;
+            }
+            old = bitmap;
+            bitmap = value;
+        } else {
+            if (overflow == null)
+                overflow = new TreeMap<>();
+            if (!overflow.containsKey (fldno))
+                size++;
+            old = overflow.put (fldno, value);
+        }
+        return old;
+    }
+
+    Object remove (int fldno) {
+        if (!contains (fldno))
+            return null;
+        Object old;
+        if (fldno >= 0 && fldno < SLOTS) {
+            if (fldno == 0)
+                hasMTI = false;
+            else
+                present[(fldno-1) >> 6] &= ~(1L << (fldno-1));
+            old = slots[fldno];
+            slots[fldno] = null;
+        } else if (fldno == BITMAP) {
+            hasBitmap = false;
+            old = bitmap;
+            bitmap = null;
+        } else {
+            old = overflow.remove (fldno);
+        }
+        size--;
+        return old;
+    }
+
+    /**
+     * @param from first field number to consider (1 to 192)
+     * @return lowest field number greater or equal than <code>from</code> within 1..192, or -1
+     */
+    int nextField (int from) {
+        int bit = Math.max (from, 1) - 1;
+        int w = bit >> 6;
+        if (w >= present.length)
+            return -1;
+        long word = present[w] & -1L << bit;
+        for (;;) {
+            if (word != 0)
+                return (w << 6) + Long.numberOfTrailingZeros (word) + 1;
+            if (++w == present.length)
+                return -1;
+            word = present[w];
+        }
+    }
+
+    /**
+     * @return highest field number, Integer.MIN_VALUE if empty
+     */
+    int maxField () {
+        if (overflow != null && !overflow.isEmpty() && overflow.lastKey() > 0)
+            return overflow.lastKey();
+        for (int w = present.length-1; w >= 0; w--)
+            if (present[w] != 0)
+                return (w << 6) + 64 - Long.numberOfLeadingZeros (present[w]);
+        if (hasMTI)
+            return 0;
+        if (hasBitmap)
+            return BITMAP;
+        return overflow != null && !overflow.isEmpty() ? overflow.lastKey() : Integer.MIN_VALUE;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean containsKey (Object key) {
+        return key instanceof Integer && contains ((Integer) key);
+    }
+
+    @Override
+    public Object get (Object key) {
+        return key instanceof Integer ? get (((Integer) key).intValue()) : null;
+    }
+
+    @Override
+    public Object put (Integer key, Object value) {
+        return put (key.intValue(), value);
+    }
+
+    @Override
+    public Object remove (Object key) {
+        return key instanceof Integer ? remove (((Integer) key).intValue()) : null;
+    }
+
+    @Override
+    public void clear() {
+        // arrays are kept, a cleared message can be reused without allocating
+        Arrays.fill (slots, null);
+        Arrays.fill (present, 0L);
+        hasMTI = hasBitmap = false;
+        bitmap = null;
+        overflow = null;
+        size = 0;
+    }
+
+    @Override
+    public Set<Map.Entry<Integer,Object>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Map.Entry<Integer,Object>>() {
+                @Override
+                public Iterator<Map.Entry<Integer,Object>> iterator() {
+                    return new EntryIterator();
+                }
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public FieldArrayMap clone() {
+        try {
+            FieldArrayMap m = (FieldArrayMap) super.clone();
+            m.slots = slots.clone();
+            m.present = present.clone();
+            if (overflow != null)
+                m.overflow = (TreeMap<Integer,Object>) overflow.clone();
+            m.entrySet = null;
+            return m;
+        } catch (CloneNotSupportedException e) {
+            throw new InternalError();
+        }
+    }
+
+    /**
+     * @return a clone where inner messages are cloned as well
+     */
+    FieldArrayMap deepClone() {
+        FieldArrayMap m = clone();
+        for (int i = nextField (1); i > 0; i = nextField (i+1))
+            if (slots[i] instanceof ISOMsg)
+                m.slots[i] = ((ISOMsg) slots[i]).clone();
+        if (m.overflow != null) {
+            for (Map.Entry<Integer,Object> e : m.overflow.entrySet())
+                if (e.getValue() instanceof ISOMsg)
+                    e.setValue (((ISOMsg) e.getValue()).clone());
+        }
+        return m;
+    }
+
+    /**
+     * @return lowest field number greater than k, or NONE
+     */
+    private long higherKey (long k) {
+        if (k < BITMAP) {
+            if (overflow != null && !overflow.isEmpty()) {
+                Integer o = k < Integer.MIN_VALUE ? overflow.firstKey() : overflow.higherKey ((int) k);
+                if (o != null && o < BITMAP)
+                    return o;
+            }
+            if (hasBitmap)
+                return BITMAP;
+        }
+        if (k < 0 && hasMTI)
+            return 0;
+        int n = nextField ((int) Math.max (k + 1, 1));
+        if (n > 0)
+            return n;
+        if (overflow != null) {
+            Integer o = overflow.higherKey ((int) Math.max (k, SLOTS - 1));
+            if (o != null)
+                return o;
+        }
+        return NONE;
+    }
+
+    private class EntryIterator implements Iterator<Map.Entry<Integer,Object>> {
+        private long next = higherKey (Long.MIN_VALUE);
+        private long last = NONE;
+
+        @Override
+        public boolean hasNext() {
+            return next != NONE;
+        }
+
+        @Override
+        public Map.Entry<Integer,Object> next() {
+            if (next == NONE)
+                throw new NoSuchElementException();
+            last = next;
+            next = higherKey (next);
+            return new Entry ((int) last);
+        }
+
+        @Override
+        public void remove() {
+            if (last == NONE)
+                throw new IllegalStateException();
+            FieldArrayMap.this.remove ((int) last);
+            last = NONE;
+        }
+    }
+
+    private class Entry extends AbstractMap.SimpleEntry<Integer,Object> {
+        Entry (int fldno) {
+            super (fldno, get (fldno));
+        }
+
+        @Override
+        public Object setValue (Object value) {
+            put (getKey().intValue(), value);
+            return super.setValue (value);
+        }
+    }
+}
@@ -25,7 +25,9 @@ import org.jpos.util.Logger;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Map;
 
@@ -42,6 +44,11 @@ public abstract class ISOBasePackager implements ISOPackager, LogSource {
     protected Logger logger = null;
     protected String realm = null;
     protected int headerLength = 0;
+    private final boolean directPack = !ISOFieldPackager.overridesPack (getClass(), ISOBasePackager.class);
+    private final boolean directUnpack = !overridesUnpack (getClass());
+
+    private static final int MAX_CACHED_BUFFER = 65536;
+    private static final ThreadLocal<ByteBuffer> BUFFER = new ThreadLocal<>();
     
     public void setFieldPackager (ISOFieldPackager[] fld) {
         this.fld = fld;
@@ -85,140 +92,37 @@ public abstract class ISOBasePackager implements ISOPackager, LogSource {
     public byte[] pack (ISOComponent m) throws ISOException
     {
         LogEvent evt = null;
-        if (logger != null)
+        if (logger != null && logger.hasListeners())
             evt = new LogEvent (this, "pack");
 
         try {
             if (m.getComposite() != m)
                 throw new ISOException ("Can't call packager on non Composite");
 
-            ArrayList<byte[]> v = new ArrayList<byte[]>(128);
-            byte[] b;
-            byte[] hdr= null;
-            int len = 0;
-
             Map fields = m.getChildren();
-            ISOComponent c = (ISOComponent) fields.get (0);
-            int first = getFirstField();
-
-
-            // pre-read header, if it exists, and advance total len
-            if (m instanceof ISOMsg && headerLength>0)
-            {
-            	hdr= ((ISOMsg) m).getHeader();
-            	if (hdr != null)
-            		len += hdr.length;
-            }
-
-            if (first > 0 && c != null) {
-                b = fld[0].pack(c);
-                len += b.length;
-                v.add (b);
-            }
-
-            BitSet bmap12= null;                            // will store primary and secondary part of bitmap
-            BitSet bmap3= null;                             // will store tertiary part of bitmap
-            if (emitBitMap())
-            {   // The ISOComponent stores a single bitmap in field -1, which could be up to
-                // 192 bits long. If we have a thirdBitmapField, we may need to split the full
-                // bitmap into 1 & 2 at the beginning (16 bytes), and 3rd inside the Data Element
-                c = (ISOComponent) fields.get (-1);
-                bmap12= (BitSet)c.getValue();               // the full bitmap (up to 192 bits long)
-
-                if (thirdBitmapField >= 0 &&                // we may need to split it!
-                    fld[thirdBitmapField] instanceof ISOBitMapPackager)
-                {
-                    if (bmap12.length() - 1 > 128)          // some bits are set in the high part (3rd bitmap)
-                    {
-                        bmap3= bmap12.get(128, 193);        // new bitmap, with the high 3rd bitmap (use 128 as dummy bit0)
-                        bmap3.clear(0);                     // don't really need to clear dummy bit0 I guess...
-                        bmap12.set(thirdBitmapField);       // indicate presence of field that will hold the 3rd bitmap
-                        bmap12.clear(129, 193);             // clear high part, so that the field's pack() method will not use it
-
-                        // Now create add-hoc ISOBitMap in position thirdBitmapField to hold 3rd bitmap
-                        ISOBitMap bmField= new ISOBitMap(thirdBitmapField);
-                        bmField.setValue(bmap3);
-                        m.set(bmField);
-                        fields.put(thirdBitmapField, bmField);    // fields is a clone of m's inner map, so we store it here as well
-
-                        // bit65 should only be set if there's a data-containing DE-65 (which should't happen!)
-                        bmap12.set(65, fields.get(65) == null ? false : true);
-                    }
-                    else
-                    {   // else: No bits/fields above 128 in this message.
-                        // In case there's an old (residual/garbage) field `thirdBitmapField` in the message
-                        // we need to clear the bit and the data
-                        m.unset(thirdBitmapField);                // remove from ISOMsg
-                        bmap12.clear(thirdBitmapField);           // remove from inner bitmap
-                        fields.remove(thirdBitmapField);          // remove from fields clone
-                    }
-                }
-                // now will emit the 1st and 2nd bitmaps, and the loop below will take care of 3rd
-                // when emitting field `thirdBitmapField`
-                b = getBitMapfieldPackager().pack(c);
-                len += b.length;
-                v.add (b);
-            }
-
-            // if Field 1 is a BitMap then we are packing an
-            // ISO-8583 message so next field is fld#2.
-            // else we are packing an ANSI X9.2 message, first field is 1
-            int tmpMaxField=Math.min (m.getMaxField(), (bmap3 != null || fld.length > 129) ? 192 : 128);
-
-            for (int i=first; i<=tmpMaxField; i++) {
-                if ((c=(ISOComponent) fields.get (i)) != null)
-                {
+            int maxField = prepare (m, fields);
+            byte[] hdr = getHeader (m);
+            // taken out of the ThreadLocal while in use, nested packagers get their own
+            ByteBuffer buf = BUFFER.get();
+            if (buf != null)
+                BUFFER.set (null);
+            else
+                buf = ByteBuffer.allocate (4096);
+            byte[] d;
+            try {
+                for (;;) {
+                    buf.clear();
                     try {
-                        ISOFieldPackager fp = fld[i];
-                        if (fp == null)
-                            throw new ISOException ("null field "+i+" packager");
-                        b = fp.pack(c);
-                        len += b.length;
-                        v.add (b);
-                    } catch (ISOException e) {
-                        if (evt != null) {
-                            evt.addMessage ("error packing field "+i);
-                            evt.addMessage (c);
-                            evt.addMessage (e);
-                        }
-                        throw new ISOException("error packing field "+i, e);
+                        write (fields, hdr, maxField, buf, evt);
+                        break;
+                    } catch (BufferOverflowException e) {
+                        buf = ByteBuffer.allocate (buf.capacity() << 1);
                     }
                 }
-            }
-
-// BBB This part not needed
-//            if(m.getMaxField()>128 && fld.length > 128) {
-//                for (int i=1; i<=64; i++) {
-//                    if ((c = (ISOComponent)fields.get (i + 128)) != null)
-//                    {
-//                        try {
-//                            b = fld[i+128].pack(c);
-//                            len += b.length;
-//                            v.add (b);
-//                        } catch (ISOException e) {
-//                            if (evt != null) {
-//                                evt.addMessage ("error packing field "+(i+128));
-//                                evt.addMessage (c);
-//                                evt.addMessage (e);
-//                            }
-//                            throw e;
-//                        }
-//                    }
-//                }
-//            }
-
-            int k = 0;
-            byte[] d = new byte[len];
-
-            // if ISOMsg insert header (we pre-read it at the beginning)
-            if (hdr != null) {
-                System.arraycopy(hdr, 0, d, k, hdr.length);
-                k += hdr.length;
-            }
-
-            for (byte[] bb : v) {
-                System.arraycopy(bb, 0, d, k, bb.length);
-                k += bb.length;
+                d = Arrays.copyOf (buf.array(), buf.position());
+            } finally {
+                if (buf.capacity() <= MAX_CACHED_BUFFER)
+                    BUFFER.set (buf);
             }
             if (evt != null)  // save a few CPU cycle if no logger available
                 evt.addMessage (ISOUtil.hexString (d));
@@ -234,6 +138,162 @@ public abstract class ISOBasePackager implements ISOPackager, LogSource {
         }
     }
 
+    /**
+     * Packs <code>m</code> straight into <code>buf</code>, avoiding the
+     * per-field intermediate arrays used by {@link #pack(ISOComponent)}.
+     * <p>
+     * If <code>buf</code> is too small a {@link BufferOverflowException} is
+     * thrown and its position is left untouched; the caller may retry with a
+     * larger buffer after calling {@link ISOMsg#recalcBitMap()}.
+     *
+     * @param m   the Component to pack
+     * @param buf destination buffer
+     * @return number of bytes written
+     * @exception ISOException
+     */
+    @Override
+    public int pack (ISOComponent m, ByteBuffer buf) throws ISOException
+    {
+        if (!directPack)
+            return ISOPackager.super.pack (m, buf);
+        LogEvent evt = null;
+        if (logger != null && logger.hasListeners())
+            evt = new LogEvent (this, "pack");
+
+        int start = buf.position();
+        try {
+            if (m.getComposite() != m)
+                throw new ISOException ("Can't call packager on non Composite");
+
+            Map fields = m.getChildren();
+            int maxField = prepare (m, fields);
+            try {
+                write (fields, getHeader (m), maxField, buf, evt);
+            } catch (BufferOverflowException e) {
+                buf.position (start);
+                throw e;
+            }
+            int len = buf.position() - start;
+            if (evt != null && buf.hasArray())
+                evt.addMessage (ISOUtil.hexString (buf.array(), buf.arrayOffset() + start, len));
+            return len;
+        } catch (ISOException e) {
+            if (evt != null)
+                evt.addMessage (e);
+            throw e;
+        } finally {
+            if (evt != null)
+                Logger.log(evt);
+        }
+    }
+
+    private byte[] getHeader (ISOComponent m) {
+        return m instanceof ISOMsg && headerLength > 0 ? ((ISOMsg) m).getHeader() : null;
+    }
+
+    /**
+     * Handles the tertiary bitmap, if any, updating both <code>m</code> and <code>fields</code>.
+     * @return last field to pack
+     */
+    private int prepare (ISOComponent m, Map fields) throws ISOException {
+        BitSet bmap3= null;                                 // will store tertiary part of bitmap
+        if (emitBitMap())
+        {   // The ISOComponent stores a single bitmap in field -1, which could be up to
+            // 192 bits long. If we have a thirdBitmapField, we may need to split the full
+            // bitmap into 1 & 2 at the beginning (16 bytes), and 3rd inside the Data Element
+            ISOComponent c = (ISOComponent) fields.get (-1);
+            BitSet bmap12= (BitSet)c.getValue();            // the full bitmap (up to 192 bits long)
+
+            if (thirdBitmapField >= 0 &&                    // we may need to split it!
+                fld[thirdBitmapField] instanceof ISOBitMapPackager)
+            {
+                if (bmap12.length() - 1 > 128)              // some bits are set in the high part (3rd bitmap)
+                {
+                    bmap3= bmap12.get(128, 193);            // new bitmap, with the high 3rd bitmap (use 128 as dummy bit0)
+                    bmap3.clear(0);                         // don't really need to clear dummy bit0 I guess...
+                    bmap12.set(thirdBitmapField);           // indicate presence of field that will hold the 3rd bitmap
+                    bmap12.clear(129, 193);                 // clear high part, so that the field's pack() method will not use it
+
+                    // Now create add-hoc ISOBitMap in position thirdBitmapField to hold 3rd bitmap
+                    ISOBitMap bmField= new ISOBitMap(thirdBitmapField);
+                    bmField.setValue(bmap3);
+                    m.set(bmField);
+                    fields.put(thirdBitmapField, bmField);    // fields is a clone of m's inner map, so we store it here as well
+
+                    // bit65 should only be set if there's a data-containing DE-65 (which should't happen!)
+                    bmap12.set(65, fields.get(65) == null ? false : true);
+                }
+                else
+                {   // else: No bits/fields above 128 in this message.
+                    // In case there's an old (residual/garbage) field `thirdBitmapField` in the message
+                    // we need to clear the bit and the data
+                    m.unset(thirdBitmapField);                // remove from ISOMsg
+                    bmap12.clear(thirdBitmapField);           // remove from inner bitmap
+                    fields.remove(thirdBitmapField);          // remove from fields clone
+                }
+            }
+        }
+        // if Field 1 is a BitMap then we are packing an
+        // ISO-8583 message so next field is fld#2.
+        // else we are packing an ANSI X9.2 message, first field is 1
+        return Math.min (m.getMaxField(), (bmap3 != null || fld.length > 129) ? 192 : 128);
+    }
+
+    /**
+     * Writes header, first field, bitmap and data elements; doesn't modify the message.
+     */
+    private void write (Map fields, byte[] hdr, int maxField, ByteBuffer buf, LogEvent evt)
+        throws ISOException
+    {
+        ISOComponent c = (ISOComponent) fields.get (0);
+        int first = getFirstField();
+
+        if (hdr != null)
+            buf.put (hdr);
+
+        if (first > 0 && c != null)
+            fld[0].pack (c, buf);
+
+        // now will emit the 1st and 2nd bitmaps, and the loop below will take care of 3rd
+        // when emitting field `thirdBitmapField`
+        if (emitBitMap())
+            getBitMapfieldPackager().pack ((ISOComponent) fields.get (-1), buf);
+
+        FieldArrayMap fa = fields instanceof FieldArrayMap ? (FieldArrayMap) fields : null;
+        for (int i=first; i<=maxField; i++) {
+            if ((c=(ISOComponent) (fa != null ? fa.get (i) : fields.get (i))) != null)
+            {
+                try {
+                    ISOFieldPackager fp = fld[i];
+                    if (fp == null)
+                        throw new ISOException ("null field "+i+" packager");
+                    fp.pack (c, buf);
+                } catch (ISOException e) {
+                    if (evt != null) {
+                        evt.addMessage ("error packing field "+i);
+                        evt.addMessage (c);
+                        evt.addMessage (e);
+                    }
+                    throw new ISOException("error packing field "+i, e);
+                }
+            }
+        }
+    }
+
+    private static void checkBounds (int consumed, int len) throws ISOException {
+        if (consumed > len)
+            throw new ISOException ("image too short, len=" + len + " consumed=" + consumed);
+    }
+
+    private static boolean overridesUnpack (Class<?> clazz) {
+        try {
+            return clazz.getMethod ("unpack", ISOComponent.class, byte[].class).getDeclaringClass() != ISOBasePackager.class
+              && clazz.getMethod ("unpack", ISOComponent.class, byte[].class, int.class, int.class).getDeclaringClass() == ISOBasePackager.class;
+        } catch (NoSuchMethodException e) {
+            return true;
+        }
+    }
+
     /**
      * @param   m   the Container of this message
      * @param   b   ISO message image
@@ -242,6 +302,33 @@ public abstract class ISOBasePackager implements ISOPackager, LogSource {
      */
     @Override
     public int unpack (ISOComponent m, byte[] b) throws ISOException {
+        return unpack0 (m, b, 0, b.length);
+    }
+
+    /**
+     * Unpacks in place, without copying the image out of <code>b</code>.
+     * <p>
+     * Fields are decoded straight from <code>b</code>, which may hold stale
+     * data past <code>offset+len</code> (i.e. a reused receive buffer), so
+     * a field ending beyond the image fails the unpack.
+     * Subclasses overriding {@link #unpack(ISOComponent, byte[])} but not
+     * this method get the image copied out and passed to their override.
+     *
+     * @param   m   the Container of this message
+     * @param   b   buffer holding the ISO message image
+     * @param   offset image offset within <code>b</code>
+     * @param   len image length
+     * @return      consumed bytes
+     * @exception ISOException
+     */
+    @Override
+    public int unpack (ISOComponent m, byte[] b, int offset, int len) throws ISOException {
+        if (!directUnpack)
+            return ISOPackager.super.unpack (m, b, offset, len);
+        return unpack0 (m, b, offset, len);
+    }
+
+    private int unpack0 (ISOComponent m, byte[] b, int offset, int len) throws ISOException {
         LogEvent evt = logger != null ? new LogEvent (this, "unpack") : null;
         int consumed = 0;
 
@@ -249,14 +336,15 @@ public abstract class ISOBasePackager implements ISOPackager, LogSource {
             if (m.getComposite() != m)
                 throw new ISOException ("Can't call packager on non Composite");
             if (evt != null)  // save a few CPU cycle if no logger available
-                evt.addMessage (ISOUtil.hexString (b));
+                evt.addMessage (ISOUtil.hexString (b, offset, len));
 
 
             // if ISOMsg and headerLength defined
             if (m instanceof ISOMsg /*&& ((ISOMsg) m).getHeader()==null*/ && headerLength>0)
             {
+                checkBounds (headerLength, len);
                 byte[] h = new byte[headerLength];
-                System.arraycopy(b, 0, h, 0, headerLength);
+                System.arraycopy(b, offset, h, 0, headerLength);
                 ((ISOMsg) m).setHeader(h);
                 consumed += headerLength;
             }
@@ -264,7 +352,8 @@ public abstract class ISOBasePackager implements ISOPackager, LogSource {
             if (!(fld[0] == null) && !(fld[0] instanceof ISOBitMapPackager))
             {
                 ISOComponent mti = fld[0].createComponent(0);
-                consumed  += fld[0].unpack(mti, b, consumed);
+                consumed  += fld[0].unpack(mti, b, offset + consumed);
+                checkBounds (consumed, len);
                 m.set (mti);
             }
 
@@ -274,7 +363,8 @@ public abstract class ISOBasePackager implements ISOPackager, LogSource {
 
             if (emitBitMap()) {
                 ISOBitMap bitmap = new ISOBitMap (-1);
-                consumed += getBitMapfieldPackager().unpack(bitmap,b,consumed);
+                consumed += getBitMapfieldPackager().unpack(bitmap,b,offset + consumed);
+                checkBounds (consumed, len);
                 bmap = (BitSet) bitmap.getValue();
                 bmapBytes= (bmap.length()-1 + 63) >> 6 << 3;
                 if (evt != null)
@@ -302,7 +392,8 @@ public abstract class ISOBasePackager implements ISOPackager, LogSource {
                             throw new ISOException ("field packager '" + i + "' is null");
 
                         ISOComponent c = fld[i].createComponent(i);
-                        consumed += fld[i].unpack (c, b, consumed);
+                        consumed += fld[i].unpack (c, b, offset + consumed);
+                        checkBounds (consumed, len);
                         if (evt != null)
                             fieldUnpackLogger(evt, i, c, fld);
                         m.set(c);
@@ -345,8 +436,8 @@ public abstract class ISOBasePackager implements ISOPackager, LogSource {
                 }
             } // for each field
 
-            if (evt != null && b.length != consumed) {
-                evt.addMessage ("WARNING: unpack len=" +b.length +" consumed=" +consumed);
+            if (evt != null && len != consumed) {
+                evt.addMessage ("WARNING: unpack len=" +len +" consumed=" +consumed);
             }
 
             return consumed;
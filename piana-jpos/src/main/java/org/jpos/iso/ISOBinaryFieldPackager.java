@@ -20,6 +20,9 @@ package org.jpos.iso;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * @author joconnor
@@ -29,6 +32,7 @@ public class ISOBinaryFieldPackager extends ISOFieldPackager
 {
     private BinaryInterpreter interpreter;
     private Prefixer prefixer;
+    private final boolean directPack = !overridesPack (getClass(), ISOBinaryFieldPackager.class);
 
     /**
      * Constructs a default ISOBinaryFieldPackager. There is no length prefix and a
@@ -87,6 +91,22 @@ public class ISOBinaryFieldPackager extends ISOFieldPackager
         this.prefixer = prefixer;
     }
 
+    /**
+     * @return the interpreter used in packing and unpacking
+     */
+    public BinaryInterpreter getInterpreter()
+    {
+        return interpreter;
+    }
+
+    /**
+     * @return the length prefixer used during packing and unpacking
+     */
+    public Prefixer getPrefixer()
+    {
+        return prefixer;
+    }
+
     public int getMaxPackedLength()
     {
         return prefixer.getPackedLength() + interpreter.getPackedLength(getLength());
@@ -113,6 +133,41 @@ public class ISOBinaryFieldPackager extends ISOFieldPackager
         }
     }
 
+    /**
+     * Writes prefix and interpreted data straight into the buffer's backing array.
+     */
+    @Override
+    public int pack(ISOComponent c, ByteBuffer buf) throws ISOException
+    {
+        if (!directPack || !buf.hasArray())
+            return super.pack(c, buf);
+        byte[] data;
+        int lenLen = prefixer.getPackedLength();
+        try
+        {
+            data = c.getBytes();
+            if (lenLen == 0 && data.length != getLength()) {
+                throw new ISOException("Binary data length not the same as the packager length (" + data.length + "/" + getLength() + ")");
+            }
+        } catch(Exception e) {
+            throw new ISOException(makeExceptionMessage(c, "packing"), e);
+        }
+        int len = lenLen + interpreter.getPackedLength(data.length);
+        if (buf.remaining() < len)
+            throw new BufferOverflowException();
+        int offset = buf.arrayOffset() + buf.position();
+        Arrays.fill (buf.array(), offset, offset + len, (byte) 0); // interpreters may OR nibbles in
+        try
+        {
+            prefixer.encodeLength(data.length, buf.array(), offset);
+            interpreter.interpret(data, buf.array(), offset + lenLen);
+        } catch(Exception e) {
+            throw new ISOException(makeExceptionMessage(c, "packing"), e);
+        }
+        buf.position(buf.position() + len);
+        return len;
+    }
+
     public int unpack(ISOComponent c, byte[] b, int offset) throws ISOException
     {
         try
@@ -22,6 +22,7 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectOutput;
+import java.nio.ByteBuffer;
 
 /**
  * base class for the various IF*.java Field Packagers
@@ -108,6 +109,33 @@ public abstract class ISOFieldPackager {
      */
     public abstract byte[] pack (ISOComponent c) throws ISOException;
 
+    /**
+     * Packs a component at the buffer's current position, advancing it.
+     * <p>
+     * Default implementation copies {@link #pack(ISOComponent)}'s image.
+     * @param c - a component
+     * @param buf - destination buffer
+     * @return number of bytes written
+     * @exception ISOException
+     * @exception java.nio.BufferOverflowException if there's not enough room
+     */
+    public int pack (ISOComponent c, ByteBuffer buf) throws ISOException {
+        byte[] b = pack (c);
+        buf.put (b);
+        return b.length;
+    }
+
+    /**
+     * @return true if <code>clazz</code> overrides <code>pack(ISOComponent)</code> below <code>base</code>
+     */
+    static boolean overridesPack (Class<?> clazz, Class<?> base) {
+        try {
+            return clazz.getMethod ("pack", ISOComponent.class).getDeclaringClass() != base;
+        } catch (NoSuchMethodException e) {
+            return true;
+        }
+    }
+
     /**
      * @param c - the Component to unpack
      * @param b - binary image
@@ -24,6 +24,7 @@ import org.jpos.util.Loggeable;
 
 import java.io.*;
 import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -50,13 +51,17 @@ public class ISOMsg extends ISOComponent
     public static final int INCOMING = 1;
     public static final int OUTGOING = 2;
     private static final long serialVersionUID = 4306251831901413975L;
+    private static final boolean COMPACT = Boolean.getBoolean ("jpos.isomsg.compact");
     private WeakReference sourceRef;
 
     /**
      * Creates an ISOMsg
+     * <p>
+     * Storage is compact (see {@link #setCompact(boolean)}) when the
+     * <code>jpos.isomsg.compact</code> system property is true.
      */
     public ISOMsg () {
-        fields = new TreeMap<Integer,Object>();
+        fields = COMPACT ? new FieldArrayMap() : new TreeMap<Integer,Object>();
         maxField = -1;
         dirty = true;
         maxFieldDirty=true;
@@ -182,6 +187,11 @@ public class ISOMsg extends ISOComponent
     }
     private void recalcMaxField() {
         maxField = 0;
+        if (fields instanceof FieldArrayMap) {
+            maxField = Math.max (maxField, ((FieldArrayMap) fields).maxField());
+            maxFieldDirty = false;
+            return;
+        }
         for (Object obj : fields.keySet()) {
             if (obj instanceof Integer)
                 maxField = Math.max(maxField, ((Integer) obj).intValue());
@@ -200,12 +210,37 @@ public class ISOMsg extends ISOComponent
     public ISOPackager getPackager () {
         return packager;
     }
+    /**
+     * Switches between the default (TreeMap based) field storage and a
+     * compact one, backed by a field number indexed array and a presence
+     * bitmap, where field lookups don't box the field number and clones
+     * are cheap. Both behave the same way.
+     * @param compact true for compact storage
+     */
+    public void setCompact (boolean compact) {
+        if (compact != isCompact())
+            fields = compact ? new FieldArrayMap (fields) : new TreeMap<Integer,Object> (fields);
+    }
+    /**
+     * @return true if this message uses compact field storage
+     */
+    public boolean isCompact () {
+        return fields instanceof FieldArrayMap;
+    }
     /**
      * Set a field within this message
      * @param c - a component
      */
     public void set (ISOComponent c) throws ISOException {
         if (c != null) {
+            if (fields instanceof FieldArrayMap) {
+                int i = c instanceof ISOMsg ? (Integer) c.getKey() : c.getFieldNumber();
+                ((FieldArrayMap) fields).put (i, c);
+                if (i > maxField)
+                    maxField = i;
+                dirty = true;
+                return;
+            }
             Integer i = (Integer) c.getKey();
             fields.put (i, c);
             if (i > maxField)
@@ -362,7 +397,9 @@ public class ISOMsg extends ISOComponent
      */
     @Override
     public void unset (int fldno) {
-        if (fields.remove (fldno) != null)
+        Object c = fields instanceof FieldArrayMap ?
+          ((FieldArrayMap) fields).remove (fldno) : fields.remove (fldno);
+        if (c != null)
             dirty = maxFieldDirty = true;
     }
     /**
@@ -430,9 +467,16 @@ public class ISOMsg extends ISOComponent
         int mf = Math.min (getMaxField(), 192);
 
         BitSet bmap = new BitSet (mf+62 >>6 <<6);
-        for (int i=1; i<=mf; i++)
-            if (fields.get (i) != null)
-                bmap.set (i);
+        if (fields instanceof FieldArrayMap) {
+            FieldArrayMap fa = (FieldArrayMap) fields;
+            for (int i = fa.nextField (1); i > 0 && i <= mf; i = fa.nextField (i+1))
+                if (fa.get (i) != null)
+                    bmap.set (i);
+        } else {
+            for (int i=1; i<=mf; i++)
+                if (fields.get (i) != null)
+                    bmap.set (i);
+        }
         set (new ISOBitMap (-1, bmap));
         dirty = false;
     }
@@ -442,6 +486,8 @@ public class ISOMsg extends ISOComponent
      */
     @Override
     public Map getChildren() {
+        if (fields instanceof FieldArrayMap)
+            return ((FieldArrayMap) fields).clone();
         return (Map) ((TreeMap)fields).clone();
     }
     /**
@@ -456,6 +502,19 @@ public class ISOMsg extends ISOComponent
             return packager.pack(this);
         }
     }
+    /**
+     * pack the message with the current packager straight into a buffer
+     * @param buf destination buffer
+     * @return number of bytes written
+     * @exception ISOException
+     * @see ISOPackager#pack(ISOComponent, ByteBuffer)
+     */
+    public int pack (ByteBuffer buf) throws ISOException {
+        synchronized (this) {
+            recalcBitMap();
+            return packager.pack(this, buf);
+        }
+    }
     /**
      * unpack a message
      * @param b - raw message
@@ -468,6 +527,20 @@ public class ISOMsg extends ISOComponent
             return packager.unpack(this, b);
         }
     }
+    /**
+     * unpack a message image held in a slice of a larger buffer
+     * @param b - buffer holding the raw message
+     * @param offset - image offset within b
+     * @param len - image length
+     * @return consumed bytes
+     * @exception ISOException
+     * @see ISOPackager#unpack(ISOComponent, byte[], int, int)
+     */
+    public int unpack(byte[] b, int offset, int len) throws ISOException {
+        synchronized (this) {
+            return packager.unpack(this, b, offset, len);
+        }
+    }
     @Override
     public void unpack (InputStream in) throws IOException, ISOException {
         synchronized (this) {
@@ -509,7 +582,7 @@ public class ISOMsg extends ISOComponent
             ((Loggeable) header).dump (p, newIndent);
 
         for (int i=0; i<=maxField; i++) {
-            if ((c = (ISOComponent) fields.get (i)) != null)
+            if ((c = field (i)) != null)
                 c.dump (p, newIndent);
             //
             // Uncomment to include bitmaps within logs
@@ -529,7 +602,7 @@ public class ISOMsg extends ISOComponent
      * @return the Component
      */
     public ISOComponent getComponent(int fldno) {
-        return (ISOComponent) fields.get(fldno);
+        return field (fldno);
     }
     /**
      * Return the object value associated with the given field number
@@ -671,7 +744,30 @@ public class ISOMsg extends ISOComponent
      * @return boolean indicating the existence of the field
      */
     public boolean hasField(int fldno) {
-        return fields.get(fldno) != null;
+        return field (fldno) != null;
+    }
+    /**
+     * Field presence bitmap, 64 fields per word, bit <i>n-1</i> of the word
+     * standing for field <i>n</i>. Compact messages (see {@link #setCompact(boolean)})
+     * answer straight from their storage.
+     * @param word 0 (fields 1-64), 1 (65-128) or 2 (129-192)
+     * @return presence bits of that word
+     */
+    public long getPresenceBits (int word) {
+        if (word < 0 || word > 2)
+            throw new IllegalArgumentException ("Invalid word " + word);
+        if (fields instanceof FieldArrayMap)
+            return ((FieldArrayMap) fields).present (word);
+        long bits = 0L;
+        int lo = (word << 6) + 1;
+        for (Object k : fields.keySet()) {
+            if (k instanceof Integer) {
+                int i = (Integer) k;
+                if (i >= lo && i < lo + 64)
+                    bits |= 1L << (i-1);
+            }
+        }
+        return bits;
     }
     /**
      * Check if all fields are present
@@ -755,11 +851,15 @@ public class ISOMsg extends ISOComponent
     public Object clone() {
         try {
             ISOMsg m = (ISOMsg) super.clone();
-            m.fields = (TreeMap) ((TreeMap) fields).clone();
             if (header != null)
                 m.header = (ISOHeader) header.clone();
             if (trailer != null)
                 m.trailer = trailer.clone();
+            if (fields instanceof FieldArrayMap) {
+                m.fields = ((FieldArrayMap) fields).deepClone();
+                return m;
+            }
+            m.fields = (TreeMap) ((TreeMap) fields).clone();
             for (Integer k : fields.keySet()) {
                 ISOComponent c = (ISOComponent) m.fields.get(k);
                 if (c instanceof ISOMsg)
@@ -780,7 +880,7 @@ public class ISOMsg extends ISOComponent
     public Object clone(int[] fields) {
         try {
             ISOMsg m = (ISOMsg) super.clone();
-            m.fields = new TreeMap();
+            m.fields = isCompact() ? new FieldArrayMap() : new TreeMap();
             for (int field : fields) {
                 if (hasField(field)) {
                     try {
@@ -1080,6 +1180,22 @@ public class ISOMsg extends ISOComponent
             throw new IOException (e.getMessage());
         }
     }
+    /**
+     * Clears this message (fields, header, trailer, packager, direction and
+     * source) so that it can be reused, as if it had just been created.
+     * Field storage is kept, compact storage doesn't even reallocate.
+     */
+    public void reset () {
+        fields.clear();
+        maxField = -1;
+        dirty = maxFieldDirty = true;
+        packager = null;
+        direction = 0;
+        header = null;
+        trailer = null;
+        fieldNumber = -1;
+        sourceRef = null;
+    }
     /**
      * Let this ISOMsg object hold a weak reference to an ISOSource
      * (usually used to carry a reference to the incoming ISOChannel)
@@ -1094,6 +1210,11 @@ public class ISOMsg extends ISOComponent
     public ISOSource getSource () {
         return sourceRef != null ? (ISOSource) sourceRef.get () : null;
     }
+    private ISOComponent field (int fldno) {
+        if (fields instanceof FieldArrayMap)
+            return (ISOComponent) ((FieldArrayMap) fields).get (fldno);
+        return (ISOComponent) fields.get (fldno);
+    }
     private void writeExternal (ObjectOutput out, char b, ISOComponent c) throws IOException {
         out.writeByte (b);
         ((Externalizable) c).writeExternal (out);
@@ -34,6 +34,7 @@ import java.io.InputStream;
 public class ISOMsgFieldPackager extends ISOFieldPackager {
     protected ISOPackager msgPackager;
     protected ISOFieldPackager fieldPackager;
+    protected boolean lazy;
 
     /**
      * @param fieldPackager low level field packager
@@ -57,7 +58,8 @@ public class ISOMsgFieldPackager extends ISOFieldPackager {
         if (c instanceof ISOMsg) {
             ISOMsg m = (ISOMsg) c;
             m.recalcBitMap();
-            ISOBinaryField f = new ISOBinaryField(0, msgPackager.pack(m));
+            byte[] image = m instanceof LazyISOMsg ? ((LazyISOMsg) m).getImage() : null;
+            ISOBinaryField f = new ISOBinaryField(0, image != null ? image : msgPackager.pack(m));
             if(fieldPackager instanceof TaggedFieldPackagerBase &&
                msgPackager   instanceof ISOSubFieldPackager) {
                 ISOSubFieldPackager sfp = (ISOSubFieldPackager) msgPackager;
@@ -85,7 +87,9 @@ public class ISOMsgFieldPackager extends ISOFieldPackager {
             f.setFieldNumber(sfp.getFieldNumber());
         }
         int consumed = fieldPackager.unpack(f, b, offset);
-        if (f.getValue() != null && c instanceof ISOMsg)
+        if (f.getValue() != null && c instanceof LazyISOMsg)
+            ((LazyISOMsg) c).setImage((byte[]) f.getValue());
+        else if (f.getValue() != null && c instanceof ISOMsg)
             msgPackager.unpack(c, (byte[]) f.getValue());
         return consumed;
     }
@@ -106,17 +110,32 @@ public class ISOMsgFieldPackager extends ISOFieldPackager {
             f.setFieldNumber(sfp.getFieldNumber());
         }
         fieldPackager.unpack (f, in);
-        if (f.getValue() != null && c instanceof ISOMsg)
+        if (f.getValue() != null && c instanceof LazyISOMsg)
+            ((LazyISOMsg) c).setImage((byte[]) f.getValue());
+        else if (f.getValue() != null && c instanceof ISOMsg)
             msgPackager.unpack(c, (byte[]) f.getValue());
     }
 
     @Override
     public ISOComponent createComponent(int fieldNumber) {
-        ISOMsg m = new ISOMsg(fieldNumber);
+        ISOMsg m = lazy ? new LazyISOMsg(fieldNumber) : new ISOMsg(fieldNumber);
         m.setPackager(msgPackager);
         return m;
     }
 
+    /**
+     * When lazy, inner messages are created as {@link LazyISOMsg}s that
+     * keep their raw image and are only unpacked on first access, and
+     * packed back verbatim if left untouched.
+     * @param lazy true to defer unpacking of inner messages
+     */
+    public void setLazy (boolean lazy) {
+        this.lazy = lazy;
+    }
+    public boolean isLazy () {
+        return lazy;
+    }
+
     @Override
     public int getMaxPackedLength() {
         return fieldPackager.getLength();
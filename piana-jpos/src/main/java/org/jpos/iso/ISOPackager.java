@@ -20,6 +20,7 @@ package org.jpos.iso;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 /**
  * @author apr
@@ -34,6 +35,26 @@ public interface ISOPackager {
      */
     byte[] pack(ISOComponent m) throws ISOException;
 
+    /**
+     * Packs a message at the buffer's current position, advancing it.
+     * <p>
+     * Packagers able to write their fields straight into the buffer
+     * override this method; the default implementation copies
+     * {@link #pack(ISOComponent)}'s image.
+     *
+     * @param   m   the Component to pack
+     * @param   buf destination buffer
+     * @return      number of bytes written
+     * @exception ISOException on error
+     * @exception java.nio.BufferOverflowException if the image doesn't fit,
+     *            in which case the buffer's position is left unchanged
+     */
+    default int pack(ISOComponent m, ByteBuffer buf) throws ISOException {
+        byte[] b = pack(m);
+        buf.put(b);
+        return b.length;
+    }
+
     /**
      * @param   m   the Container of this message
      * @param   b   ISO message image
@@ -42,6 +63,28 @@ public interface ISOPackager {
      */
     int unpack(ISOComponent m, byte[] b) throws ISOException;
 
+    /**
+     * Unpacks a message image held in a slice of a larger buffer
+     * (i.e. a channel's receive buffer).
+     * <p>
+     * Packagers able to decode in place override this method;
+     * the default implementation copies the slice.
+     *
+     * @param   m   the Container of this message
+     * @param   b   buffer holding the ISO message image
+     * @param   offset image offset within <code>b</code>
+     * @param   len image length
+     * @return      consumed bytes
+     * @exception ISOException on error
+     */
+    default int unpack(ISOComponent m, byte[] b, int offset, int len) throws ISOException {
+        if (offset == 0 && len == b.length)
+            return unpack (m, b);
+        byte[] image = new byte[len];
+        System.arraycopy (b, offset, image, 0, len);
+        return unpack (m, image);
+    }
+
     void unpack(ISOComponent m, InputStream in) throws IOException, ISOException;
 
     /**
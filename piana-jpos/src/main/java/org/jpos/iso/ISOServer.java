@@ -29,6 +29,8 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.EventObject;
@@ -53,6 +55,18 @@ import org.jpos.util.ThreadPool;
 
 /**
  * Accept ServerChannel sessions and forwards them to ISORequestListeners
+ * <p>
+ * By default every accepted connection runs its own Session on the
+ * ThreadPool. When configured with <code>nio=true</code> connections are
+ * instead multiplexed over <code>nio-threads</code> selector loops
+ * (see {@link ISOServerEventLoop}); this mode requires a channel providing
+ * a {@link BaseChannel#getLengthPrefixer() length prefixer}
+ * (i.e. ASCIIChannel, NACChannel, PostChannel) and the default server
+ * socket factory (a custom one is rejected at configuration time).
+ * Connections don't hold a ThreadPool thread in this mode, but the pool's
+ * maximum still caps the number of open sessions, and a connection denied
+ * by the allow/deny permissions is held open for a random delay on a pool
+ * thread, as in the default mode.
  * @author Alejandro P. Revilla
  * @author Bharavi Gade
  * @version $Revision$ $Date$
@@ -98,6 +112,10 @@ public class ISOServer extends Observable
     private Map channels;
     protected boolean ignoreISOExceptions;
     protected List<ISOServerEventListener> serverListeners = null;
+    private boolean nio;
+    private int nioThreads;
+    private ServerSocketChannel serverSocketChannel;
+    private ISOServerEventLoop[] loops;
 
    /**
     * @param port port to listen
@@ -130,6 +148,19 @@ public class ISOServer extends Observable
         configureConnectionPerms();
         backlog = cfg.getInt ("backlog", 0);
         ignoreISOExceptions = cfg.getBoolean("ignore-iso-exceptions");
+        nio = cfg.getBoolean ("nio", false);
+        nioThreads = cfg.getInt ("nio-threads", Runtime.getRuntime().availableProcessors());
+        if (nio) {
+            if (!(clientSideChannel instanceof BaseChannel)
+              || ((BaseChannel) clientSideChannel).getLengthPrefixer() == null)
+                throw new ConfigurationException (
+                  "nio mode not supported by " + clientSideChannel.getClass().getName());
+            if (nioThreads < 1)
+                throw new ConfigurationException ("Invalid nio-threads " + nioThreads);
+            if (socketFactory != null && socketFactory != this)
+                throw new ConfigurationException (
+                  "nio mode does not support socket factory " + socketFactory.getClass().getName());
+        }
         String ip = cfg.get ("bind-address", null);
         if (ip != null) {
             try {
@@ -231,6 +262,7 @@ public class ISOServer extends Observable
                 shutdownServer ();
                 if (!cfg.getBoolean ("keep-channels")) {
                     shutdownChannels ();
+                    shutdownLoops ();
                 }
             }
         }.start();
@@ -241,6 +273,10 @@ public class ISOServer extends Observable
                 serverSocket.close ();
                 fireEvent(new ISOServerShutdownEvent(this));
             }
+            if (serverSocketChannel != null) {
+                serverSocketChannel.close ();
+                fireEvent(new ISOServerShutdownEvent(this));
+            }
             if (pool != null) {
                 pool.close();
             }
@@ -265,6 +301,12 @@ public class ISOServer extends Observable
             }
         }
     }
+    private void shutdownLoops () {
+        if (loops != null) {
+            for (ISOServerEventLoop loop : loops)
+                loop.close ();
+        }
+    }
     private void purgeChannels () {
         Iterator iter = channels.entrySet().iterator();
         while (iter.hasNext()) {
@@ -342,14 +384,7 @@ public class ISOServer extends Observable
                 for (;;) {
                     try {
                         ISOMsg m = channel.receive();
-                        lastTxn = System.currentTimeMillis();
-                        Iterator iter = listeners.iterator();
-                        while (iter.hasNext()) {
-                            if (((ISORequestListener)iter.next()).process
-                                (channel, m)) {
-                                break;
-                            }
-                        }
+                        processRequest (channel, m);
                     }
                     catch (ISOFilter.VetoException e) {
                         Logger.log (new LogEvent (this, "VetoException", e.getMessage()));
@@ -399,65 +434,86 @@ public class ISOServer extends Observable
 
         public void checkPermission (Socket socket, LogEvent evt) throws ISOException
         {
-            // if there are no allow/deny params, just return without doing any checks
-            // (i.e.: "silent allow policy", keeping backward compatibility)
-            if (specificIPPerms.isEmpty() && wildcardAllow == null && wildcardDeny == null)
-                return;
-
-            String ip= socket.getInetAddress().getHostAddress ();           // The remote IP
-
-            // first, check allows or denies for specific/whole IPs (no wildcards)
-            Boolean specificAllow= specificIPPerms.get(ip);
-            if (specificAllow == Boolean.TRUE) {                            // specific IP allow
-                evt.addMessage("access granted, ip=" + ip);
-                return;
-
-            } else if (specificAllow == Boolean.FALSE) {                    // specific IP deny
-                throw new ISOException("access denied, ip=" + ip);
-
-            } else {                                                        // no specific match under the specificIPPerms Map
-                // We check the wildcard lists, deny first
-                if (wildcardDeny != null) {
-                    for (String wdeny : wildcardDeny) {
-                        if (ip.startsWith(wdeny)) {
-                            throw new ISOException ("access denied, ip=" + ip);
-                        }
-                    }
-                }
-                if (wildcardAllow != null) {
-                    for (String wallow : wildcardAllow) {
-                        if (ip.startsWith(wallow)) {
-                            evt.addMessage("access granted, ip=" + ip);
-                            return;
-                        }
-                    }
-                }
+            ISOServer.this.checkPermission (socket, evt);
+        }
+    } // inner class Session
 
-                // Reaching this point means that nothing matched our specific or wildcard rules, so we fall
-                // back on the default permission policies and log type
-                switch (ipPermLogPolicy) {
-                    case DENY_LOG:        // only allows were specified, default policy is to deny non-matches and log the issue
-                        throw new ISOException ("access denied, ip=" + ip);
-                        // break;
+    /**
+     * Hands an incoming message to the registered ISORequestListeners
+     * until one of them takes care of it.
+     * @param source the channel where the message was received
+     * @param m incoming message
+     */
+    void processRequest (ISOSource source, ISOMsg m) {
+        lastTxn = System.currentTimeMillis();
+        Iterator iter = listeners.iterator();
+        while (iter.hasNext()) {
+            if (((ISORequestListener)iter.next()).process (source, m)) {
+                break;
+            }
+        }
+    }
 
-                    case ALLOW_LOG:       // only denies were specified, default policy is to allow non-matches and log the issue
+    private void checkPermission (Socket socket, LogEvent evt) throws ISOException
+    {
+        // if there are no allow/deny params, just return without doing any checks
+        // (i.e.: "silent allow policy", keeping backward compatibility)
+        if (specificIPPerms.isEmpty() && wildcardAllow == null && wildcardDeny == null)
+            return;
+
+        String ip= socket.getInetAddress().getHostAddress ();           // The remote IP
+
+        // first, check allows or denies for specific/whole IPs (no wildcards)
+        Boolean specificAllow= specificIPPerms.get(ip);
+        if (specificAllow == Boolean.TRUE) {                            // specific IP allow
+            evt.addMessage("access granted, ip=" + ip);
+            return;
+
+        } else if (specificAllow == Boolean.FALSE) {                    // specific IP deny
+            throw new ISOException("access denied, ip=" + ip);
+
+        } else {                                                        // no specific match under the specificIPPerms Map
+            // We check the wildcard lists, deny first
+            if (wildcardDeny != null) {
+                for (String wdeny : wildcardDeny) {
+                    if (ip.startsWith(wdeny)) {
+                        throw new ISOException ("access denied, ip=" + ip);
+                    }
+                }
+            }
+            if (wildcardAllow != null) {
+                for (String wallow : wildcardAllow) {
+                    if (ip.startsWith(wallow)) {
                         evt.addMessage("access granted, ip=" + ip);
-                        break;
-
-                    case DENY_LOGWARNING: // mix of allows and denies were specified, but the IP matched no rules!
-                                          // so we adopt a deny policy but give a special warning
-                        throw new ISOException ("access denied, ip=" + ip + " (WARNING: the IP did not match any rules!)");
-                        // break;
-
-                    case ALLOW_NOLOG:   // this is the default case when no allow/deny are specified
-                                        // the method will abort early on the first "if", so this is here just for completion
-                        break;
+                        return;
+                    }
                 }
+            }
 
+            // Reaching this point means that nothing matched our specific or wildcard rules, so we fall
+            // back on the default permission policies and log type
+            switch (ipPermLogPolicy) {
+                case DENY_LOG:        // only allows were specified, default policy is to deny non-matches and log the issue
+                    throw new ISOException ("access denied, ip=" + ip);
+                    // break;
+
+                case ALLOW_LOG:       // only denies were specified, default policy is to allow non-matches and log the issue
+                    evt.addMessage("access granted, ip=" + ip);
+                    break;
+
+                case DENY_LOGWARNING: // mix of allows and denies were specified, but the IP matched no rules!
+                                      // so we adopt a deny policy but give a special warning
+                    throw new ISOException ("access denied, ip=" + ip + " (WARNING: the IP did not match any rules!)");
+                    // break;
+
+                case ALLOW_NOLOG:   // this is the default case when no allow/deny are specified
+                                    // the method will abort early on the first "if", so this is here just for completion
+                    break;
             }
-            // we should never reach this point!! :-)
+
         }
-    } // inner class Session
+        // we should never reach this point!! :-)
+    }
 
     //-------------------------------------------------------------------------------
     //-- This is the main run for this ISOServer's Thread
@@ -467,6 +523,10 @@ public class ISOServer extends Observable
         if (socketFactory == null) {
             socketFactory = this;
         }
+        if (nio) {
+            runNio ();
+            return;
+        }
         serverLoop : while  (!shutdown) {
             try {
                 serverSocket = socketFactory.createServerSocket(port);
@@ -537,6 +597,113 @@ public class ISOServer extends Observable
     } // ISOServer's run()
     //-------------------------------------------------------------------------------
 
+    //-------------------------------------------------------------------------------
+    //-- Non-blocking mode: this thread accepts, selector loops do the I/O
+    private void runNio() {
+        if (socketFactory != this) // set after setConfiguration
+            throw new IllegalStateException (
+              "nio mode does not support socket factory " + socketFactory.getClass().getName());
+        try {
+            loops = new ISOServerEventLoop[nioThreads];
+            for (int i=0; i<loops.length; i++) {
+                loops[i] = new ISOServerEventLoop (this);
+                Thread t = new Thread (loops[i], "ISOServer-" + name + "-nio-" + i);
+                t.setDaemon (true);
+                t.start ();
+            }
+        } catch (IOException e) {
+            Logger.log (new LogEvent (this, "iso-server", e));
+            shutdownLoops ();
+            return;
+        }
+        serverLoop : while (!shutdown) {
+            try {
+                serverSocketChannel = ServerSocketChannel.open();
+                serverSocketChannel.socket().setReuseAddress(true);
+                serverSocketChannel.socket().bind(new InetSocketAddress(bindAddr, port), backlog);
+
+                Logger.log (new LogEvent (this, "iso-server",
+                    "listening on " + (bindAddr != null ? bindAddr + ":" : "port ") + port
+                    + (backlog > 0 ? " backlog="+backlog : "")
+                    + " nio-threads=" + nioThreads
+                ));
+                for (int i=0; !shutdown; i++) {
+                    // connections wait in the backlog while we're at the maximum
+                    for (int j=0; getNioConnectionCount() >= pool.getMaxPoolSize(); j++) {
+                        if (shutdown)
+                            break serverLoop;
+                        if (j % 240 == 0 && cfg.getBoolean("pool-exhaustion-warning", true)) {
+                            Logger.log (new LogEvent (this, "warn",
+                              "max sessions reached " + serverSocketChannel.socket()));
+                        }
+                        ISOUtil.sleep (250);
+                    }
+                    SocketChannel sc = serverSocketChannel.accept();
+                    try {
+                        accept (sc, loops[i % loops.length]);
+                    } catch (IOException e) {
+                        Logger.log (new LogEvent (this, "iso-server", e));
+                        sc.close();
+                    }
+                }
+            } catch (IOException e) {
+                if (!shutdown) {
+                    Logger.log (new LogEvent (this, "iso-server", e));
+                    relax();
+                    continue serverLoop;
+                }
+            } catch (Throwable e) {
+                Logger.log (new LogEvent (this, "iso-server", e));
+                relax();
+            }
+        }
+    }
+
+    private void accept (SocketChannel sc, ISOServerEventLoop loop) throws IOException {
+        Socket socket = sc.socket();
+        LogEvent ev = new LogEvent (this, "session-start",
+          socket.getInetAddress().getHostAddress() + ":" + socket.getPort());
+        try {
+            checkPermission (socket, ev);
+        } catch (ISOException e) {
+            int delay = 1000 + new Random().nextInt (4000);
+            ev.addMessage (e.getMessage());
+            ev.addMessage ("delay=" + delay);
+            // hold it like a Session would, without stalling the accept loop
+            pool.execute (() -> {
+                ISOUtil.sleep (delay);
+                try {
+                    sc.close ();
+                } catch (IOException ioe) {
+                    Logger.log (new LogEvent (this, "iso-server", ioe));
+                }
+                fireEvent(new ISOServerShutdownEvent(this));
+            });
+            return;
+        } finally {
+            Logger.log (ev);
+        }
+        BaseChannel channel = (BaseChannel) clientSideChannel.clone();
+        loop.register (sc, channel);
+        if (cnt[CONNECT]++ % 100 == 0) {
+            purgeChannels ();
+        }
+        WeakReference wr = new WeakReference (channel);
+        channels.put (channel.getName(), wr);
+        channels.put (LAST, wr);
+        setChanged ();
+        notifyObservers (this);
+        fireEvent(new ISOServerAcceptEvent(this));
+        channel.addObserver (this);
+    }
+
+    private int getNioConnectionCount() {
+        int n = 0;
+        for (ISOServerEventLoop loop : loops)
+            n += loop.getConnectionCount();
+        return n;
+    }
+
     private void relax() {
         try {
             Thread.sleep (5000);
@@ -643,6 +810,12 @@ public class ISOServer extends Observable
         return pool.getPendingCount();
     }
     public int getActiveConnections () {
+        if (loops != null) {
+            int n = 0;
+            for (ISOServerEventLoop loop : loops)
+                n += loop.getConnectionCount();
+            return n;
+        }
         return pool.getActiveCount();
     }
 
@@ -0,0 +1,354 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2017 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.iso;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jpos.util.LogEvent;
+import org.jpos.util.LogSource;
+import org.jpos.util.Logger;
+
+/**
+ * Selector based event loop used by {@link ISOServer} when running in
+ * non-blocking mode.
+ * <p>
+ * Each loop owns a {@link Selector} and a number of client connections.
+ * Incoming bytes are framed using the channel's length {@link Prefixer}
+ * and header length; complete frames are unpacked by the connection's
+ * {@link BaseChannel} and handed to the server's ISORequestListeners on the
+ * loop thread, so listeners should not block. Zero length frames are
+ * handed to {@link BaseChannel#keepAliveReceived(byte[])}.
+ * <p>
+ * Idle connections hold no thread and no read buffer, only their partial
+ * frame (if any).
+ *
+ * @see ISOServer
+ * @see BaseChannel#getLengthPrefixer()
+ */
+class ISOServerEventLoop implements Runnable {
+    private static final int READ_BUFFER_SIZE = 65536;
+
+    private final ISOServer server;
+    private final Selector selector;
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect (READ_BUFFER_SIZE);
+    private final Queue<Connection> pendingRegistrations = new ConcurrentLinkedQueue<>();
+    private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger connections = new AtomicInteger();
+    private volatile boolean running = true;
+
+    ISOServerEventLoop (ISOServer server) throws IOException {
+        this.server = server;
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Takes ownership of an accepted connection.
+     * @param sc accepted socket channel
+     * @param channel a fresh clone of the server's channel
+     * @throws IOException on error
+     */
+    void register (SocketChannel sc, BaseChannel channel) throws IOException {
+        sc.configureBlocking (false);
+        Connection c = new Connection (sc, channel);
+        channel.connect (sc.socket(), c.out);
+        connections.incrementAndGet();
+        pendingRegistrations.add (c);
+        selector.wakeup();
+    }
+
+    /**
+     * @return number of connections currently handled by this loop
+     */
+    int getConnectionCount() {
+        return connections.get();
+    }
+
+    void close() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                selector.select();
+                registerPending();
+                enableWrites();
+                Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+                while (iter.hasNext()) {
+                    SelectionKey key = iter.next();
+                    iter.remove();
+                    Connection c = (Connection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isWritable())
+                            c.flushPending (key);
+                        if (key.isValid() && key.isReadable())
+                            c.read();
+                    } catch (IOException e) {
+                        c.close (e);
+                    }
+                }
+            } catch (ClosedSelectorException e) {
+                break;
+            } catch (Throwable t) {
+                Logger.log (new LogEvent (server, "iso-server", t));
+            }
+        }
+        for (SelectionKey key : selector.keys())
+            ((Connection) key.attachment()).close (null);
+        try {
+            selector.close();
+        } catch (IOException e) {
+            Logger.log (new LogEvent (server, "iso-server", e));
+        }
+    }
+
+    private void registerPending() {
+        Connection c;
+        while ((c = pendingRegistrations.poll()) != null) {
+            try {
+                c.key = c.sc.register (selector, SelectionKey.OP_READ, c);
+                if (c.hasPendingWrites())
+                    c.key.interestOps (SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            } catch (IOException e) {
+                c.close (e);
+            }
+        }
+    }
+
+    private void enableWrites() {
+        Connection c;
+        while ((c = pendingWrites.poll()) != null) {
+            SelectionKey key = c.key;
+            if (key != null && key.isValid())
+                key.interestOps (key.interestOps() | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Per connection state. Frames are assembled directly into the
+     * header and image arrays handed over to {@link BaseChannel#receive(byte[], byte[])}.
+     */
+    class Connection implements LogSource {
+        final SocketChannel sc;
+        final BaseChannel channel;
+        final FrameOutputStream out = new FrameOutputStream();
+        final Prefixer prefixer;
+        final int hLen;
+        final String realm;
+        volatile SelectionKey key;
+        private final byte[] prefix;
+        private final Queue<ByteBuffer> outq = new ArrayDeque<>();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private int prefixPos;
+        private byte[] header;
+        private byte[] image;
+        private int pos;
+
+        Connection (SocketChannel sc, BaseChannel channel) {
+            this.sc = sc;
+            this.channel = channel;
+            this.prefixer = channel.getLengthPrefixer();
+            this.hLen = channel.getHeaderLength();
+            this.prefix = new byte[prefixer.getPackedLength()];
+            Socket socket = sc.socket();
+            this.realm = server.getRealm() + ".session/"
+              + socket.getInetAddress().getHostAddress() + ":" + socket.getPort();
+        }
+
+        void read() throws IOException {
+            readBuffer.clear();
+            int n = sc.read (readBuffer);
+            if (n < 0) {
+                close (null);
+                return;
+            }
+            readBuffer.flip();
+            while (readBuffer.hasRemaining()) {
+                if (image == null) {
+                    int l = Math.min (prefix.length - prefixPos, readBuffer.remaining());
+                    readBuffer.get (prefix, prefixPos, l);
+                    prefixPos += l;
+                    if (prefixPos == prefix.length)
+                        startFrame();
+                } else if (header != null && pos < hLen) {
+                    int l = Math.min (hLen - pos, readBuffer.remaining());
+                    readBuffer.get (header, pos, l);
+                    pos += l;
+                } else {
+                    int offset = header != null ? hLen : 0;
+                    int l = Math.min (image.length - (pos - offset), readBuffer.remaining());
+                    readBuffer.get (image, pos - offset, l);
+                    pos += l;
+                }
+                if (image != null && pos == image.length + (header != null ? hLen : 0))
+                    endFrame();
+            }
+        }
+
+        private void startFrame() throws IOException {
+            prefixPos = 0;
+            int len;
+            try {
+                len = prefixer.decodeLength (prefix, 0);
+            } catch (ISOException e) {
+                throw new IOException (e.getMessage(), e);
+            }
+            if (len == 0 && channel.keepAliveReceived (prefix))
+                return;
+            if (len == 0 || len < hLen || len > channel.getMaxPacketLength())
+                throw new IOException ("receive length " + len
+                  + " seems strange - maxPacketLength = " + channel.getMaxPacketLength());
+            header = hLen > 0 ? new byte[hLen] : null;
+            image  = new byte[len - hLen];
+            pos = 0;
+        }
+
+        private void endFrame() throws IOException {
+            byte[] h = header;
+            byte[] b = image;
+            header = null;
+            image  = null;
+            pos = 0;
+            try {
+                ISOMsg m = channel.receive (h, b);
+                server.processRequest (channel, m);
+            } catch (ISOFilter.VetoException e) {
+                Logger.log (new LogEvent (this, "VetoException", e.getMessage()));
+            } catch (ISOException e) {
+                if (server.ignoreISOExceptions)
+                    Logger.log (new LogEvent (this, "ISOException", e.getMessage()));
+                else
+                    throw new IOException (e.getMessage(), e);
+            }
+        }
+
+        /**
+         * Writes a frame, straight to the socket if nothing is queued,
+         * otherwise queues it and lets the loop write it when possible.
+         */
+        void write (ByteBuffer frame) throws IOException {
+            boolean wakeup = false;
+            synchronized (outq) {
+                if (outq.isEmpty()) {
+                    sc.write (frame);
+                    if (!frame.hasRemaining())
+                        return;
+                    wakeup = true;
+                }
+                outq.add (frame);
+            }
+            if (wakeup) {
+                pendingWrites.add (this);
+                selector.wakeup();
+            }
+        }
+
+        boolean hasPendingWrites() {
+            synchronized (outq) {
+                return !outq.isEmpty();
+            }
+        }
+
+        void flushPending (SelectionKey key) throws IOException {
+            synchronized (outq) {
+                ByteBuffer b;
+                while ((b = outq.peek()) != null) {
+                    sc.write (b);
+                    if (b.hasRemaining())
+                        return;
+                    outq.poll();
+                }
+                key.interestOps (SelectionKey.OP_READ);
+            }
+        }
+
+        void close (Throwable t) {
+            if (!closed.compareAndSet (false, true))
+                return;
+            connections.decrementAndGet();
+            if (key != null)
+                key.cancel();
+            if (t != null)
+                Logger.log (new LogEvent (this, "session-error", t));
+            try {
+                channel.disconnect();
+            } catch (IOException e) {
+                Logger.log (new LogEvent (this, "session-error", e));
+            }
+            try {
+                sc.close();
+            } catch (IOException ignored) {
+                // already closed
+            }
+            server.fireEvent (new ISOServerClientDisconnectEvent (server));
+            Logger.log (new LogEvent (this, "session-end"));
+        }
+
+        @Override
+        public void setLogger (Logger logger, String realm) {
+        }
+        @Override
+        public String getRealm () {
+            return realm;
+        }
+        @Override
+        public Logger getLogger() {
+            return server.getLogger();
+        }
+
+        /**
+         * BaseChannel's serverOut. Collects a whole message
+         * (length, header, image, trailer) and writes it on flush.
+         */
+        class FrameOutputStream extends ByteArrayOutputStream {
+            FrameOutputStream () {
+                super (256);
+            }
+            @Override
+            public void flush() throws IOException {
+                if (count == 0)
+                    return;
+                if (closed.get())
+                    throw new IOException ("connection closed");
+                ByteBuffer frame = ByteBuffer.wrap (toByteArray());
+                reset();
+                Connection.this.write (frame);
+            }
+            @Override
+            public void close() {
+                Connection.this.close (null);
+            }
+        }
+    }
+}
@@ -20,6 +20,9 @@ package org.jpos.iso;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * @author joconnor
@@ -30,6 +33,7 @@ public class ISOStringFieldPackager extends ISOFieldPackager
     private Interpreter interpreter;
     private Padder padder;
     private Prefixer prefixer;
+    private final boolean directPack = !overridesPack (getClass(), ISOStringFieldPackager.class);
 
     /**
      * Constructs a default ISOStringFieldPackager. There is no padding,
@@ -103,6 +107,30 @@ public class ISOStringFieldPackager extends ISOFieldPackager
         this.prefixer = prefixer;
     }
 
+    /**
+     * @return the padder used during packing
+     */
+    public Padder getPadder()
+    {
+        return padder;
+    }
+
+    /**
+     * @return the interpreter used in packing and unpacking
+     */
+    public Interpreter getInterpreter()
+    {
+        return interpreter;
+    }
+
+    /**
+     * @return the length prefixer used during packing and unpacking
+     */
+    public Prefixer getPrefixer()
+    {
+        return prefixer;
+    }
+
     /**
      * Returns the prefixer's packed length and the interpreter's packed length.
      */
@@ -131,22 +159,61 @@ public class ISOStringFieldPackager extends ISOFieldPackager
      * @return byte array representation of component
      * @throws org.jpos.iso.ISOException
 	 */
+    private String padded(ISOComponent c) throws ISOException
+    {
+        String data;
+        if(c.getValue() instanceof byte[])
+            data = new String(c.getBytes(), ISOUtil.CHARSET); // transparent handling of complex fields
+        else
+            data = (String)c.getValue();
+
+        if (data.length() > getLength())
+        {
+            throw new ISOException("Field length " + data.length() + " too long. Max: " + getLength());
+        }
+        return padder.pad(data, getLength());
+    }
+
+    /**
+     * Writes prefix and interpreted data straight into the buffer's backing array.
+     */
     @Override
-    public byte[] pack(ISOComponent c) throws ISOException
+    public int pack(ISOComponent c, ByteBuffer buf) throws ISOException
     {
+        if (!directPack || !buf.hasArray())
+            return super.pack(c, buf);
+        String paddedData;
         try
         {
-            String data;
-            if(c.getValue() instanceof byte[])
-                data = new String(c.getBytes(), ISOUtil.CHARSET); // transparent handling of complex fields
-            else
-                data = (String)c.getValue();
+            paddedData = padded(c);
+        } catch(Exception e)
+        {
+            throw new ISOException(makeExceptionMessage(c, "packing"), e);
+        }
+        int lenLen = prefixer.getPackedLength();
+        int len = lenLen + interpreter.getPackedLength(paddedData.length());
+        if (buf.remaining() < len)
+            throw new BufferOverflowException();
+        int offset = buf.arrayOffset() + buf.position();
+        Arrays.fill (buf.array(), offset, offset + len, (byte) 0); // interpreters may OR nibbles in
+        try
+        {
+            prefixer.encodeLength(paddedData.length(), buf.array(), offset);
+            interpreter.interpret(paddedData, buf.array(), offset + lenLen);
+        } catch(Exception e)
+        {
+            throw new ISOException(makeExceptionMessage(c, "packing"), e);
+        }
+        buf.position(buf.position() + len);
+        return len;
+    }
 
-            if (data.length() > getLength())
-            {
-                throw new ISOException("Field length " + data.length() + " too long. Max: " + getLength());
-            }
-            String paddedData = padder.pad(data, getLength());
+    @Override
+    public byte[] pack(ISOComponent c) throws ISOException
+    {
+        try
+        {
+            String paddedData = padded(c);
             byte[] rawData = new byte[prefixer.getPackedLength()
                     + interpreter.getPackedLength(paddedData.length())];
             prefixer.encodeLength(paddedData.length(), rawData);
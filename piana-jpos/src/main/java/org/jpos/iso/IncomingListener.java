@@ -24,6 +24,7 @@ import org.jpos.core.Configurable;
 import org.jpos.core.Configuration;
 import org.jpos.core.ConfigurationException;
 import org.jpos.transaction.Context;
+import org.jpos.transaction.ContextPool;
 import org.jpos.space.Space;
 import org.jpos.space.SpaceFactory;
 import java.util.Date;
@@ -35,6 +36,7 @@ public class IncomingListener extends Log implements ISORequestListener, Configu
     long timeout;
     private Space<String,Context> sp;
     private String queue;
+    private ContextPool pool;
     private String source;
     private String request;
     private String timestamp;
@@ -50,6 +52,7 @@ public class IncomingListener extends Log implements ISORequestListener, Configu
         queue = cfg.get ("queue", null);
         if (queue == null)
             throw new ConfigurationException ("queue property not specified");
+        pool = ContextPool.getPool (queue);
         source = cfg.get ("source", ContextConstants.SOURCE.toString());
         request = cfg.get ("request", ContextConstants.REQUEST.toString());
         timestamp = cfg.get ("timestamp", ContextConstants.TIMESTAMP.toString());
@@ -62,7 +65,7 @@ public class IncomingListener extends Log implements ISORequestListener, Configu
             additionalContextEntries = m;
     }
     public boolean process (ISOSource src, ISOMsg m) {
-        final Context ctx  = new Context ();
+        final Context ctx  = pool.borrow ();
         ctx.put (timestamp, new Date());
         ctx.getProfiler();
         ctx.put (source, src);
@@ -0,0 +1,287 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2017 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jpos.iso;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutput;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * Inner message created by a lazy {@link ISOMsgFieldPackager}.
+ * <p>
+ * Holds the raw image of the sub-message and only unpacks it, using its
+ * packager, when its fields are first accessed. The raw image is kept
+ * (and packed back verbatim) as long as the message is only read through
+ * {@link #getString(int)}, {@link #getBytes(int)}, {@link #getValue(int)}
+ * of a String or byte[] value (the latter is returned as a copy),
+ * {@link #hasField(int)}, {@link #getPresenceBits(int)},
+ * {@link #getMaxField()} or {@link #dump(PrintStream, String)}; any other
+ * access (i.e. {@link #getComponent(int)} or {@link #getValue(int)} of an
+ * inner message, which hand out mutable objects, or a
+ * <code>set</code>/<code>unset</code>) discards it and the message is
+ * packed from its fields from then on.
+ *
+ * @see ISOMsgFieldPackager#setLazy(boolean)
+ */
+public class LazyISOMsg extends ISOMsg {
+    private byte[] image;
+    private boolean unpacked = true;
+    private static final long serialVersionUID = -3518224937813722640L;
+
+    public LazyISOMsg () {
+        super();
+    }
+
+    /**
+     * @param fieldNumber inner field number
+     */
+    public LazyISOMsg (int fieldNumber) {
+        super (fieldNumber);
+    }
+
+    /**
+     * Replaces this message's content with a raw image, to be unpacked on first access.
+     * @param image sub-message image
+     */
+    public synchronized void setImage (byte[] image) {
+        this.image = image;
+        unpacked = image == null;
+        fields.clear();
+        maxField = -1;
+        dirty = maxFieldDirty = true;
+    }
+
+    @Override
+    public synchronized void reset () {
+        super.reset();
+        image = null;
+        unpacked = true;
+    }
+
+    /**
+     * @return raw image, null if this message has been modified (or may have been)
+     */
+    public synchronized byte[] getImage () {
+        return image;
+    }
+
+    /**
+     * @return true if the raw image has been unpacked (or there was none)
+     */
+    public synchronized boolean isUnpacked () {
+        return unpacked;
+    }
+
+    /**
+     * Unpacks the raw image, if not already done, keeping it for {@link #pack()}.
+     * @throws IllegalStateException if the image can't be unpacked
+     */
+    protected synchronized void read () {
+        if (!unpacked) {
+            byte[] b = image;
+            unpacked = true;
+            image = null;
+            try {
+                getPackager().unpack (this, b);
+            } catch (ISOException e) {
+                throw new IllegalStateException ("error unpacking field " + fieldNumber, e);
+            }
+            image = b;
+        }
+    }
+
+    /**
+     * Unpacks the raw image, if not already done, and discards it.
+     * @throws IllegalStateException if the image can't be unpacked
+     */
+    protected synchronized void touch () {
+        read();
+        image = null;
+    }
+
+    @Override
+    public byte[] pack () throws ISOException {
+        synchronized (this) {
+            if (image != null)
+                return image.clone();
+        }
+        return super.pack();
+    }
+
+    @Override
+    public int pack (ByteBuffer buf) throws ISOException {
+        synchronized (this) {
+            if (image != null) {
+                buf.put (image);
+                return image.length;
+            }
+        }
+        return super.pack (buf);
+    }
+
+    @Override
+    public int unpack (byte[] b) throws ISOException {
+        setImage (null);
+        return super.unpack (b);
+    }
+
+    @Override
+    public int unpack (byte[] b, int offset, int len) throws ISOException {
+        setImage (null);
+        return super.unpack (b, offset, len);
+    }
+
+    @Override
+    public void unpack (InputStream in) throws IOException, ISOException {
+        setImage (null);
+        super.unpack (in);
+    }
+
+    @Override
+    public int getMaxField () {
+        read();
+        return super.getMaxField();
+    }
+
+    @Override
+    public void setCompact (boolean compact) {
+        touch();
+        super.setCompact (compact);
+    }
+
+    @Override
+    public void set (ISOComponent c) throws ISOException {
+        touch();
+        super.set (c);
+    }
+
+    @Override
+    public void set (int fldno, String value) {
+        touch();
+        super.set (fldno, value);
+    }
+
+    @Override
+    public void set (int fldno, byte[] value) {
+        touch();
+        super.set (fldno, value);
+    }
+
+    @Override
+    public void unset (int fldno) {
+        touch();
+        super.unset (fldno);
+    }
+
+    /**
+     * No-op while the raw image is held: it is packed verbatim, and the
+     * fields (once unpacked) and their bitmap come from it unchanged.
+     */
+    @Override
+    public synchronized void recalcBitMap () throws ISOException {
+        if (image == null)
+            super.recalcBitMap();
+    }
+
+    @Override
+    public Map getChildren () {
+        touch();
+        return super.getChildren();
+    }
+
+    @Override
+    public void dump (PrintStream p, String indent) {
+        read();
+        super.dump (p, indent);
+    }
+
+    @Override
+    public ISOComponent getComponent (int fldno) {
+        touch();
+        return super.getComponent (fldno);
+    }
+
+    @Override
+    public Object getValue (int fldno) {
+        read();
+        ISOComponent c = super.getComponent (fldno);
+        Object obj = null;
+        try {
+            obj = c != null ? c.getValue() : null;
+        } catch (ISOException ignored) {
+            // never happens for the given arguments of getValue method
+        }
+        if (obj instanceof byte[])
+            return ((byte[]) obj).clone();
+        else if (obj != null && !(obj instanceof String))
+            touch();
+        return obj;
+    }
+
+    @Override
+    public String getString (int fldno) {
+        read();
+        ISOComponent c = super.getComponent (fldno);
+        Object obj = null;
+        try {
+            obj = c != null ? c.getValue() : null;
+        } catch (ISOException ignored) {
+            // never happens for the given arguments of getValue method
+        }
+        if (obj instanceof String)
+            return (String) obj;
+        else if (obj instanceof byte[])
+            return ISOUtil.hexString ((byte[]) obj);
+        return null;
+    }
+
+    @Override
+    public boolean hasField (int fldno) {
+        read();
+        return super.hasField (fldno);
+    }
+
+    @Override
+    public long getPresenceBits (int word) {
+        read();
+        return super.getPresenceBits (word);
+    }
+
+    @Override
+    public boolean hasFields () {
+        read();
+        return super.hasFields();
+    }
+
+    @Override
+    public Object clone (int[] fields) {
+        touch();
+        return super.clone (fields);
+    }
+
+    @Override
+    public void writeExternal (ObjectOutput out) throws IOException {
+        read();
+        super.writeExternal (out);
+    }
+}
@@ -18,6 +18,9 @@
 
 package org.jpos.iso;
 
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * MUX interface
  * @author Alejandro Revilla
@@ -42,4 +45,28 @@ public interface MUX extends ISOSource {
      */
     void request(ISOMsg m, long timeout, ISOResponseListener r, Object handBack)
         throws ISOException;
+
+    /**
+     * Sends a message to remote host without blocking the caller
+     * <p>
+     * Default implementation adapts {@link #request(ISOMsg, long, ISOResponseListener, Object)}.
+     * @param m message to send
+     * @param timeout time to wait for the response
+     * @return future completed with the received message, or null if the request expires
+     * @throws ISOException
+     */
+    default CompletableFuture<ISOMsg> requestAsync(ISOMsg m, Duration timeout)
+        throws ISOException
+    {
+        CompletableFuture<ISOMsg> f = new CompletableFuture<>();
+        request(m, timeout.toMillis(), new ISOResponseListener() {
+            public void responseReceived(ISOMsg resp, Object handBack) {
+                f.complete(resp);
+            }
+            public void expired(Object handBack) {
+                f.complete(null);
+            }
+        }, null);
+        return f;
+    }
 }
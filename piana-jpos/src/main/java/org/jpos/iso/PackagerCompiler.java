@@ -0,0 +1,284 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2017 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jpos.iso;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javassist.CannotCompileException;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtNewConstructor;
+import javassist.CtNewMethod;
+import javassist.LoaderClassPath;
+import javassist.NotFoundException;
+import org.jpos.iso.packager.CompiledGenericPackager;
+
+/**
+ * Generates, using javassist, a specialized packager out of an
+ * {@link ISOBasePackager}'s field definitions (i.e. a
+ * {@link org.jpos.iso.packager.GenericPackager} XML file).
+ * <p>
+ * The generated class has straight-line pack and unpack code per field
+ * and tests field presence against a <code>long</code> based bitmap.
+ * Fields using the stock {@link ISOStringFieldPackager} and
+ * {@link ISOBinaryFieldPackager} with ASCII, BCD, binary or no length
+ * prefix, zero, space or no padding, and ASCII, literal, EBCDIC or BCD
+ * interpreters, are packed and unpacked by static helpers in
+ * {@link CompiledPackager} with their length and flavour as constants;
+ * any other field (including inner messages) calls its own field
+ * packager.
+ * <p>
+ * Supports ISO-8583 style definitions with an
+ * {@link IFB_BITMAP} or {@link IFA_BITMAP} primary/secondary bitmap
+ * in field 1 and up to 128 fields.
+ *
+ * @see CompiledPackager
+ * @see org.jpos.iso.packager.CompiledGenericPackager
+ */
+public final class PackagerCompiler {
+    private static final AtomicInteger counter = new AtomicInteger();
+    private static final String CP = CompiledPackager.class.getName();
+
+    private PackagerCompiler() { }
+
+    /**
+     * @param source packager to compile
+     * @return new packager, equivalent to <code>source</code>
+     * @throws ISOException if <code>source</code> can't be compiled
+     */
+    public static ISOBasePackager compile (ISOBasePackager source) throws ISOException {
+        if (source instanceof CompiledPackager)
+            return source;
+        String reason = check (source);
+        if (reason != null)
+            throw new ISOException (source.getDescription() + " can't be compiled: " + reason);
+        ISOFieldPackager[] fld = source.fld;
+
+        StringBuilder packFields = new StringBuilder();
+        StringBuilder unpackFields = new StringBuilder();
+        for (int i=2; i<fld.length; i++) {
+            if (fld[i] == null)
+                continue;
+            String test = String.format ("if ((%s & 0x%xL) != 0L) {\n", i <= 64 ? "p" : "s", CompiledPackager.mask (i));
+            packFields.append (test).append (pack (i, fld[i])).append ("}\n");
+            unpackFields.append (test).append (unpack (i, fld[i])).append ("}\n");
+        }
+
+        try {
+            ClassPool pool = new ClassPool (true);
+            pool.appendClassPath (new LoaderClassPath (CompiledPackager.class.getClassLoader()));
+            String name = PackagerCompiler.class.getPackage().getName() + "."
+              + source.getClass().getSimpleName() + "$$Compiled" + counter.incrementAndGet();
+            CtClass cc = pool.makeClass (name, pool.get (CP));
+            cc.addConstructor (CtNewConstructor.defaultConstructor (cc));
+            cc.addMethod (CtNewMethod.make (packMethod ("packMTI",
+              "org.jpos.iso.ISOMsg m, java.nio.ByteBuffer buf", pack (0, fld[0])), cc));
+            cc.addMethod (CtNewMethod.make (packMethod ("packFields",
+              "org.jpos.iso.ISOMsg m, long p, long s, java.nio.ByteBuffer buf", packFields), cc));
+            cc.addMethod (CtNewMethod.make (unpackMethod ("unpackMTI",
+              "org.jpos.iso.ISOMsg m, byte[] b, int offset, int end, int pos", unpack (0, fld[0])), cc));
+            cc.addMethod (CtNewMethod.make (unpackMethod ("unpackFields",
+              "org.jpos.iso.ISOMsg m, byte[] b, int offset, int end, int pos, long p, long s", unpackFields), cc));
+            Class<?> clazz = cc.toClass (
+              CompiledPackager.class.getClassLoader(), CompiledPackager.class.getProtectionDomain()
+            );
+            cc.detach();
+            CompiledPackager p = (CompiledPackager) clazz.newInstance();
+            p.init (source, fld[1] instanceof IFB_BITMAP ? CompiledPackager.BINARY_BITMAP : CompiledPackager.HEX_BITMAP);
+            return p;
+        } catch (CannotCompileException | NotFoundException | ReflectiveOperationException e) {
+            throw new ISOException ("error compiling " + source.getDescription(), e);
+        }
+    }
+
+    /**
+     * @return null if <code>p</code> can be compiled, the reason otherwise
+     */
+    private static String check (ISOBasePackager p) {
+        ISOFieldPackager[] fld = p.fld;
+        if (fld == null || fld.length < 2 || fld.length > 129)
+            return "unsupported number of fields";
+        if (fld[0] == null || fld[0] instanceof ISOBitMapPackager || p.getFirstField() != 2)
+            return "field 0 should be the MTI";
+        if (!p.emitBitMap() || p.getBitMapfieldPackager() != fld[1])
+            return "field 1 should be the bitmap";
+        if (fld[1].getClass() != IFB_BITMAP.class && fld[1].getClass() != IFA_BITMAP.class)
+            return "unsupported bitmap " + fld[1].getClass().getName();
+        if (fld[1].getLength() != 8 && fld[1].getLength() != 16)
+            return "unsupported bitmap length " + fld[1].getLength();
+        if (p.getThirdBitmapField() >= 0)
+            return "tertiary bitmaps are not supported";
+        if (overrides (p.getClass(), ISOBasePackager.class, CompiledGenericPackager.class, "pack", "unpack"))
+            return p.getClass().getName() + " overrides pack/unpack";
+        return null;
+    }
+
+    private static String packMethod (String name, String args, CharSequence body) {
+        return "protected void " + name + " (" + args + ") throws org.jpos.iso.ISOException {\n"
+          + "int f = 0; String v; byte[] d;\n"
+          + "try {\n" + body + "} catch (org.jpos.iso.ISOException e) {\n"
+          + "throw " + CP + ".packError (f, e);\n}\n}";
+    }
+
+    private static String unpackMethod (String name, String args, CharSequence body) {
+        return "protected int " + name + " (" + args + ") throws org.jpos.iso.ISOException {\n"
+          + "int f = 0; int n; org.jpos.iso.ISOComponent c;\n"
+          + "try {\n" + body + "} catch (Exception e) {\n"
+          + "throw " + CP + ".unpackError (f, pos - offset, e);\n}\nreturn pos;\n}";
+    }
+
+    private static String pack (int i, ISOFieldPackager fp) {
+        StringBuilder sb = new StringBuilder ("f = " + i + ";\n");
+        int len = fp.getLength();
+        if (isStringField (fp)) {
+            ISOStringFieldPackager sp = (ISOStringFieldPackager) fp;
+            sb.append (String.format ("v = %s.str (m.getComponent (%d), %d);\n", CP, i, len));
+            if (sp.getPadder() == LeftPadder.ZERO_PADDER)
+                sb.append (String.format ("v = %s.padLeft (v, %d, '0');\n", CP, len));
+            else if (sp.getPadder() == RightPadder.SPACE_PADDER)
+                sb.append (String.format ("v = %s.padRight (v, %d, ' ');\n", CP, len));
+            sb.append (packPrefix (sp.getPrefixer(), "v.length()"));
+            Interpreter in = sp.getInterpreter();
+            if (in == AsciiInterpreter.INSTANCE || in == LiteralInterpreter.INSTANCE)
+                sb.append (String.format ("%s.ascii (buf, v);\n", CP));
+            else if (in == EbcdicInterpreter.INSTANCE)
+                sb.append (String.format ("%s.ebcdic (buf, v);\n", CP));
+            else
+                sb.append (String.format ("%s.bcd (buf, v, %b, %b);\n", CP,
+                  in == BCDInterpreter.LEFT_PADDED || in == BCDInterpreter.LEFT_PADDED_F,
+                  in == BCDInterpreter.LEFT_PADDED_F || in == BCDInterpreter.RIGHT_PADDED_F));
+        } else if (isBinaryField (fp)) {
+            ISOBinaryFieldPackager bp = (ISOBinaryFieldPackager) fp;
+            sb.append (String.format ("d = %s.bytes (m.getComponent (%d), %d, %b);\n",
+              CP, i, len, bp.getPrefixer().getPackedLength() == 0));
+            sb.append (packPrefix (bp.getPrefixer(), "d.length"));
+            sb.append (String.format ("%s.binary (buf, d);\n", CP));
+        } else {
+            sb.append (String.format ("fld[%d].pack (m.getComponent (%d), buf);\n", i, i));
+        }
+        return sb.toString();
+    }
+
+    private static String unpack (int i, ISOFieldPackager fp) {
+        StringBuilder sb = new StringBuilder ("f = " + i + ";\n");
+        int len = fp.getLength();
+        if (isStringField (fp)) {
+            ISOStringFieldPackager sp = (ISOStringFieldPackager) fp;
+            sb.append (unpackPrefix (sp.getPrefixer(), len));
+            Interpreter in = sp.getInterpreter();
+            if (in == AsciiInterpreter.INSTANCE || in == LiteralInterpreter.INSTANCE) {
+                sb.append (String.format ("m.set (new org.jpos.iso.ISOField (%d, %s.ascii (b, pos, n, end)));\n", i, CP));
+                sb.append ("pos += n;\n");
+            } else if (in == EbcdicInterpreter.INSTANCE) {
+                sb.append (String.format ("m.set (new org.jpos.iso.ISOField (%d, %s.ebcdic (b, pos, n, end)));\n", i, CP));
+                sb.append ("pos += n;\n");
+            } else {
+                sb.append (String.format ("m.set (new org.jpos.iso.ISOField (%d, %s.bcd (b, pos, n, %b, end)));\n", i, CP,
+                  in == BCDInterpreter.LEFT_PADDED || in == BCDInterpreter.LEFT_PADDED_F));
+                sb.append ("pos += (n + 1) / 2;\n");
+            }
+        } else if (isBinaryField (fp)) {
+            ISOBinaryFieldPackager bp = (ISOBinaryFieldPackager) fp;
+            sb.append (unpackPrefix (bp.getPrefixer(), len));
+            sb.append (String.format ("m.set (new org.jpos.iso.ISOBinaryField (%d, %s.binary (b, pos, n, end)));\n", i, CP));
+            sb.append ("pos += n;\n");
+        } else {
+            sb.append (String.format ("c = fld[%d].createComponent (%d);\n", i, i));
+            sb.append (String.format ("pos += fld[%d].unpack (c, b, pos);\n", i));
+            sb.append (String.format ("%s.need (pos, 0, end);\n", CP));
+            sb.append ("m.set (c);\n");
+        }
+        return sb.toString();
+    }
+
+    private static String packPrefix (Prefixer p, String len) {
+        String type = prefixType (p);
+        return type == null ? "" : String.format ("%s.%sLength (buf, %s, %d);\n", CP, type, len, p.getPackedLength());
+    }
+
+    private static String unpackPrefix (Prefixer p, int maxLength) {
+        String type = prefixType (p);
+        if (type == null)
+            return "n = " + maxLength + ";\n";
+        return String.format ("n = %s.%sLength (b, pos, %d, end);\n", CP, type, p.getPackedLength())
+          + String.format ("%s.checkLength (n, %d);\n", CP, maxLength)
+          + "pos += " + p.getPackedLength() + ";\n";
+    }
+
+    /**
+     * @return helper name prefix for <code>p</code>, null if there's no prefix
+     */
+    private static String prefixType (Prefixer p) {
+        if (p.getClass() == AsciiPrefixer.class)
+            return "ascii";
+        if (p.getClass() == BcdPrefixer.class)
+            return "bcd";
+        if (p.getClass() == BinaryPrefixer.class)
+            return "binary";
+        return null;
+    }
+
+    private static boolean isSupported (Prefixer p) {
+        return p != null && (p.getClass() == NullPrefixer.class || prefixType (p) != null);
+    }
+
+    private static boolean isStringField (ISOFieldPackager fp) {
+        if (!(fp instanceof ISOStringFieldPackager) || overrides (fp.getClass(), ISOStringFieldPackager.class))
+            return false;
+        ISOStringFieldPackager sp = (ISOStringFieldPackager) fp;
+        Padder pad = sp.getPadder();
+        Interpreter in = sp.getInterpreter();
+        return isSupported (sp.getPrefixer())
+          && (pad == null || pad.getClass() == NullPadder.class
+              || pad == LeftPadder.ZERO_PADDER || pad == RightPadder.SPACE_PADDER)
+          && (in == AsciiInterpreter.INSTANCE || in == LiteralInterpreter.INSTANCE || in == EbcdicInterpreter.INSTANCE
+              || in == BCDInterpreter.LEFT_PADDED || in == BCDInterpreter.RIGHT_PADDED
+              || in == BCDInterpreter.LEFT_PADDED_F || in == BCDInterpreter.RIGHT_PADDED_F);
+    }
+
+    private static boolean isBinaryField (ISOFieldPackager fp) {
+        if (!(fp instanceof ISOBinaryFieldPackager) || overrides (fp.getClass(), ISOBinaryFieldPackager.class))
+            return false;
+        ISOBinaryFieldPackager bp = (ISOBinaryFieldPackager) fp;
+        return isSupported (bp.getPrefixer()) && bp.getInterpreter() == LiteralBinaryInterpreter.INSTANCE;
+    }
+
+    private static boolean overrides (Class<?> clazz, Class<?> base) {
+        return overrides (clazz, base, null, "pack", "unpack", "createComponent");
+    }
+
+    /**
+     * @return true if a class between <code>clazz</code> and <code>base</code>, other than
+     * <code>skip</code>, declares any of <code>names</code>
+     */
+    private static boolean overrides (Class<?> clazz, Class<?> base, Class<?> skip, String... names) {
+        for (Class<?> k = clazz; k != base && k != null; k = k.getSuperclass()) {
+            if (k == skip)
+                continue; // only delegates to the compiled packager
+            for (Method m : k.getDeclaredMethods()) {
+                for (String name : names)
+                    if (m.getName().equals (name) && !m.isSynthetic())
+                        return true;
+            }
+        }
+        return false;
+    }
+}
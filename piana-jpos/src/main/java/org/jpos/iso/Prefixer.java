@@ -37,6 +37,28 @@ public interface Prefixer
 	 */
     void encodeLength(int length, byte[] b) throws ISOException;
 
+    /**
+     * Writes the field length data in raw form at a given offset.
+     * <p>
+     * Default implementation encodes into a temporary array.
+     *
+     * @param length
+     *            The length to be encoded.
+     * @param b
+     *            The byte array to write the encoded length to.
+     * @param offset
+     *            Where the encoded length starts.
+     */
+    default void encodeLength(int length, byte[] b, int offset) throws ISOException {
+        if (offset == 0) {
+            encodeLength(length, b);
+            return;
+        }
+        byte[] l = new byte[getPackedLength()];
+        encodeLength(length, l);
+        System.arraycopy(l, 0, b, offset, l.length);
+    }
+
     /**
 	 * Decodes an encoded length.
 	 * 
@@ -41,6 +41,8 @@ public class ASCIIChannel extends BaseChannel {
 
     /** Number of digits for the message length header */
     protected int lengthDigits= 4;                                      // 4 is default
+    private AsciiPrefixer lengthPrefixer = AsciiPrefixer.LLLL;
+    private byte[] lengthBuf;
 
     private static final BigInteger ten= BigInteger.valueOf(10L);     // just a static 10
 
@@ -83,8 +85,26 @@ public class ASCIIChannel extends BaseChannel {
     }
 
 
-    public void setLengthDigits(int len) { lengthDigits= len; }
+    public void setLengthDigits(int len) {
+        lengthDigits= len;
+        lengthPrefixer= new AsciiPrefixer(len);
+    }
     public int getLengthDigits() { return lengthDigits; }
+    @Override
+    public Prefixer getLengthPrefixer() {
+        return lengthPrefixer;
+    }
+    /**
+     * Echoes zero length keep-alives back, as {@link #getMessageLength()} does
+     */
+    @Override
+    protected boolean keepAliveReceived (byte[] prefix) throws IOException {
+        synchronized (serverOutLock) {
+            serverOut.write(prefix);
+            serverOut.flush();
+        }
+        return true;
+    }
 
 
     /**
@@ -106,21 +126,31 @@ public class ASCIIChannel extends BaseChannel {
      */
     protected int getMessageLength() throws IOException, ISOException {
         int l = 0;
-        byte[] b = new byte[lengthDigits];
+        if (lengthBuf == null || lengthBuf.length != lengthDigits)
+            lengthBuf = new byte[lengthDigits]; // reused, callers hold serverInLock
+        byte[] b = lengthBuf;
         while (l == 0) {
             serverIn.readFully(b, 0, lengthDigits);
-            try {
-                if ((l=Integer.parseInt(new String(b))) == 0) {
-                    serverOut.write(b);
-                    serverOut.flush();
-                }
-            } catch (NumberFormatException e) { 
-                throw new ISOException ("Invalid message length "+new String(b));
+            for (int i=0; i<lengthDigits; i++) {
+                if (b[i] < '0' || b[i] > '9')
+                    throw new ISOException ("Invalid message length "+new String(b));
+                l = l * 10 + b[i] - '0';
+            }
+            if (l == 0) {
+                serverOut.write(b);
+                serverOut.flush();
             }
         }
         return l;
     }
 
+    @Override
+    public Object clone() {
+        ASCIIChannel channel = (ASCIIChannel) super.clone();
+        channel.lengthBuf = null;
+        return channel;
+    }
+
 
     /**
      *
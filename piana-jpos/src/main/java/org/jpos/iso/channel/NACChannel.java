@@ -90,7 +90,12 @@ public class NACChannel extends BaseChannel {
         serverIn.readFully(b,0,2);
         return ((int)b[0] &0xFF) << 8 | (int)b[1] &0xFF;
     }
-    protected void sendMessageHeader(ISOMsg m, int len) throws IOException { 
+    @Override
+    public Prefixer getLengthPrefixer() {
+        return BinaryPrefixer.BB;
+    }
+    @Override
+    protected byte[] getOutgoingHeader (ISOMsg m) {
         byte[] h = m.getHeader();
         if (h != null) {
             if (tpduSwap && h.length == 5) {
@@ -103,6 +108,10 @@ public class NACChannel extends BaseChannel {
         }
         else 
             h = header;
+        return h;
+    }
+    protected void sendMessageHeader(ISOMsg m, int len) throws IOException { 
+        byte[] h = getOutgoingHeader (m);
         if (h != null) 
             serverOut.write(h);
     }
@@ -82,6 +82,10 @@ public class PostChannel extends BaseChannel {
         return ((int)b[0] &0xFF) << 8 |
                 (int)b[1] &0xFF;
     }
+    @Override
+    public Prefixer getLengthPrefixer() {
+        return BinaryPrefixer.BB;
+    }
    /**
     *      * @param header Hex representation of header
     */
@@ -0,0 +1,127 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2017 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jpos.iso.packager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import org.jpos.iso.ISOBasePackager;
+import org.jpos.iso.ISOComponent;
+import org.jpos.iso.ISOException;
+import org.jpos.iso.PackagerCompiler;
+import org.jpos.util.LogEvent;
+import org.jpos.util.Logger;
+
+/**
+ * {@link GenericPackager} that, once its XML field description has been
+ * read, packs and unpacks through a packager generated by
+ * {@link PackagerCompiler}.
+ * <p>
+ * Definitions the compiler doesn't support (i.e. tertiary bitmaps) are
+ * handled by the regular GenericPackager code, see {@link #isCompiled()}.
+ *
+ * @see PackagerCompiler
+ */
+public class CompiledGenericPackager extends GenericPackager {
+    private ISOBasePackager compiled;
+
+    public CompiledGenericPackager() throws ISOException {
+        super();
+    }
+
+    /**
+     * @param filename The XML field description file
+     */
+    public CompiledGenericPackager(String filename) throws ISOException {
+        super(filename);
+    }
+
+    /**
+     * @param input The XML field description InputStream
+     */
+    public CompiledGenericPackager(InputStream input) throws ISOException {
+        super(input);
+    }
+
+    @Override
+    public void readFile(String filename) throws ISOException {
+        super.readFile(filename);
+        compile();
+    }
+
+    @Override
+    public void readFile(InputStream input) throws ISOException {
+        super.readFile(input);
+        compile();
+    }
+
+    /**
+     * @return true if packing and unpacking go through the generated packager
+     */
+    public boolean isCompiled() {
+        return compiled != null;
+    }
+
+    @Override
+    public byte[] pack(ISOComponent m) throws ISOException {
+        return compiled != null ? compiled.pack(m) : super.pack(m);
+    }
+
+    @Override
+    public int pack(ISOComponent m, ByteBuffer buf) throws ISOException {
+        return compiled != null ? compiled.pack(m, buf) : super.pack(m, buf);
+    }
+
+    @Override
+    public int unpack(ISOComponent m, byte[] b) throws ISOException {
+        return compiled != null ? compiled.unpack(m, b) : super.unpack(m, b);
+    }
+
+    @Override
+    public int unpack(ISOComponent m, byte[] b, int offset, int len) throws ISOException {
+        return compiled != null ? compiled.unpack(m, b, offset, len) : super.unpack(m, b, offset, len);
+    }
+
+    @Override
+    public void unpack(ISOComponent m, InputStream in) throws IOException, ISOException {
+        if (compiled != null)
+            compiled.unpack(m, in);
+        else
+            super.unpack(m, in);
+    }
+
+    @Override
+    public void setLogger(Logger logger, String realm) {
+        super.setLogger(logger, realm);
+        if (compiled != null)
+            compiled.setLogger(logger, realm);
+    }
+
+    private void compile() {
+        try {
+            compiled = PackagerCompiler.compile(this);
+        } catch (ISOException e) {
+            compiled = null;
+            if (getLogger() != null)
+                Logger.log(new LogEvent(this, "warn", e.getMessage()));
+        }
+    }
+}
@@ -70,7 +70,8 @@ import java.util.TreeMap;
  *     name="[field name]"
  *     length="[field length]"
  *     class="[org.jpos.iso.IF_*]"
- *     packager="[org.jpos.iso.packager.*]"&gt;
+ *     packager="[org.jpos.iso.packager.*]"
+ *     lazy="true|false"&gt;
  *      
  *     &lt;isofield 
  *         id="[subfield id]"
@@ -82,6 +83,9 @@ import java.util.TreeMap;
  *         ...
  * &lt;/isofieldpackager&gt;
  *
+ * When lazy is true, the subfields are only unpacked on first access,
+ * and packed back verbatim if left untouched (see {@link ISOMsgFieldPackager#setLazy(boolean)}).
+ *
  * The optional attributes maxValidField, bitmapField, thirdBitmapField, and emitBitmap
  * are allowed on the isopackager node.
  *
@@ -419,13 +423,15 @@ public class GenericPackager
                     For a isofield packager node push the following fields
                     onto the stack.
                     1) an Integer indicating the field ID
-                    2) an instance of the specified ISOFieldPackager class
-                    3) an instance of the specified ISOBasePackager (msgPackager) class
-                    4) a Map to collect the subfields
+                    2) a Boolean indicating whether subfields are lazily unpacked
+                    3) an instance of the specified ISOFieldPackager class
+                    4) an instance of the specified ISOBasePackager (msgPackager) class
+                    5) a Map to collect the subfields
                     */
                     String packager = atts.getValue("packager");
 
                     fieldStack.push(new Integer(id));
+                    fieldStack.push(Boolean.valueOf(atts.getValue("lazy")));
 
                     ISOFieldPackager f;
                     f = (ISOFieldPackager) Class.forName(type).newInstance();   
@@ -509,7 +515,7 @@ public class GenericPackager
 
             if (localName.equals("isofieldpackager"))
             {
-                // Pop the 4 entries off the stack in the correct order
+                // Pop the 5 entries off the stack in the correct order
                 m = (Map)fieldStack.pop();
 
                 ISOBasePackager msgPackager = (ISOBasePackager) fieldStack.pop();
@@ -517,6 +523,8 @@ public class GenericPackager
 
                 ISOFieldPackager fieldPackager = (ISOFieldPackager) fieldStack.pop();
 
+                boolean lazy = (Boolean) fieldStack.pop();
+
                 Integer fno = (Integer) fieldStack.pop();
 
                 msgPackager.setLogger (getLogger(), getRealm() + "-fld-" + fno);
@@ -524,6 +532,7 @@ public class GenericPackager
                 // Create the ISOMsgField packager with the retrieved msg and field Packagers
                 ISOMsgFieldPackager mfp = 
                     new ISOMsgFieldPackager(fieldPackager, msgPackager);
+                mfp.setLazy(lazy);
 
                 // Add the newly created ISOMsgField packager to the
                 // lower level field stack
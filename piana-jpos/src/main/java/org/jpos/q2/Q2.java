@@ -35,6 +35,7 @@ import org.jpos.iso.ISOException;
 import org.jpos.iso.ISOUtil;
 import org.jpos.q2.ssh.SshService;
 import org.jpos.security.SystemSeed;
+import org.jpos.util.AsyncLogDispatcher;
 import org.jpos.util.Log;
 import org.jpos.util.LogEvent;
 import org.jpos.util.Logger;
@@ -261,6 +262,7 @@ public class Q2 implements FileFilter, Runnable {
                 }
             }
             undeploy();
+            AsyncLogDispatcher.flushAll(SHUTDOWN_TIMEOUT);
             try {
                 server.unregisterMBean(loaderName);
             } catch (InstanceNotFoundException e) {
@@ -426,6 +428,7 @@ public class Q2 implements FileFilter, Runnable {
                             // exception.
                         }
                     }
+                    AsyncLogDispatcher.flushAll (SHUTDOWN_TIMEOUT);
                 }
             }
         );
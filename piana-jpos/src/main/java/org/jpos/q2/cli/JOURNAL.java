@@ -0,0 +1,78 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2017 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jpos.q2.cli;
+
+import org.jpos.q2.CLICommand;
+import org.jpos.q2.CLIContext;
+import org.jpos.util.BinaryLogReader;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+
+/**
+ * Renders {@link org.jpos.util.BinaryLogListener} journals as XML.
+ */
+public class JOURNAL implements CLICommand {
+    public void exec(CLIContext cli, String[] args) throws Exception {
+        int i = 1;
+        File out = null;
+        if (args.length > 2 && "-o".equals(args[1])) {
+            out = new File(args[2]);
+            i = 3;
+        }
+        if (args.length <= i) {
+            cli.println("Usage: journal [-o output-file] journal-file-or-directory ...");
+            return;
+        }
+        PrintStream p;
+        if (out != null)
+            p = new PrintStream(new FileOutputStream(out));
+        else if (cli.isInteractive())
+            p = new PrintStream(cli.getReader().getTerminal().output());
+        else
+            p = new PrintStream(cli.getOutputStream());
+        int n = 0;
+        try {
+            if (out != null) {
+                p.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+                p.println("<logger class=\"" + BinaryLogReader.class.getName() + "\">");
+            }
+            BinaryLogReader reader = new BinaryLogReader(p);
+            for (; i < args.length; i++) {
+                File f = new File(args[i]);
+                if (!f.exists()) {
+                    cli.println(args[i] + " not found -- ignored.");
+                    continue;
+                }
+                n += reader.render(f);
+            }
+            if (out != null)
+                p.println("</logger>");
+        } finally {
+            if (out != null)
+                p.close();
+            else
+                p.flush();
+        }
+        if (out != null)
+            cli.println(n + " events written to " + out);
+    }
+}
@@ -25,6 +25,7 @@ import org.jpos.q2.QBeanSupport;
 import org.jpos.space.Space;
 import org.jpos.space.SpaceFactory;
 import org.jpos.transaction.Context;
+import org.jpos.transaction.ContextPool;
 import org.jpos.util.Loggeable;
 import org.jpos.util.NameRegistrar;
 
@@ -76,7 +77,7 @@ public class ContextMaker extends QBeanSupport implements Runnable,
 			Object o = sp.in(in, timeout);
 
             	if (o != null) {
-    		            Context ctx = new Context();
+    		            Context ctx = ContextPool.getPool(out).borrow();
                 		ctx.put(contextName, o);
                 		
                 		if (contextValues != null) {
@@ -27,7 +27,9 @@ import org.jpos.space.SpaceFactory;
 import org.jpos.util.NameRegistrar;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.util.StringTokenizer;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -146,6 +148,18 @@ public class MUXPool extends QBeanSupport implements MUX, MUXPoolMBean {
         } else 
             throw new ISOException ("No MUX available");
     }
+    @Override
+    public CompletableFuture<ISOMsg> requestAsync (ISOMsg m, Duration timeout) throws ISOException {
+        long maxWait = System.currentTimeMillis() + timeout.toMillis();
+        MUX mux = getMUX(m,maxWait);
+
+        if (mux == null)
+            throw new ISOException ("No MUX available");
+        long remaining = maxWait - System.currentTimeMillis();
+        if (remaining < 0)
+            return CompletableFuture.completedFuture(null);
+        return mux.requestAsync (m, Duration.ofMillis(remaining));
+    }
     private boolean overrideMTI(String mtiReq) {
         if(overrideMTIs != null){
             for (String mti : overrideMTIs) {
@@ -0,0 +1,178 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2017 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.q2.iso;
+
+import org.jpos.iso.ISOMsg;
+import org.jpos.q2.iso.QMUX.PendingRequest;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiPredicate;
+
+/**
+ * QMUX's table of requests waiting for a response.
+ *
+ * <p>Open addressing (linear probing) table keyed by a precomputed
+ * <code>long</code> hash of the request's key fields. Since different keys
+ * may share a hash, candidates are verified against the actual key fields
+ * using the <code>sameKey</code> predicate.
+ *
+ * <p>Lookups and removals are lock-free; additions (which also check for
+ * duplicates and eventually rebuild the table) are serialized.
+ * Removed slots are left as tombstones until the next rebuild.
+ */
+class PendingRequests {
+    private static final Object TOMBSTONE = new Object();
+    private static final int MIN_CAPACITY = 64;
+
+    private final BiPredicate<ISOMsg,ISOMsg> sameKey;
+    private volatile AtomicReferenceArray<Object> slots;
+    private int used; // live entries and tombstones, guarded by this
+
+    /**
+     * @param initialCapacity initial number of slots
+     * @param sameKey true if both messages have the same key fields
+     */
+    PendingRequests (int initialCapacity, BiPredicate<ISOMsg,ISOMsg> sameKey) {
+        this.sameKey = sameKey;
+        this.slots = new AtomicReferenceArray<>(capacityFor (initialCapacity));
+    }
+
+    /**
+     * @param r the request
+     * @return false if there's already a pending request with the same key
+     */
+    synchronized boolean add (PendingRequest r) {
+        AtomicReferenceArray<Object> s = slots;
+        if (used + 1 > s.length() * 3 / 4)
+            s = rebuild();
+        int mask = s.length() - 1;
+        for (int i = spread (r.hash) & mask; ; i = (i + 1) & mask) {
+            Object o = s.get (i);
+            if (o == null) {
+                s.set (i, r);
+                used++;
+                return true;
+            }
+            if (o != TOMBSTONE && matches ((PendingRequest) o, r.hash, r.request))
+                return false;
+        }
+    }
+
+    /**
+     * @param hash response's key hash
+     * @param response the response
+     * @return pending (not yet completed) request matching the response, or null
+     */
+    PendingRequest find (long hash, ISOMsg response) {
+        AtomicReferenceArray<Object> s = slots;
+        int mask = s.length() - 1;
+        int i = spread (hash) & mask;
+        for (int n = 0; n <= mask; n++, i = (i + 1) & mask) {
+            Object o = s.get (i);
+            if (o == null)
+                break;
+            if (o != TOMBSTONE && matches ((PendingRequest) o, hash, response))
+                return (PendingRequest) o;
+        }
+        return null;
+    }
+
+    /**
+     * Removes a (completed) request.
+     * @param r the request
+     */
+    void remove (PendingRequest r) {
+        AtomicReferenceArray<Object> s = slots;
+        int mask = s.length() - 1;
+        int i = spread (r.hash) & mask;
+        for (int n = 0; n <= mask; n++, i = (i + 1) & mask) {
+            Object o = s.get (i);
+            if (o == null)
+                return;
+            if (o == r) {
+                s.compareAndSet (i, r, TOMBSTONE);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return number of pending requests
+     */
+    int size() {
+        AtomicReferenceArray<Object> s = slots;
+        int size = 0;
+        for (int i=0; i<s.length(); i++) {
+            Object o = s.get (i);
+            if (o != null && o != TOMBSTONE && !((PendingRequest) o).isDone())
+                size++;
+        }
+        return size;
+    }
+
+    int capacity() {
+        return slots.length();
+    }
+
+    private boolean matches (PendingRequest p, long hash, ISOMsg m) {
+        return p.hash == hash && !p.isDone() && sameKey.test (p.request, m);
+    }
+
+    /**
+     * Copies live requests into a new table, growing it if more than
+     * half of the slots would be in use.
+     */
+    private AtomicReferenceArray<Object> rebuild() {
+        AtomicReferenceArray<Object> s = slots;
+        int live = 0;
+        for (int i=0; i<s.length(); i++) {
+            Object o = s.get (i);
+            if (o != null && o != TOMBSTONE && !((PendingRequest) o).isDone())
+                live++;
+        }
+        AtomicReferenceArray<Object> ns = new AtomicReferenceArray<>(capacityFor (live * 2 + 1));
+        int mask = ns.length() - 1;
+        for (int i=0; i<s.length(); i++) {
+            Object o = s.get (i);
+            if (o != null && o != TOMBSTONE && !((PendingRequest) o).isDone()) {
+                int j = spread (((PendingRequest) o).hash) & mask;
+                while (ns.get (j) != null)
+                    j = (j + 1) & mask;
+                ns.set (j, o);
+            }
+        }
+        used = live;
+        slots = ns;
+        return ns;
+    }
+
+    private static int capacityFor (int n) {
+        int c = MIN_CAPACITY;
+        while (c < n)
+            c <<= 1;
+        return c;
+    }
+
+    private static int spread (long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+}
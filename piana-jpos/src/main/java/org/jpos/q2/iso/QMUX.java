@@ -27,15 +27,19 @@ import org.jpos.q2.QBeanSupport;
 import org.jpos.q2.QFactory;
 import org.jpos.space.*;
 import org.jpos.util.Chronometer;
+import org.jpos.util.HashedWheelTimer;
 import org.jpos.util.Loggeable;
 import org.jpos.util.Metrics;
 import org.jpos.util.NameRegistrar;
 
 import java.io.IOException;
 import java.io.PrintStream;
+import java.time.Duration;
 import java.util.*;
-import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * @author Alejandro Revilla
@@ -47,6 +51,8 @@ public class QMUX
 {
     static final String nomap = "0123456789";
     static final String DEFAULT_KEY = "41, 11";
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME  = 0x100000001b3L;
     protected LocalSpace sp;
     protected String in, out, unhandled;
     protected String[] ready;
@@ -55,8 +61,11 @@ public class QMUX
     protected String[] mtiMapping;
     private boolean headerIsKey;
     private boolean returnRejects;
-    private LocalSpace isp; // internal space
     private Map<String,String[]> mtiKey = new HashMap<>();
+    private KeyField[] keyFields;
+    private KeyField[][] mtiKeyFields; // indexed by the first two MTI digits
+    private final PendingRequests pending = new PendingRequests (256, this::sameKey);
+    private final HashedWheelTimer timer = HashedWheelTimer.getDefault();
     private Metrics metrics = new Metrics(new AtomicHistogram(60000, 2));
 
     List<ISORequestListener> listeners;
@@ -70,7 +79,6 @@ public class QMUX
     public void initService () throws ConfigurationException {
         Element e = getPersist ();
         sp        = grabSpace (e.getChild ("space"));
-        isp       = cfg.getBoolean("reuse-space", false) ? sp : new TSpace();
         in        = e.getChildTextTrim ("in");
         out       = e.getChildTextTrim ("out");
         ignorerc  = e.getChildTextTrim ("ignore-rc");
@@ -84,6 +92,7 @@ public class QMUX
                 key = toStringArray(e.getChildTextTrim("key"), ", ", DEFAULT_KEY);
             }
         }
+        initKeyFields();
         ready     = toStringArray(e.getChildTextTrim ("ready"));
         mtiMapping = toStringArray(e.getChildTextTrim ("mtimapping"));
         if (mtiMapping == null || mtiMapping.length != 3) 
@@ -129,33 +138,22 @@ public class QMUX
      * @return response or null
      */
     public ISOMsg request (ISOMsg m, long timeout) throws ISOException {
-        String key = getKey (m);
-        String req = key + ".req";
-        synchronized (isp) {
-            if (isp.rdp (req) != null)
-                throw new ISOException ("Duplicate key '" + req + "' detected");
-            isp.out (req, m);
-        }
+        PendingRequest r = new PendingRequest (m, false, null, null);
+        if (!pending.add (r))
+            throw new ISOException ("Duplicate key '" + getKey (m) + ".req' detected");
         m.setDirection(0);
-        Chronometer c = new Chronometer();
-        if (timeout > 0)
+        if (timeout > 0) {
+            r.expireIn (timeout);
             sp.out (out, m, timeout);
-        else
+        } else
             sp.out (out, m);
 
         ISOMsg resp;
         try {
             synchronized (this) { tx++; rxPending++; }
-
-            for (;;) {
-                resp = (ISOMsg) isp.in (key, timeout);
-                if (!shouldIgnore (resp))
-                    break;
-            }
-            if (resp == null && isp.inp (req) == null) {
-                // possible race condition, retry for a few extra seconds
-                resp = (ISOMsg) isp.in (key, 10000);
-            }
+            if (timeout <= 0)
+                r.done (null);
+            resp = r.join();
             synchronized (this) {
                 if (resp != null) 
                 {
@@ -170,7 +168,7 @@ public class QMUX
         } finally {
             synchronized (this) { rxPending--; }
         }
-        long elapsed = c.elapsed();
+        long elapsed = r.chrono.elapsed();
         metrics.record("all", elapsed);
         if (resp != null)
             metrics.record("ok", elapsed);
@@ -179,24 +177,45 @@ public class QMUX
     public void request (ISOMsg m, long timeout, ISOResponseListener rl, Object handBack)
       throws ISOException
     {
-        String key = getKey (m);
-        String req = key + ".req";
-        synchronized (isp) {
-            if (isp.rdp (req) != null)
-                throw new ISOException ("Duplicate key '" + req + "' detected.");
-            m.setDirection(0);
-            AsyncRequest ar = new AsyncRequest (rl, handBack);
-            synchronized (ar) {
-                if (timeout > 0)
-                    ar.setFuture(getScheduledThreadPoolExecutor().schedule(ar, timeout, TimeUnit.MILLISECONDS));
-            }
-            isp.out (req, ar, timeout);
-        }
-        if (timeout > 0)
+        PendingRequest r = new PendingRequest (m, true, rl, handBack);
+        if (!pending.add (r))
+            throw new ISOException ("Duplicate key '" + getKey (m) + ".req' detected.");
+        m.setDirection(0);
+        if (timeout > 0) {
+            r.expireIn (timeout);
             sp.out (out, m, timeout);
-        else
+        } else
+            sp.out (out, m);
+        synchronized (this) { tx++; rxPending++; }
+    }
+    /**
+     * Sends a message without blocking the caller.
+     *
+     * <p>The returned future is completed by the thread that delivers the
+     * response (see {@link #notify(Object, Object)}), or by the timer with
+     * null if the request expires, so dependent stages should not block.
+     * Cancelling it forgets the pending request.
+     * @param m message to send
+     * @param timeout time to wait for the response
+     * @return future completed with the response, or null on timeout
+     * @throws ISOException if the key can't be computed or is already pending
+     */
+    @Override
+    public CompletableFuture<ISOMsg> requestAsync (ISOMsg m, Duration timeout) throws ISOException {
+        PendingRequest r = new PendingRequest (m, true, null, null);
+        if (!pending.add (r))
+            throw new ISOException ("Duplicate key '" + getKey (m) + ".req' detected.");
+        m.setDirection(0);
+        long millis = timeout.toMillis();
+        if (millis > 0) {
+            r.expireIn (millis);
+            sp.out (out, m, millis);
+        } else
             sp.out (out, m);
         synchronized (this) { tx++; rxPending++; }
+        if (millis <= 0)
+            r.run();
+        return r;
     }
     public void notify (Object k, Object value) {
         Object obj = sp.inp (k);
@@ -204,16 +223,12 @@ public class QMUX
             ISOMsg m = (ISOMsg) obj;
             try {
                 if (returnRejects || m.isResponse()) {
-                    String key = getKey (m);
-                    String req = key + ".req";
-                    Object r = isp.inp (req);
+                    PendingRequest r = pending.find (hash (m), m);
                     if (r != null) {
-                        if (r instanceof AsyncRequest) {
-                            ((AsyncRequest) r).responseReceived (m);
-                        } else {
-                            isp.out (key, m);
-                        }
-                        return;
+                        if (r.listener == null && shouldIgnore (m))
+                            return;
+                        if (r.done (m))
+                            return;
                     }
                 }
             } catch (ISOException e) {
@@ -259,6 +274,120 @@ public class QMUX
         return metrics.metrics();
     }
 
+    /**
+     * @return number of requests waiting for a response
+     */
+    public int getPendingRequests() {
+        return pending.size();
+    }
+
+    /**
+     * Hashes the same fields {@link #getKey(ISOMsg)} uses, without building the key.
+     * @param m message
+     * @return key hash
+     * @throws ISOException if the message has no MTI or no key fields
+     */
+    long hash (ISOMsg m) throws ISOException {
+        String mti = m.getMTI();
+        long h = FNV_OFFSET;
+        if (mti.length() == 4) {
+            for (int i=0; i<mtiMapping.length; i++)
+                h = (h ^ mapMTI (mti, i)) * FNV_PRIME;
+        } else {
+            h = hash (h, mapMTI (mti));
+        }
+        if (headerIsKey && m.getHeader() != null) {
+            for (byte b : m.getHeader())
+                h = (h ^ (b & 0xFF)) * FNV_PRIME;
+            h = (h ^ '.') * FNV_PRIME;
+        }
+        boolean hasFields = false;
+        for (KeyField f : keyFields (mti)) {
+            String v = f.value (m);
+            if (v != null) {
+                h = f.hash (h, v, mti);
+                hasFields = true;
+            }
+        }
+        if (!hasFields)
+            throw new ISOException ("Key fields not found - not sending " + out + '.' + mapMTI (mti));
+        return h;
+    }
+
+    /**
+     * Verifies two messages have the same key (as in {@link #getKey(ISOMsg)}), without building it.
+     */
+    boolean sameKey (ISOMsg a, ISOMsg b) {
+        try {
+            String ma = a.getMTI();
+            String mb = b.getMTI();
+            if (ma.length() == 4 && mb.length() == 4) {
+                for (int i=0; i<mtiMapping.length; i++)
+                    if (mapMTI (ma, i) != mapMTI (mb, i))
+                        return false;
+            } else if (!mapMTI (ma).equals (mapMTI (mb))) {
+                return false;
+            }
+            if (headerIsKey && !Arrays.equals (a.getHeader(), b.getHeader()))
+                return false;
+            KeyField[] ka = keyFields (ma);
+            if (ka != keyFields (mb))
+                return getKey (a).equals (getKey (b));
+            for (KeyField f : ka) {
+                String va = f.value (a);
+                String vb = f.value (b);
+                if (va == null || vb == null) {
+                    if (va != vb)
+                        return false;
+                } else if (!f.equals (va, ma, vb, mb)) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (ISOException e) {
+            return false;
+        }
+    }
+
+    private char mapMTI (String mti, int pos) {
+        int c = mti.charAt (pos) - '0';
+        return c >= 0 && c < 10 ? mtiMapping[pos].charAt(c) : 0;
+    }
+
+    private static long hash (long h, String s) {
+        for (int i=0; i<s.length(); i++)
+            h = (h ^ s.charAt(i)) * FNV_PRIME;
+        return h;
+    }
+
+    private void initKeyFields() {
+        keyFields = KeyField.of (key);
+        mtiKeyFields = new KeyField[100][];
+        for (Map.Entry<String,String[]> e : mtiKey.entrySet()) {
+            int i = mtiIndex (e.getKey());
+            if (i >= 0)
+                mtiKeyFields[i] = KeyField.of (e.getValue());
+        }
+    }
+
+    private KeyField[] keyFields (String mti) {
+        if (keyFields == null)
+            initKeyFields();
+        int i = mtiIndex (mti);
+        if (i >= 0)
+            return mtiKeyFields[i] != null ? mtiKeyFields[i] : keyFields;
+        String[] k = mtiKey.get (mti.substring (0,2));
+        return k != null ? KeyField.of (k) : keyFields;
+    }
+
+    private static int mtiIndex (String mti) {
+        if (mti.length() < 2)
+            return -1;
+        int c0 = mti.charAt(0) - '0';
+        int c1 = mti.charAt(1) - '0';
+        return c0 >= 0 && c0 < 10 && c1 >= 0 && c1 < 10 ? c0 * 10 + c1 : -1;
+    }
+
     private String mapMTI (String mti) throws ISOException {
         StringBuilder sb = new StringBuilder();
         if (mti != null) {
@@ -308,11 +437,13 @@ public class QMUX
     private void addListeners () 
         throws ConfigurationException
     {
-        QFactory factory = getFactory ();
+        QFactory factory = null;
         Iterator iter = getPersist().getChildren (
             "request-listener"
         ).iterator();
         while (iter.hasNext()) {
+            if (factory == null)
+                factory = getFactory ();
             Element l = (Element) iter.next();
             ISORequestListener listener = (ISORequestListener) 
                 factory.newInstance (l.getAttributeValue ("class"));
@@ -457,39 +588,212 @@ public class QMUX
         sb.append (name);
         sb.append (value);
     }
-    public class AsyncRequest implements Runnable {
-        ISOResponseListener rl;
-        Object handBack;
-        ScheduledFuture future;
-        Chronometer chrono;
-        public AsyncRequest (ISOResponseListener rl, Object handBack) {
+    /**
+     * A request waiting for a response, completed either by
+     * {@link #notify(Object, Object)} or by its timeout.
+     */
+    class PendingRequest extends CompletableFuture<ISOMsg> implements Runnable {
+        final long hash;
+        final ISOMsg request;
+        final boolean async; // counters are updated on completion rather than by the requester
+        final ISOResponseListener listener;
+        final Object handBack;
+        final Chronometer chrono;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private volatile HashedWheelTimer.Timeout timeout;
+
+        PendingRequest (ISOMsg request, boolean async, ISOResponseListener listener, Object handBack)
+          throws ISOException
+        {
+            this (request, hash (request), async, listener, handBack);
+        }
+
+        PendingRequest (ISOMsg request, long hash, boolean async, ISOResponseListener listener, Object handBack) {
             super();
-            this.rl = rl;
+            this.hash = hash;
+            this.request = request;
+            this.async = async;
+            this.listener = listener;
             this.handBack = handBack;
             this.chrono = new Chronometer();
         }
-        public void setFuture(ScheduledFuture future) {
-            this.future = future;
+
+        void expireIn (long millis) {
+            timeout = timer.newTimeout (this, millis, TimeUnit.MILLISECONDS);
         }
-        public void responseReceived (ISOMsg response) {
-            if (future == null || future.cancel(false)) {
+
+        /**
+         * Removes this request from the pending table and completes it
+         * with the response (null on timeout).
+         * @return false if it was already completed
+         */
+        boolean done (ISOMsg response) {
+            if (!claim (response != null))
+                return false;
+            if (async) {
+                long elapsed = chrono.elapsed();
                 synchronized (QMUX.this) {
-                    rx++;
+                    if (response != null) {
+                        rx++;
+                        lastTxn = System.currentTimeMillis();
+                    } else if (listener == null) {
+                        rxExpired++;
+                    }
                     rxPending--;
-                    lastTxn = System.currentTimeMillis();
                 }
-                long elapsed = chrono.elapsed();
                 metrics.record("all", elapsed);
-                metrics.record("ok", elapsed);
-                rl.responseReceived(response, handBack);
+                if (response != null)
+                    metrics.record("ok", elapsed);
             }
+            complete (response);
+            if (listener != null) {
+                if (response != null)
+                    listener.responseReceived(response, handBack);
+                else
+                    listener.expired(handBack);
+            }
+            return true;
         }
+
+        @Override
         public void run() {
-            synchronized(QMUX.this) {
-                rxPending--;
+            if (listener == null) {
+                done (null);
+                return;
+            }
+            // listeners may block, keep them off the shared timer thread
+            try {
+                getScheduledThreadPoolExecutor().execute (() -> done (null));
+            } catch (RejectedExecutionException e) {
+                done (null); // QMUX destroyed
+            }
+        }
+
+        @Override
+        public boolean cancel (boolean mayInterruptIfRunning) {
+            if (!claim (true))
+                return false;
+            if (async) {
+                synchronized(QMUX.this) {
+                    rxPending--;
+                }
+            }
+            return super.cancel (mayInterruptIfRunning);
+        }
+
+        private boolean claim (boolean cancelTimeout) {
+            if (!claimed.compareAndSet (false, true))
+                return false;
+            pending.remove (this);
+            HashedWheelTimer.Timeout t = timeout;
+            if (t != null && cancelTimeout)
+                t.cancel();
+            return true;
+        }
+    }
+
+    /**
+     * Key field along with the normalization {@link #getKey(ISOMsg)} applies to it.
+     */
+    static final class KeyField {
+        static final int PLAIN = 0;
+        static final int STAN = 1;      // trimmed and zero padded to 6 (12 for 2xxx MTIs) if shorter, else as is
+        static final int TERMINAL = 2;  // trimmed, zero padded to 16
+        final String path;
+        final int fldno;
+        final int kind;
+
+        KeyField (String path) {
+            this.path = path;
+            int n = -1;
+            try {
+                n = Integer.parseInt (path);
+            } catch (NumberFormatException ignored) { }
+            this.fldno = n;
+            this.kind = "11".equals (path) ? STAN : "41".equals (path) ? TERMINAL : PLAIN;
+        }
+
+        static KeyField[] of (String[] fields) {
+            KeyField[] k = new KeyField[fields.length];
+            for (int i=0; i<k.length; i++)
+                k[i] = new KeyField (fields[i]);
+            return k;
+        }
+
+        String value (ISOMsg m) {
+            return fldno >= 0 ? m.getString (fldno) : m.getString (path);
+        }
+
+        long hash (long h, String v, String mti) throws ISOException {
+            if (kind == PLAIN)
+                return QMUX.hash (h, v);
+            int start = start (v);
+            int end = end (v, start);
+            if (asIs (end - start, mti)) {
+                start = 0;
+                end = v.length();
             }
-            metrics.record("all", chrono.elapsed());
-            rl.expired(handBack);
+            int pad = pad (end - start, mti);
+            for (int i=0; i<pad; i++)
+                h = (h ^ '0') * FNV_PRIME;
+            for (int i=start; i<end; i++)
+                h = (h ^ v.charAt(i)) * FNV_PRIME;
+            return h;
+        }
+
+        boolean equals (String va, String ma, String vb, String mb) throws ISOException {
+            if (kind == PLAIN)
+                return va.equals (vb);
+            int sa = start (va), ea = end (va, sa);
+            int sb = start (vb), eb = end (vb, sb);
+            if (asIs (ea - sa, ma)) {
+                sa = 0;
+                ea = va.length();
+            }
+            if (asIs (eb - sb, mb)) {
+                sb = 0;
+                eb = vb.length();
+            }
+            int pa = pad (ea - sa, ma);
+            int pb = pad (eb - sb, mb);
+            int len = pa + ea - sa;
+            if (len != pb + eb - sb)
+                return false;
+            for (int i=0; i<len; i++) {
+                char ca = i < pa ? '0' : va.charAt (sa + i - pa);
+                char cb = i < pb ? '0' : vb.charAt (sb + i - pb);
+                if (ca != cb)
+                    return false;
+            }
+            return true;
+        }
+
+        /**
+         * getKey() only trims a STAN it has to pad
+         */
+        private boolean asIs (int trimmedLen, String mti) {
+            return kind == STAN && trimmedLen >= (mti.charAt(0) == '2' ? 12 : 6);
+        }
+
+        private int pad (int len, String mti) throws ISOException {
+            int l = kind == STAN ? (mti.charAt(0) == '2' ? 12 : 6) : 16;
+            if (kind == TERMINAL && len > l)
+                throw new ISOException ("invalid len " + len + "/" + l);
+            return len < l ? l - len : 0;
+        }
+
+        private static int start (String v) {
+            int i = 0;
+            while (i < v.length() && v.charAt(i) <= ' ')
+                i++;
+            return i;
+        }
+
+        private static int end (String v, int start) {
+            int i = v.length();
+            while (i > start && v.charAt(i-1) <= ' ')
+                i--;
+            return i;
         }
     }
 }
@@ -275,6 +275,8 @@ public class QServer
         Element serverSocketFactoryElement = persist.getChild ("server-socket-factory");
 
         if (serverSocketFactoryElement != null) {
+            if (cfg != null && cfg.getBoolean ("nio", false))
+                throw new ConfigurationException ("nio mode does not support server-socket-factory");
             ISOServerSocketFactory serverSocketFactory = (ISOServerSocketFactory) factory.newInstance (serverSocketFactoryElement.getAttributeValue ("class"));
             factory.setLogger        (serverSocketFactory, serverSocketFactoryElement);
             factory.setConfiguration (serverSocketFactory, serverSocketFactoryElement);
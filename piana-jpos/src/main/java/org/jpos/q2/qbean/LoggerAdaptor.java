@@ -20,14 +20,33 @@ package org.jpos.q2.qbean;
 
 import org.jdom2.Element;
 import org.jpos.core.Configurable;
+import org.jpos.core.Configuration;
 import org.jpos.core.ConfigurationException;
+import org.jpos.q2.Q2;
 import org.jpos.q2.QBeanSupport;
 import org.jpos.q2.QFactory;
+import org.jpos.util.AsyncLogDispatcher;
 import org.jpos.util.LogListener;
 import org.jpos.util.Logger;
 
+import javax.management.ObjectName;
+
+/**
+ * Configures a {@link Logger} and its listeners.
+ * <p>
+ * Properties:
+ * <ul>
+ * <li>async - hand events over to an {@link AsyncLogDispatcher} (default false)
+ * <li>queue-size - async ring buffer size (default 8192)
+ * <li>overflow-policy - block, drop-oldest or drop (default block)
+ * <li>batch-size - max events written between listener flushes (default 256)
+ * </ul>
+ * The dispatcher is registered as <code>Q2:type=qbean,service=&lt;name&gt;,logger=async</code>.
+ */
 public class LoggerAdaptor extends QBeanSupport {
     Logger logger;
+    private AsyncLogDispatcher dispatcher;
+    private ObjectName objectName;
 
     protected void initService () {
         logger = Logger.getLogger (getName());
@@ -36,8 +55,12 @@ public class LoggerAdaptor extends QBeanSupport {
         logger.removeAllListeners ();
         for (Object o : getPersist().getChildren("log-listener"))
             addListener((Element) o);
+        Configuration cfg = getConfiguration();
+        if (cfg != null && cfg.getBoolean ("async", false))
+            startDispatcher (cfg);
     }
     protected void stopService() {
+        stopDispatcher ();
         logger.removeAllListeners ();
     }
     protected void destroyService() {
@@ -47,6 +70,42 @@ public class LoggerAdaptor extends QBeanSupport {
         //
         // logger.destroy ();
     }
+    private void startDispatcher (Configuration cfg) throws ConfigurationException {
+        AsyncLogDispatcher.OverflowPolicy policy;
+        try {
+            policy = AsyncLogDispatcher.OverflowPolicy.of (cfg.get ("overflow-policy", "block"));
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationException ("invalid overflow-policy " + cfg.get ("overflow-policy"));
+        }
+        dispatcher = new AsyncLogDispatcher (
+          logger, cfg.getInt ("queue-size", 8192), policy, cfg.getInt ("batch-size", 256)
+        );
+        logger.setAsyncDispatcher (dispatcher);
+        if (getServer() != null) {
+            try {
+                objectName = new ObjectName (Q2.QBEAN_NAME + getName() + ",logger=async");
+                getServer().getMBeanServer().registerMBean (dispatcher, objectName);
+            } catch (Exception e) {
+                objectName = null;
+                getLog().warn ("register-mbean", e);
+            }
+        }
+    }
+    private void stopDispatcher () {
+        if (dispatcher == null)
+            return;
+        logger.setAsyncDispatcher (null);
+        dispatcher.close (Q2.SHUTDOWN_TIMEOUT);
+        dispatcher = null;
+        if (objectName != null) {
+            try {
+                getServer().getMBeanServer().unregisterMBean (objectName);
+            } catch (Exception e) {
+                getLog().warn ("unregister-mbean", e);
+            }
+            objectName = null;
+        }
+    }
     private void addListener (Element e) 
         throws ConfigurationException
     {
@@ -22,6 +22,7 @@ import org.jdom2.Element;
 import org.jpos.q2.QBeanSupport;
 import org.jpos.q2.QFactory;
 import org.jpos.security.SecureKeyStore;
+import org.jpos.util.Destroyable;
 import org.jpos.util.NameRegistrar;
 
 /**
@@ -68,5 +69,7 @@ public class KeyStoreAdaptor extends QBeanSupport implements KeyStoreAdaptorMBea
 
     protected void destroyService () throws Exception {
         NameRegistrar.unregister (getName ());
+        if (ks instanceof Destroyable)
+            ((Destroyable) ks).destroy ();
     }
 }
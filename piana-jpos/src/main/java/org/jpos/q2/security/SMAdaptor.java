@@ -22,6 +22,7 @@ import org.jdom2.Element;
 import org.jpos.q2.QBeanSupport;
 import org.jpos.q2.QFactory;
 import org.jpos.security.SMAdapter;
+import org.jpos.util.Destroyable;
 import org.jpos.util.NameRegistrar;
 
 /**
@@ -68,6 +69,8 @@ public class SMAdaptor extends QBeanSupport implements SMAdaptorMBean
     }
     protected void stopService () throws Exception {
         NameRegistrar.unregister (getName ());
+        if (sm instanceof Destroyable)
+            ((Destroyable) sm).destroy ();
     }
 }
 
@@ -18,6 +18,8 @@
 
 package  org.jpos.security;
 
+import org.HdrHistogram.AtomicHistogram;
+import org.HdrHistogram.Histogram;
 import org.javatuples.Pair;
 import org.jpos.core.Configurable;
 import org.jpos.core.Configuration;
@@ -27,6 +29,7 @@ import org.jpos.util.LogEvent;
 import org.jpos.util.LogSource;
 import org.jpos.util.Loggeable;
 import org.jpos.util.Logger;
+import org.jpos.util.Metrics;
 import org.jpos.util.NameRegistrar;
 import org.jpos.util.NameRegistrar.NotFoundException;
 import org.jpos.util.SimpleMsg;
@@ -38,6 +41,10 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 
 /**
@@ -56,6 +63,24 @@ public class BaseSMAdapter
     protected String realm = null;
     protected Configuration cfg;
     private String name;
+    private AuditMode auditMode = AuditMode.FULL;
+    private int auditSampleRate = 1;
+    private final AtomicLong auditCounter = new AtomicLong();
+    private Metrics metrics = new Metrics(new AtomicHistogram(60000000L, 2));
+
+    /**
+     * Which operations get an "s-m-operation" {@link LogEvent}
+     */
+    enum AuditMode {
+        /** none, only metrics are recorded */
+        OFF,
+        /** one in every audit-sample-rate operations, and every failure */
+        SAMPLED,
+        /** failed operations only */
+        FAILURES,
+        /** every operation */
+        FULL
+    }
 
     public BaseSMAdapter () {
         super();
@@ -68,9 +93,30 @@ public class BaseSMAdapter
         setConfiguration(cfg);
     }
 
+    /**
+     * @param cfg configuration object, supported properties:<br>
+     *   <b>audit</b> - off, sampled, failures or full (the default). Controls which
+     *             operations are logged, parameters and results are only rendered for
+     *             operations that are actually logged<br>
+     *   <b>audit-sample-rate</b> - in sampled mode one in every this many successful
+     *             operations is logged, failures always are. Default is 100<br>
+     *   <b>metrics-highest-trackable-value</b> - highest operation latency, in
+     *             microseconds, tracked by the per-operation histograms. Default is 60000000<br>
+     * @throws ConfigurationException
+     */
     @Override
     public void setConfiguration (Configuration cfg) throws ConfigurationException {
         this.cfg = cfg;
+        String mode = cfg.get("audit", "full");
+        try {
+            auditMode = AuditMode.valueOf(mode.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationException("Invalid audit mode " + mode);
+        }
+        auditSampleRate = cfg.getInt("audit-sample-rate", 100);
+        if (auditSampleRate < 1)
+            throw new ConfigurationException("Invalid audit-sample-rate " + auditSampleRate);
+        metrics = new Metrics(new AtomicHistogram(cfg.getLong("metrics-highest-trackable-value", 60000000L), 2));
     }
 
     @Override
@@ -106,6 +152,89 @@ public class BaseSMAdapter
         return  this.name;
     }
 
+    /**
+     * @return per-operation latency histograms, in microseconds, keyed by command.
+     * Failed operations are also recorded under the command followed by "-failure".
+     */
+    public Map<String, Histogram> getMetrics() {
+        return metrics.metrics();
+    }
+
+    /**
+     * Records an operation's latency and decides whether it gets audited.
+     * <p>
+     * Callers render the command parameters and results into the returned
+     * event only when it is not null, so operations that are not audited
+     * allocate nothing for logging.
+     * </p>
+     * @param command the operation, also used as the metrics name
+     * @param start {@link System#nanoTime()} when the operation started
+     * @param failure the exception the operation failed with, null on success
+     * @return the event to audit the operation with, or null
+     */
+    protected LogEvent audit (String command, long start, Exception failure) {
+        long elapsed = (System.nanoTime() - start) / 1000L;
+        metrics.record(command, elapsed);
+        if (failure != null)
+            metrics.record(command + "-failure", elapsed);
+        switch (auditMode) {
+            case OFF:
+                return null;
+            case FAILURES:
+                if (failure == null)
+                    return null;
+                break;
+            case SAMPLED:
+                if (failure == null && auditCounter.getAndIncrement() % auditSampleRate != 0)
+                    return null;
+                break;
+            default:
+                break;
+        }
+        // with no logger set, Logger.log falls back to the Q2 logger
+        if (logger != null && !logger.hasListeners())
+            return null;
+        return new LogEvent(this, "s-m-operation");
+    }
+
+    /**
+     * Runs an operation and {@link #audit audits} it.
+     * <p>
+     * The command parameters and the result are only rendered when the
+     * operation is actually audited.
+     * </p>
+     * @param command the operation, also used as the metrics name
+     * @param params renders the command parameters
+     * @param op the operation
+     * @param result renders the operation's result, null if there is none to log
+     * @return the operation's result
+     * @throws SMException the exception the operation failed with, wrapped
+     * unless it already is an SMException
+     */
+    protected <T> T audited (String command, Supplier<Loggeable[]> params, Callable<T> op,
+            Function<T, Loggeable> result) throws SMException {
+        T value = null;
+        long start = System.nanoTime();
+        Exception failure = null;
+        try {
+            value = op.call();
+        } catch (Exception e) {
+            failure = e;
+            throw  e instanceof SMException ? (SMException) e : new SMException(e);
+        } finally {
+            LogEvent evt = audit(command, start, failure);
+            if (evt != null) {
+                evt.addMessage(new SimpleMsg("command", command, params.get()));
+                if (failure != null)
+                    evt.addMessage(failure);
+                else if (result != null)
+                    evt.addMessage(result.apply(value));
+                Logger.log(evt);
+            }
+        }
+        return value;
+    }
+
     /**
      * @param name
      * @return SMAdapter instance with given name.
@@ -118,131 +247,71 @@ public class BaseSMAdapter
 
     @Override
     public SecureDESKey generateKey (short keyLength, String keyType) throws SMException {
-        SimpleMsg[] cmdParameters =  {
-            new SimpleMsg("parameter", "Key Length", keyLength), new SimpleMsg("parameter",
-                    "Key Type", keyType)
-        };
-        LogEvent evt = new LogEvent(this, "s-m-operation");
-        evt.addMessage(new SimpleMsg("command", "Generate Key", cmdParameters));
-        SecureDESKey result = null;
-        try {
-            result = generateKeyImpl(keyLength, keyType);
-            evt.addMessage(new SimpleMsg("result", "Generated Key", result));
-        } catch (Exception e) {
-            evt.addMessage(e);
-            throw  e instanceof SMException ? (SMException) e : new SMException(e);
-        } finally {
-            Logger.log(evt);
-        }
-        return  result;
+        return audited("Generate Key",
+            () -> new SimpleMsg[] {
+                new SimpleMsg("parameter", "Key Length", keyLength), new SimpleMsg("parameter",
+                        "Key Type", keyType)
+            },
+            () -> generateKeyImpl(keyLength, keyType),
+            result -> new SimpleMsg("result", "Generated Key", result));
     }
 
     @Override
     public byte[] generateKeyCheckValue (SecureDESKey kd) throws SMException {
-        SimpleMsg[] cmdParameters =  {
-            new SimpleMsg("parameter", "Key with untrusted check value", kd)
-        };
-        LogEvent evt = new LogEvent(this, "s-m-operation");
-        evt.addMessage(new SimpleMsg("command", "Generate Key Check Value", cmdParameters));
-        byte[] result = null;
-        try {
-            result = generateKeyCheckValueImpl(kd);
-            evt.addMessage(new SimpleMsg("result", "Generated Key Check Value", ISOUtil.hexString(result)));
-        } catch (Exception e) {
-            evt.addMessage(e);
-            throw  e instanceof SMException ? (SMException) e : new SMException(e);
-        } finally {
-            Logger.log(evt);
-        }
-        return  result;
+        return audited("Generate Key Check Value",
+            () -> new SimpleMsg[] {
+                new SimpleMsg("parameter", "Key with untrusted check value", kd)
+            },
+            () -> generateKeyCheckValueImpl(kd),
+            result -> new SimpleMsg("result", "Generated Key Check Value", ISOUtil.hexString(result)));
     }
 
     @Override
     public SecureDESKey translateKeyScheme (SecureDESKey key, KeyScheme destKeyScheme)
             throws SMException {
-        SimpleMsg[] cmdParameters =  {
-            new SimpleMsg("parameter", "Key", key)
-           ,new SimpleMsg("parameter", "Destination Key Scheme", destKeyScheme)
-        };
-        LogEvent evt = new LogEvent(this, "s-m-operation");
-        evt.addMessage(new SimpleMsg("command", "Translate Key Scheme", cmdParameters));
-        SecureDESKey result = null;
-        try {
-            result = translateKeySchemeImpl(key, destKeyScheme);
-            evt.addMessage(new SimpleMsg("result", "Translate Key Scheme", result));
-        } catch (Exception e) {
-            evt.addMessage(e);
-            throw  e instanceof SMException ? (SMException) e : new SMException(e);
-        } finally {
-            Logger.log(evt);
-        }
-        return  result;
+        return audited("Translate Key Scheme",
+            () -> new SimpleMsg[] {
+                 new SimpleMsg("parameter", "Key", key)
+                ,new SimpleMsg("parameter", "Destination Key Scheme", destKeyScheme)
+            },
+            () -> translateKeySchemeImpl(key, destKeyScheme),
+            result -> new SimpleMsg("result", "Translate Key Scheme", result));
     }
 
     @Override
     public SecureDESKey importKey (short keyLength, String keyType, byte[] encryptedKey,
             SecureDESKey kek, boolean checkParity) throws SMException {
-        SimpleMsg[] cmdParameters =  {
-            new SimpleMsg("parameter", "Key Length", keyLength), new SimpleMsg("parameter",
-                    "Key Type", keyType), new SimpleMsg("parameter", "Encrypted Key",
-                    encryptedKey), new SimpleMsg("parameter", "Key-Encrypting Key", kek), new SimpleMsg("parameter", "Check Parity", checkParity)
-        };
-        LogEvent evt = new LogEvent(this, "s-m-operation");
-        evt.addMessage(new SimpleMsg("command", "Import Key", cmdParameters));
-        SecureDESKey result = null;
-        try {
-            result = importKeyImpl(keyLength, keyType, encryptedKey, kek, checkParity);
-            evt.addMessage(new SimpleMsg("result", "Imported Key", result));
-        } catch (Exception e) {
-            evt.addMessage(e);
-            throw  e instanceof SMException ? (SMException) e : new SMException(e);
-        } finally {
-            Logger.log(evt);
-        }
-        return  result;
+        return audited("Import Key",
+            () -> new SimpleMsg[] {
+                new SimpleMsg("parameter", "Key Length", keyLength), new SimpleMsg("parameter",
+                        "Key Type", keyType), new SimpleMsg("parameter", "Encrypted Key",
+                        encryptedKey), new SimpleMsg("parameter", "Key-Encrypting Key", kek), new SimpleMsg("parameter", "Check Parity", checkParity)
+            },
+            () -> importKeyImpl(keyLength, keyType, encryptedKey, kek, checkParity),
+            result -> new SimpleMsg("result", "Imported Key", result));
     }
 
     @Override
     public byte[] exportKey (SecureDESKey key, SecureDESKey kek) throws SMException {
-        SimpleMsg[] cmdParameters =  {
-            new SimpleMsg("parameter", "Key", key), new SimpleMsg("parameter", "Key-Encrypting Key",
-                    kek),
-        };
-        LogEvent evt = new LogEvent(this, "s-m-operation");
-        evt.addMessage(new SimpleMsg("command", "Export Key", cmdParameters));
-        byte[] result = null;
-        try {
-            result = exportKeyImpl(key, kek);
-            evt.addMessage(new SimpleMsg("result", "Exported Key", result));
-        } catch (Exception e) {
-            evt.addMessage(e);
-            throw  e instanceof SMException ? (SMException) e : new SMException(e);
-        } finally {
-            Logger.log(evt);
-        }
-        return  result;
+        return audited("Export Key",
+            () -> new SimpleMsg[] {
+                new SimpleMsg("parameter", "Key", key), new SimpleMsg("parameter", "Key-Encrypting Key",
+                        kek),
+            },
+            () -> exportKeyImpl(key, kek),
+            result -> new SimpleMsg("result", "Exported Key", result));
     }
 
     @Override
     public EncryptedPIN encryptPIN (String pin, String accountNumber, boolean extract) throws SMException {
-        accountNumber = extract ? EncryptedPIN.extractAccountNumberPart(accountNumber) : accountNumber;
-        SimpleMsg[] cmdParameters =  {
-            new SimpleMsg("parameter", "clear pin", pin), new SimpleMsg("parameter", "account number",
-                    accountNumber)
-        };
-        LogEvent evt = new LogEvent(this, "s-m-operation");
-        evt.addMessage(new SimpleMsg("command", "Encrypt Clear PIN", cmdParameters));
-        EncryptedPIN result = null;
-        try {
-            result = encryptPINImpl(pin, accountNumber);
-            evt.addMessage(new SimpleMsg("result", "PIN under LMK", result));
-        } catch (Exception e) {
-            evt.addMessage(e);
-            throw  e instanceof SMException ? (SMException) e : new SMException(e);
-        } finally {
-            Logger.log(evt);
-        }
-        return  result;
+        String accountNumberPart = extract ? EncryptedPIN.extractAccountNumberPart(accountNumber) : accountNumber;
+        return audited("Encrypt Clear PIN",
+            () -> new SimpleMsg[] {
+                new SimpleMsg("parameter", "clear pin", pin), new SimpleMsg("parameter", "account number",
+                        accountNumberPart)
+            },
+            () -> encryptPINImpl(pin, accountNumberPart),
+            result -> new SimpleMsg("result", "PIN under LMK", result));
     }
     @Override
     public EncryptedPIN encryptPIN (String pin, String accountNumber) throws SMException {
@@ -251,67 +320,36 @@ public class BaseSMAdapter
 
     @Override
     public String decryptPIN (EncryptedPIN pinUnderLmk) throws SMException {
-        SimpleMsg[] cmdParameters =  {
-            new SimpleMsg("parameter", "PIN under LMK", pinUnderLmk),
-        };
-        LogEvent evt = new LogEvent(this, "s-m-operation");
-        evt.addMessage(new SimpleMsg("command", "Decrypt PIN", cmdParameters));
-        String result = null;
-        try {
-            result = decryptPINImpl(pinUnderLmk);
-            evt.addMessage(new SimpleMsg("result", "clear PIN", result));
-        } catch (Exception e) {
-            evt.addMessage(e);
-            throw  e instanceof SMException ? (SMException) e : new SMException(e);
-        } finally {
-            Logger.log(evt);
-        }
-        return  result;
+        return audited("Decrypt PIN",
+            () -> new SimpleMsg[] {
+                new SimpleMsg("parameter", "PIN under LMK", pinUnderLmk),
+            },
+            () -> decryptPINImpl(pinUnderLmk),
+            result -> new SimpleMsg("result", "clear PIN", result));
     }
 
     @Override
     public EncryptedPIN importPIN (EncryptedPIN pinUnderKd1, SecureDESKey kd1) throws SMException {
-        SimpleMsg[] cmdParameters =  {
-            new SimpleMsg("parameter", "PIN under Data Key 1", pinUnderKd1), new SimpleMsg("parameter",
-                    "Data Key 1", kd1),
-        };
-        LogEvent evt = new LogEvent(this, "s-m-operation");
-        evt.addMessage(new SimpleMsg("command", "Import PIN", cmdParameters));
-        EncryptedPIN result = null;
-        try {
-            result = importPINImpl(pinUnderKd1, kd1);
-            evt.addMessage(new SimpleMsg("result", "PIN under LMK", result));
-        } catch (Exception e) {
-            evt.addMessage(e);
-            throw  e instanceof SMException ? (SMException) e : new SMException(e);
-        } finally {
-            Logger.log(evt);
-        }
-        return  result;
+        return audited("Import PIN",
+            () -> new SimpleMsg[] {
+                new SimpleMsg("parameter", "PIN under Data Key 1", pinUnderKd1), new SimpleMsg("parameter",
+                        "Data Key 1", kd1),
+            },
+            () -> importPINImpl(pinUnderKd1, kd1),
+            result -> new SimpleMsg("result", "PIN under LMK", result));
     }
 
     @Override
     public EncryptedPIN translatePIN (EncryptedPIN pinUnderKd1, SecureDESKey kd1,
             SecureDESKey kd2, byte destinationPINBlockFormat) throws SMException {
-        SimpleMsg[] cmdParameters =  {
-            new SimpleMsg("parameter", "PIN under Data Key 1", pinUnderKd1), new SimpleMsg("parameter",
-                    "Data Key 1", kd1), new SimpleMsg("parameter", "Data Key 2", kd2),
-                    new SimpleMsg("parameter", "Destination PIN Block Format", destinationPINBlockFormat)
-        };
-        LogEvent evt = new LogEvent(this, "s-m-operation");
-        evt.addMessage(new SimpleMsg("command", "Translate PIN from Data Key 1 to Data Key 2",
-                cmdParameters));
-        EncryptedPIN result = null;
-        try {
-            result = translatePINImpl(pinUnderKd1, kd1, kd2, destinationPINBlockFormat);
-            evt.addMessage(new SimpleMsg("result", "PIN under Data Key 2", result));
-        } catch (Exception e) {
-            evt.addMessage(e);
-            throw  e instanceof SMException ? (SMException) e : new SMException(e);
-        } finally {
-            Logger.log(evt);
-        }
-        return  result;
+        return audited("Translate PIN from Data Key 1 to Data Key 2",
+            () -> new SimpleMsg[] {
+                new SimpleMsg("parameter", "PIN under Data Key 1", pinUnderKd1), new SimpleMsg("parameter",
+                        "Data Key 1", kd1), new SimpleMsg("parameter", "Data Key 2", kd2),
+                        new SimpleMsg("parameter", "Destination PIN Block Format", destinationPINBlockFormat)
+            },
+            () -> translatePINImpl(pinUnderKd1, kd1, kd2, destinationPINBlockFormat),
+            result -> new SimpleMsg("result", "PIN under Data Key 2", result));
     }
 
     @Override
@@ -323,24 +361,14 @@ public class BaseSMAdapter
     @Override
     public EncryptedPIN importPIN (EncryptedPIN pinUnderDuk, KeySerialNumber ksn,
             SecureDESKey bdk, boolean tdes) throws SMException {
-        SimpleMsg[] cmdParameters =  {
-            new SimpleMsg("parameter", "PIN under Derived Unique Key", pinUnderDuk), new SimpleMsg("parameter",
-                    "Key Serial Number", ksn), new SimpleMsg("parameter", "Base Derivation Key",
-                    bdk)
-        };
-        LogEvent evt = new LogEvent(this, "s-m-operation");
-        evt.addMessage(new SimpleMsg("command", "Import PIN", cmdParameters));
-        EncryptedPIN result = null;
-        try {
-            result = importPINImpl(pinUnderDuk, ksn, bdk, tdes);
-            evt.addMessage(new SimpleMsg("result", "PIN under LMK", result));
-        } catch (Exception e) {
-            evt.addMessage(e);
-            throw  e instanceof SMException ? (SMException) e : new SMException(e);
-        } finally {
-            Logger.log(evt);
-        }
-        return  result;
+        return audited("Import PIN",
+            () -> new SimpleMsg[] {
+                new SimpleMsg("parameter", "PIN under Derived Unique Key", pinUnderDuk), new SimpleMsg("parameter",
+                        "Key Serial Number", ksn), new SimpleMsg("parameter", "Base Derivation Key",
+                        bdk)
+            },
+            () -> importPINImpl(pinUnderDuk, ksn, bdk, tdes),
+            result -> new SimpleMsg("result", "PIN under LMK", result));
     }
 
     @Override
@@ -352,47 +380,27 @@ public class BaseSMAdapter
     @Override
     public EncryptedPIN translatePIN (EncryptedPIN pinUnderDuk, KeySerialNumber ksn,
             SecureDESKey bdk, SecureDESKey kd2, byte destinationPINBlockFormat,boolean tdes) throws SMException {
-        SimpleMsg[] cmdParameters =  {
-            new SimpleMsg("parameter", "PIN under Derived Unique Key", pinUnderDuk), new SimpleMsg("parameter",
-                    "Key Serial Number", ksn), new SimpleMsg("parameter", "Base Derivation Key",
-                    bdk), new SimpleMsg("parameter", "Data Key 2", kd2), new SimpleMsg("parameter",
-                    "Destination PIN Block Format", destinationPINBlockFormat)
-        };
-        LogEvent evt = new LogEvent(this, "s-m-operation");
-        evt.addMessage(new SimpleMsg("command", "Translate PIN", cmdParameters));
-        EncryptedPIN result = null;
-        try {
-            result = translatePINImpl(pinUnderDuk, ksn, bdk, kd2, destinationPINBlockFormat,tdes);
-            evt.addMessage(new SimpleMsg("result", "PIN under Data Key 2", result));
-        } catch (Exception e) {
-            evt.addMessage(e);
-            throw  e instanceof SMException ? (SMException) e : new SMException(e);
-        } finally {
-            Logger.log(evt);
-        }
-        return  result;
+        return audited("Translate PIN",
+            () -> new SimpleMsg[] {
+                new SimpleMsg("parameter", "PIN under Derived Unique Key", pinUnderDuk), new SimpleMsg("parameter",
+                        "Key Serial Number", ksn), new SimpleMsg("parameter", "Base Derivation Key",
+                        bdk), new SimpleMsg("parameter", "Data Key 2", kd2), new SimpleMsg("parameter",
+                        "Destination PIN Block Format", destinationPINBlockFormat)
+            },
+            () -> translatePINImpl(pinUnderDuk, ksn, bdk, kd2, destinationPINBlockFormat,tdes),
+            result -> new SimpleMsg("result", "PIN under Data Key 2", result));
     }
 
     @Override
     public EncryptedPIN exportPIN (EncryptedPIN pinUnderLmk, SecureDESKey kd2, byte destinationPINBlockFormat) throws SMException {
-        SimpleMsg[] cmdParameters =  {
-            new SimpleMsg("parameter", "PIN under LMK", pinUnderLmk), new SimpleMsg("parameter",
-                    "Data Key 2", kd2), new SimpleMsg("parameter", "Destination PIN Block Format",
-                    destinationPINBlockFormat)
-        };
-        LogEvent evt = new LogEvent(this, "s-m-operation");
-        evt.addMessage(new SimpleMsg("command", "Export PIN", cmdParameters));
-        EncryptedPIN result = null;
-        try {
-            result = exportPINImpl(pinUnderLmk, kd2, destinationPINBlockFormat);
-            evt.addMessage(new SimpleMsg("result", "PIN under Data Key 2", result));
-        } catch (Exception e) {
-            evt.addMessage(e);
-            throw  e instanceof SMException ? (SMException) e : new SMException(e);
-        } finally {
-            Logger.log(evt);
-        }
-        return  result;
+        return audited("Export PIN",
+            () -> new SimpleMsg[] {
+                new SimpleMsg("parameter", "PIN under LMK", pinUnderLmk), new SimpleMsg("parameter",
+                        "Data Key 2", kd2), new SimpleMsg("parameter", "Destination PIN Block Format",
+                        destinationPINBlockFormat)
+            },
+            () -> exportPINImpl(pinUnderLmk, kd2, destinationPINBlockFormat),
+            result -> new SimpleMsg("result", "PIN under Data Key 2", result));
     }
 
     @Override
@@ -404,49 +412,39 @@ public class BaseSMAdapter
     @Override
     public EncryptedPIN generatePIN(String accountNumber, int pinLen, List<String> excludes)
             throws SMException {
-      List<Loggeable> cmdParameters = new ArrayList<Loggeable>();
-      cmdParameters.add(new SimpleMsg("parameter", "account number", accountNumber));
-      cmdParameters.add(new SimpleMsg("parameter", "PIN length", pinLen));
-      if(excludes != null && !excludes.isEmpty())
-        cmdParameters.add(new SimpleMsg("parameter", "Excluded PINs list", excludes));
-
-      LogEvent evt = new LogEvent(this, "s-m-operation");
-      evt.addMessage(new SimpleMsg("command", "Generate PIN", cmdParameters.toArray(new Loggeable[cmdParameters.size()])));
-      EncryptedPIN result = null;
-      try {
-        result = generatePINImpl(accountNumber, pinLen, excludes);
-        evt.addMessage(new SimpleMsg("result", "Generated PIN", result));
-      } catch (Exception e) {
-        evt.addMessage(e);
-        throw e instanceof SMException ? (SMException) e : new SMException(e);
-      } finally {
-        Logger.log(evt);
-      }
-      return result;
+      return audited("Generate PIN",
+          () -> {
+            List<Loggeable> cmdParameters = new ArrayList<Loggeable>();
+            cmdParameters.add(new SimpleMsg("parameter", "account number", accountNumber));
+            cmdParameters.add(new SimpleMsg("parameter", "PIN length", pinLen));
+            if(excludes != null && !excludes.isEmpty())
+              cmdParameters.add(new SimpleMsg("parameter", "Excluded PINs list", excludes));
+            return cmdParameters.toArray(new Loggeable[0]);
+          },
+          () -> generatePINImpl(accountNumber, pinLen, excludes),
+          result -> new SimpleMsg("result", "Generated PIN", result));
     }
 
     @Override
     public void printPIN (String accountNo, EncryptedPIN pinUnderKd1, SecureDESKey kd1
                          ,String template, Map<String, String> fields) throws SMException {
-      List<Loggeable> cmdParameters = new ArrayList<Loggeable>();
-      cmdParameters.add(new SimpleMsg("parameter", "account number", accountNo == null ? "" : accountNo));
-      cmdParameters.add(new SimpleMsg("parameter", "PIN under Key data 1", pinUnderKd1 == null ? "" : pinUnderKd1));
-      if (kd1!=null)
-        cmdParameters.add(new SimpleMsg("parameter", "Key data 1", kd1));
-      cmdParameters.add(new SimpleMsg("parameter", "Template", template == null ? "" : template));
-      if (fields!=null)
-        cmdParameters.add(new SimpleMsg("parameter", "Fields", fields));
-
-      LogEvent evt = new LogEvent(this, "s-m-operation");
-      evt.addMessage(new SimpleMsg("command", "Print PIN", cmdParameters.toArray(new Loggeable[0])));
-      try {
-          printPINImpl(accountNo, pinUnderKd1, kd1, template, fields);
-      } catch (Exception e) {
-          evt.addMessage(e);
-          throw  e instanceof SMException ? (SMException) e : new SMException(e);
-      } finally {
-          Logger.log(evt);
-      }
+      audited("Print PIN",
+          () -> {
+            List<Loggeable> cmdParameters = new ArrayList<Loggeable>();
+            cmdParameters.add(new SimpleMsg("parameter", "account number", accountNo == null ? "" : accountNo));
+            cmdParameters.add(new SimpleMsg("parameter", "PIN under Key data 1", pinUnderKd1 == null ? "" : pinUnderKd1));
+            if (kd1!=null)
+              cmdParameters.add(new SimpleMsg("parameter", "Key data 1", kd1));
+            cmdParameters.add(new SimpleMsg("parameter", "Template", template == null ? "" : template));
+            if (fields!=null)
+              cmdParameters.add(new SimpleMsg("parameter", "Fields", fields));
+            return cmdParameters.toArray(new Loggeable[0]);
+          },
+          () -> {
+            printPINImpl(accountNo, pinUnderKd1, kd1, template, fields);
+            return null;
+          },
+          null);
     }
 
     @Override
@@ -459,27 +457,20 @@ public class BaseSMAdapter
     public String calculatePVV(EncryptedPIN pinUnderLMK, SecureDESKey pvkA,
                                SecureDESKey pvkB, int pvkIdx,
                                List<String> excludes) throws SMException {
-      List<Loggeable> cmdParameters = new ArrayList<Loggeable>();
-      cmdParameters.add(new SimpleMsg("parameter", "account number", pinUnderLMK.getAccountNumber()));
-      cmdParameters.add(new SimpleMsg("parameter", "PIN under LMK", pinUnderLMK));
-      cmdParameters.add(new SimpleMsg("parameter", "PVK-A", pvkA == null ? "" : pvkA));
-      cmdParameters.add(new SimpleMsg("parameter", "PVK-B", pvkB == null ? "" : pvkB));
-      cmdParameters.add(new SimpleMsg("parameter", "PVK index", pvkIdx));
-      if(excludes != null && !excludes.isEmpty())
-        cmdParameters.add(new SimpleMsg("parameter", "Excluded PINs list", excludes));
-      LogEvent evt = new LogEvent(this, "s-m-operation");
-      evt.addMessage(new SimpleMsg("command", "Calculate PVV", cmdParameters.toArray(new Loggeable[cmdParameters.size()])));
-      String result = null;
-      try {
-        result = calculatePVVImpl(pinUnderLMK, pvkA, pvkB, pvkIdx, excludes);
-        evt.addMessage(new SimpleMsg("result", "Calculated PVV", result));
-      } catch (Exception e) {
-        evt.addMessage(e);
-        throw e instanceof SMException ? (SMException) e : new SMException(e);
-      } finally {
-        Logger.log(evt);
-      }
-      return result;
+      return audited("Calculate PVV",
+          () -> {
+            List<Loggeable> cmdParameters = new ArrayList<Loggeable>();
+            cmdParameters.add(new SimpleMsg("parameter", "account number", pinUnderLMK.getAccountNumber()));
+            cmdParameters.add(new SimpleMsg("parameter", "PIN under LMK", pinUnderLMK));
+            cmdParameters.add(new SimpleMsg("parameter", "PVK-A", pvkA == null ? "" : pvkA));
+            cmdParameters.add(new SimpleMsg("parameter", "PVK-B", pvkB == null ? "" : pvkB));
+            cmdParameters.add(new SimpleMsg("parameter", "PVK index", pvkIdx));
+            if(excludes != null && !excludes.isEmpty())
+              cmdParameters.add(new SimpleMsg("parameter", "Excluded PINs list", excludes));
+            return cmdParameters.toArray(new Loggeable[0]);
+          },
+          () -> calculatePVVImpl(pinUnderLMK, pvkA, pvkB, pvkIdx, excludes),
+          result -> new SimpleMsg("result", "Calculated PVV", result));
     }
 
     @Override
@@ -493,56 +484,39 @@ public class BaseSMAdapter
     public String calculatePVV(EncryptedPIN pinUnderKd1, SecureDESKey kd1,
                                SecureDESKey pvkA, SecureDESKey pvkB, int pvkIdx,
                                List<String> excludes) throws SMException {
-      List<Loggeable> cmdParameters = new ArrayList<Loggeable>();
-      cmdParameters.add(new SimpleMsg("parameter", "account number", pinUnderKd1.getAccountNumber()));
-      cmdParameters.add(new SimpleMsg("parameter", "PIN under Data Key 1", pinUnderKd1));
-      cmdParameters.add(new SimpleMsg("parameter", "Data Key 1", kd1));
-      cmdParameters.add(new SimpleMsg("parameter", "PVK-A", pvkA == null ? "" : pvkA));
-      cmdParameters.add(new SimpleMsg("parameter", "PVK-B", pvkB == null ? "" : pvkB));
-      cmdParameters.add(new SimpleMsg("parameter", "PVK index", pvkIdx));
-      if(excludes != null && !excludes.isEmpty())
-        cmdParameters.add(new SimpleMsg("parameter", "Excluded PINs list", excludes));
-      LogEvent evt = new LogEvent(this, "s-m-operation");
-      evt.addMessage(new SimpleMsg("command", "Calculate PVV", cmdParameters.toArray(new Loggeable[cmdParameters.size()])));
-      String result = null;
-      try {
-        result = calculatePVVImpl(pinUnderKd1, kd1, pvkA, pvkB, pvkIdx, excludes);
-        evt.addMessage(new SimpleMsg("result", "Calculated PVV", result));
-      } catch (Exception e) {
-        evt.addMessage(e);
-        throw e instanceof SMException ? (SMException) e : new SMException(e);
-      } finally {
-        Logger.log(evt);
-      }
-      return result;
+      return audited("Calculate PVV",
+          () -> {
+            List<Loggeable> cmdParameters = new ArrayList<Loggeable>();
+            cmdParameters.add(new SimpleMsg("parameter", "account number", pinUnderKd1.getAccountNumber()));
+            cmdParameters.add(new SimpleMsg("parameter", "PIN under Data Key 1", pinUnderKd1));
+            cmdParameters.add(new SimpleMsg("parameter", "Data Key 1", kd1));
+            cmdParameters.add(new SimpleMsg("parameter", "PVK-A", pvkA == null ? "" : pvkA));
+            cmdParameters.add(new SimpleMsg("parameter", "PVK-B", pvkB == null ? "" : pvkB));
+            cmdParameters.add(new SimpleMsg("parameter", "PVK index", pvkIdx));
+            if(excludes != null && !excludes.isEmpty())
+              cmdParameters.add(new SimpleMsg("parameter", "Excluded PINs list", excludes));
+            return cmdParameters.toArray(new Loggeable[0]);
+          },
+          () -> calculatePVVImpl(pinUnderKd1, kd1, pvkA, pvkB, pvkIdx, excludes),
+          result -> new SimpleMsg("result", "Calculated PVV", result));
     }
 
     @Override
     public boolean verifyPVV(EncryptedPIN pinUnderKd1, SecureDESKey kd1, SecureDESKey pvkA,
                           SecureDESKey pvkB, int pvki, String pvv) throws SMException {
 
-      SimpleMsg[] cmdParameters = {
-        new SimpleMsg("parameter", "account number", pinUnderKd1.getAccountNumber()),
-        new SimpleMsg("parameter", "PIN under Data Key 1", pinUnderKd1),
-        new SimpleMsg("parameter", "Data Key 1", kd1),
-        new SimpleMsg("parameter", "PVK-A", pvkA == null ? "" : pvkA),
-        new SimpleMsg("parameter", "PVK-B", pvkB == null ? "" : pvkB),
-        new SimpleMsg("parameter", "pvki", pvki),
-        new SimpleMsg("parameter", "pvv", pvv)
-      };
-      LogEvent evt = new LogEvent(this, "s-m-operation");
-      evt.addMessage(new SimpleMsg("command", "Verify a PIN Using the VISA Method", cmdParameters));
-
-      try {
-        boolean r = verifyPVVImpl(pinUnderKd1, kd1, pvkA, pvkB, pvki, pvv);
-        evt.addMessage(new SimpleMsg("result", "Verification status", r ? "valid" : "invalid"));
-        return r;
-      } catch (Exception e) {
-        evt.addMessage(e);
-        throw e instanceof SMException ? (SMException) e : new SMException(e);
-      } finally {
-        Logger.log(evt);
-      }
+      return audited("Verify a PIN Using the VISA Method",
+          () -> new SimpleMsg[] {
+            new SimpleMsg("parameter", "account number", pinUnderKd1.getAccountNumber()),
+            new SimpleMsg("parameter", "PIN under Data Key 1", pinUnderKd1),
+            new SimpleMsg("parameter", "Data Key 1", kd1),
+            new SimpleMsg("parameter", "PVK-A", pvkA == null ? "" : pvkA),
+            new SimpleMsg("parameter", "PVK-B", pvkB == null ? "" : pvkB),
+            new SimpleMsg("parameter", "pvki", pvki),
+            new SimpleMsg("parameter", "pvv", pvv)
+          },
+          () -> verifyPVVImpl(pinUnderKd1, kd1, pvkA, pvkB, pvki, pvv),
+          r -> new SimpleMsg("result", "Verification status", r ? "valid" : "invalid"));
     }
 
     @Override
@@ -556,29 +530,22 @@ public class BaseSMAdapter
     public String calculateIBMPINOffset(EncryptedPIN pinUnderLmk, SecureDESKey pvk,
                            String decTab, String pinValData, int minPinLen,
                            List<String> excludes) throws SMException {
-      List<Loggeable> cmdParameters = new ArrayList<Loggeable>();
-      cmdParameters.add(new SimpleMsg("parameter", "account number", pinUnderLmk.getAccountNumber()));
-      cmdParameters.add(new SimpleMsg("parameter", "PIN under LMK", pinUnderLmk));
-      cmdParameters.add(new SimpleMsg("parameter", "PVK", pvk));
-      cmdParameters.add(new SimpleMsg("parameter", "decimalisation table", decTab));
-      cmdParameters.add(new SimpleMsg("parameter", "PIN validation data", pinValData));
-      cmdParameters.add(new SimpleMsg("parameter", "minimum PIN length", minPinLen));
-      if(excludes != null && !excludes.isEmpty())
-        cmdParameters.add(new SimpleMsg("parameter", "Excluded PINs list", excludes));
-      LogEvent evt = new LogEvent(this, "s-m-operation");
-      evt.addMessage(new SimpleMsg("command", "Calculate PIN offset", cmdParameters.toArray(new Loggeable[cmdParameters.size()])));
-      String result = null;
-      try {
-        result = calculateIBMPINOffsetImpl(pinUnderLmk, pvk,
-                decTab, pinValData, minPinLen, excludes);
-        evt.addMessage(new SimpleMsg("result", "Calculated PIN offset", result));
-      } catch (Exception e) {
-        evt.addMessage(e);
-        throw e instanceof SMException ? (SMException) e : new SMException(e);
-      } finally {
-        Logger.log(evt);
-      }
-      return result;
+      return audited("Calculate PIN offset",
+          () -> {
+            List<Loggeable> cmdParameters = new ArrayList<Loggeable>();
+            cmdParameters.add(new SimpleMsg("parameter", "account number", pinUnderLmk.getAccountNumber()));
+            cmdParameters.add(new SimpleMsg("parameter", "PIN under LMK", pinUnderLmk));
+            cmdParameters.add(new SimpleMsg("parameter", "PVK", pvk));
+            cmdParameters.add(new SimpleMsg("parameter", "decimalisation table", decTab));
+            cmdParameters.add(new SimpleMsg("parameter", "PIN validation data", pinValData));
+            cmdParameters.add(new SimpleMsg("parameter", "minimum PIN length", minPinLen));
+            if(excludes != null && !excludes.isEmpty())
+              cmdParameters.add(new SimpleMsg("parameter", "Excluded PINs list", excludes));
+            return cmdParameters.toArray(new Loggeable[0]);
+          },
+          () -> calculateIBMPINOffsetImpl(pinUnderLmk, pvk,
+                  decTab, pinValData, minPinLen, excludes),
+          result -> new SimpleMsg("result", "Calculated PIN offset", result));
     }
 
     @Override
@@ -593,191 +560,131 @@ public class BaseSMAdapter
     public String calculateIBMPINOffset(EncryptedPIN pinUnderKd1, SecureDESKey kd1,
                            SecureDESKey pvk, String decTab, String pinValData, int minPinLen,
                            List<String> excludes) throws SMException {
-      List<Loggeable> cmdParameters = new ArrayList<Loggeable>();
-      cmdParameters.add(new SimpleMsg("parameter", "account number", pinUnderKd1.getAccountNumber()));
-      cmdParameters.add(new SimpleMsg("parameter", "PIN under Data Key 1", pinUnderKd1));
-      cmdParameters.add(new SimpleMsg("parameter", "Data Key 1", kd1));
-      cmdParameters.add(new SimpleMsg("parameter", "PVK", pvk));
-      cmdParameters.add(new SimpleMsg("parameter", "decimalisation table", decTab));
-      cmdParameters.add(new SimpleMsg("parameter", "PIN validation data", pinValData));
-      cmdParameters.add(new SimpleMsg("parameter", "minimum PIN length", minPinLen));
-      if(excludes != null && !excludes.isEmpty())
-        cmdParameters.add(new SimpleMsg("parameter", "Excluded PINs list", excludes));
-      LogEvent evt = new LogEvent(this, "s-m-operation");
-      evt.addMessage(new SimpleMsg("command", "Calculate PIN offset", cmdParameters.toArray(new Loggeable[cmdParameters.size()])));
-      String result = null;
-      try {
-        result = calculateIBMPINOffsetImpl(pinUnderKd1, kd1, pvk,
-                decTab, pinValData, minPinLen, excludes);
-        evt.addMessage(new SimpleMsg("result", "Calculated PIN offset", result));
-      } catch (Exception e) {
-        evt.addMessage(e);
-        throw e instanceof SMException ? (SMException) e : new SMException(e);
-      } finally {
-        Logger.log(evt);
-      }
-      return result;
+      return audited("Calculate PIN offset",
+          () -> {
+            List<Loggeable> cmdParameters = new ArrayList<Loggeable>();
+            cmdParameters.add(new SimpleMsg("parameter", "account number", pinUnderKd1.getAccountNumber()));
+            cmdParameters.add(new SimpleMsg("parameter", "PIN under Data Key 1", pinUnderKd1));
+            cmdParameters.add(new SimpleMsg("parameter", "Data Key 1", kd1));
+            cmdParameters.add(new SimpleMsg("parameter", "PVK", pvk));
+            cmdParameters.add(new SimpleMsg("parameter", "decimalisation table", decTab));
+            cmdParameters.add(new SimpleMsg("parameter", "PIN validation data", pinValData));
+            cmdParameters.add(new SimpleMsg("parameter", "minimum PIN length", minPinLen));
+            if(excludes != null && !excludes.isEmpty())
+              cmdParameters.add(new SimpleMsg("parameter", "Excluded PINs list", excludes));
+            return cmdParameters.toArray(new Loggeable[0]);
+          },
+          () -> calculateIBMPINOffsetImpl(pinUnderKd1, kd1, pvk,
+                  decTab, pinValData, minPinLen, excludes),
+          result -> new SimpleMsg("result", "Calculated PIN offset", result));
     }
 
     @Override
     public boolean verifyIBMPINOffset(EncryptedPIN pinUnderKd1, SecureDESKey kd1, SecureDESKey pvk,
                                       String offset, String decTab, String pinValData,
                                       int minPinLen) throws SMException {
-      SimpleMsg[] cmdParameters = {
-        new SimpleMsg("parameter", "account number", pinUnderKd1.getAccountNumber()),
-        new SimpleMsg("parameter", "PIN under Data Key 1", pinUnderKd1),
-        new SimpleMsg("parameter", "Data Key 1", kd1),
-        new SimpleMsg("parameter", "PVK", pvk),
-        new SimpleMsg("parameter", "Pin block format", pinUnderKd1.getPINBlockFormat()),
-        new SimpleMsg("parameter", "decimalisation table", decTab),
-        new SimpleMsg("parameter", "PIN validation data", pinValData),
-        new SimpleMsg("parameter", "minimum PIN length", minPinLen),
-        new SimpleMsg("parameter", "offset", offset)
-      };
-      LogEvent evt = new LogEvent(this, "s-m-operation");
-      evt.addMessage(new SimpleMsg("command", "Verify PIN offset", cmdParameters));
-
-      try {
-        boolean r = verifyIBMPINOffsetImpl(pinUnderKd1, kd1, pvk, offset, decTab,
-                 pinValData, minPinLen);
-        evt.addMessage(new SimpleMsg("result", "Verification status", r ? "valid" : "invalid"));
-        return r;
-      } catch (Exception e) {
-        evt.addMessage(e);
-        throw e instanceof SMException ? (SMException) e : new SMException(e);
-      } finally {
-        Logger.log(evt);
-      }
+      return audited("Verify PIN offset",
+          () -> new SimpleMsg[] {
+            new SimpleMsg("parameter", "account number", pinUnderKd1.getAccountNumber()),
+            new SimpleMsg("parameter", "PIN under Data Key 1", pinUnderKd1),
+            new SimpleMsg("parameter", "Data Key 1", kd1),
+            new SimpleMsg("parameter", "PVK", pvk),
+            new SimpleMsg("parameter", "Pin block format", pinUnderKd1.getPINBlockFormat()),
+            new SimpleMsg("parameter", "decimalisation table", decTab),
+            new SimpleMsg("parameter", "PIN validation data", pinValData),
+            new SimpleMsg("parameter", "minimum PIN length", minPinLen),
+            new SimpleMsg("parameter", "offset", offset)
+          },
+          () -> verifyIBMPINOffsetImpl(pinUnderKd1, kd1, pvk, offset, decTab,
+                   pinValData, minPinLen),
+          r -> new SimpleMsg("result", "Verification status", r ? "valid" : "invalid"));
     }
 
     @Override
     public EncryptedPIN deriveIBMPIN(String accountNo, SecureDESKey pvk,
                                      String decTab, String pinValData,
                                      int minPinLen, String offset) throws SMException {
-      SimpleMsg[] cmdParameters = {
-        new SimpleMsg("parameter", "account number", accountNo),
-        new SimpleMsg("parameter", "Offset", offset),
-        new SimpleMsg("parameter", "PVK", pvk), 
-        new SimpleMsg("parameter", "Decimalisation table", decTab),
-        new SimpleMsg("parameter", "PIN validation data", pinValData),
-        new SimpleMsg("parameter", "Minimum PIN length", minPinLen)
-      };
-      LogEvent evt = new LogEvent(this, "s-m-operation");
-      evt.addMessage(new SimpleMsg("command", "Derive a PIN Using the IBM Method", cmdParameters));
-      EncryptedPIN result = null;
-      try {
-        result = deriveIBMPINImpl(accountNo, pvk, decTab,  pinValData, minPinLen,  offset);
-        evt.addMessage(new SimpleMsg("result", "Derived PIN", result));
-      } catch (Exception e) {
-        evt.addMessage(e);
-        throw e instanceof SMException ? (SMException) e : new SMException(e);
-      } finally {
-        Logger.log(evt);
-      }
-      return result;
+      return audited("Derive a PIN Using the IBM Method",
+          () -> new SimpleMsg[] {
+            new SimpleMsg("parameter", "account number", accountNo),
+            new SimpleMsg("parameter", "Offset", offset),
+            new SimpleMsg("parameter", "PVK", pvk), 
+            new SimpleMsg("parameter", "Decimalisation table", decTab),
+            new SimpleMsg("parameter", "PIN validation data", pinValData),
+            new SimpleMsg("parameter", "Minimum PIN length", minPinLen)
+          },
+          () -> deriveIBMPINImpl(accountNo, pvk, decTab,  pinValData, minPinLen,  offset),
+          result -> new SimpleMsg("result", "Derived PIN", result));
     }
 
     @Override
     public String calculateCVV(String accountNo, SecureDESKey cvkA, SecureDESKey cvkB,
                                Date expDate, String serviceCode) throws SMException {
 
-      SimpleMsg[] cmdParameters = {
+      return audited("Calculate CVV/CVC",
+          () -> new SimpleMsg[] {
             new SimpleMsg("parameter", "account number", accountNo),
             new SimpleMsg("parameter", "cvk-a", cvkA == null ? "" : cvkA),
             new SimpleMsg("parameter", "cvk-b", cvkB == null ? "" : cvkB),
             new SimpleMsg("parameter", "Exp date", expDate),
             new SimpleMsg("parameter", "Service code", serviceCode)
-      };
-      LogEvent evt = new LogEvent(this, "s-m-operation");
-      evt.addMessage(new SimpleMsg("command", "Calculate CVV/CVC", cmdParameters));
-      String result = null;
-      try {
-        result = calculateCVVImpl(accountNo, cvkA, cvkB, expDate, serviceCode);
-        evt.addMessage(new SimpleMsg("result", "Calculated CVV/CVC", result));
-      } catch (Exception e) {
-        evt.addMessage(e);
-        throw e instanceof SMException ? (SMException) e : new SMException(e);
-      } finally {
-        Logger.log(evt);
-      }
-      return result;
+          },
+          () -> calculateCVVImpl(accountNo, cvkA, cvkB, expDate, serviceCode),
+          result -> new SimpleMsg("result", "Calculated CVV/CVC", result));
     }
 
     @Override
     public String calculateCAVV(String accountNo, SecureDESKey cvk, String upn,
                                 String authrc, String sfarc) throws SMException {
 
-      List<Loggeable> cmdParameters = new ArrayList<Loggeable>();
-      cmdParameters.add(new SimpleMsg("parameter", "account number", accountNo));
-      cmdParameters.add(new SimpleMsg("parameter", "cvk", cvk == null ? "" : cvk));
-      cmdParameters.add(new SimpleMsg("parameter", "unpredictable number", upn));
-      cmdParameters.add(new SimpleMsg("parameter", "auth rc", authrc));
-      cmdParameters.add(new SimpleMsg("parameter", "second factor auth rc", sfarc));
-      LogEvent evt = new LogEvent(this, "s-m-operation");
-      evt.addMessage(new SimpleMsg("command", "Calculate CAVV/AAV", cmdParameters));
-      String result = null;
-      try {
-          result = calculateCAVVImpl(accountNo, cvk, upn, authrc, sfarc);
-          evt.addMessage(new SimpleMsg("result", "Calculated CAVV/AAV", result));
-      } catch (Exception e) {
-          evt.addMessage(e);
-          throw e instanceof SMException ? (SMException) e : new SMException(e);
-      } finally {
-          Logger.log(evt);
-      }
-      return result;
+      return audited("Calculate CAVV/AAV",
+          () -> {
+            List<Loggeable> cmdParameters = new ArrayList<Loggeable>();
+            cmdParameters.add(new SimpleMsg("parameter", "account number", accountNo));
+            cmdParameters.add(new SimpleMsg("parameter", "cvk", cvk == null ? "" : cvk));
+            cmdParameters.add(new SimpleMsg("parameter", "unpredictable number", upn));
+            cmdParameters.add(new SimpleMsg("parameter", "auth rc", authrc));
+            cmdParameters.add(new SimpleMsg("parameter", "second factor auth rc", sfarc));
+            return cmdParameters.toArray(new Loggeable[0]);
+          },
+          () -> calculateCAVVImpl(accountNo, cvk, upn, authrc, sfarc),
+          result -> new SimpleMsg("result", "Calculated CAVV/AAV", result));
     }
 
     @Override
     public boolean verifyCVV(String accountNo , SecureDESKey cvkA, SecureDESKey cvkB,
                             String cvv, Date expDate, String serviceCode) throws SMException {
 
-      SimpleMsg[] cmdParameters = {
+      return audited("Verify CVV/CVC",
+          () -> new SimpleMsg[] {
             new SimpleMsg("parameter", "account number", accountNo),
             new SimpleMsg("parameter", "cvk-a", cvkA == null ? "" : cvkA),
             new SimpleMsg("parameter", "cvk-b", cvkB == null ? "" : cvkB),
             new SimpleMsg("parameter", "CVV/CVC", cvv),
             new SimpleMsg("parameter", "Exp date", expDate),
             new SimpleMsg("parameter", "Service code", serviceCode)
-      };
-      LogEvent evt = new LogEvent(this, "s-m-operation");
-      evt.addMessage(new SimpleMsg("command", "Verify CVV/CVC", cmdParameters));
-      try {
-        boolean r = verifyCVVImpl(accountNo, cvkA, cvkB, cvv, expDate, serviceCode);
-        evt.addMessage(new SimpleMsg("result", "Verification status", r ? "valid" : "invalid"));
-        return r;
-      } catch (Exception e) {
-        evt.addMessage(e);
-        throw e instanceof SMException ? (SMException) e : new SMException(e);
-      } finally {
-        Logger.log(evt);
-      }
+          },
+          () -> verifyCVVImpl(accountNo, cvkA, cvkB, cvv, expDate, serviceCode),
+          r -> new SimpleMsg("result", "Verification status", r ? "valid" : "invalid"));
     }
 
     @Override
     public boolean verifyCAVV(String accountNo, SecureDESKey cvk, String cavv,
                               String upn, String authrc, String sfarc) throws SMException {
 
-      List<Loggeable> cmdParameters = new ArrayList<Loggeable>();
-      cmdParameters.add(new SimpleMsg("parameter", "account number", accountNo));
-      cmdParameters.add(new SimpleMsg("parameter", "cvk", cvk == null ? "" : cvk));
-      cmdParameters.add(new SimpleMsg("parameter", "cavv", cavv == null ? "" : cavv));
-      cmdParameters.add(new SimpleMsg("parameter", "unpredictable number", upn));
-      cmdParameters.add(new SimpleMsg("parameter", "auth rc", authrc));
-      cmdParameters.add(new SimpleMsg("parameter", "second factor auth rc", sfarc));
-      LogEvent evt = new LogEvent(this, "s-m-operation");
-      evt.addMessage(new SimpleMsg("command", "Verify CAVV/AAV", cmdParameters));
-      boolean r = false;
-      try {
-          r = verifyCAVVImpl(accountNo, cvk, cavv, upn, authrc, sfarc);
-          evt.addMessage(new SimpleMsg("result", "Verification status", r));
-      } catch (Exception e) {
-          evt.addMessage(e);
-          throw e instanceof SMException ? (SMException) e : new SMException(e);
-      } finally {
-          Logger.log(evt);
-      }
-      return r;
+      return audited("Verify CAVV/AAV",
+          () -> {
+            List<Loggeable> cmdParameters = new ArrayList<Loggeable>();
+            cmdParameters.add(new SimpleMsg("parameter", "account number", accountNo));
+            cmdParameters.add(new SimpleMsg("parameter", "cvk", cvk == null ? "" : cvk));
+            cmdParameters.add(new SimpleMsg("parameter", "cavv", cavv == null ? "" : cavv));
+            cmdParameters.add(new SimpleMsg("parameter", "unpredictable number", upn));
+            cmdParameters.add(new SimpleMsg("parameter", "auth rc", authrc));
+            cmdParameters.add(new SimpleMsg("parameter", "second factor auth rc", sfarc));
+            return cmdParameters.toArray(new Loggeable[0]);
+          },
+          () -> verifyCAVVImpl(accountNo, cvk, cavv, upn, authrc, sfarc),
+          r -> new SimpleMsg("result", "Verification status", r));
     }
 
     @Override
@@ -785,7 +692,8 @@ public class BaseSMAdapter
                      Date expDate, String serviceCode, byte[] atc, MKDMethod mkdm)
                      throws SMException {
 
-      SimpleMsg[] cmdParameters = {
+      return audited("Verify dCVV",
+          () -> new SimpleMsg[] {
             new SimpleMsg("parameter", "account number", accountNo),
             new SimpleMsg("parameter", "imk-ac", imkac == null ? "" : imkac),
             new SimpleMsg("parameter", "dCVV", dcvv),
@@ -793,19 +701,9 @@ public class BaseSMAdapter
             new SimpleMsg("parameter", "Service code", serviceCode),
             new SimpleMsg("parameter", "atc", atc == null ? "" : ISOUtil.hexString(atc)),
             new SimpleMsg("parameter", "mkd method", mkdm)
-      };
-      LogEvent evt = new LogEvent(this, "s-m-operation");
-      evt.addMessage(new SimpleMsg("command", "Verify dCVV", cmdParameters));
-      try {
-        boolean r = verifydCVVImpl(accountNo, imkac, dcvv, expDate, serviceCode, atc, mkdm);
-        evt.addMessage(new SimpleMsg("result", "Verification status", r ? "valid" : "invalid"));
-        return r;
-      } catch (Exception e) {
-        evt.addMessage(e);
-        throw e instanceof SMException ? (SMException) e : new SMException(e);
-      } finally {
-        Logger.log(evt);
-      }
+          },
+          () -> verifydCVVImpl(accountNo, imkac, dcvv, expDate, serviceCode, atc, mkdm),
+          r -> new SimpleMsg("result", "Verification status", r ? "valid" : "invalid"));
     }
 
     /**
@@ -828,7 +726,8 @@ public class BaseSMAdapter
                      byte[] atc, byte[] upn, byte[] data, MKDMethod mkdm, String cvc3)
                      throws SMException {
 
-      SimpleMsg[] cmdParameters = {
+      return audited("Verify CVC3",
+          () -> new SimpleMsg[] {
             new SimpleMsg("parameter", "imk-cvc3", imkcvc3 == null ? "" : imkcvc3),
             new SimpleMsg("parameter", "account number", accountNo),
             new SimpleMsg("parameter", "accnt seq no", acctSeqNo),
@@ -837,19 +736,9 @@ public class BaseSMAdapter
             new SimpleMsg("parameter", "data", data == null ? "" : ISOUtil.hexString(data)),
             new SimpleMsg("parameter", "mkd method", mkdm),
             new SimpleMsg("parameter", "cvc3", cvc3)
-      };
-      LogEvent evt = new LogEvent(this, "s-m-operation");
-      evt.addMessage(new SimpleMsg("command", "Verify CVC3", cmdParameters));
-      try {
-        boolean r = verifyCVC3Impl(imkcvc3, accountNo, acctSeqNo, atc, upn, data, mkdm, cvc3);
-        evt.addMessage(new SimpleMsg("result", "Verification status", r ? "valid" : "invalid"));
-        return r;
-      } catch (Exception e) {
-        evt.addMessage(e);
-        throw e instanceof SMException ? (SMException) e : new SMException(e);
-      } finally {
-        Logger.log(evt);
-      }
+          },
+          () -> verifyCVC3Impl(imkcvc3, accountNo, acctSeqNo, atc, upn, data, mkdm, cvc3),
+          r -> new SimpleMsg("result", "Verification status", r ? "valid" : "invalid"));
     }
 
     @Override
@@ -857,7 +746,8 @@ public class BaseSMAdapter
             ,String accoutNo, String acctSeqNo, byte[] arqc, byte[] atc
             ,byte[] upn, byte[] transData) throws SMException {
 
-      SimpleMsg[] cmdParameters = {
+      return audited("Verify ARQC/TC/AAC",
+          () -> new SimpleMsg[] {
             new SimpleMsg("parameter", "mkd method", mkdm),
             new SimpleMsg("parameter", "skd method", skdm),
             new SimpleMsg("parameter", "imk-ac", imkac),
@@ -867,19 +757,9 @@ public class BaseSMAdapter
             new SimpleMsg("parameter", "atc", atc == null ? "" : ISOUtil.hexString(atc)),
             new SimpleMsg("parameter", "upn", upn == null ? "" : ISOUtil.hexString(upn)),
             new SimpleMsg("parameter", "trans. data", transData == null ? "" : ISOUtil.hexString(transData))
-      };
-      LogEvent evt = new LogEvent(this, "s-m-operation");
-      evt.addMessage(new SimpleMsg("command", "Verify ARQC/TC/AAC", cmdParameters));
-      try {
-        boolean r = verifyARQCImpl(mkdm, skdm, imkac, accoutNo, acctSeqNo, arqc, atc, upn, transData);
-        evt.addMessage(new SimpleMsg("result", "Verification status", r ? "valid" : "invalid"));
-        return r;
-      } catch (Exception e) {
-        evt.addMessage(e);
-        throw e instanceof SMException ? (SMException) e : new SMException(e);
-      } finally {
-        Logger.log(evt);
-      }
+          },
+          () -> verifyARQCImpl(mkdm, skdm, imkac, accoutNo, acctSeqNo, arqc, atc, upn, transData),
+          r -> new SimpleMsg("result", "Verification status", r ? "valid" : "invalid"));
     }
 
     @Override
@@ -888,7 +768,8 @@ public class BaseSMAdapter
             ,ARPCMethod arpcMethod, byte[] arc, byte[] propAuthData)
             throws SMException {
 
-      SimpleMsg[] cmdParameters = {
+      return audited("Genarate ARPC",
+          () -> new SimpleMsg[] {
             new SimpleMsg("parameter", "mkd method", mkdm),
             new SimpleMsg("parameter", "skd method", skdm),
             new SimpleMsg("parameter", "imk-ac", imkac),
@@ -901,20 +782,10 @@ public class BaseSMAdapter
             new SimpleMsg("parameter", "auth. rc", arc == null ? "" : ISOUtil.hexString(arc)),
             new SimpleMsg("parameter", "prop auth. data", propAuthData == null
                                        ? "" : ISOUtil.hexString(propAuthData))
-      };
-      LogEvent evt = new LogEvent(this, "s-m-operation");
-      evt.addMessage(new SimpleMsg("command", "Genarate ARPC", cmdParameters));
-      try {
-        byte[] result = generateARPCImpl(mkdm, skdm, imkac, accoutNo, acctSeqNo
-            , arqc, atc, upn, arpcMethod, arc, propAuthData);
-        evt.addMessage(new SimpleMsg("result", "Generated ARPC", result));
-        return result;
-      } catch (Exception e) {
-        evt.addMessage(e);
-        throw e instanceof SMException ? (SMException) e : new SMException(e);
-      } finally {
-        Logger.log(evt);
-      }
+          },
+          () -> generateARPCImpl(mkdm, skdm, imkac, accoutNo, acctSeqNo
+              , arqc, atc, upn, arpcMethod, arc, propAuthData),
+          result -> new SimpleMsg("result", "Generated ARPC", result));
     }
 
     @Override
@@ -923,7 +794,8 @@ public class BaseSMAdapter
             ,byte[] transData, ARPCMethod arpcMethod, byte[] arc, byte[] propAuthData)
             throws SMException {
 
-      SimpleMsg[] cmdParameters = {
+      return audited("Verify ARQC/TC/AAC and Generate ARPC",
+          () -> new SimpleMsg[] {
             new SimpleMsg("parameter", "mkd method", mkdm),
             new SimpleMsg("parameter", "skd method", skdm),
             new SimpleMsg("parameter", "imk-ac", imkac),
@@ -937,20 +809,10 @@ public class BaseSMAdapter
             new SimpleMsg("parameter", "auth. rc", arc == null ? "" : ISOUtil.hexString(arc)),
             new SimpleMsg("parameter", "prop auth. data", propAuthData == null
                                        ? "" : ISOUtil.hexString(propAuthData))
-      };
-      LogEvent evt = new LogEvent(this, "s-m-operation");
-      evt.addMessage(new SimpleMsg("command", "Genarate ARPC", cmdParameters));
-      try {
-        byte[] result = verifyARQCGenerateARPCImpl(mkdm, skdm, imkac, accoutNo,
-                                                   acctSeqNo, arqc, atc, upn, transData, arpcMethod, arc, propAuthData);
-        evt.addMessage(new SimpleMsg("result", "ARPC", result == null ? "" : ISOUtil.hexString(result)));
-        return result;
-      } catch (Exception e) {
-        evt.addMessage(e);
-        throw e instanceof SMException ? (SMException) e : new SMException(e);
-      } finally {
-        Logger.log(evt);
-      }
+          },
+          () -> verifyARQCGenerateARPCImpl(mkdm, skdm, imkac, accoutNo,
+                                                     acctSeqNo, arqc, atc, upn, transData, arpcMethod, arc, propAuthData),
+          result -> new SimpleMsg("result", "ARPC", result == null ? "" : ISOUtil.hexString(result)));
     }
 
     @Override
@@ -958,7 +820,8 @@ public class BaseSMAdapter
             ,SecureDESKey imksmi, String accountNo, String acctSeqNo
             ,byte[] atc, byte[] arqc, byte[] data) throws SMException {
 
-      SimpleMsg[] cmdParameters = {
+      return audited("Generate Secure Messaging MAC",
+          () -> new SimpleMsg[] {
             new SimpleMsg("parameter", "mkd method", mkdm),
             new SimpleMsg("parameter", "skd method", skdm),
             new SimpleMsg("parameter", "imk-smi", imksmi),
@@ -967,19 +830,9 @@ public class BaseSMAdapter
             new SimpleMsg("parameter", "atc", atc == null ? "" : ISOUtil.hexString(atc)),
             new SimpleMsg("parameter", "arqc", arqc == null ? "" : ISOUtil.hexString(arqc)),
             new SimpleMsg("parameter", "data", data == null ? "" : ISOUtil.hexString(data))
-      };
-      LogEvent evt = new LogEvent(this, "s-m-operation");
-      evt.addMessage(new SimpleMsg("command", "Generate Secure Messaging MAC", cmdParameters));
-      try {
-        byte[] mac = generateSM_MACImpl(mkdm, skdm, imksmi, accountNo, acctSeqNo, atc, arqc, data);
-        evt.addMessage(new SimpleMsg("result", "Generated MAC", mac!=null ? ISOUtil.hexString(mac) : ""));
-        return mac;
-      } catch (Exception e) {
-        evt.addMessage(e);
-        throw e instanceof SMException ? (SMException) e : new SMException(e);
-      } finally {
-        Logger.log(evt);
-      }
+          },
+          () -> generateSM_MACImpl(mkdm, skdm, imksmi, accountNo, acctSeqNo, atc, arqc, data),
+          mac -> new SimpleMsg("result", "Generated MAC", mac!=null ? ISOUtil.hexString(mac) : ""));
     }
 
     @Override
@@ -990,43 +843,38 @@ public class BaseSMAdapter
            ,SecureDESKey kd1, SecureDESKey imksmc, SecureDESKey imkac
            ,byte destinationPINBlockFormat) throws SMException {
 
-      List<Loggeable> cmdParameters = new ArrayList<Loggeable>();
-      cmdParameters.add(new SimpleMsg("parameter", "mkd method", mkdm));
-      cmdParameters.add(new SimpleMsg("parameter", "skd method", skdm));
-      if (padm!=null)
-        cmdParameters.add(new SimpleMsg("parameter", "padding method", padm));
-      cmdParameters.add(new SimpleMsg("parameter", "imk-smi", imksmi));
-      cmdParameters.add(new SimpleMsg("parameter", "account number", accountNo));
-      cmdParameters.add(new SimpleMsg("parameter", "accnt seq no", acctSeqNo));
-      cmdParameters.add(new SimpleMsg("parameter", "atc", atc == null ? "" : ISOUtil.hexString(atc)));
-      cmdParameters.add(new SimpleMsg("parameter", "arqc", arqc == null ? "" : ISOUtil.hexString(arqc)));
-      cmdParameters.add(new SimpleMsg("parameter", "data", data == null ? "" : ISOUtil.hexString(data)));
-      cmdParameters.add(new SimpleMsg("parameter", "Current Encrypted PIN", currentPIN));
-      cmdParameters.add(new SimpleMsg("parameter", "New Encrypted PIN", newPIN));
-      cmdParameters.add(new SimpleMsg("parameter", "Source PIN Encryption Key", kd1));
-      cmdParameters.add(new SimpleMsg("parameter", "imk-smc", imksmc));
-      if (imkac!=null)
-        cmdParameters.add(new SimpleMsg("parameter", "imk-ac", imkac));
-      cmdParameters.add(new SimpleMsg("parameter", "Destination PIN Block Format", destinationPINBlockFormat));
-      LogEvent evt = new LogEvent(this, "s-m-operation");
-      evt.addMessage(new SimpleMsg("command", "Translate PIN block format and Generate Secure Messaging MAC"
-                    ,cmdParameters.toArray(new Loggeable[cmdParameters.size()])));
-      try {
-        Pair<EncryptedPIN,byte[]> r = translatePINGenerateSM_MACImpl( mkdm, skdm
-                ,padm, imksmi, accountNo, acctSeqNo, atc, arqc, data, currentPIN
-                ,newPIN, kd1, imksmc, imkac, destinationPINBlockFormat);
-        SimpleMsg[] cmdResults = {
-              new SimpleMsg("result", "Translated PIN block", r.getValue0()),
-              new SimpleMsg("result", "Generated MAC", r.getValue1() == null ? "" : ISOUtil.hexString(r.getValue1()))
-        };
-        evt.addMessage(new SimpleMsg("results", "Complex results", cmdResults));
-        return r;
-      } catch (Exception e) {
-        evt.addMessage(e);
-        throw e instanceof SMException ? (SMException) e : new SMException(e);
-      } finally {
-        Logger.log(evt);
-      }
+      return audited("Translate PIN block format and Generate Secure Messaging MAC",
+          () -> {
+            List<Loggeable> cmdParameters = new ArrayList<Loggeable>();
+            cmdParameters.add(new SimpleMsg("parameter", "mkd method", mkdm));
+            cmdParameters.add(new SimpleMsg("parameter", "skd method", skdm));
+            if (padm!=null)
+              cmdParameters.add(new SimpleMsg("parameter", "padding method", padm));
+            cmdParameters.add(new SimpleMsg("parameter", "imk-smi", imksmi));
+            cmdParameters.add(new SimpleMsg("parameter", "account number", accountNo));
+            cmdParameters.add(new SimpleMsg("parameter", "accnt seq no", acctSeqNo));
+            cmdParameters.add(new SimpleMsg("parameter", "atc", atc == null ? "" : ISOUtil.hexString(atc)));
+            cmdParameters.add(new SimpleMsg("parameter", "arqc", arqc == null ? "" : ISOUtil.hexString(arqc)));
+            cmdParameters.add(new SimpleMsg("parameter", "data", data == null ? "" : ISOUtil.hexString(data)));
+            cmdParameters.add(new SimpleMsg("parameter", "Current Encrypted PIN", currentPIN));
+            cmdParameters.add(new SimpleMsg("parameter", "New Encrypted PIN", newPIN));
+            cmdParameters.add(new SimpleMsg("parameter", "Source PIN Encryption Key", kd1));
+            cmdParameters.add(new SimpleMsg("parameter", "imk-smc", imksmc));
+            if (imkac!=null)
+              cmdParameters.add(new SimpleMsg("parameter", "imk-ac", imkac));
+            cmdParameters.add(new SimpleMsg("parameter", "Destination PIN Block Format", destinationPINBlockFormat));
+            return cmdParameters.toArray(new Loggeable[0]);
+          },
+          () -> translatePINGenerateSM_MACImpl( mkdm, skdm
+                  ,padm, imksmi, accountNo, acctSeqNo, atc, arqc, data, currentPIN
+                  ,newPIN, kd1, imksmc, imkac, destinationPINBlockFormat),
+          r -> {
+            SimpleMsg[] cmdResults = {
+                  new SimpleMsg("result", "Translated PIN block", r.getValue0()),
+                  new SimpleMsg("result", "Generated MAC", r.getValue1() == null ? "" : ISOUtil.hexString(r.getValue1()))
+            };
+            return new SimpleMsg("results", "Complex results", cmdResults);
+          });
     }
 
     /**
@@ -1043,32 +891,26 @@ public class BaseSMAdapter
     public byte[] encryptData(CipherMode cipherMode, SecureDESKey kd
             ,byte[] data, byte[] iv) throws SMException {
 
-        List<Loggeable> cmdParameters = new ArrayList<Loggeable>();
-        cmdParameters.add(new SimpleMsg("parameter", "Block Cipher Mode", cipherMode));
-        if(kd != null)
-            cmdParameters.add(new SimpleMsg("parameter", "Data key", kd));
-        if(data != null)
-            cmdParameters.add(new SimpleMsg("parameter", "Data", ISOUtil.hexString(data)));
-        if(iv != null)
-            cmdParameters.add(new SimpleMsg("parameter", "Initialization Vector", ISOUtil.hexString(iv)));
-
-        LogEvent evt = new LogEvent(this, "s-m-operation");
-        evt.addMessage(new SimpleMsg("command", "Encrypt Data", cmdParameters));
-        byte[] encData = null;
-        try {
-            encData = encryptDataImpl(cipherMode, kd, data, iv);
-            List<Loggeable> r = new ArrayList<Loggeable>();
-            r.add(new SimpleMsg("result", "Encrypted Data", encData));
-            if(iv != null)
-                r.add(new SimpleMsg("result", "Initialization Vector", iv));
-            evt.addMessage(new SimpleMsg("results", r));
-        } catch (Exception e) {
-            evt.addMessage(e);
-            throw e instanceof SMException ? (SMException) e : new SMException(e);
-        } finally {
-            Logger.log(evt);
-        }
-        return encData;
+        return audited("Encrypt Data",
+            () -> {
+                List<Loggeable> cmdParameters = new ArrayList<Loggeable>();
+                cmdParameters.add(new SimpleMsg("parameter", "Block Cipher Mode", cipherMode));
+                if(kd != null)
+                    cmdParameters.add(new SimpleMsg("parameter", "Data key", kd));
+                if(data != null)
+                    cmdParameters.add(new SimpleMsg("parameter", "Data", ISOUtil.hexString(data)));
+                if(iv != null)
+                    cmdParameters.add(new SimpleMsg("parameter", "Initialization Vector", ISOUtil.hexString(iv)));
+                return cmdParameters.toArray(new Loggeable[0]);
+            },
+            () -> encryptDataImpl(cipherMode, kd, data, iv),
+            encData -> {
+                List<Loggeable> r = new ArrayList<Loggeable>();
+                r.add(new SimpleMsg("result", "Encrypted Data", encData));
+                if(iv != null)
+                    r.add(new SimpleMsg("result", "Initialization Vector", iv));
+                return new SimpleMsg("results", r);
+            });
     }
 
     /**
@@ -1085,159 +927,223 @@ public class BaseSMAdapter
     public byte[] decryptData(CipherMode cipherMode, SecureDESKey kd
             ,byte[] data, byte[] iv) throws SMException {
 
-        List<Loggeable> cmdParameters = new ArrayList<Loggeable>();
-        cmdParameters.add(new SimpleMsg("parameter", "Block Cipher Mode", cipherMode));
-        if(kd != null)
-            cmdParameters.add(new SimpleMsg("parameter", "Data key", kd));
-        if(data != null)
-            cmdParameters.add(new SimpleMsg("parameter", "Data", ISOUtil.hexString(data)));
-        if(iv != null)
-            cmdParameters.add(new SimpleMsg("parameter", "Initialization Vector", ISOUtil.hexString(iv)));
-
-        LogEvent evt = new LogEvent(this, "s-m-operation");
-        evt.addMessage(new SimpleMsg("command", "Decrypt Data", cmdParameters));
-        byte[] decData = null;
-        try {
-            decData = decryptDataImpl(cipherMode, kd, data, iv);
-            List<Loggeable> r = new ArrayList<Loggeable>();
-            r.add(new SimpleMsg("result", "Decrypted Data", decData));
-            if(iv != null)
-                r.add(new SimpleMsg("result", "Initialization Vector", iv));
-            evt.addMessage(new SimpleMsg("results", r));
-        } catch (Exception e) {
-            evt.addMessage(e);
-            throw e instanceof SMException ? (SMException) e : new SMException(e);
-        } finally {
-            Logger.log(evt);
-        }
-        return decData;
+        return audited("Decrypt Data",
+            () -> {
+                List<Loggeable> cmdParameters = new ArrayList<Loggeable>();
+                cmdParameters.add(new SimpleMsg("parameter", "Block Cipher Mode", cipherMode));
+                if(kd != null)
+                    cmdParameters.add(new SimpleMsg("parameter", "Data key", kd));
+                if(data != null)
+                    cmdParameters.add(new SimpleMsg("parameter", "Data", ISOUtil.hexString(data)));
+                if(iv != null)
+                    cmdParameters.add(new SimpleMsg("parameter", "Initialization Vector", ISOUtil.hexString(iv)));
+                return cmdParameters.toArray(new Loggeable[0]);
+            },
+            () -> decryptDataImpl(cipherMode, kd, data, iv),
+            decData -> {
+                List<Loggeable> r = new ArrayList<Loggeable>();
+                r.add(new SimpleMsg("result", "Decrypted Data", decData));
+                if(iv != null)
+                    r.add(new SimpleMsg("result", "Initialization Vector", iv));
+                return new SimpleMsg("results", r);
+            });
     }
 
     @Override
     public byte[] generateCBC_MAC (byte[] data, SecureDESKey kd) throws SMException {
-        SimpleMsg[] cmdParameters =  {
-            new SimpleMsg("parameter", "data", data), new SimpleMsg("parameter", "data key",
-                    kd),
-        };
-        LogEvent evt = new LogEvent(this, "s-m-operation");
-        evt.addMessage(new SimpleMsg("command", "Generate CBC-MAC", cmdParameters));
-        byte[] result = null;
-        try {
-            result = generateCBC_MACImpl(data, kd);
-            evt.addMessage(new SimpleMsg("result", "CBC-MAC", result));
-        } catch (Exception e) {
-            evt.addMessage(e);
-            throw  e instanceof SMException ? (SMException) e : new SMException(e);
-        } finally {
-            Logger.log(evt);
-        }
-        return  result;
+        return audited("Generate CBC-MAC",
+            () -> new SimpleMsg[] {
+                new SimpleMsg("parameter", "data", data), new SimpleMsg("parameter", "data key",
+                        kd),
+            },
+            () -> generateCBC_MACImpl(data, kd),
+            result -> new SimpleMsg("result", "CBC-MAC", result));
     }
 
     @Override
     public byte[] generateEDE_MAC (byte[] data, SecureDESKey kd) throws SMException {
-        SimpleMsg[] cmdParameters =  {
-            new SimpleMsg("parameter", "data", data), new SimpleMsg("parameter", "data key",
-                    kd),
-        };
-        LogEvent evt = new LogEvent(this, "s-m-operation");
-        evt.addMessage(new SimpleMsg("command", "Generate EDE-MAC", cmdParameters));
-        byte[] result = null;
-        try {
-            result = generateEDE_MACImpl(data, kd);
-            evt.addMessage(new SimpleMsg("result", "EDE-MAC", result));
-        } catch (Exception e) {
-            evt.addMessage(e);
-            throw  e instanceof SMException ? (SMException) e : new SMException(e);
-        } finally {
-            Logger.log(evt);
-        }
-        return  result;
+        return audited("Generate EDE-MAC",
+            () -> new SimpleMsg[] {
+                new SimpleMsg("parameter", "data", data), new SimpleMsg("parameter", "data key",
+                        kd),
+            },
+            () -> generateEDE_MACImpl(data, kd),
+            result -> new SimpleMsg("result", "EDE-MAC", result));
     }
 
     @Override
     public SecureDESKey translateKeyFromOldLMK (SecureDESKey kd) throws SMException {
-        SimpleMsg[] cmdParameters =  {
-            new SimpleMsg("parameter", "Key under old LMK", kd)
-        };
-        LogEvent evt = new LogEvent(this, "s-m-operation");
-        evt.addMessage(new SimpleMsg("command", "Translate Key from old to new LMK", cmdParameters));
-        SecureDESKey result = null;
-        try {
-            result = translateKeyFromOldLMKImpl(kd);
-            evt.addMessage(new SimpleMsg("result", "Translated Key under new LMK", result));
-        } catch (Exception e) {
-            evt.addMessage(e);
-            throw  e instanceof SMException ? (SMException) e : new SMException(e);
-        } finally {
-            Logger.log(evt);
-        }
-        return  result;
+        return audited("Translate Key from old to new LMK",
+            () -> new SimpleMsg[] {
+                new SimpleMsg("parameter", "Key under old LMK", kd)
+            },
+            () -> translateKeyFromOldLMKImpl(kd),
+            result -> new SimpleMsg("result", "Translated Key under new LMK", result));
     }
 
     @Override
     public Pair<PublicKey, SecurePrivateKey> generateKeyPair(AlgorithmParameterSpec spec)
             throws SMException {
-        List<Loggeable> cmdParameters = new ArrayList<Loggeable>();
-        cmdParameters.add(new SimpleMsg("parameter", "Algorithm Parameter Spec", spec.getClass().getName()));
-
-        LogEvent evt = new LogEvent(this, "s-m-operation");
-        evt.addMessage(new SimpleMsg("command", "Generate public/private key pair", cmdParameters));
-        Pair<PublicKey, SecurePrivateKey> result = null;
-        try {
-            result = generateKeyPairImpl(spec);
-            SimpleMsg[] cmdResults = {
-                  new SimpleMsg("result", "Public Key", result.getValue0().getEncoded()),
-                  new SimpleMsg("result", "Private Key", result.getValue1().getKeyBytes())
-            };
-            evt.addMessage(new SimpleMsg("results", "Complex results", cmdResults));
-        } catch (Exception e) {
-            evt.addMessage(e);
-            throw  e instanceof SMException ? (SMException) e : new SMException(e);
-        } finally {
-            Logger.log(evt);
-        }
-        return result;
+        return audited("Generate public/private key pair",
+            () -> {
+                List<Loggeable> cmdParameters = new ArrayList<Loggeable>();
+                cmdParameters.add(new SimpleMsg("parameter", "Algorithm Parameter Spec", spec.getClass().getName()));
+                return cmdParameters.toArray(new Loggeable[0]);
+            },
+            () -> generateKeyPairImpl(spec),
+            result -> {
+                SimpleMsg[] cmdResults = {
+                      new SimpleMsg("result", "Public Key", result.getValue0().getEncoded()),
+                      new SimpleMsg("result", "Private Key", result.getValue1().getKeyBytes())
+                };
+                return new SimpleMsg("results", "Complex results", cmdResults);
+            });
     }
 
     @Override
     public byte[] calculateSignature(MessageDigest hash, SecurePrivateKey privateKey
             ,byte[] data) throws SMException {
-        List<Loggeable> cmdParameters = new ArrayList<Loggeable>();
-        cmdParameters.add(new SimpleMsg("parameter", "Hash Identifier", hash));
-        cmdParameters.add(new SimpleMsg("parameter", "Private Key", privateKey));
-        cmdParameters.add(new SimpleMsg("parameter", "data", data));
-
-        LogEvent evt = new LogEvent(this, "s-m-operation");
-        evt.addMessage(new SimpleMsg("command", "Generate data signature", cmdParameters));
-        byte[] result = null;
-        try {
-            result = calculateSignatureImpl(hash, privateKey, data);
-            evt.addMessage(new SimpleMsg("result", "Data Signature", result));
-        } catch (Exception e) {
-            evt.addMessage(e);
-            throw  e instanceof SMException ? (SMException) e : new SMException(e);
-        } finally {
-            Logger.log(evt);
-        }
-        return result;
+        return audited("Generate data signature",
+            () -> {
+                List<Loggeable> cmdParameters = new ArrayList<Loggeable>();
+                cmdParameters.add(new SimpleMsg("parameter", "Hash Identifier", hash));
+                cmdParameters.add(new SimpleMsg("parameter", "Private Key", privateKey));
+                cmdParameters.add(new SimpleMsg("parameter", "data", data));
+                return cmdParameters.toArray(new Loggeable[0]);
+            },
+            () -> calculateSignatureImpl(hash, privateKey, data),
+            result -> new SimpleMsg("result", "Data Signature", result));
     }
 
 
     @Override
     public void eraseOldLMK () throws SMException {
-        SimpleMsg[] cmdParameters =  {
-        };
-        LogEvent evt = new LogEvent(this, "s-m-operation");
-        evt.addMessage(new SimpleMsg("command", "Erase the key change storage", cmdParameters));
-        try {
-            eraseOldLMKImpl();
-        } catch (Exception e) {
-            evt.addMessage(e);
-            throw  e instanceof SMException ? (SMException) e : new SMException(e);
-        } finally {
-            Logger.log(evt);
+        audited("Erase the key change storage",
+            () -> new SimpleMsg[0],
+            () -> {
+                eraseOldLMKImpl();
+                return null;
+            },
+            null);
+    }
+
+    @Override
+    public List<BatchResult<EncryptedPIN>> translatePINBatch (EncryptedPIN[] pinsUnderKd1, SecureDESKey kd1,
+            SecureDESKey kd2, byte destinationPINBlockFormat) throws SMException {
+        return audited("Translate PIN batch from Data Key 1 to Data Key 2",
+            () -> new SimpleMsg[] {
+                new SimpleMsg("parameter", "PINs under Data Key 1", batchSize(pinsUnderKd1)), new SimpleMsg("parameter",
+                        "Data Key 1", kd1), new SimpleMsg("parameter", "Data Key 2", kd2),
+                        new SimpleMsg("parameter", "Destination PIN Block Format", destinationPINBlockFormat)
+            },
+            () -> {
+                checkBatch(pinsUnderKd1);
+                return translatePINBatchImpl(pinsUnderKd1, kd1, kd2, destinationPINBlockFormat);
+            },
+            result -> batchResult("PINs under Data Key 2", result));
+    }
+
+    @Override
+    public List<BatchResult<EncryptedPIN>> translatePINBatch (EncryptedPIN[] pinsUnderDuk, KeySerialNumber[] ksns,
+            SecureDESKey bdk, SecureDESKey kd2, byte destinationPINBlockFormat, boolean tdes)
+            throws SMException {
+        return audited("Translate PIN batch",
+            () -> new SimpleMsg[] {
+                new SimpleMsg("parameter", "PINs under Derived Unique Key", batchSize(pinsUnderDuk)),
+                new SimpleMsg("parameter", "Base Derivation Key", bdk),
+                new SimpleMsg("parameter", "Data Key 2", kd2),
+                new SimpleMsg("parameter", "Destination PIN Block Format", destinationPINBlockFormat),
+                new SimpleMsg("parameter", "Use TDES", tdes)
+            },
+            () -> {
+                checkBatch(pinsUnderDuk, ksns);
+                return translatePINBatchImpl(pinsUnderDuk, ksns, bdk, kd2, destinationPINBlockFormat, tdes);
+            },
+            result -> batchResult("PINs under Data Key 2", result));
+    }
+
+    @Override
+    public List<BatchResult<Boolean>> verifyCVVBatch (String[] accountNos, SecureDESKey cvkA, SecureDESKey cvkB,
+            String[] cvvs, Date[] expDates, String[] serviceCodes) throws SMException {
+        return audited("Verify CVV/CVC batch",
+            () -> new SimpleMsg[] {
+                new SimpleMsg("parameter", "account numbers", batchSize(accountNos)),
+                new SimpleMsg("parameter", "cvk-a", cvkA == null ? "" : cvkA),
+                new SimpleMsg("parameter", "cvk-b", cvkB == null ? "" : cvkB)
+            },
+            () -> {
+                checkBatch(accountNos, cvvs, expDates, serviceCodes);
+                return verifyCVVBatchImpl(accountNos, cvkA, cvkB, cvvs, expDates, serviceCodes);
+            },
+            result -> batchResult("Verification status", result));
+    }
+
+    @Override
+    public List<BatchResult<Boolean>> verifyARQCBatch (MKDMethod mkdm, SKDMethod skdm, SecureDESKey imkac
+            ,String[] accountNos, String[] acctSeqNos, byte[][] arqcs, byte[][] atcs
+            ,byte[][] upns, byte[][] transData) throws SMException {
+        return audited("Verify ARQC/TC/AAC batch",
+            () -> new SimpleMsg[] {
+                new SimpleMsg("parameter", "mkd method", mkdm),
+                new SimpleMsg("parameter", "skd method", skdm),
+                new SimpleMsg("parameter", "imk-ac", imkac),
+                new SimpleMsg("parameter", "account numbers", batchSize(accountNos))
+            },
+            () -> {
+                checkBatch(accountNos, acctSeqNos, arqcs, atcs, upns, transData);
+                return verifyARQCBatchImpl(mkdm, skdm, imkac, accountNos, acctSeqNos, arqcs, atcs, upns, transData);
+            },
+            result -> batchResult("Verification status", result));
+    }
+
+    @Override
+    public List<BatchResult<byte[]>> generateCBC_MACBatch (byte[][] data, SecureDESKey kd) throws SMException {
+        return audited("Generate CBC-MAC batch",
+            () -> new SimpleMsg[] {
+                new SimpleMsg("parameter", "data", batchSize(data)), new SimpleMsg("parameter", "data key",
+                        kd),
+            },
+            () -> {
+                checkBatch(data);
+                return generateCBC_MACBatchImpl(data, kd);
+            },
+            result -> batchResult("CBC-MAC", result));
+    }
+
+    private static String batchSize (Object[] batch) {
+        return batch == null ? "" : batch.length + " operation(s)";
+    }
+
+    /**
+     * Every per-operation array of a batch must be present and of the same length
+     */
+    private static void checkBatch (Object[]... arrays) throws SMException {
+        for (Object[] a : arrays) {
+            if (a == null)
+                throw new SMException("Batch parameters can not be null");
+            if (a.length != arrays[0].length)
+                throw new SMException("Batch parameters length mismatch: "
+                        + a.length + " != " + arrays[0].length);
+        }
+    }
+
+    /**
+     * Summarizes a batch outcome for logging. Successful results are not
+     * rendered one by one, failures are.
+     */
+    private static SimpleMsg batchResult (String name, List<? extends BatchResult<?>> results) {
+        List<Loggeable> msgs = new ArrayList<Loggeable>();
+        int failed = 0;
+        for (int i = 0; i < results.size(); i++) {
+            SMException e = results.get(i).getException();
+            if (e != null) {
+                msgs.add(new SimpleMsg("failure", "operation " + i, e.getMessage()));
+                failed++;
+            }
         }
+        msgs.add(0, new SimpleMsg("count", "succeeded", results.size() - failed));
+        msgs.add(1, new SimpleMsg("count", "failed", failed));
+        return new SimpleMsg("result", name, msgs);
     }
 
     /**
@@ -1880,6 +1786,133 @@ public class BaseSMAdapter
     protected void eraseOldLMKImpl () throws SMException {
         throw  new SMException("Operation not supported in: " + this.getClass().getName());
     }
+
+    /**
+     * Your SMAdapter should override this method if it can do better than
+     * translating the PINs one at a time.
+     * @param pinsUnderKd1
+     * @param kd1
+     * @param kd2
+     * @param destinationPINBlockFormat
+     * @return PINs encrypted under kd2, in order
+     * @throws SMException
+     */
+    protected List<BatchResult<EncryptedPIN>> translatePINBatchImpl (EncryptedPIN[] pinsUnderKd1,
+            SecureDESKey kd1, SecureDESKey kd2, byte destinationPINBlockFormat) throws SMException {
+        List<BatchResult<EncryptedPIN>> results = new ArrayList<BatchResult<EncryptedPIN>>(pinsUnderKd1.length);
+        for (EncryptedPIN pin : pinsUnderKd1) {
+            try {
+                results.add(BatchResult.success(translatePINImpl(pin, kd1, kd2, destinationPINBlockFormat)));
+            } catch (Exception e) {
+                results.add(BatchResult.<EncryptedPIN>failure(e));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Your SMAdapter should override this method if it can do better than
+     * translating the PINs one at a time.
+     * @param pinsUnderDuk
+     * @param ksns
+     * @param bdk
+     * @param kd2
+     * @param destinationPINBlockFormat
+     * @param tdes
+     * @return PINs encrypted under kd2, in order
+     * @throws SMException
+     */
+    protected List<BatchResult<EncryptedPIN>> translatePINBatchImpl (EncryptedPIN[] pinsUnderDuk,
+            KeySerialNumber[] ksns, SecureDESKey bdk, SecureDESKey kd2, byte destinationPINBlockFormat,
+            boolean tdes) throws SMException {
+        List<BatchResult<EncryptedPIN>> results = new ArrayList<BatchResult<EncryptedPIN>>(pinsUnderDuk.length);
+        for (int i = 0; i < pinsUnderDuk.length; i++) {
+            try {
+                results.add(BatchResult.success(
+                  translatePINImpl(pinsUnderDuk[i], ksns[i], bdk, kd2, destinationPINBlockFormat, tdes)));
+            } catch (Exception e) {
+                results.add(BatchResult.<EncryptedPIN>failure(e));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Your SMAdapter should override this method if it can do better than
+     * verifying the values one at a time.
+     * @param accountNos
+     * @param cvkA
+     * @param cvkB
+     * @param cvvs
+     * @param expDates
+     * @param serviceCodes
+     * @return verification status, in order
+     * @throws SMException
+     */
+    protected List<BatchResult<Boolean>> verifyCVVBatchImpl (String[] accountNos, SecureDESKey cvkA,
+            SecureDESKey cvkB, String[] cvvs, Date[] expDates, String[] serviceCodes) throws SMException {
+        List<BatchResult<Boolean>> results = new ArrayList<BatchResult<Boolean>>(accountNos.length);
+        for (int i = 0; i < accountNos.length; i++) {
+            try {
+                results.add(BatchResult.success(
+                  verifyCVVImpl(accountNos[i], cvkA, cvkB, cvvs[i], expDates[i], serviceCodes[i])));
+            } catch (Exception e) {
+                results.add(BatchResult.<Boolean>failure(e));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Your SMAdapter should override this method if it can do better than
+     * verifying the cryptograms one at a time.
+     * @param mkdm
+     * @param skdm
+     * @param imkac
+     * @param accountNos
+     * @param acctSeqNos
+     * @param arqcs
+     * @param atcs
+     * @param upns
+     * @param transData
+     * @return verification status, in order
+     * @throws SMException
+     */
+    protected List<BatchResult<Boolean>> verifyARQCBatchImpl (MKDMethod mkdm, SKDMethod skdm,
+            SecureDESKey imkac, String[] accountNos, String[] acctSeqNos, byte[][] arqcs, byte[][] atcs,
+            byte[][] upns, byte[][] transData) throws SMException {
+        List<BatchResult<Boolean>> results = new ArrayList<BatchResult<Boolean>>(accountNos.length);
+        for (int i = 0; i < accountNos.length; i++) {
+            try {
+                results.add(BatchResult.success(verifyARQCImpl(mkdm, skdm, imkac, accountNos[i],
+                  acctSeqNos[i], arqcs[i], atcs[i], upns[i], transData[i])));
+            } catch (Exception e) {
+                results.add(BatchResult.<Boolean>failure(e));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Your SMAdapter should override this method if it can do better than
+     * MACing the messages one at a time.
+     * @param data
+     * @param kd
+     * @return the MACs, in order
+     * @throws SMException
+     */
+    protected List<BatchResult<byte[]>> generateCBC_MACBatchImpl (byte[][] data, SecureDESKey kd)
+            throws SMException {
+        List<BatchResult<byte[]>> results = new ArrayList<BatchResult<byte[]>>(data.length);
+        for (byte[] d : data) {
+            try {
+                results.add(BatchResult.success(generateCBC_MACImpl(d, kd)));
+            } catch (Exception e) {
+                results.add(BatchResult.<byte[]>failure(e));
+            }
+        }
+        return results;
+    }
 }
 
 
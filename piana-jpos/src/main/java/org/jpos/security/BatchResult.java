@@ -0,0 +1,71 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2017 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package  org.jpos.security;
+
+/**
+ * Outcome of a single operation within an {@link SMAdapter} batch call.
+ * <p>
+ * Each operation of a batch succeeds or fails on its own, the same way
+ * a hardware security module answers each command of a pipelined request
+ * with its own error code.
+ * </p>
+ * @param <T> the operation's result type
+ */
+public class BatchResult<T> {
+    private final T value;
+    private final SMException exception;
+
+    private BatchResult (T value, SMException exception) {
+        this.value = value;
+        this.exception = exception;
+    }
+
+    public static <T> BatchResult<T> success (T value) {
+        return new BatchResult<>(value, null);
+    }
+
+    public static <T> BatchResult<T> failure (Exception e) {
+        return new BatchResult<>(null,
+          e instanceof SMException ? (SMException) e : new SMException(e));
+    }
+
+    /**
+     * @return true if the operation succeeded
+     */
+    public boolean isSuccess () {
+        return exception == null;
+    }
+
+    /**
+     * @return the operation's result
+     * @throws SMException the exception the operation failed with
+     */
+    public T get () throws SMException {
+        if (exception != null)
+            throw exception;
+        return value;
+    }
+
+    /**
+     * @return the exception the operation failed with, null if it succeeded
+     */
+    public SMException getException () {
+        return exception;
+    }
+}
@@ -0,0 +1,382 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2017 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package  org.jpos.security;
+
+import org.jpos.core.Configurable;
+import org.jpos.core.Configuration;
+import org.jpos.core.ConfigurationException;
+import org.jpos.iso.ISOUtil;
+import org.jpos.util.DefaultTimer;
+import org.jpos.util.Destroyable;
+import org.jpos.util.LogEvent;
+import org.jpos.util.LogSource;
+import org.jpos.util.Logger;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * SecureKeyStore holding parsed keys in memory, backed by a {@link SimpleKeyFile}
+ * compatible properties file.
+ * <p>
+ * Lookups are served from a concurrent map without locking nor touching the
+ * file system. Keys set through {@link #setKey} are appended, one line per key,
+ * to a change log (<code>key-file</code> plus <code>.log</code>) that is fsynced
+ * before the call returns. A background task, every <code>poll-interval</code>
+ * millis, reloads both files if they were modified by someone else (size or
+ * modification time changed), and folds the change log back into the key file.
+ * The change log is also folded in when the store is (re)initialized.
+ * </p>
+ * <p>
+ * Returned keys are shared between callers and must not be modified.
+ * </p>
+ * @see SimpleKeyFile
+ */
+public class IndexedKeyFile
+        implements SecureKeyStore, Configurable, LogSource, Destroyable {
+    File file;
+    File logFile;
+    String header = "Key File";
+    long pollInterval = 1000L;
+    protected Logger logger = null;
+    protected String realm = null;
+
+    private volatile Map<String,SecureDESKey> keys = new ConcurrentHashMap<>();
+    private final Object writeLock = new Object();
+    private long fileStamp;
+    private long logStamp;
+    /**
+     * false if the key file had entries we could not parse, those would be lost by a compaction
+     */
+    private boolean compactable;
+    private TimerTask pollTask;
+
+    public IndexedKeyFile () {
+    }
+
+    public IndexedKeyFile (String keyFileName) throws SecureKeyStoreException
+    {
+        init(keyFileName);
+    }
+
+    public void init (String keyFileName) throws SecureKeyStoreException {
+        synchronized (writeLock) {
+            file = new File(keyFileName);
+            logFile = new File(keyFileName + ".log");
+            try {
+                if (!file.exists())
+                    file.createNewFile();
+            } catch (IOException e) {
+                throw new SecureKeyStoreException(e);
+            }
+            load();
+            if (compactable && logFile.length() > 0)
+                compact();
+        }
+        schedule();
+    }
+
+    public void setLogger (Logger logger, String realm) {
+        this.logger = logger;
+        this.realm = realm;
+    }
+
+    public Logger getLogger () {
+        return  logger;
+    }
+
+    public String getRealm () {
+        return  realm;
+    }
+
+    /**
+     * @param cfg The following properties are read:<br>
+     *    key-file: the keys file (required)<br>
+     *    file-header: header written to the keys file<br>
+     *    poll-interval: millis between checks for external changes and change log compaction,
+     *                   defaults to 1000, 0 disables both<br>
+     * @throws ConfigurationException
+     */
+    public void setConfiguration (Configuration cfg) throws ConfigurationException {
+        try {
+            header = cfg.get("file-header", header);
+            pollInterval = cfg.getLong("poll-interval", pollInterval);
+            init(cfg.get("key-file"));
+        } catch (Exception e) {
+            throw  new ConfigurationException(e);
+        }
+    }
+
+    public SecureKey getKey (String alias) throws SecureKeyStoreException {
+        SecureKey secureKey = keys.get(alias);
+        if (secureKey == null) {
+            SecureKeyStoreException e = new SecureKeyStoreException("Key can't be retrieved. Unknown alias: " + alias);
+            LogEvent evt = new LogEvent(this, "get-key-error", alias);
+            evt.addMessage(e);
+            Logger.log(evt);
+            throw e;
+        }
+        if (logger != null) {
+            LogEvent evt = new LogEvent(this, "get-key");
+            evt.addMessage("alias", alias);
+            evt.addMessage(secureKey);
+            Logger.log(evt);
+        }
+        return secureKey;
+    }
+
+    public void setKey (String alias, SecureKey secureKey) throws SecureKeyStoreException {
+        LogEvent evt = new LogEvent(this, "set-key");
+        evt.addMessage("alias", alias);
+        evt.addMessage(secureKey);
+        try {
+            if (!(secureKey instanceof SecureDESKey))
+                throw  new SecureKeyStoreException("Unsupported SecureKey class: " +
+                        secureKey.getClass().getName());
+            SecureDESKey k = (SecureDESKey) secureKey;
+            SecureDESKey copy = new SecureDESKey(k.getKeyLength(), k.getKeyType(),
+                    k.getKeyBytes().clone(), k.getKeyCheckValue().clone());
+            synchronized (writeLock) {
+                append(alias, copy);
+                keys.put(alias, copy);
+            }
+        } catch (Exception e) {
+            evt.addMessage(e);
+            throw  e instanceof SecureKeyStoreException ? (SecureKeyStoreException) e : new SecureKeyStoreException(e);
+        } finally {
+            Logger.log(evt);
+        }
+    }
+
+    public Map<String,SecureKey> getKeys() throws SecureKeyStoreException {
+        return new Hashtable<String,SecureKey>(keys);
+    }
+
+    public void destroy () {
+        synchronized (writeLock) {
+            if (pollTask != null) {
+                pollTask.cancel();
+                pollTask = null;
+            }
+        }
+    }
+
+    /**
+     * Reloads the store if any of its files were changed behind our back,
+     * then folds the change log into the key file.
+     */
+    void poll () throws SecureKeyStoreException {
+        synchronized (writeLock) {
+            if (stamp(file) != fileStamp || stamp(logFile) != logStamp)
+                load();
+            if (compactable && logFile.length() > 0)
+                compact();
+        }
+    }
+
+    /**
+     * Parses the key file and replays the change log on top of it.
+     * Must be called holding the write lock.
+     */
+    private void load () throws SecureKeyStoreException {
+        LogEvent evt = new LogEvent(this, "load");
+        Map<String,SecureDESKey> m = new ConcurrentHashMap<>();
+        boolean errors = false;
+        boolean valid = true;
+        try {
+            long fs = stamp(file);
+            long ls = stamp(logFile);
+            Properties props = new Properties();
+            try (InputStream in = new FileInputStream(file)) {
+                props.load(in);
+            }
+            Map<String,Properties> byAlias = new HashMap<>();
+            for (String name : props.stringPropertyNames()) {
+                int i = name.lastIndexOf('.');
+                if (i > 0) {
+                    byAlias.computeIfAbsent(name.substring(0, i), a -> new Properties())
+                      .setProperty(name.substring(i + 1), props.getProperty(name).trim());
+                }
+            }
+            for (Map.Entry<String,Properties> entry : byAlias.entrySet()) {
+                Properties p = entry.getValue();
+                try {
+                    m.put(entry.getKey(), parse(p.getProperty("class"), p.getProperty("length"),
+                      p.getProperty("type"), p.getProperty("key"), p.getProperty("checkvalue")));
+                } catch (Exception e) {
+                    evt.addMessage("Invalid key '" + entry.getKey() + "' in " + file + ": " + e);
+                    errors = true;
+                    valid = false;
+                }
+            }
+            int records = 0;
+            if (logFile.exists()) {
+                try (BufferedReader reader = new BufferedReader(
+                  new InputStreamReader(new FileInputStream(logFile), StandardCharsets.ISO_8859_1))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (line.isEmpty() || line.startsWith("#"))
+                            continue;
+                        try {
+                            Properties p = new Properties();
+                            p.load(new StringReader(line));
+                            String alias = p.stringPropertyNames().iterator().next();
+                            String[] f = p.getProperty(alias).trim().split(" ");
+                            m.put(alias, parse(f[0], f[1], f[2], f[3], f[4]));
+                            records++;
+                        } catch (Exception e) {
+                            // most likely a write torn by a crash, never acknowledged
+                            evt.addMessage("Invalid record in " + logFile + ": " + e);
+                            errors = true;
+                        }
+                    }
+                }
+            }
+            keys = m;
+            compactable = valid;
+            fileStamp = fs;
+            logStamp = ls;
+            evt.addMessage("keys", Integer.toString(m.size()));
+            evt.addMessage("log-records", Integer.toString(records));
+        } catch (IOException e) {
+            evt.addMessage(e);
+            errors = true;
+            throw new SecureKeyStoreException(e);
+        } finally {
+            if (logger != null || errors)
+                Logger.log(evt);
+        }
+    }
+
+    /**
+     * Appends a key to the change log, forcing it to disk.
+     * Must be called holding the write lock.
+     */
+    private void append (String alias, SecureDESKey k) throws IOException {
+        Properties p = new Properties();
+        p.setProperty(alias, k.getClass().getName()
+          + " " + k.getKeyLength()
+          + " " + k.getKeyType()
+          + " " + ISOUtil.hexString(k.getKeyBytes())
+          + " " + ISOUtil.hexString(k.getKeyCheckValue()));
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        p.store(record, null); // escaped, single line, after the date comment
+        boolean known = stamp(logFile) == logStamp;
+        try (FileOutputStream out = new FileOutputStream(logFile, true)) {
+            out.write(record.toByteArray());
+            out.flush();
+            out.getFD().sync();
+        }
+        if (known)
+            logStamp = stamp(logFile);
+    }
+
+    /**
+     * Writes the in memory keys to the key file, atomically replacing it,
+     * then truncates the change log.
+     * Must be called holding the write lock.
+     */
+    private void compact () throws SecureKeyStoreException {
+        Properties props = new Properties();
+        for (Map.Entry<String,SecureDESKey> entry : keys.entrySet()) {
+            String alias = entry.getKey();
+            SecureDESKey k = entry.getValue();
+            props.setProperty(alias + ".class", k.getClass().getName());
+            props.setProperty(alias + ".key", ISOUtil.hexString(k.getKeyBytes()));
+            props.setProperty(alias + ".length", Short.toString(k.getKeyLength()));
+            props.setProperty(alias + ".type", k.getKeyType());
+            props.setProperty(alias + ".checkvalue", ISOUtil.hexString(k.getKeyCheckValue()));
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            try (FileOutputStream out = new FileOutputStream(tmp)) {
+                props.store(out, header);
+                out.flush();
+                out.getFD().sync();
+            }
+            Files.move(tmp.toPath(), file.toPath(),
+              StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            try (FileOutputStream out = new FileOutputStream(logFile)) {
+                out.getFD().sync();
+            }
+            fileStamp = stamp(file);
+            logStamp = stamp(logFile);
+        } catch (IOException e) {
+            LogEvent evt = new LogEvent(this, "compact-error");
+            evt.addMessage(e);
+            Logger.log(evt);
+            throw new SecureKeyStoreException(e);
+        }
+    }
+
+    private void schedule () {
+        synchronized (writeLock) {
+            if (pollTask != null)
+                pollTask.cancel();
+            pollTask = null;
+            if (pollInterval > 0) {
+                pollTask = new TimerTask() {
+                    @Override
+                    public void run() {
+                        try {
+                            poll();
+                        } catch (Throwable t) {
+                            LogEvent evt = new LogEvent(IndexedKeyFile.this, "poll-error");
+                            evt.addMessage(t);
+                            Logger.log(evt);
+                        }
+                    }
+                };
+                DefaultTimer.getTimer().schedule(pollTask, pollInterval, pollInterval);
+            }
+        }
+    }
+
+    private static SecureDESKey parse (String className, String length, String type, String key, String checkValue)
+            throws SecureKeyStoreException, ClassNotFoundException
+    {
+        if (className == null || length == null || type == null || key == null || checkValue == null)
+            throw new SecureKeyStoreException("Incomplete key definition");
+        if (!SecureDESKey.class.getName().equals(className)
+          && !SecureDESKey.class.isAssignableFrom(Class.forName(className)))
+            throw new SecureKeyStoreException("Unsupported SecureKey class: " + className);
+        return new SecureDESKey(Short.parseShort(length), type,
+                ISOUtil.hex2byte(key), ISOUtil.hex2byte(checkValue));
+    }
+
+    private static long stamp (File f) {
+        return f.lastModified() * 31 + f.length();
+    }
+}
@@ -23,6 +23,7 @@ import org.javatuples.Pair;
 import java.security.MessageDigest;
 import java.security.PublicKey;
 import java.security.spec.AlgorithmParameterSpec;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -1309,6 +1310,157 @@ public interface SMAdapter {
      */
     void eraseOldLMK() throws SMException;
 
+    /**
+     * Translates a batch of PINs from encryption under KD1 to encryption under KD2.
+     *
+     * <p>Batch operations return one {@link BatchResult} per input, in input order.
+     * A failing operation doesn't abort the rest of the batch, its result carries the
+     * exception instead. Keys shared by the whole batch are only handled once.
+     * <p>
+     * Default implementation calls {@link #translatePIN(EncryptedPIN, SecureDESKey, SecureDESKey, byte)}
+     * once per PIN.
+     * @param pinsUnderKd1 pins encrypted under KD1
+     * @param kd1 Data Key (also called session key) under which the pins are encrypted
+     * @param kd2 the destination Data Key 2 under which the pins will be encrypted
+     * @param destinationPINBlockFormat the PIN Block Format of the exported encrypted PINs
+     * @return pins encrypted under KD2
+     * @throws SMException if the batch as a whole can not be processed
+     */
+    default List<BatchResult<EncryptedPIN>> translatePINBatch(EncryptedPIN[] pinsUnderKd1, SecureDESKey kd1,
+                              SecureDESKey kd2, byte destinationPINBlockFormat) throws SMException
+    {
+        List<BatchResult<EncryptedPIN>> results = new ArrayList<>(pinsUnderKd1.length);
+        for (EncryptedPIN pin : pinsUnderKd1) {
+            try {
+                results.add(BatchResult.success(translatePIN(pin, kd1, kd2, destinationPINBlockFormat)));
+            } catch (Exception e) {
+                results.add(BatchResult.failure(e));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Translates a batch of PINs from encryption under DUKPT transaction keys to
+     * encryption under a KD (Data Key).
+     * <p>
+     * Default implementation calls
+     * {@link #translatePIN(EncryptedPIN, KeySerialNumber, SecureDESKey, SecureDESKey, byte, boolean)}
+     * once per PIN.
+     *
+     * @param pinsUnderDuk pins encrypted under DUKPT transaction keys
+     * @param ksns Key Serial Numbers, one per pin
+     * @param bdk Base Derivation Key, used to derive the transaction keys
+     * @param kd2 the destination Data Key (also called session key) under which the pins will be encrypted
+     * @param destinationPINBlockFormat the PIN Block Format of the translated encrypted PINs
+     * @param tdes Use Triple DES to calculate derived transaction keys.
+     * @return pins encrypted under kd2
+     * @throws SMException if the batch as a whole can not be processed
+     * @see #translatePINBatch(EncryptedPIN[], SecureDESKey, SecureDESKey, byte)
+     */
+    default List<BatchResult<EncryptedPIN>> translatePINBatch(EncryptedPIN[] pinsUnderDuk, KeySerialNumber[] ksns,
+                              SecureDESKey bdk, SecureDESKey kd2, byte destinationPINBlockFormat, boolean tdes)
+            throws SMException
+    {
+        List<BatchResult<EncryptedPIN>> results = new ArrayList<>(pinsUnderDuk.length);
+        for (int i = 0; i < pinsUnderDuk.length; i++) {
+            try {
+                results.add(BatchResult.success(
+                  translatePIN(pinsUnderDuk[i], ksns[i], bdk, kd2, destinationPINBlockFormat, tdes)));
+            } catch (Exception e) {
+                results.add(BatchResult.failure(e));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Verifies a batch of CVV/CVC values, all under the same CVK pair.
+     * <p>
+     * Default implementation calls {@link #verifyCVV} once per value.
+     *
+     * @param accountNos account numbers, including BIN and check digit
+     * @param cvkA the first CVK in CVK pair
+     * @param cvkB the second CVK in CVK pair
+     * @param cvvs Card Verification Codes/Values
+     * @param expDates card expiration dates
+     * @param serviceCodes card service codes, see {@link #verifyCVV}
+     * @return verification status, true if the CVV/CVC is valid
+     * @throws SMException if the batch as a whole can not be processed
+     * @see #translatePINBatch(EncryptedPIN[], SecureDESKey, SecureDESKey, byte)
+     */
+    default List<BatchResult<Boolean>> verifyCVVBatch(String[] accountNos, SecureDESKey cvkA, SecureDESKey cvkB,
+                      String[] cvvs, Date[] expDates, String[] serviceCodes) throws SMException
+    {
+        List<BatchResult<Boolean>> results = new ArrayList<>(accountNos.length);
+        for (int i = 0; i < accountNos.length; i++) {
+            try {
+                results.add(BatchResult.success(
+                  verifyCVV(accountNos[i], cvkA, cvkB, cvvs[i], expDates[i], serviceCodes[i])));
+            } catch (Exception e) {
+                results.add(BatchResult.failure(e));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Verifies a batch of ARQC/TC/AAC cryptograms, all under the same issuer master key.
+     * <p>
+     * Default implementation calls {@link #verifyARQC} once per cryptogram.
+     *
+     * @param mkdm ICC Master Key Derivation Method
+     * @param skdm Session Key Derivation Method
+     * @param imkac the issuer master key for generating and verifying Application Cryptograms
+     * @param accountNos account numbers, including BIN and check digit
+     * @param acctSeqNos account sequence numbers, 2 digits each
+     * @param arqcs ARQC/TC/AAC, see {@link #verifyARQC}
+     * @param atcs application transaction counters
+     * @param upns unpredictable numbers
+     * @param transData transaction data, one entry per cryptogram
+     * @return verification status, true if the cryptogram is valid
+     * @throws SMException if the batch as a whole can not be processed
+     * @see #translatePINBatch(EncryptedPIN[], SecureDESKey, SecureDESKey, byte)
+     */
+    default List<BatchResult<Boolean>> verifyARQCBatch(MKDMethod mkdm, SKDMethod skdm, SecureDESKey imkac
+      , String[] accountNos, String[] acctSeqNos, byte[][] arqcs, byte[][] atcs
+      , byte[][] upns, byte[][] transData) throws SMException
+    {
+        List<BatchResult<Boolean>> results = new ArrayList<>(accountNos.length);
+        for (int i = 0; i < accountNos.length; i++) {
+            try {
+                results.add(BatchResult.success(verifyARQC(mkdm, skdm, imkac, accountNos[i],
+                  acctSeqNos[i], arqcs[i], atcs[i], upns[i], transData[i])));
+            } catch (Exception e) {
+                results.add(BatchResult.failure(e));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Generates CBC-MACs for a batch of messages, all under the same key.
+     * <p>
+     * Default implementation calls {@link #generateCBC_MAC} once per message.
+     *
+     * @param data the messages to be MACed
+     * @param kd the key used for MACing
+     * @return the MACs
+     * @throws SMException if the batch as a whole can not be processed
+     * @see #translatePINBatch(EncryptedPIN[], SecureDESKey, SecureDESKey, byte)
+     */
+    default List<BatchResult<byte[]>> generateCBC_MACBatch(byte[][] data, SecureDESKey kd) throws SMException {
+        List<BatchResult<byte[]>> results = new ArrayList<>(data.length);
+        for (byte[] d : data) {
+            try {
+                results.add(BatchResult.success(generateCBC_MAC(d, kd)));
+            } catch (Exception e) {
+                results.add(BatchResult.failure(e));
+            }
+        }
+        return results;
+    }
+
 }
 
 
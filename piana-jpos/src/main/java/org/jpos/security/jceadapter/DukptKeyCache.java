@@ -0,0 +1,187 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2017 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.security.jceadapter;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded, time expiring cache of DUKPT device state used by {@link JCESecurityModule}.
+ * <p>
+ * There is one {@link Device} per BDK, initial key serial number (KSN with the
+ * transaction counter zeroed) and key variant (single or triple DES). It holds the
+ * device's initial PIN encryption key (IPEK) and, for the last transaction counter
+ * derived, the intermediate key left after each of the counter's set bits was
+ * processed (the host side equivalent of the PIN pad's future key registers).
+ * A following counter sharing its leading bits with the cached one only needs
+ * the remaining bits walked, instead of the whole derivation from the BDK.
+ * </p>
+ * <p>
+ * All key material is kept encrypted under the LMK (sealing and unsealing is up to
+ * the caller), and is overwritten when a device is evicted, expires or its
+ * register is replaced.
+ * </p>
+ */
+class DukptKeyCache {
+    /**
+     * Transaction counter bits, ANS X9.24 uses the rightmost 21 bits of the KSN
+     */
+    static final int COUNTER_BITS = 21;
+    /**
+     * Expired devices are looked for once every these many misses
+     */
+    static final int PURGE_INTERVAL = 1024;
+
+    private final int maxDevices;
+    private final long ttl;
+    private final Map<String, Device> devices;
+    private int misses;
+
+    /**
+     * @param maxDevices max number of devices kept, least recently used evicted first
+     * @param ttl time (in millis) a device's key material can be reused, since its IPEK was derived
+     */
+    DukptKeyCache(final int maxDevices, long ttl) {
+        this.maxDevices = maxDevices;
+        this.ttl = ttl;
+        this.devices = new LinkedHashMap<String, Device>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Device> eldest) {
+                if (size() > maxDevices) {
+                    eldest.getValue().wipe();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param id device identifier, see {@link JCESecurityModule}
+     * @return the cached device, or null if absent or expired
+     */
+    synchronized Device get(String id) {
+        Device d = devices.get(id);
+        if (d != null && d.isExpired(System.currentTimeMillis())) {
+            devices.remove(id);
+            d.wipe();
+            d = null;
+        }
+        return d;
+    }
+
+    /**
+     * Caches a device, unless another thread got there first.
+     * @param id device identifier
+     * @param sealedIPEK the device's initial key, encrypted under the LMK
+     * @return the cached device
+     */
+    synchronized Device put(String id, byte[] sealedIPEK) {
+        if (++misses % PURGE_INTERVAL == 0)
+            purge();
+        Device d = devices.get(id);
+        if (d == null || d.isExpired(System.currentTimeMillis())) {
+            if (d != null)
+                d.wipe();
+            d = new Device(sealedIPEK, System.currentTimeMillis() + ttl);
+            devices.put(id, d);
+        } else {
+            Arrays.fill(sealedIPEK, (byte) 0);
+        }
+        return d;
+    }
+
+    /**
+     * Drops expired devices
+     */
+    private void purge() {
+        long now = System.currentTimeMillis();
+        for (Iterator<Device> it = devices.values().iterator(); it.hasNext(); ) {
+            Device d = it.next();
+            if (d.isExpired(now)) {
+                it.remove();
+                d.wipe();
+            }
+        }
+    }
+
+    /**
+     * Drops, and wipes, every cached device
+     */
+    synchronized void clear() {
+        for (Device d : devices.values())
+            d.wipe();
+        devices.clear();
+    }
+
+    synchronized int size() {
+        return devices.size();
+    }
+
+    /**
+     * Key material of a single device.
+     * <p>
+     * Callers synchronize on the device while they read or update its register.
+     * </p>
+     */
+    static class Device {
+        final byte[] ipek;
+        final long expires;
+        /**
+         * Transaction counter {@link #register} was derived for, -1 if none yet
+         */
+        int counter = -1;
+        /**
+         * Indexed by counter bit; entry <code>n</code> is the key left after
+         * processing bit <code>n</code> of {@link #counter}, null for unset bits.
+         */
+        final byte[][] register = new byte[COUNTER_BITS][];
+        boolean wiped;
+
+        Device(byte[] ipek, long expires) {
+            this.ipek = ipek;
+            this.expires = expires;
+        }
+
+        boolean isExpired(long now) {
+            return now >= expires;
+        }
+
+        /**
+         * Replaces register entry <code>bit</code>, wiping the previous one.
+         */
+        void set(int bit, byte[] sealedKey) {
+            if (register[bit] != null)
+                Arrays.fill(register[bit], (byte) 0);
+            register[bit] = sealedKey;
+        }
+
+        synchronized void wipe() {
+            Arrays.fill(ipek, (byte) 0);
+            for (int i = 0; i < register.length; i++)
+                set(i, null);
+            counter = -1;
+            wiped = true;
+        }
+    }
+}
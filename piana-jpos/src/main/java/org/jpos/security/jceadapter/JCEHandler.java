@@ -24,8 +24,8 @@ import java.security.NoSuchAlgorithmException;
 import java.security.Provider;
 import java.security.Security;
 import java.security.spec.AlgorithmParameterSpec;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 import javax.crypto.Cipher;
 import javax.crypto.KeyGenerator;
@@ -45,6 +45,12 @@ import org.jpos.security.Util;
  * <p>
  * It depends on the Java<font size=-1><sup>TM</sup></font> Cryptography Extension (JCE).
  * </p>
+ * <p>
+ * {@link Cipher} and {@link Mac} engines are kept per thread, already initialized, for the
+ * last {@link #ENGINE_CACHE_SIZE} transformation/key combinations used by that thread, so hot
+ * keys (LMKs, ZPKs, TAKs...) skip both the provider lookup and the key schedule. Note this
+ * means those clear keys stay referenced by the worker threads' caches until evicted.
+ * </p>
  * 
  * @author Hani S. Kirollos
  * @version $Revision$ $Date$
@@ -56,7 +62,11 @@ public class JCEHandler {
     static final String DES_MODE_ECB = "ECB";
     static final String DES_MODE_CBC = "CBC";
     static final String DES_NO_PADDING = "NoPadding";
-    static final Map<MacEngineKey, Mac> macEngines = new ConcurrentHashMap();
+    /**
+     * Number of initialized ciphers (and, separately, MACs) cached per thread
+     */
+    static final int ENGINE_CACHE_SIZE = 16;
+    final ThreadLocal<Engines> engines = ThreadLocal.withInitial(Engines::new);
     /**
      * The JCE provider
      */
@@ -308,16 +318,25 @@ public class JCEHandler {
         if (key.getAlgorithm().startsWith(ALG_DES)) {
             transformation += "/" + modetoString(cipherMode) + "/" + DES_NO_PADDING;
         }
-        AlgorithmParameterSpec aps = null;
+        CipherKey ck = new CipherKey(transformation, direction, key);
+        Map<CipherKey, Cipher> ciphers = engines.get().ciphers;
+        Cipher c1 = ciphers.get(ck);
         try {
-            Cipher c1 = Cipher.getInstance(transformation, provider.getName());
+            if (c1 == null) {
+                c1 = Cipher.getInstance(transformation, provider.getName());
+                if (cipherMode == CipherMode.ECB)
+                    c1.init(direction, key, (AlgorithmParameterSpec) null);
+                ciphers.put(ck, c1);
+            }
+            // doFinal leaves the cipher as it was right after init, only the IV changes
             if (cipherMode != CipherMode.ECB)
-                aps = new IvParameterSpec(iv);
-            c1.init(direction, key, aps);
+                c1.init(direction, key, new IvParameterSpec(iv));
             result = c1.doFinal(data);
             if (cipherMode != CipherMode.ECB)
                System.arraycopy(result, result.length-8, iv, 0, iv.length);
         } catch (Exception e) {
+            // state unknown, don't reuse it
+            ciphers.remove(ck);
             throw new JCEHandlerException(e);
         }
         return result;
@@ -365,7 +384,7 @@ public class JCEHandler {
     }
 
     /**
-     * Helper method used for create or retrieve MAC algorithm from cache
+     * Helper method used for create or retrieve MAC algorithm from the calling thread's cache
      * 
      * @param engine
      *            object identyifing MAC algorithm
@@ -373,11 +392,11 @@ public class JCEHandler {
      * @throws org.jpos.security.jceadapter.JCEHandlerException
      */
     Mac assignMACEngine(MacEngineKey engine) throws JCEHandlerException {
-        if (macEngines.containsKey(engine)) {
-            return macEngines.get(engine);
-        }
-        // Initalize new MAC engine and store them in macEngines cache
-        Mac mac = null;
+        Map<MacEngineKey, Mac> macs = engines.get().macs;
+        Mac mac = macs.get(engine);
+        if (mac != null)
+            return mac;
+        // Initalize new MAC engine and store it in this thread's cache
         try {
             mac = Mac.getInstance(engine.getMacAlgorithm(), provider);
             mac.init(engine.getMacKey());
@@ -386,7 +405,7 @@ public class JCEHandler {
         } catch (InvalidKeyException e) {
             throw new JCEHandlerException(e);
         }
-        macEngines.put(engine, mac);
+        macs.put(engine, mac);
         return mac;
     }
 
@@ -403,10 +422,66 @@ public class JCEHandler {
      * @throws org.jpos.security.jceadapter.JCEHandlerException
      */
     public byte[] generateMAC(byte[] data, Key kd, String macAlgorithm) throws JCEHandlerException {
-        Mac mac = assignMACEngine(new MacEngineKey(macAlgorithm, kd));
-        synchronized (mac) {
-            mac.reset();
+        MacEngineKey engine = new MacEngineKey(macAlgorithm, kd);
+        Mac mac = assignMACEngine(engine);
+        try {
             return mac.doFinal(data);
+        } catch (RuntimeException e) {
+            engines.get().macs.remove(engine);
+            throw e;
+        }
+    }
+
+    /**
+     * Per thread cache of initialized engines, least recently used evicted first
+     */
+    static class Engines {
+        final Map<CipherKey, Cipher> ciphers = new LruMap<>();
+        final Map<MacEngineKey, Mac> macs = new LruMap<>();
+    }
+
+    static class LruMap<K,V> extends LinkedHashMap<K,V> {
+        private static final long serialVersionUID = 1L;
+
+        LruMap() {
+            super(ENGINE_CACHE_SIZE * 2, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K,V> eldest) {
+            return size() > ENGINE_CACHE_SIZE;
+        }
+    }
+
+    /**
+     * Class used for indexing initialized ciphers in cache
+     */
+    static class CipherKey {
+        private final String transformation;
+        private final int direction;
+        private final Key key;
+
+        CipherKey(String transformation, int direction, Key key) {
+            this.transformation = transformation;
+            this.direction = direction;
+            this.key = key;
+        }
+
+        @Override
+        public int hashCode() {
+            return (transformation.hashCode() * 31 + direction) * 31 + key.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof CipherKey))
+                return false;
+            CipherKey other = (CipherKey) obj;
+            return direction == other.direction
+              && transformation.equals(other.transformation)
+              && (key == other.key || key.equals(other.key));
         }
     }
 
@@ -435,7 +510,8 @@ public class JCEHandler {
             final int prime = 31;
             int result = 1;
             result = prime * result + (macAlgorithm == null ? 0 : macAlgorithm.hashCode());
-            // Note: class Key does not redefine hashCode - therefore hash on Algorithm only or breaks java equals/hashCode contract
+            // SecretKeySpec hashes (and compares) the key material, other keys fall back to identity
+            result = prime * result + (macKey == null ? 0 : macKey.hashCode());
             return result;
         }
 
@@ -456,8 +532,7 @@ public class JCEHandler {
                     return false;
             } else if (!macAlgorithm.equals(other.macAlgorithm)) {
                 return false;
-            } else if (macKey != other.macKey) {
-                // Note: class Key does not redefine equals or HashCode - therefore instance equality is all we can do
+            } else if (macKey != other.macKey && (macKey == null || !macKey.equals(other.macKey))) {
                 return false;
             }
             return true;
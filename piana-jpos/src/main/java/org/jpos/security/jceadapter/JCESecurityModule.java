@@ -25,6 +25,7 @@ import org.jpos.iso.ISODate;
 import org.jpos.iso.ISOException;
 import org.jpos.iso.ISOUtil;
 import org.jpos.security.*;
+import org.jpos.util.Destroyable;
 import org.jpos.util.LogEvent;
 import org.jpos.util.Logger;
 import org.jpos.util.SimpleMsg;
@@ -51,8 +52,12 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.Random;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.IntStream;
 import javax.crypto.Cipher;
 
 
@@ -77,7 +82,7 @@ import javax.crypto.Cipher;
  * @version $Revision$ $Date$
  */
 @SuppressWarnings("unchecked")
-public class JCESecurityModule extends BaseSMAdapter {
+public class JCESecurityModule extends BaseSMAdapter implements Destroyable {
 
     /**
      * Pattern representing key type string value.
@@ -184,16 +189,47 @@ public class JCESecurityModule extends BaseSMAdapter {
      *             Default is DESEDEMAC from BouncyCastle provider<br>
      *             that is suitable for BASE24 with double length MAC key<br>
      *             ANSI X9.19<br>
+     *    dukpt-cache-size: number of DUKPT devices whose initial and intermediate keys are cached,
+     *             encrypted under the LMK, so PIN derivations resume from the last counter seen.<br>
+     *             Default is 0 (disabled)<br>
+     *    dukpt-cache-ttl: time, in millis, a cached DUKPT device stays usable. Default is 3600000<br>
+     *    batch-parallelism: number of threads batch operations of at least {@link #MIN_PARALLEL_BATCH}
+     *             items are spread across. Default is 1, batches run on the calling thread<br>
+     *    audit, audit-sample-rate, metrics-highest-trackable-value: see {@link BaseSMAdapter#setConfiguration}<br>
      * @throws ConfigurationException
      */
     @Override
     public void setConfiguration (Configuration cfg) throws ConfigurationException {
-        this.cfg = cfg;
+        super.setConfiguration(cfg);
         try {
             init(cfg.get("provider"), cfg.get("lmk"), cfg.getBoolean("rebuildlmk"));
         } catch (SMException e) {
             throw  new ConfigurationException(e);
         }
+        int dukptCacheSize = cfg.getInt("dukpt-cache-size", 0);
+        if (dukptCacheSize < 0)
+            throw new ConfigurationException("Invalid dukpt-cache-size " + dukptCacheSize);
+        if (dukptKeys != null)
+            dukptKeys.clear();
+        dukptKeys = dukptCacheSize > 0 ?
+          new DukptKeyCache(dukptCacheSize, cfg.getLong("dukpt-cache-ttl", 3600000L)) : null;
+        int batchParallelism = cfg.getInt("batch-parallelism", 1);
+        if (batchParallelism < 1)
+            throw new ConfigurationException("Invalid batch-parallelism " + batchParallelism);
+        if (batchPool != null)
+            batchPool.shutdown();
+        batchPool = batchParallelism > 1 ? new ForkJoinPool(batchParallelism) : null;
+    }
+
+    /**
+     * Shuts down the batch pool, later batches run on the calling thread.
+     */
+    @Override
+    public void destroy () {
+        ForkJoinPool pool = batchPool;
+        batchPool = null;
+        if (pool != null)
+            pool.shutdown();
     }
 
     @Override
@@ -455,6 +491,15 @@ public class JCESecurityModule extends BaseSMAdapter {
         return result.equals(cvv);
     }
 
+    @Override
+    protected List<BatchResult<Boolean>> verifyCVVBatchImpl(final String[] accountNos, SecureDESKey cvkA,
+            SecureDESKey cvkB, final String[] cvvs, final Date[] expDates, final String[] serviceCodes)
+            throws SMException {
+        final Key cvk = concatKeys(cvkA, cvkB);
+        return runBatch(accountNos.length,
+          i -> calculateCVV(accountNos[i], cvk, expDates[i], serviceCodes[i]).equals(cvvs[i]));
+    }
+
     @Override
     protected boolean verifyCAVVImpl(String accountNo, SecureDESKey cvk, String cavv,
                      String upn, String authrc, String sfarc) throws SMException {
@@ -773,6 +818,15 @@ public class JCESecurityModule extends BaseSMAdapter {
         return translatedPIN;
     }
 
+    @Override
+    protected List<BatchResult<EncryptedPIN>> translatePINBatchImpl (final EncryptedPIN[] pinsUnderKd1,
+            SecureDESKey kd1, SecureDESKey kd2, final byte destinationPINBlockFormat) throws SMException {
+        final Key clearKd1 = decryptFromLMK(kd1);
+        final Key clearKd2 = decryptFromLMK(kd2);
+        return runBatch(pinsUnderKd1.length, i -> translatePINExt(null, pinsUnderKd1[i], clearKd1, clearKd2
+                        ,destinationPINBlockFormat, null, PaddingMethod.MCHIP));
+    }
+
     private EncryptedPIN translatePINExt (EncryptedPIN oldPinUnderKd1, EncryptedPIN pinUnderKd1, Key kd1,
             Key kd2, byte destinationPINBlockFormat, Key udk, PaddingMethod padm) throws SMException {
         String accountNumber = pinUnderKd1.getAccountNumber();
@@ -929,11 +983,18 @@ public class JCESecurityModule extends BaseSMAdapter {
     byte[] calculateARQC(MKDMethod mkdm, SKDMethod skdm
             ,SecureDESKey imkac, String accountNo, String accntSeqNo, byte[] atc
             ,byte[] upn, byte[] transData) throws SMException {
+        return calculateARQC(mkdm, skdm, decryptFromLMK(imkac), accountNo, accntSeqNo
+                ,atc, upn, transData);
+    }
+
+    private byte[] calculateARQC(MKDMethod mkdm, SKDMethod skdm
+            ,Key imkac, String accountNo, String accntSeqNo, byte[] atc
+            ,byte[] upn, byte[] transData) throws SMException {
         if (mkdm==null)
             mkdm = MKDMethod.OPTION_A;
 
         byte[] panpsn = formatPANPSN(accountNo, accntSeqNo, mkdm);
-        Key mkac = deriveICCMasterKey(decryptFromLMK(imkac), panpsn);
+        Key mkac = deriveICCMasterKey(imkac, panpsn);
         Key skac = mkac;
         switch(skdm){
             case VSDC:
@@ -963,6 +1024,15 @@ public class JCESecurityModule extends BaseSMAdapter {
         return Arrays.equals(arqc, res);
     }
 
+    @Override
+    protected List<BatchResult<Boolean>> verifyARQCBatchImpl(final MKDMethod mkdm, final SKDMethod skdm
+            ,SecureDESKey imkac, final String[] accountNos, final String[] accntSeqNos, final byte[][] arqcs
+            ,final byte[][] atcs, final byte[][] upns, final byte[][] transData) throws SMException {
+        final Key imk = decryptFromLMK(imkac);
+        return runBatch(accountNos.length, i -> Arrays.equals(arqcs[i], calculateARQC(mkdm, skdm, imk
+                ,accountNos[i], accntSeqNos[i], atcs[i], upns[i], transData[i])));
+    }
+
     @Override
     public byte[] generateARPCImpl(MKDMethod mkdm, SKDMethod skdm, SecureDESKey imkac
             ,String accountNo, String accntSeqNo, byte[] arqc, byte[] atc, byte[] upn
@@ -1186,10 +1256,31 @@ public class JCESecurityModule extends BaseSMAdapter {
         }
     }
 
+    @Override
+    protected List<BatchResult<byte[]>> generateCBC_MACBatchImpl (final byte[][] data, SecureDESKey kd)
+            throws SMException {
+        final Key clearKd = decryptFromLMK(kd);
+        final String macAlgorithm = cfg.get("cbc-mac","ISO9797ALG3MACWITHISO7816-4PADDING");
+        return runBatch(data.length, i -> {
+            LogEvent evt = new LogEvent(this, "jce-provider-cbc-mac");
+            try {
+                return generateMACImpl(data[i], clearKd, macAlgorithm, evt);
+            } catch (SMException e) {
+                Logger.log(evt);
+                throw e;
+            }
+        });
+    }
+
     private byte[] generateMACImpl (byte[] data, SecureDESKey kd,
+        String macAlgorithm, LogEvent evt) throws SMException {
+        return generateMACImpl(data, decryptFromLMK(kd), macAlgorithm, evt);
+    }
+
+    private byte[] generateMACImpl (byte[] data, Key kd,
         String macAlgorithm, LogEvent evt) throws SMException {
         try {
-          return jceHandler.generateMAC(data,decryptFromLMK(kd),macAlgorithm);
+          return jceHandler.generateMAC(data,kd,macAlgorithm);
         } catch (JCEHandlerException e){
           evt.addMessage(e);
           if (e.getCause() instanceof InvalidKeyException)
@@ -1993,6 +2084,71 @@ public class JCESecurityModule extends BaseSMAdapter {
 
     private JCEHandler jceHandler;
 
+    /**
+     * Cached DUKPT device keys, null if disabled
+     */
+    private DukptKeyCache dukptKeys;
+
+    /**
+     * Pool batch operations are spread across, null to run them on the calling thread
+     */
+    private volatile ForkJoinPool batchPool;
+
+    /**
+     * Smaller batches are not worth spreading across {@link #batchPool}
+     */
+    public static final int MIN_PARALLEL_BATCH = 32;
+
+    //--------------------------------------------------------------------------------------------------
+    // Batches
+    //--------------------------------------------------------------------------------------------------
+
+    /**
+     * A single operation of a batch, given its index
+     */
+    private interface BatchOperation<T> {
+        T apply(int i) throws Exception;
+    }
+
+    /**
+     * Runs every operation of a batch, across {@link #batchPool} if there is one
+     * and the batch is large enough.
+     *
+     * @return each operation's outcome, in order
+     */
+    @SuppressWarnings("unchecked")
+    private <T> List<BatchResult<T>> runBatch(int size, BatchOperation<T> op) throws SMException {
+        final BatchResult<T>[] results = new BatchResult[size];
+        ForkJoinPool pool = batchPool;
+        if (pool == null || size < MIN_PARALLEL_BATCH) {
+            for (int i = 0; i < size; i++)
+                results[i] = runBatchOperation(op, i);
+        } else {
+            try {
+                pool.submit(() -> IntStream.range(0, size).parallel()
+                  .forEach(i -> results[i] = runBatchOperation(op, i))).get();
+            } catch (RejectedExecutionException e) {
+                // destroyed meanwhile
+                for (int i = 0; i < size; i++)
+                    results[i] = runBatchOperation(op, i);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SMException(e);
+            } catch (ExecutionException e) {
+                throw new SMException(e);
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    private static <T> BatchResult<T> runBatchOperation(BatchOperation<T> op, int i) {
+        try {
+            return BatchResult.success(op.apply(i));
+        } catch (Exception e) {
+            return BatchResult.failure(e);
+        }
+    }
+
     //--------------------------------------------------------------------------------------------------
     // DUKPT
     //--------------------------------------------------------------------------------------------------
@@ -2159,100 +2315,149 @@ public class JCESecurityModule extends BaseSMAdapter {
     private byte[] calculateDerivedKey(KeySerialNumber ksn, SecureDESKey bdk, boolean tdes, boolean dataEncryption)
             throws SMException
     {
-        return tdes?calculateDerivedKeyTDES(ksn,bdk, dataEncryption):calculateDerivedKeySDES(ksn,bdk);
+        byte[] curkey = calculateFutureKey(ksn, bdk, tdes);
+        return tdes?finishDerivedKeyTDES(curkey, dataEncryption):finishDerivedKeySDES(curkey);
     }
 
-    private byte[] calculateDerivedKeySDES(KeySerialNumber ksn, SecureDESKey bdk)
+    /**
+     * @return the rightmost 21 bits of the KSN, the transaction counter
+     */
+    private int getCounter(KeySerialNumber ksn)
+    {
+        byte[] reg3 = ISOUtil.hex2byte(ksn.getTransactionCounter());
+        return (reg3[0] & 0x1F) << 16 | (reg3[1] & 0xFF) << 8 | reg3[2] & 0xFF;
+    }
+
+    /**
+     * Walks the counter bits from the BDK derived initial key, or from
+     * the cached device state when enabled.
+     *
+     * @return the key register for the KSN's counter, before any variant gets applied
+     */
+    private byte[] calculateFutureKey(KeySerialNumber ksn, SecureDESKey bdk, boolean tdes)
             throws SMException
     {
-        final byte[] _1FFFFF =
-                new byte[]{(byte) 0x1F, (byte) 0xFF, (byte) 0xFF};
-        final byte[] _100000 =
-                new byte[]{(byte) 0x10, (byte) 0x00, (byte) 0x00};
-        final byte[] _E00000 =
-                new byte[]{(byte) 0xE0, (byte) 0x00, (byte) 0x00};
-
-        byte[] curkey = calculateInitialKey(ksn, bdk, false);
+        int counter = getCounter(ksn);
         byte[] smidr = ISOUtil.hex2byte(
                 ksn.getBaseKeyID() + ksn.getDeviceID() + ksn.getTransactionCounter()
         );
-        byte[] reg3 = ISOUtil.hex2byte(ksn.getTransactionCounter());
-        reg3 = and(reg3, _1FFFFF);
-        byte[] shiftr = _100000;
-        byte[] temp;
-        byte[] tksnr;
-        smidr = and(smidr, _E00000, 5);
-        do
+        smidr[5] &= 0xE0;
+        smidr[6] = 0;
+        smidr[7] = 0;
+        DukptKeyCache cache = dukptKeys;
+        if (cache == null)
+            return walkCounter(calculateInitialKey(ksn, bdk, tdes), smidr, counter, 1 << 20, tdes, null);
+
+        String id = ISOUtil.hexString(bdk.getKeyBytes()) + ISOUtil.hexString(smidr) + (tdes ? "T" : "S");
+        DukptKeyCache.Device device = cache.get(id);
+        if (device == null)
+            device = cache.put(id, sealDukptKey(calculateInitialKey(ksn, bdk, tdes)));
+        synchronized (device) {
+            if (device.wiped) // evicted meanwhile
+                return walkCounter(calculateInitialKey(ksn, bdk, tdes), smidr, counter, 1 << 20, tdes, null);
+            byte[] curkey;
+            int from = 1 << 20;
+            int prefix = 0;
+            if (device.counter >= 0) {
+                // counter bits above the highest one that differs from the cached counter
+                int diff = Integer.highestOneBit(counter ^ device.counter);
+                prefix = diff == 0 ? counter : counter & -(diff << 1);
+            }
+            if (prefix != 0) {
+                int last = Integer.lowestOneBit(prefix);
+                curkey = unsealDukptKey(device.register[Integer.numberOfTrailingZeros(last)]);
+                from = last >>> 1;
+                smidr[5] |= (byte) (prefix >>> 16);
+                smidr[6] = (byte) (prefix >>> 8);
+                smidr[7] = (byte) prefix;
+            } else {
+                curkey = unsealDukptKey(device.ipek);
+            }
+            for (int bit = from; bit != 0; bit >>>= 1)
+                device.set(Integer.numberOfTrailingZeros(bit), null);
+            device.counter = -1;
+            curkey = walkCounter(curkey, smidr, counter, from, tdes, device);
+            device.counter = counter;
+            return curkey;
+        }
+    }
+
+    /**
+     * Applies the non reversible key generation process for each set bit of
+     * <code>counter</code>, from bit <code>from</code> down.
+     *
+     * @param curkey key register at <code>from</code>, overwritten as the walk goes
+     * @param smidr KSN register, with the counter bits above <code>from</code> already set
+     * @param device if not null, gets each intermediate key stored, sealed under the LMK
+     * @return the resulting key register
+     */
+    private byte[] walkCounter(byte[] curkey, byte[] smidr, int counter, int from, boolean tdes,
+                               DukptKeyCache.Device device)
+            throws SMException
+    {
+        for (int bit = from; bit != 0; bit >>>= 1)
         {
-            temp = and(shiftr, reg3);
-            if (notZero(temp))
+            if ((counter & bit) != 0)
             {
-                or(smidr, shiftr, 5);
-                tksnr = ISOUtil.xor(smidr, curkey);
-                tksnr = encrypt64(tksnr, curkey);
-                curkey = ISOUtil.xor(tksnr, curkey);
+                smidr[5] |= (byte) (bit >>> 16);
+                smidr[6] |= (byte) (bit >>> 8);
+                smidr[7] |= (byte) bit;
+                byte[] nextkey = tdes ? nextKeyTDES(curkey, smidr) : nextKeySDES(curkey, smidr);
+                Arrays.fill(curkey, (byte) 0);
+                curkey = nextkey;
+                if (device != null)
+                    device.set(Integer.numberOfTrailingZeros(bit), sealDukptKey(curkey.clone()));
             }
-            shr(shiftr);
         }
-        while (notZero(shiftr));
-        curkey[7] ^= 0xFF;
         return curkey;
     }
-    private byte[] calculateDerivedKeyTDES(KeySerialNumber ksn, SecureDESKey bdk, boolean dataEncryption)
-            throws SMException
-    {
-        final byte[] _1FFFFF =
-                new byte[]{(byte) 0x1F, (byte) 0xFF, (byte) 0xFF};
-        final byte[] _100000 =
-                new byte[]{(byte) 0x10, (byte) 0x00, (byte) 0x00};
-        final byte[] _E00000 =
-                new byte[]{(byte) 0xE0, (byte) 0x00, (byte) 0x00};
 
-        byte[] curkey = calculateInitialKey(ksn, bdk, true);
+    private byte[] nextKeySDES(byte[] curkey, byte[] smidr)
+            throws JCEHandlerException
+    {
+        byte[] tksnr = ISOUtil.xor(smidr, curkey);
+        tksnr = encrypt64(tksnr, curkey);
+        return ISOUtil.xor(tksnr, curkey);
+    }
 
-        byte[] smidr = ISOUtil.hex2byte(
-                ksn.getBaseKeyID() + ksn.getDeviceID() + ksn.getTransactionCounter()
-        );
-        byte[] reg3 = ISOUtil.hex2byte(ksn.getTransactionCounter());
-        reg3 = and(reg3, _1FFFFF);
-        byte[] shiftr = _100000;
-        byte[] temp;
-        byte[] tksnr;
-        byte[] r8a;
-        byte[] r8b;
+    private byte[] nextKeyTDES(byte[] curkey, byte[] smidr)
+            throws JCEHandlerException
+    {
         byte[] curkeyL = new byte[8];
         byte[] curkeyR = new byte[8];
-        smidr = and(smidr, _E00000, 5);
-        do
-        {
-            temp = and(shiftr, reg3);
-            if (notZero(temp))
-            {
-                System.arraycopy(curkey, 0, curkeyL, 0, 8);
-                System.arraycopy(curkey, 8, curkeyR, 0, 8);
+        System.arraycopy(curkey, 0, curkeyL, 0, 8);
+        System.arraycopy(curkey, 8, curkeyR, 0, 8);
+        // smidr == R8
 
-                or(smidr, shiftr, 5);
-                // smidr == R8
+        byte[] tksnr = ISOUtil.xor(smidr, curkeyR);
+        tksnr = encrypt64(tksnr, curkeyL);
+        tksnr = ISOUtil.xor(tksnr, curkeyR);
+        // tksnr == R8A
+        curkeyL = ISOUtil.xor(curkeyL, _VARIANT_RIGHT_HALF);
+        curkeyR = ISOUtil.xor(curkeyR, _VARIANT_RIGHT_HALF);
 
-                tksnr = ISOUtil.xor(smidr, curkeyR);
-                tksnr = encrypt64(tksnr, curkeyL);
-                tksnr = ISOUtil.xor(tksnr, curkeyR);
-                // tksnr == R8A
-                curkeyL = ISOUtil.xor(curkeyL, _VARIANT_RIGHT_HALF);
-                curkeyR = ISOUtil.xor(curkeyR, _VARIANT_RIGHT_HALF);
+        byte[] r8b = ISOUtil.xor(smidr, curkeyR);
+        r8b = encrypt64(r8b, curkeyL);
+        r8b = ISOUtil.xor(r8b, curkeyR);
 
-                r8b = ISOUtil.xor(smidr, curkeyR);
-                r8b = encrypt64(r8b, curkeyL);
-                r8b = ISOUtil.xor(r8b, curkeyR);
+        byte[] nextkey = new byte[16];
+        System.arraycopy(r8b, 0, nextkey, 0, 8);
+        System.arraycopy(tksnr, 0, nextkey, 8, 8);
+        return nextkey;
+    }
 
-                System.arraycopy(r8b, 0, curkey, 0, 8);
-                System.arraycopy(tksnr, 0, curkey, 8, 8);
-            }
-            shr(shiftr);
-        }
-        while (notZero(shiftr));
+    private byte[] finishDerivedKeySDES(byte[] curkey)
+    {
+        curkey[7] ^= 0xFF;
+        return curkey;
+    }
 
+    private byte[] finishDerivedKeyTDES(byte[] curkey, boolean dataEncryption)
+            throws JCEHandlerException
+    {
         if (dataEncryption) {
+            byte[] curkeyL = new byte[8];
+            byte[] curkeyR = new byte[8];
             curkey[5] ^= 0xFF;
             curkey[13] ^= 0xFF;
             System.arraycopy(curkey, 0, curkeyL, 0, 8);
@@ -2273,6 +2478,21 @@ public class JCESecurityModule extends BaseSMAdapter {
         return curkey;
     }
 
+    /**
+     * Encrypts a clear DUKPT key under the BDK's LMK and wipes it
+     */
+    private byte[] sealDukptKey(byte[] clearKey) throws SMException
+    {
+        byte[] sealed = jceHandler.encryptData(clearKey, getLMK(keyTypeToLMKIndex.get(SMAdapter.TYPE_BDK)));
+        Arrays.fill(clearKey, (byte) 0);
+        return sealed;
+    }
+
+    private byte[] unsealDukptKey(byte[] sealedKey) throws SMException
+    {
+        return jceHandler.decryptData(sealedKey, getLMK(keyTypeToLMKIndex.get(SMAdapter.TYPE_BDK)));
+    }
+
     public SecureDESKey importBDK(String clearComponent1HexString,
                                   String clearComponent2HexString,
                                   String clearComponent3HexString) throws SMException
@@ -2296,6 +2516,25 @@ public class JCESecurityModule extends BaseSMAdapter {
             (EncryptedPIN pinUnderDuk, KeySerialNumber ksn,
              SecureDESKey bdk, SecureDESKey kd2, byte destinationPINBlockFormat,boolean tdes)
             throws SMException
+    {
+        return translateDukptPIN(pinUnderDuk, ksn, bdk, decryptFromLMK(kd2), destinationPINBlockFormat, tdes);
+    }
+
+    @Override
+    protected List<BatchResult<EncryptedPIN>> translatePINBatchImpl
+            (final EncryptedPIN[] pinsUnderDuk, final KeySerialNumber[] ksns,
+             final SecureDESKey bdk, SecureDESKey kd2, final byte destinationPINBlockFormat, final boolean tdes)
+            throws SMException
+    {
+        final Key clearKd2 = decryptFromLMK(kd2);
+        return runBatch(pinsUnderDuk.length,
+          i -> translateDukptPIN(pinsUnderDuk[i], ksns[i], bdk, clearKd2, destinationPINBlockFormat, tdes));
+    }
+
+    private EncryptedPIN translateDukptPIN
+            (EncryptedPIN pinUnderDuk, KeySerialNumber ksn,
+             SecureDESKey bdk, Key kd2, byte destinationPINBlockFormat,boolean tdes)
+            throws SMException
     {
         byte[] derivedKey = calculateDerivedKey(ksn, bdk, tdes, false);
         byte[] clearPinblk = specialDecrypt(
@@ -2308,7 +2547,7 @@ public class JCESecurityModule extends BaseSMAdapter {
         );
         byte[] translatedPinblk = jceHandler.encryptData(
                 calculatePINBlock(pin, destinationPINBlockFormat, pan),
-                decryptFromLMK(kd2)
+                kd2
         );
         return new EncryptedPIN(translatedPinblk, destinationPINBlockFormat, pan,false);
     }
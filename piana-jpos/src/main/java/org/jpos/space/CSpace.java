@@ -0,0 +1,487 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2017 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.space;
+
+import org.jpos.util.Loggeable;
+
+import java.io.PrintStream;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Concurrent, key-striped {@link LocalSpace} implementation.
+ *
+ * <p>Unlike {@link TSpace}, which guards all of its keys with a single
+ * monitor, every key has its own lock-free queue and its own set of
+ * waiting threads, so readers and takers never block each other and an
+ * <code>out</code> only wakes up threads waiting on that very key.
+ * Structural changes (creating and discarding a key, registering a waiter)
+ * are serialized per key by the underlying {@link ConcurrentHashMap}.
+ *
+ * <p>Expiration, {@link Template} and {@link SpaceListener} semantics
+ * are the same as in TSpace.
+ *
+ * <p>Available through {@link SpaceFactory} as <code>cspace:name</code>.
+ *
+ * @see TSpace
+ * @since jPOS 2.0.6
+ */
+@SuppressWarnings("unchecked")
+public class CSpace<K,V> implements LocalSpace<K,V>, Loggeable, Runnable {
+    private final ConcurrentHashMap<Object,Entry> entries = new ConcurrentHashMap<>();
+    private final Set<Object>[] expirables;
+    private volatile CSpace sl;    // space listeners
+    private volatile long lastLongGC = System.currentTimeMillis();
+    private static final long GCLONG = 60*1000;
+    private static final long NRD_RESOLUTION = 500L;
+    private static final int MAX_ENTRIES_IN_DUMP = 1000;
+
+    public CSpace () {
+        super();
+        expirables = new Set[] { ConcurrentHashMap.newKeySet(), ConcurrentHashMap.newKeySet() };
+        SpaceFactory.getGCExecutor().scheduleAtFixedRate(this, TSpace.GCDELAY, TSpace.GCDELAY, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void out (K key, V value) {
+        write (key, value, value, false, false);
+    }
+
+    @Override
+    public void out (K key, V value, long timeout) {
+        write (key, value, wrap (value, timeout), false, false);
+        if (timeout > 0)
+            registerExpirable (key, timeout);
+    }
+
+    @Override
+    public void push (K key, V value) {
+        write (key, value, value, true, false);
+    }
+
+    @Override
+    public void push (K key, V value, long timeout) {
+        write (key, value, wrap (value, timeout), true, false);
+        if (timeout > 0)
+            registerExpirable (key, timeout);
+    }
+
+    @Override
+    public void put (K key, V value) {
+        write (key, value, value, false, true);
+    }
+
+    @Override
+    public void put (K key, V value, long timeout) {
+        write (key, value, wrap (value, timeout), false, true);
+        if (timeout > 0)
+            registerExpirable (key, timeout);
+    }
+
+    @Override
+    public V rdp (Object key) {
+        if (key instanceof Template)
+            return (V) getObject ((Template) key, false);
+        return (V) getHead (key, false);
+    }
+
+    @Override
+    public V inp (Object key) {
+        if (key instanceof Template)
+            return (V) getObject ((Template) key, true);
+        return (V) getHead (key, true);
+    }
+
+    @Override
+    public V in (Object key) {
+        return (V) await (key, true, 0L);
+    }
+
+    @Override
+    public V in (Object key, long timeout) {
+        return timeout > 0 ? (V) await (key, true, timeout) : inp (key);
+    }
+
+    @Override
+    public V rd (Object key) {
+        return (V) await (key, false, 0L);
+    }
+
+    @Override
+    public V rd (Object key, long timeout) {
+        return timeout > 0 ? (V) await (key, false, timeout) : rdp (key);
+    }
+
+    @Override
+    public void nrd (Object key) {
+        while (rdp (key) != null)
+            park (TimeUnit.MILLISECONDS.toNanos (NRD_RESOLUTION));
+    }
+
+    @Override
+    public V nrd (Object key, long timeout) {
+        Object obj;
+        long now = System.currentTimeMillis();
+        long end = now + timeout;
+        while ((obj = rdp (key)) != null &&
+                (now = System.currentTimeMillis()) < end)
+        {
+            park (TimeUnit.MILLISECONDS.toNanos (Math.min (NRD_RESOLUTION, end - now)));
+        }
+        return (V) obj;
+    }
+
+    @Override
+    public boolean existAny (K[] keys) {
+        for (K key : keys) {
+            if (rdp(key) != null)
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean existAny (K[] keys, long timeout) {
+        if (existAny (keys))
+            return true;
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos (timeout);
+        Thread t = Thread.currentThread();
+        for (K key : keys)
+            addWaiter (key, t);
+        try {
+            long wait;
+            while ((wait = end - System.nanoTime()) > 0) {
+                if (existAny (keys))
+                    return true;
+                park (wait);
+            }
+            return existAny (keys);
+        } finally {
+            for (K key : keys)
+                removeWaiter (key, t);
+        }
+    }
+
+    @Override
+    public int size (Object key) {
+        Entry e = entries.get (key);
+        return e != null ? e.values.size() : 0;
+    }
+
+    @Override
+    public synchronized void addListener (Object key, SpaceListener listener) {
+        getSL().out (key, listener);
+    }
+
+    @Override
+    public synchronized void addListener (Object key, SpaceListener listener, long timeout) {
+        getSL().out (key, listener, timeout);
+    }
+
+    @Override
+    public void removeListener (Object key, SpaceListener listener) {
+        CSpace s = sl;
+        if (s != null)
+            s.inp (new ObjectTemplate (key, listener));
+    }
+
+    @Override
+    public Set<K> getKeySet() {
+        Set<K> keys = new HashSet<K>();
+        for (Map.Entry<Object,Entry> e : entries.entrySet()) {
+            if (!e.getValue().values.isEmpty())
+                keys.add ((K) e.getKey());
+        }
+        return keys;
+    }
+
+    public boolean isEmpty() {
+        for (Entry e : entries.values()) {
+            if (!e.values.isEmpty())
+                return false;
+        }
+        return true;
+    }
+
+    public String getKeysAsString () {
+        StringBuilder sb = new StringBuilder();
+        for (Object key : getKeySet()) {
+            if (sb.length() > 0)
+                sb.append (' ');
+            sb.append (key);
+        }
+        return sb.toString();
+    }
+
+    public void notifyListeners (Object key, Object value) {
+        CSpace s = sl;
+        if (s == null)
+            return;
+        Entry e = (Entry) s.entries.get (key);
+        if (e == null)
+            return;
+        for (Object o : e.values.toArray()) {
+            if (o instanceof TSpace.Expirable)
+                o = ((TSpace.Expirable) o).getValue();
+            if (o instanceof SpaceListener)
+                ((SpaceListener) o).notify(key, value);
+        }
+    }
+
+    @Override
+    public void run () {
+        try {
+            gc();
+        } catch (Exception e) {
+            e.printStackTrace(); // this should never happen
+        }
+    }
+
+    public void gc () {
+        gc(0);
+        if (System.currentTimeMillis() - lastLongGC > GCLONG) {
+            gc(1);
+            lastLongGC = System.currentTimeMillis();
+        }
+    }
+
+    @Override
+    public void dump(PrintStream p, String indent) {
+        int size = entries.size();
+        if (size > MAX_ENTRIES_IN_DUMP * 100) {
+            p.printf ("%sWARNING - space too big, size=%d%n", indent, size);
+            return;
+        }
+        Object[] keys = entries.keySet().toArray();
+        int i=0;
+        for (Object key : keys) {
+            p.printf("%s<key count='%d'>%s</key>%n", indent, size(key), key);
+            if (i++ > MAX_ENTRIES_IN_DUMP) {
+                p.printf ("%s...%n", indent);
+                p.printf ("%s...%n", indent);
+                break;
+            }
+        }
+        p.printf("%s key-count: %d%n", indent, keys.length);
+        p.printf("%s    gcinfo: %d,%d%n", indent, expirables[0].size(), expirables[1].size());
+    }
+
+    private void write (Object key, Object value, Object v, boolean head, boolean replace) {
+        if (key == null || value == null)
+            throw new NullPointerException ("key=" + key + ", value=" + value);
+        Entry entry = entries.compute (key, (k, e) -> {
+            if (e == null)
+                e = new Entry();
+            else if (replace)
+                e.values.clear();
+            if (head)
+                e.values.addFirst (v);
+            else
+                e.values.addLast (v);
+            return e;
+        });
+        entry.signal();
+        if (sl != null)
+            notifyListeners (key, value);
+    }
+
+    private Object await (Object key, boolean remove, long timeout) {
+        Object obj = remove ? inp (key) : rdp (key);
+        if (obj != null)
+            return obj;
+        Object k = key instanceof Template ? ((Template) key).getKey() : key;
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos (timeout);
+        Thread t = Thread.currentThread();
+        addWaiter (k, t);
+        try {
+            while ((obj = remove ? inp (key) : rdp (key)) == null) {
+                if (timeout == 0L) {
+                    park (0L);
+                } else {
+                    long wait = end - System.nanoTime();
+                    if (wait <= 0)
+                        break;
+                    park (wait);
+                }
+            }
+        } finally {
+            removeWaiter (k, t);
+        }
+        return obj;
+    }
+
+    private Object getHead (Object key, boolean remove) {
+        Entry e = entries.get (key);
+        if (e == null)
+            return null;
+        Object obj = null;
+        while (obj == null) {
+            Object o = remove ? e.values.pollFirst() : e.values.peekFirst();
+            if (o == null)
+                break;
+            obj = o;
+            if (o instanceof TSpace.Expirable) {
+                obj = ((TSpace.Expirable) o).getValue();
+                if (obj == null && !remove)
+                    e.values.removeFirstOccurrence (o);
+            }
+        }
+        if (remove)
+            discardIfIdle (key);
+        return obj;
+    }
+
+    private Object getObject (Template tmpl, boolean remove) {
+        Object key = tmpl.getKey();
+        Entry e = entries.get (key);
+        if (e == null)
+            return null;
+        Object obj = null;
+        Iterator iter = e.values.iterator();
+        while (iter.hasNext()) {
+            Object o = iter.next();
+            obj = o;
+            if (o instanceof TSpace.Expirable) {
+                obj = ((TSpace.Expirable) o).getValue();
+                if (obj == null) {
+                    e.values.removeFirstOccurrence (o);
+                    continue;
+                }
+            }
+            if (tmpl.equals (obj)) {
+                if (!remove || e.values.removeFirstOccurrence (o))
+                    break;
+            }
+            obj = null;
+        }
+        if (remove && obj != null)
+            discardIfIdle (key);
+        return obj;
+    }
+
+    private void addWaiter (Object key, Thread t) {
+        entries.compute (key, (k, e) -> {
+            if (e == null)
+                e = new Entry();
+            e.waiters.add (t);
+            return e;
+        });
+    }
+
+    private void removeWaiter (Object key, Thread t) {
+        entries.computeIfPresent (key, (k, e) -> {
+            e.waiters.remove (t);
+            return e.isIdle() ? null : e;
+        });
+    }
+
+    private void discardIfIdle (Object key) {
+        Entry e = entries.get (key);
+        if (e != null && e.isIdle())
+            entries.computeIfPresent (key, (k, v) -> v.isIdle() ? null : v);
+    }
+
+    private void gc (int generation) {
+        Set<Object> exps = expirables[generation];
+        for (Object k : exps) {
+            exps.remove (k);
+            if (purge (k))
+                exps.add (k);
+            Thread.yield ();
+        }
+        if (sl != null) {
+            synchronized (this) {
+                if (sl != null && sl.isEmpty())
+                    sl = null;
+            }
+        }
+    }
+
+    /**
+     * Removes expired entries under a given key.
+     * @return true if there are still expirable entries under this key
+     */
+    private boolean purge (Object key) {
+        Entry e = entries.get (key);
+        if (e == null)
+            return false;
+        boolean expirable = false;
+        Iterator iter = e.values.iterator();
+        while (iter.hasNext()) {
+            Object o = iter.next();
+            if (o instanceof TSpace.Expirable) {
+                if (((TSpace.Expirable) o).isExpired())
+                    e.values.removeFirstOccurrence (o);
+                else
+                    expirable = true;
+            }
+        }
+        discardIfIdle (key);
+        return expirable;
+    }
+
+    private Object wrap (Object value, long timeout) {
+        return timeout > 0 && value != null ?
+          new TSpace.Expirable (value, System.currentTimeMillis() + timeout) : value;
+    }
+
+    private void registerExpirable (Object k, long t) {
+        expirables[t > GCLONG ? 1 : 0].add(k);
+    }
+
+    private synchronized CSpace getSL() {
+        if (sl == null)
+            sl = new CSpace();
+        return sl;
+    }
+
+    /**
+     * Parks the current thread; interrupts are ignored, as in TSpace.
+     * @param nanos max wait, 0 to wait until unparked
+     */
+    private static void park (long nanos) {
+        if (nanos > 0L)
+            LockSupport.parkNanos (nanos);
+        else
+            LockSupport.park();
+        Thread.interrupted();
+    }
+
+    /**
+     * Values and waiting threads for a given key.
+     */
+    private static class Entry {
+        final Deque<Object> values = new ConcurrentLinkedDeque<>();
+        final Set<Thread> waiters = ConcurrentHashMap.newKeySet();
+
+        void signal() {
+            if (!waiters.isEmpty()) {
+                for (Thread t : waiters)
+                    LockSupport.unpark (t);
+            }
+        }
+
+        boolean isIdle() {
+            return values.isEmpty() && waiters.isEmpty();
+        }
+    }
+}
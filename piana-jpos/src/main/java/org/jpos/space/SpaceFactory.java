@@ -45,6 +45,9 @@ import java.util.concurrent.ScheduledThreadPoolExecutor;
  *   // transient space named "test"
  *   Space sp = SpaceFactory.getSpace ("transient:test");  
  *
+ *   // concurrent (key-striped) transient space named "test"
+ *   Space sp = SpaceFactory.getSpace ("cspace:test");
+ *
  *   // persistent space named "test"
  *   Space sp = SpaceFactory.getSpace ("persistent:test"); 
  *
@@ -59,6 +62,7 @@ import java.util.concurrent.ScheduledThreadPoolExecutor;
 public class SpaceFactory {
     public static final String TSPACE     = "tspace";
     public static final String TRANSIENT  = "transient";
+    public static final String CSPACE     = "cspace";
     public static final String PERSISTENT = "persistent";
     public static final String SPACELET   = "spacelet";
     public static final String JDBM       = "jdbm";
@@ -131,6 +135,8 @@ public class SpaceFactory {
         Space sp = null;
         if (TSPACE.equals (scheme) || TRANSIENT.equals (scheme)) {
             sp = new TSpace();
+        } else if (CSPACE.equals (scheme)) {
+            sp = new CSpace();
         } else if (JDBM.equals (scheme) || PERSISTENT.equals (scheme)) {
             if (param != null)
                 sp = JDBMSpace.getSpace (name, param);
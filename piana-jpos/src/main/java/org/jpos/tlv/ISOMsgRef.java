@@ -29,6 +29,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.nio.ByteBuffer;
 import java.util.Map;
 
 
@@ -164,6 +165,11 @@ public class ISOMsgRef {
             return delegate.pack();
         }
 
+        @Override
+        public int pack(ByteBuffer buf) throws ISOException {
+            return delegate.pack(buf);
+        }
+
 
         @Override
         public int unpack(final byte[] b) throws ISOException {
@@ -22,6 +22,7 @@ import org.jdom2.Element;
 import org.jdom2.output.Format;
 import org.jdom2.output.XMLOutputter;
 import org.jpos.iso.ISOUtil;
+import org.jpos.util.LinkedOpenHashMap;
 import org.jpos.util.LogEvent;
 import org.jpos.util.Loggeable;
 import org.jpos.util.Profiler;
@@ -38,11 +39,33 @@ public class Context implements Externalizable, Loggeable, Pausable {
     private long timeout;
     private boolean resumeOnPause = false;
     private transient boolean trace = false;
+    private transient boolean confined;
+    private transient Profiler spareProfiler;
 
     public Context () {
         super ();
     }
 
+    /**
+     * Creates a Context that can only be used by one thread at a time.
+     * <p>
+     * A confined Context uses unsynchronized maps and doesn't notify
+     * waiters on {@link #put(String, Object)}; it must only be handed over
+     * between threads through something that synchronizes (a Space, an
+     * executor), and {@link #get(Object, long)} doesn't wait.
+     *
+     * @param confined true for a confined Context
+     * @see ContextPool
+     */
+    public Context (boolean confined) {
+        super ();
+        this.confined = confined;
+        if (confined) {
+            map = new LinkedOpenHashMap<> ();
+            pmap = new LinkedOpenHashMap<> ();
+        }
+    }
+
     /**
      * puts an Object in the transient Map
      */
@@ -53,8 +76,10 @@ public class Context implements Externalizable, Loggeable, Pausable {
             );
         }
         getMap().put (key, value);
-        synchronized (this) {
-            notifyAll();
+        if (!confined) {
+            synchronized (this) {
+                notifyAll();
+            }
         }
     }
     /**
@@ -116,6 +141,8 @@ public class Context implements Externalizable, Loggeable, Pausable {
      * @return object (null on timeout)
      */
     public synchronized Object get (Object key, long timeout) {
+        if (confined)
+            return getMap().get (key);
         Object obj;
         long now = System.currentTimeMillis();
         long end = now + timeout;
@@ -156,18 +183,57 @@ public class Context implements Externalizable, Loggeable, Pausable {
     /**
      * @return persistent map
      */
-    private synchronized Map<String,Object> getPMap() {
-        if (pmap == null)
-            pmap = Collections.synchronizedMap (new LinkedHashMap<String,Object> ());
-        return pmap;
+    private Map<String,Object> getPMap() {
+        if (confined)
+            return pmap;
+        synchronized (this) {
+            if (pmap == null)
+                pmap = Collections.synchronizedMap (new LinkedHashMap<String,Object> ());
+            return pmap;
+        }
     }
     /**
      * @return transient map
      */
-    public synchronized Map<String,Object> getMap() {
-        if (map == null)
-            map = Collections.synchronizedMap (new LinkedHashMap<String,Object>());
-        return map;
+    public Map<String,Object> getMap() {
+        if (confined)
+            return map;
+        synchronized (this) {
+            if (map == null)
+                map = Collections.synchronizedMap (new LinkedHashMap<String,Object>());
+            return map;
+        }
+    }
+
+    /**
+     * @return true if this Context is confined to one thread at a time
+     * @see #Context(boolean)
+     */
+    public boolean isConfined() {
+        return confined;
+    }
+
+    /**
+     * Clears this Context so that it can be reused for a new transaction.
+     * <p>
+     * Maps are cleared rather than dropped, and the Profiler, if any, is
+     * kept for the next {@link #getProfiler()}. Nothing may hold on to the
+     * Context (or its entries) once it has been reset.
+     */
+    public synchronized void reset() {
+        Profiler prof = null;
+        if (map != null) {
+            Object obj = map.get (PROFILER.toString());
+            if (obj instanceof Profiler)
+                prof = (Profiler) obj;
+            map.clear();
+        }
+        if (pmap != null)
+            pmap.clear();
+        spareProfiler = prof;
+        timeout = 0L;
+        resumeOnPause = false;
+        trace = false;
     }
     protected void dumpMap (PrintStream p, String indent) {
         if (map == null)
@@ -241,7 +307,13 @@ public class Context implements Externalizable, Loggeable, Pausable {
     synchronized public Profiler getProfiler () {
         Profiler prof = (Profiler) get (PROFILER.toString());
         if (prof == null) {
-            prof = new Profiler();
+            prof = spareProfiler;
+            if (prof != null) {
+                spareProfiler = null;
+                prof.reset();
+            } else {
+                prof = new Profiler();
+            }
             put (PROFILER.toString(), prof);
         }
         return prof;
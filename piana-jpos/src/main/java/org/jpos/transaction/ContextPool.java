@@ -0,0 +1,172 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2017 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jpos.transaction;
+
+import org.jpos.iso.ISOMsg;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Recycled {@link Context}s (and {@link ISOMsg}s) for a TransactionManager
+ * queue.
+ * <p>
+ * A TransactionManager configured with <code>recycle</code> resets every
+ * context that is done (committed, aborted or not joined, but not paused
+ * or retried) and returns it to a pool stripe owned by the session that
+ * ran it (<code>recycle-pool-size</code> contexts per stripe, default 256),
+ * along with the plain ISOMsgs found under its <code>recycle-messages</code>
+ * keys (e.g. "REQUEST, RESPONSE"). The TransactionManager refuses Join
+ * participants when recycling, as a timed out Join participant may still
+ * be using the context. With <code>confined-contexts</code>,
+ * new contexts are {@link Context#Context(boolean) confined}, so participants
+ * must not use them from other threads. Producers, such as
+ * {@link org.jpos.iso.IncomingListener}, borrow contexts instead of
+ * creating them, and channels configured with a <code>message-pool</code>
+ * borrow messages.
+ * <p>
+ * Nothing may keep a reference to a context, or to a recycled message, once
+ * the transaction is done, e.g. a caller waiting for a response on
+ * {@link Context#get(Object, long)}, or a response queued to be sent by
+ * another thread.
+ * <p>
+ * When the TransactionManager isn't recycling, {@link #borrow()} just
+ * creates a new Context, and {@link #borrowMessage()} returns null.
+ */
+public class ContextPool {
+    private static final Map<String,ContextPool> pools = new ConcurrentHashMap<>();
+    private static final Stripe[] NONE = new Stripe[0];
+    private static final String[] NO_KEYS = new String[0];
+    private volatile Stripe[] stripes = NONE;
+    private volatile boolean confined;
+    private volatile String[] messageKeys = NO_KEYS;
+
+    /**
+     * @param name TransactionManager queue name
+     * @return the pool for that queue
+     */
+    public static ContextPool getPool (String name) {
+        return pools.computeIfAbsent (name, k -> new ContextPool());
+    }
+
+    /**
+     * Enables recycling, called by the TransactionManager on start.
+     *
+     * @param sessions number of stripes, one per session
+     * @param capacity contexts (and messages) kept per stripe
+     * @param confined true to create confined contexts, see {@link Context#Context(boolean)}
+     * @param messageKeys context keys holding ISOMsgs to recycle
+     */
+    public void enable (int sessions, int capacity, boolean confined, String[] messageKeys) {
+        Stripe[] s = new Stripe[Math.max (sessions, 1)];
+        for (int i=0; i<s.length; i++)
+            s[i] = new Stripe (capacity);
+        this.confined = confined;
+        this.messageKeys = messageKeys.clone();
+        this.stripes = s;
+    }
+
+    /**
+     * Disables recycling, dropping pooled objects.
+     */
+    public void disable () {
+        stripes = NONE;
+        confined = false;
+        messageKeys = NO_KEYS;
+    }
+
+    /**
+     * @return a recycled Context, or a new one
+     */
+    public Context borrow () {
+        Stripe[] s = stripes;
+        for (int i=0, j=start (s.length); i<s.length; i++, j = (j + 1) % s.length) {
+            Context ctx = s[j].contexts.poll();
+            if (ctx != null)
+                return ctx;
+        }
+        return new Context (confined);
+    }
+
+    /**
+     * @return a recycled (empty) ISOMsg, null if none available
+     */
+    public ISOMsg borrowMessage () {
+        Stripe[] s = stripes;
+        for (int i=0, j=start (s.length); i<s.length; i++, j = (j + 1) % s.length) {
+            ISOMsg m = s[j].messages.poll();
+            if (m != null)
+                return m;
+        }
+        return null;
+    }
+
+    /**
+     * Resets a Context, and its messages, and returns them to the pool.
+     *
+     * @param session session that ran the transaction
+     * @param ctx the context
+     */
+    public void release (int session, Context ctx) {
+        Stripe[] s = stripes;
+        if (s.length == 0)
+            return;
+        Stripe stripe = s[session % s.length];
+        String[] keys = messageKeys;
+        ISOMsg[] released = null;
+        int n = 0;
+        for (String key : keys) {
+            Object obj = ctx.get (key);
+            // only plain messages, subclasses may carry more state
+            if (obj == null || obj.getClass() != ISOMsg.class || contains (released, n, obj))
+                continue;
+            if (released == null)
+                released = new ISOMsg[keys.length];
+            ISOMsg m = (ISOMsg) obj;
+            released[n++] = m;
+            m.reset();
+            stripe.messages.offer (m);
+        }
+        ctx.reset();
+        stripe.contexts.offer (ctx);
+    }
+
+    private static boolean contains (ISOMsg[] released, int n, Object obj) {
+        for (int i=0; i<n; i++)
+            if (released[i] == obj)
+                return true;
+        return false;
+    }
+
+    private static int start (int stripes) {
+        return stripes > 1 ? (int) (Thread.currentThread().getId() % stripes) : 0;
+    }
+
+    private static class Stripe {
+        final ArrayBlockingQueue<Context> contexts;
+        final ArrayBlockingQueue<ISOMsg> messages;
+
+        Stripe (int capacity) {
+            contexts = new ArrayBlockingQueue<> (capacity);
+            messages = new ArrayBlockingQueue<> (capacity);
+        }
+    }
+}
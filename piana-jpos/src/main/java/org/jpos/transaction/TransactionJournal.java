@@ -0,0 +1,494 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2017 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.transaction;
+
+import org.jpos.space.SpaceError;
+import org.jpos.util.Log;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead journal used by the {@link TransactionManager}
+ * as an alternative to its persistent space.
+ *
+ * <p>Every transaction state change (PREPARING/COMMITTING/DONE, context
+ * snapshots, selected groups, purges and tail moves) is appended as a
+ * record; a single writer thread drains all pending records, writes them
+ * in one go and forces them to disk, so that many sessions waiting for
+ * their records to be durable share the same <code>fsync</code>
+ * (group commit).
+ *
+ * <p>The state of in-flight transactions is also kept in memory, which
+ * is what the TransactionManager reads at run time and during recovery.
+ * When the journal grows beyond <code>maxSize</code> it is rewritten as a
+ * checkpoint of that live state.
+ *
+ * <p>Record layout: <code>length(4) crc32(4) type(1) id(8) value(4) payload</code>,
+ * where length covers everything after the crc. A torn or corrupt record
+ * at the end of the journal (i.e. a crash in the middle of a write)
+ * ends the replay and is truncated.
+ */
+public class TransactionJournal implements Runnable {
+    static final byte SNAPSHOT = 1;
+    static final byte STATE    = 2;
+    static final byte GROUP    = 3;
+    static final byte PURGE    = 4;
+    static final byte TAIL     = 5;
+    static final byte HEAD     = 6;
+    private static final int RECORD_OVERHEAD = 4 + 4 + 1 + 8 + 4;
+
+    private final File file;
+    private final long maxSize;
+    private final Log log;
+    private final Map<Long,Entry> entries = new ConcurrentHashMap<>();
+    private final Object lock = new Object();
+    private final Object synced = new Object();
+    private FileChannel channel;
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream(8192);
+    private ByteArrayOutputStream writing = new ByteArrayOutputStream(8192);
+    private final CRC32 crc = new CRC32();
+    private long head = -1L;
+    private long tail = -1L;
+    private long appendedSeq;
+    private volatile long durableSeq;
+    private volatile long records;
+    private volatile long syncs;
+    private volatile boolean running;
+    private volatile IOException failure;
+    private volatile Thread writer;
+
+    /**
+     * Opens (creating it if necessary) and replays a journal.
+     * @param file journal file
+     * @param maxSize size in bytes that triggers a checkpoint
+     * @param log used to report writer failures
+     * @throws IOException on error
+     */
+    public TransactionJournal (File file, long maxSize, Log log) throws IOException {
+        this.file = file;
+        this.maxSize = maxSize;
+        this.log = log;
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null)
+            dir.mkdirs();
+        channel = FileChannel.open (file.toPath(),
+          StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long valid = replay();
+        if (valid < channel.size()) {
+            channel.truncate (valid);
+            channel.force (true);
+        }
+        channel.position (valid);
+    }
+
+    public synchronized void start() {
+        if (writer == null) {
+            running = true;
+            writer = new Thread (this, "journal-" + file.getName());
+            writer.setDaemon (true);
+            writer.start();
+        }
+    }
+
+    /**
+     * Flushes pending records, stops the writer and closes the journal.
+     */
+    public void close() throws IOException {
+        Thread t;
+        synchronized (this) {
+            t = writer;
+            writer = null;
+        }
+        if (t != null) {
+            running = false;
+            synchronized (lock) {
+                lock.notifyAll();
+            }
+            try {
+                t.join (10000L);
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (lock) {
+            if (!channel.isOpen())
+                return;
+            if (pending.size() > 0 && failure == null)
+                write (pending, appendedSeq);
+            channel.close();
+        }
+    }
+
+    /**
+     * @param defValue value to use when the journal is empty
+     * @return last id known to be issued plus one
+     */
+    public long getHead (long defValue) {
+        return head < 0 ? defValue : head;
+    }
+
+    /**
+     * @param defValue value to use when the journal is empty
+     * @return last journaled tail
+     */
+    public long getTail (long defValue) {
+        return tail < 0 ? defValue : tail;
+    }
+
+    /**
+     * Records a context snapshot and (optionally) a new state; returns when durable.
+     */
+    public void snapshot (long id, Serializable context, Integer state) {
+        append (SNAPSHOT, id, state != null ? state : -1, serialize (context), true);
+    }
+
+    /**
+     * Records a new state for a given transaction; returns when durable.
+     */
+    public void setState (long id, Integer state) {
+        append (STATE, id, state != null ? state : -1, null, true);
+    }
+
+    /**
+     * Records a selected group. Not synced on its own, it becomes durable
+     * along with the next snapshot or state change, which are always
+     * journaled after it.
+     */
+    public void addGroup (long id, String groupName) {
+        append (GROUP, id, 0, groupName.getBytes (StandardCharsets.UTF_8), false);
+    }
+
+    public void purge (long id, boolean full) {
+        append (PURGE, id, full ? 1 : 0, null, false);
+    }
+
+    public void setTail (long tail) {
+        append (TAIL, tail, 0, null, false);
+    }
+
+    public Integer getState (long id) {
+        Entry e = entries.get (id);
+        return e != null ? e.state : null;
+    }
+
+    public Serializable getContext (long id) {
+        Entry e = entries.get (id);
+        byte[] b = e != null ? e.context : null;
+        if (b == null)
+            return null;
+        try (ObjectInputStream in = new ObjectInputStream (new ByteArrayInputStream (b))) {
+            return (Serializable) in.readObject();
+        } catch (IOException | ClassNotFoundException ex) {
+            throw new SpaceError (ex);
+        }
+    }
+
+    public List<String> getGroups (long id) {
+        Entry e = entries.get (id);
+        return e != null ? e.groups() : new ArrayList<String>();
+    }
+
+    /**
+     * @return number of records appended since start
+     */
+    public long getRecordCount() {
+        return records;
+    }
+
+    /**
+     * @return number of forced writes since start
+     */
+    public long getSyncCount() {
+        return syncs;
+    }
+
+    /**
+     * @return number of transactions with journaled state
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public void run() {
+        while (running || hasPending()) {
+            long seq;
+            ByteArrayOutputStream batch;
+            synchronized (lock) {
+                while (running && pending.size() == 0) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException ignored) { }
+                }
+                if (pending.size() == 0)
+                    break;
+                batch = pending;
+                pending = writing;
+                writing = batch;
+                seq = appendedSeq;
+            }
+            try {
+                write (batch, seq);
+                if (channel.size() > maxSize)
+                    checkpoint();
+            } catch (IOException e) {
+                failure = e;
+                log.error ("journal " + file, e);
+                synchronized (synced) {
+                    synced.notifyAll();
+                }
+                break;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format ("journal=%s, in-flight=%d, records=%d, syncs=%d",
+          file.getName(), entries.size(), records, syncs);
+    }
+
+    private boolean hasPending() {
+        synchronized (lock) {
+            return pending.size() > 0;
+        }
+    }
+
+    private void append (byte type, long id, int value, byte[] payload, boolean sync) {
+        long seq;
+        synchronized (lock) {
+            if (failure != null)
+                throw new SpaceError (failure);
+            encode (pending, type, id, value, payload);
+            apply (type, id, value, payload);
+            seq = ++appendedSeq;
+            records++;
+            lock.notify();
+        }
+        if (sync)
+            awaitDurable (seq);
+    }
+
+    private void awaitDurable (long seq) {
+        synchronized (synced) {
+            while (durableSeq < seq) {
+                if (failure != null)
+                    throw new SpaceError (failure);
+                if (writer == null)
+                    throw new SpaceError ("journal " + file + " not running");
+                try {
+                    synced.wait (1000L);
+                } catch (InterruptedException ignored) { }
+            }
+        }
+    }
+
+    private void write (ByteArrayOutputStream batch, long seq) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap (batch.toByteArray());
+        while (buf.hasRemaining())
+            channel.write (buf);
+        channel.force (false);
+        batch.reset();
+        syncs++;
+        synchronized (synced) {
+            durableSeq = seq;
+            synced.notifyAll();
+        }
+    }
+
+    /**
+     * Rewrites the journal as head, tail and the state of in-flight
+     * transactions. Appends are held while the checkpoint is taken, and
+     * pending records are dropped, as they are already part of it.
+     */
+    private void checkpoint() throws IOException {
+        synchronized (lock) {
+            ByteArrayOutputStream cp = new ByteArrayOutputStream (8192 + pending.size());
+            if (head >= 0)
+                encode (cp, HEAD, head, 0, null);
+            if (tail >= 0)
+                encode (cp, TAIL, tail, 0, null);
+            for (Map.Entry<Long,Entry> me : entries.entrySet()) {
+                Entry e = me.getValue();
+                long id = me.getKey();
+                encode (cp, SNAPSHOT, id, e.state != null ? e.state : -1, e.context);
+                for (String g : e.groups())
+                    encode (cp, GROUP, id, 0, g.getBytes (StandardCharsets.UTF_8));
+            }
+            File tmp = new File (file.getPath() + ".tmp");
+            try (FileChannel ch = FileChannel.open (tmp.toPath(),
+              StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteBuffer buf = ByteBuffer.wrap (cp.toByteArray());
+                while (buf.hasRemaining())
+                    ch.write (buf);
+                ch.force (true);
+            }
+            channel.close();
+            Files.move (tmp.toPath(), file.toPath(),
+              StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel = FileChannel.open (file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            channel.position (channel.size());
+            pending.reset();
+            syncs++;
+            synchronized (synced) {
+                durableSeq = appendedSeq;
+                synced.notifyAll();
+            }
+        }
+    }
+
+    private void encode (ByteArrayOutputStream out, byte type, long id, int value, byte[] payload) {
+        int plen = payload != null ? payload.length : 0;
+        ByteBuffer b = ByteBuffer.allocate (RECORD_OVERHEAD + plen);
+        b.putInt (RECORD_OVERHEAD - 8 + plen);
+        b.putInt (0);
+        b.put (type);
+        b.putLong (id);
+        b.putInt (value);
+        if (plen > 0)
+            b.put (payload);
+        crc.reset();
+        crc.update (b.array(), 8, b.capacity() - 8);
+        b.putInt (4, (int) crc.getValue());
+        out.write (b.array(), 0, b.capacity());
+    }
+
+    private void apply (byte type, long id, int value, byte[] payload) {
+        Entry e;
+        switch (type) {
+            case SNAPSHOT:
+                e = entry (id);
+                e.context = payload != null && payload.length > 0 ? payload : null;
+                if (value >= 0)
+                    e.state = value;
+                head = Math.max (head, id + 1);
+                break;
+            case STATE:
+                e = entry (id);
+                e.state = value >= 0 ? value : null;
+                break;
+            case GROUP:
+                entry (id).addGroup (new String (payload, StandardCharsets.UTF_8));
+                break;
+            case PURGE:
+                if (value == 1) {
+                    entries.remove (id);
+                } else if ((e = entries.get (id)) != null) {
+                    e.context = null;
+                    e.clearGroups();
+                }
+                break;
+            case TAIL:
+                tail = Math.max (tail, id);
+                break;
+            case HEAD:
+                head = Math.max (head, id);
+                break;
+        }
+    }
+
+    private Entry entry (long id) {
+        return entries.computeIfAbsent (id, k -> new Entry());
+    }
+
+    /**
+     * @return length of the valid portion of the journal
+     */
+    private long replay() throws IOException {
+        long size = channel.size();
+        ByteBuffer hdr = ByteBuffer.allocate (8);
+        long pos = 0L;
+        while (pos + 8 <= size) {
+            hdr.clear();
+            if (channel.read (hdr, pos) < 8)
+                break;
+            hdr.flip();
+            int len = hdr.getInt();
+            int sum = hdr.getInt();
+            if (len < RECORD_OVERHEAD - 8 || pos + 8 + len > size)
+                break;
+            ByteBuffer body = ByteBuffer.allocate (len);
+            while (body.hasRemaining() && channel.read (body, pos + 8 + body.position()) > 0);
+            crc.reset();
+            crc.update (body.array(), 0, len);
+            if ((int) crc.getValue() != sum)
+                break;
+            body.flip();
+            byte type = body.get();
+            long id = body.getLong();
+            int value = body.getInt();
+            byte[] payload = null;
+            if (body.hasRemaining()) {
+                payload = new byte[body.remaining()];
+                body.get (payload);
+            }
+            apply (type, id, value, payload);
+            pos += 8 + len;
+        }
+        if (tail >= 0)
+            entries.keySet().removeIf (id -> id < tail);
+        return pos;
+    }
+
+    private static byte[] serialize (Serializable context) {
+        if (context == null)
+            return null;
+        try {
+            ByteArrayOutputStream b = new ByteArrayOutputStream (256);
+            try (ObjectOutputStream out = new ObjectOutputStream (b)) {
+                out.writeObject (context);
+            }
+            return b.toByteArray();
+        } catch (IOException e) {
+            throw new SpaceError (e);
+        }
+    }
+
+    /**
+     * Journaled state of an in-flight transaction.
+     */
+    private static class Entry {
+        volatile Integer state;
+        volatile byte[] context;
+        private List<String> groups;
+
+        synchronized void addGroup (String g) {
+            if (groups == null)
+                groups = new ArrayList<>();
+            groups.add (g);
+        }
+        synchronized void clearGroups() {
+            groups = null;
+        }
+        synchronized List<String> groups() {
+            return groups != null ? new ArrayList<>(groups) : new ArrayList<String>();
+        }
+    }
+}
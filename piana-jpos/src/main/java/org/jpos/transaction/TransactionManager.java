@@ -26,14 +26,26 @@ import org.jpos.core.ConfigurationException;
 import org.jpos.q2.QBeanSupport;
 import org.jpos.q2.QFactory;
 import org.jpos.space.*;
+import org.jpos.transaction.participant.Join;
 import org.jpos.util.*;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 import java.time.Instant;
 import java.time.LocalDateTime;
@@ -60,15 +72,19 @@ public class TransactionManager
     public static final long    MAX_PARTICIPANTS = 1000;  // loop prevention
     public static final long    MAX_WAIT = 15000L;
     public static final long    TIMER_PURGE_INTERVAL = 1000L;
+    public static final long    DEFAULT_JOURNAL_MAX_SIZE = 64L*1024*1024;
     protected Map<String,List<TransactionParticipant>> groups;
     private static final ThreadLocal<Serializable> tlContext = new ThreadLocal<Serializable>();
     private static final ThreadLocal<Long> tlId = new ThreadLocal<Long>();
     private Metrics metrics;
     private static ScheduledThreadPoolExecutor loadMonitorExecutor;
+    private static final AtomicLongFieldUpdater<TransactionManager> HEAD_UPDATER =
+      AtomicLongFieldUpdater.newUpdater (TransactionManager.class, "head");
 
     Space sp;
     Space psp;
     Space isp; // input space
+    TransactionJournal journal;
     String queue;
     String tailLock;
     List<Thread> threads;
@@ -83,6 +99,17 @@ public class TransactionManager
     int maxSessions;
     int threshold;
     int maxActiveSessions;
+    boolean executorMode;
+    int executorThreads;
+    int maxInFlight;
+    ForkJoinPool executor;
+    Semaphore inFlight;
+    boolean recycle;
+    boolean confinedContexts;
+    int recyclePoolSize;
+    String[] recycleMessages;
+    ContextPool contextPool;
+    private final Map<String,ExecutorService> participantExecutors = new ConcurrentHashMap<>();
     private AtomicInteger activeSessions = new AtomicInteger();
     private AtomicInteger pausedCounter = new AtomicInteger();
 
@@ -102,13 +129,27 @@ public class TransactionManager
         sp   = SpaceFactory.getSpace (cfg.get ("space"));
         isp  = SpaceFactory.getSpace (cfg.get ("input-space", cfg.get ("space")));
         psp  = SpaceFactory.getSpace (cfg.get ("persistent-space", this.toString()));
-        tail = initCounter (TAIL, cfg.getLong ("initial-tail", 1));
-        head = Math.max (initCounter (HEAD, tail), tail);
+        String journalFile = cfg.get ("journal", null);
+        if (journalFile != null) {
+            initJournal (new File (journalFile));
+        } else {
+            tail = initCounter (TAIL, cfg.getLong ("initial-tail", 1));
+            head = Math.max (initCounter (HEAD, tail), tail);
+        }
         initTailLock ();
 
         groups = new HashMap<String,List<TransactionParticipant>>();
         initParticipants (getPersist());
         initStatusListeners (getPersist());
+        if (recycle) {
+            // a Join participant that timed out may still hold the context
+            for (List<TransactionParticipant> group : groups.values()) {
+                for (TransactionParticipant p : group) {
+                    if (p instanceof Join)
+                        throw new ConfigurationException ("recycle can't be used along with Join participants");
+                }
+            }
+        }
     }
 
     @Override
@@ -119,13 +160,23 @@ public class TransactionManager
         if (tps != null)
             tps.stop();
         tps = new TPS (cfg.getBoolean ("auto-update-tps", true));
-        for (int i=0; i<sessions; i++) {
-            new Thread(this).start();
+        if (recycle) {
+            contextPool = ContextPool.getPool (queue);
+            contextPool.enable (
+              executorMode ? executorThreads : maxSessions, recyclePoolSize, confinedContexts, recycleMessages
+            );
+        }
+        if (executorMode) {
+            startExecutor();
+        } else {
+            for (int i=0; i<sessions; i++) {
+                new Thread(this).start();
+            }
         }
         if (psp.rdp (RETRY_QUEUE) != null)
             checkRetryTask();
 
-        if (maxSessions > sessions) {
+        if (maxSessions > sessions && !executorMode) {
             loadMonitorExecutor = ConcurrentUtil.newScheduledThreadPoolExecutor();
             loadMonitorExecutor.scheduleAtFixedRate(
               new Thread(() -> {
@@ -160,13 +211,40 @@ public class TransactionManager
                 thread.interrupt();
             }
         }
+        if (executor != null) {
+            ForkJoinPool pool = executor;
+            executor = null;
+            pool.shutdown();
+            if (!pool.awaitTermination (60, TimeUnit.SECONDS))
+                getLog().warn ("Executor does not respond - " + pool);
+            activeSessions.addAndGet (-executorThreads);
+        }
+        if (contextPool != null) {
+            contextPool.disable();
+            contextPool = null;
+        }
+        shutdownParticipantExecutors();
         tps.stop();
     }
+
+    @Override
+    protected void destroyService () throws Exception {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+    }
     public void queue (Serializable context) {
-        isp.out(queue, context);
+        if (executor != null && isPaused (context))
+            submit (context);
+        else
+            isp.out(queue, context);
     }
     public void push (Serializable context) {
-        isp.push(queue, context);
+        if (executor != null && isPaused (context))
+            submit (context);
+        else
+            isp.push(queue, context);
     }
     @SuppressWarnings("unused")
     public String getQueueName() {
@@ -186,13 +264,6 @@ public class TransactionManager
     public void run () {
         long id = 0;
         int session = 0; // FIXME
-        List<TransactionParticipant> members = null;
-        Iterator<TransactionParticipant> iter = null;
-        PausedTransaction pt;
-        boolean abort = false;
-        LogEvent evt = null;
-        Profiler prof;
-        boolean paused;
         Thread thread = Thread.currentThread();
         if (threads.size() < maxSessions) {
             threads.add(thread);
@@ -204,12 +275,7 @@ public class TransactionManager
         }
         getLog().info ("start " + thread);
         while (running()) {
-            Serializable context = null;
-            prof = null;
-            evt = null;
-            paused = false;
             thread.setName (getName() + "-" + session + ":idle");
-            int action = -1;
             try {
                 if (hasStatusListeners)
                     notifyStatusListeners (session, TransactionStatusEvent.State.READY, id, "", null);
@@ -225,154 +291,232 @@ public class TransactionManager
                         continue;
                     }
                 }
-                if (!(obj instanceof Serializable)) {
-                    getLog().error (
-                        "non serializable '" + obj.getClass().getName()
-                       + "' on queue '" + queue + "'"
-                    );
+                id = execute (session, obj);
+            } catch (Throwable t) {
+                getLog().fatal (t); // should never happen
+            }
+        }
+        threads.remove(thread);
+        int currentActiveSessions = activeSessions.decrementAndGet();
+        getLog().info ("stop " + Thread.currentThread() + ", active sessions=" + currentActiveSessions);
+    }
+
+    /**
+     * Executor mode dispatcher: takes contexts from the input queue and hands
+     * them over to the executor, waiting while the number of in-flight
+     * transactions (running or paused) is at <code>max-in-flight</code>.
+     * Resumed transactions bypass that limit (and the queue, see
+     * {@link #push(Serializable)}) as they already count as in-flight.
+     */
+    protected void dispatch () {
+        Thread thread = Thread.currentThread();
+        threads.add (thread);
+        getLog().info ("start " + thread);
+        while (running()) {
+            try {
+                Object obj = isp.in (queue, MAX_WAIT);
+                if (obj == null || obj == Boolean.FALSE)
                     continue;
-                }
-                context = (Serializable) obj;
-                if (obj instanceof Pausable) {
-                    Pausable pausable = (Pausable) obj;
-                    pt = pausable.getPausedTransaction();
-                    if (pt != null) {
-                        pt.cancelExpirationMonitor();
-                        id      = pt.id();
-                        members = pt.members();
-                        iter    = pt.iterator();
-                        abort   = pt.isAborting();
-                        evt     = pt.getLogEvent();
-                        prof    = pt.getProfiler();
-                        if (metrics != null)
-                            metrics.record(pt.getParticipant().getClass().getName() + "-resume", prof.getPartialInMillis());
-                        if (prof != null)
-                            prof.reenable();
-                        pausedCounter.decrementAndGet();
+                if (!isPaused (obj)) {
+                    while (!inFlight.tryAcquire (MAX_WAIT, TimeUnit.MILLISECONDS)) {
+                        if (!running()) {
+                            isp.push (queue, obj);
+                            obj = null;
+                            break;
+                        }
                     }
-                } else 
-                    pt = null;
+                }
+                if (obj != null)
+                    submit (obj);
+            } catch (InterruptedException e) {
+                break;
+            } catch (Throwable t) {
+                getLog().fatal (t); // should never happen
+            }
+        }
+        threads.remove (thread);
+        getLog().info ("stop " + thread);
+    }
 
-                if (pt == null) {
-                    int running = getRunningSessions();
-                    if (maxActiveSessions > 0 && running >= maxActiveSessions) {
-                        getLog().warn (
-                            Thread.currentThread().getName() 
-                            + ": emergency retry, running-sessions=" + running 
-                            + ", max-active-sessions=" + maxActiveSessions
-                        );
-                        psp.out (RETRY_QUEUE, obj, retryTimeout);
-                        checkRetryTask();
-                        continue;
+    /**
+     * Runs a context (either new or resuming from a PAUSE) through the
+     * participants until it is done or paused again.
+     *
+     * @param session session number (used by status listeners and thread names)
+     * @param obj the context
+     * @return transaction id (0 if none was assigned)
+     */
+    protected long execute (int session, Object obj) {
+        long id = 0;
+        List<TransactionParticipant> members = null;
+        Iterator<TransactionParticipant> iter = null;
+        PausedTransaction pt;
+        boolean abort = false;
+        LogEvent evt = null;
+        Profiler prof = null;
+        boolean paused = false;
+        Serializable context = null;
+        int action = -1;
+        try {
+            if (!(obj instanceof Serializable)) {
+                getLog().error (
+                    "non serializable '" + obj.getClass().getName()
+                   + "' on queue '" + queue + "'"
+                );
+                return id;
+            }
+            context = (Serializable) obj;
+            if (obj instanceof Pausable) {
+                Pausable pausable = (Pausable) obj;
+                pt = pausable.getPausedTransaction();
+                if (pt != null) {
+                    pt.cancelExpirationMonitor();
+                    id      = pt.id();
+                    members = pt.members();
+                    iter    = pt.iterator();
+                    abort   = pt.isAborting();
+                    evt     = pt.getLogEvent();
+                    prof    = pt.getProfiler();
+                    if (metrics != null && prof != null)
+                        metrics.record(pt.getParticipant().getClass().getName() + "-resume", prof.getPartialInMillis());
+                    if (prof != null)
+                        prof.reenable();
+                    pausedCounter.decrementAndGet();
+                }
+            } else 
+                pt = null;
+
+            if (pt == null) {
+                int running = getRunningSessions();
+                if (maxActiveSessions > 0 && running >= maxActiveSessions) {
+                    getLog().warn (
+                        Thread.currentThread().getName() 
+                        + ": emergency retry, running-sessions=" + running 
+                        + ", max-active-sessions=" + maxActiveSessions
+                    );
+                    psp.out (RETRY_QUEUE, obj, retryTimeout);
+                    checkRetryTask();
+                    return id;
+                }
+                abort = false;
+                id = nextId ();
+                members = new ArrayList ();
+                iter = getParticipants (DEFAULT_GROUP).iterator();
+            }
+            if (debug) {
+                if (evt == null) {
+                    evt = getLog().createLogEvent("debug",
+                      Thread.currentThread().getName()
+                        + ":" + Long.toString(id) +
+                        (pt != null ? " [resuming]" : "")
+                    );
+                    if (debugContext) {
+                        evt.addMessage (context);
                     }
-                    abort = false;
-                    id = nextId ();
-                    members = new ArrayList ();
-                    iter = getParticipants (DEFAULT_GROUP).iterator();
                 }
-                if (debug) {
-                    if (evt == null) {
-                        evt = getLog().createLogEvent("debug",
-                          Thread.currentThread().getName()
-                            + ":" + Long.toString(id) +
-                            (pt != null ? " [resuming]" : "")
-                        );
-                        if (debugContext) {
-                            evt.addMessage (context);
-                        }
+                if (prof == null)
+                    prof = new Profiler();
+                else
+                    prof.checkPoint("resume");
+            }
+            snapshot (id, context, PREPARING);
+            setThreadLocal(id, context);
+            action = prepare (session, id, context, members, iter, abort, evt, prof);
+            removeThreadLocal();
+            switch (action) {
+                case PAUSE:
+                    paused = true;
+                    if (id % TIMER_PURGE_INTERVAL == 0)
+                        timer.purge();
+                    pausedCounter.incrementAndGet();
+                    break;
+                case PREPARED:
+                    if (members.size() > 0) {
+                        setState(id, COMMITTING);
+                        setThreadLocal(id, context);
+                        commit(session, id, context, members, false, evt, prof);
+                        removeThreadLocal();
                     }
-                    if (prof == null)
-                        prof = new Profiler();
-                    else
-                        prof.checkPoint("resume");
+                    break;
+                case ABORTED:
+                    if (members.size() > 0) {
+                        setThreadLocal(id, context);
+                        abort(session, id, context, members, false, evt, prof);
+                        removeThreadLocal();
+                    }
+                    break;
+                case RETRY:
+                    psp.out (RETRY_QUEUE, context);
+                    checkRetryTask();
+                    break;
+                case NO_JOIN:
+                    break;
+            }
+            if ((action & PAUSE) == 0) {
+                snapshot (id, null, DONE);
+                if (id == tail) {
+                    checkTail ();
+                } else {
+                    purge (id, false);
                 }
-                snapshot (id, context, PREPARING);
-                setThreadLocal(id, context);
-                action = prepare (session, id, context, members, iter, abort, evt, prof);
-                removeThreadLocal();
+                tps.tick();
+            }
+        } catch (Throwable t) {
+            if (evt == null)
+                getLog().fatal (t); // should never happen
+            else
+                evt.addMessage (t);
+        } finally {
+            removeThreadLocal();
+            if (inFlight != null && !paused)
+                inFlight.release();
+            if (hasStatusListeners) {
+                notifyStatusListeners (
+                    session,
+                    paused ? TransactionStatusEvent.State.PAUSED : TransactionStatusEvent.State.DONE, 
+                    id, "", context);
+            }
+            if (evt != null && (action == PREPARED || action == ABORTED || (action == -1 && prof != null))) {
                 switch (action) {
-                    case PAUSE:
-                        paused = true;
-                        if (id % TIMER_PURGE_INTERVAL == 0)
-                            timer.purge();
-                        pausedCounter.incrementAndGet();
+                    case PREPARED :
+                        evt.setTag("commit");
                         break;
-                    case PREPARED:
-                        if (members.size() > 0) {
-                            setState(id, COMMITTING);
-                            setThreadLocal(id, context);
-                            commit(session, id, context, members, false, evt, prof);
-                            removeThreadLocal();
-                        }
+                    case ABORTED :
+                        evt.setTag ("abort");
                         break;
-                    case ABORTED:
-                        if (members.size() > 0) {
-                            setThreadLocal(id, context);
-                            abort(session, id, context, members, false, evt, prof);
-                            removeThreadLocal();
-                        }
+                    case -1:
+                        evt.setTag ("undefined");
                         break;
-                    case RETRY:
-                        psp.out (RETRY_QUEUE, context);
-                        checkRetryTask();
-                        break;
-                    case NO_JOIN:
-                        break;
-                }
-                if ((action & PAUSE) == 0) {
-                    snapshot (id, null, DONE);
-                    if (id == tail) {
-                        checkTail ();
-                    } else {
-                        purge (id, false);
-                    }
-                    tps.tick();
                 }
-            } catch (Throwable t) {
-                if (evt == null)
-                    getLog().fatal (t); // should never happen
-                else
-                    evt.addMessage (t);
-            } finally {
-                removeThreadLocal();
-                if (hasStatusListeners) {
-                    notifyStatusListeners (
-                        session,
-                        paused ? TransactionStatusEvent.State.PAUSED : TransactionStatusEvent.State.DONE, 
-                        id, "", context);
+                if (getInTransit() > Math.max(maxActiveSessions, activeSessions.get()) * 100) {
+                    evt.addMessage("WARNING: IN-TRANSIT TOO HIGH");
                 }
-                if (evt != null && (action == PREPARED || action == ABORTED || (action == -1 && prof != null))) {
-                    switch (action) {
-                        case PREPARED :
-                            evt.setTag("commit");
-                            break;
-                        case ABORTED :
-                            evt.setTag ("abort");
-                            break;
-                        case -1:
-                            evt.setTag ("undefined");
-                            break;
-                    }
-                    if (getInTransit() > Math.max(maxActiveSessions, activeSessions.get()) * 100) {
-                        evt.addMessage("WARNING: IN-TRANSIT TOO HIGH");
-                    }
-                    evt.addMessage (
-                        String.format (" in-transit=%d, head=%d, tail=%d, paused=%d, outstanding=%d, active-sessions=%d/%d, %s, elapsed=%dms",
-                            getInTransit(), head, tail, pausedCounter.get(), getOutstandingTransactions(),
-                            getActiveSessions(), maxSessions,
-                            tps.toString(), prof != null ? prof.getElapsedInMillis() : -1
-                        )
-                    );
-                    if (prof != null)
-                        evt.addMessage (prof);
+                evt.addMessage (
+                    String.format (" in-transit=%d, head=%d, tail=%d, paused=%d, outstanding=%d, active-sessions=%d/%d, %s, elapsed=%dms",
+                        getInTransit(), head, tail, pausedCounter.get(), getOutstandingTransactions(),
+                        getActiveSessions(), maxSessions,
+                        tps.toString(), prof != null ? prof.getElapsedInMillis() : -1
+                    )
+                );
+                if (prof != null)
+                    evt.addMessage (prof);
 
-                    Logger.log (new FrozenLogEvent(evt));
-                }
+                Logger.log (new FrozenLogEvent(evt));
             }
+            ContextPool pool = contextPool;
+            if (pool != null && context instanceof Context &&
+              (action == PREPARED || action == ABORTED || action == NO_JOIN))
+                pool.release (session, (Context) context);
         }
-        threads.remove(thread);
-        int currentActiveSessions = activeSessions.decrementAndGet();
-        getLog().info ("stop " + Thread.currentThread() + ", active sessions=" + currentActiveSessions);
+        return id;
+    }
+
+    /**
+     * @return number of in-flight (running or paused) transactions, or -1 if not in executor mode
+     */
+    public int getInFlight () {
+        Semaphore s = inFlight;
+        return executorMode && s != null ? maxInFlight - s.availablePermits() : -1;
     }
 
     @Override
@@ -416,6 +560,20 @@ public class TransactionManager
                 throw new ConfigurationException("max-active-sessions < max-sessions");
         }
         callSelectorOnAbort = cfg.getBoolean("call-selector-on-abort", true);
+        executorMode = cfg.getBoolean ("executor", false);
+        executorThreads = cfg.getInt ("executor-threads", Runtime.getRuntime().availableProcessors());
+        maxInFlight = cfg.getInt ("max-in-flight", 1000);
+        if (executorMode && executorThreads < 1)
+            throw new ConfigurationException ("executor-threads < 1");
+        if (executorMode && maxInFlight < 1)
+            throw new ConfigurationException ("max-in-flight < 1");
+        recycle = cfg.getBoolean ("recycle", false);
+        confinedContexts = recycle && cfg.getBoolean ("confined-contexts", false);
+        recyclePoolSize = cfg.getInt ("recycle-pool-size", 256);
+        if (recycle && recyclePoolSize < 1)
+            throw new ConfigurationException ("recycle-pool-size < 1");
+        String messages = cfg.get ("recycle-messages", "").trim();
+        recycleMessages = messages.isEmpty() ? new String[0] : messages.split ("[, ]+");
         metrics = new Metrics(new AtomicHistogram(cfg.getLong("metrics-highest-trackable-value", 60000), 2));
     }
     public void addListener (TransactionStatusListener l) {
@@ -468,14 +626,59 @@ public class TransactionManager
         return metrics.metrics();
     }
 
+    /**
+     * Records a metric on behalf of a participant (i.e. the ones run by a Join),
+     * along with the ones kept by the manager itself.
+     * @param name metric name
+     * @param elapsed elapsed time in millis
+     */
+    public void recordMetric (String name, long elapsed) {
+        if (metrics != null)
+            metrics.record (name, elapsed);
+    }
+
+    /**
+     * Thread pool for participants that run work of their own (i.e. Joins),
+     * shared by name within this manager and shut down when it stops.
+     * @param name pool name, also used as thread name prefix
+     * @param threads pool size, used by the first caller
+     * @return the pool
+     */
+    public ExecutorService getParticipantExecutor (String name, int threads) {
+        return participantExecutors.computeIfAbsent (name, k -> {
+            AtomicInteger n = new AtomicInteger ();
+            ThreadFactory tf = r -> {
+                Thread t = new Thread (r, k + "-" + n.incrementAndGet());
+                t.setDaemon (true);
+                return t;
+            };
+            return Executors.newFixedThreadPool (threads, tf);
+        });
+    }
+
+    void shutdownParticipantExecutors () throws InterruptedException {
+        for (Iterator<ExecutorService> it = participantExecutors.values().iterator(); it.hasNext(); ) {
+            ExecutorService pool = it.next();
+            it.remove();
+            pool.shutdown();
+            if (!pool.awaitTermination (60, TimeUnit.SECONDS)) {
+                getLog().warn ("Participant executor does not respond - " + pool);
+                pool.shutdownNow();
+            }
+        }
+    }
+
     @Override
     public void dump (PrintStream ps, String indent) {
-        ps.printf ("%sin-transit=%d, head=%d, tail=%d, paused=%d, outstanding=%d, active-sessions=%d/%d%s%n",
+        ps.printf ("%sin-transit=%d, head=%d, tail=%d, paused=%d, outstanding=%d, active-sessions=%d/%d%s%s%n",
           indent,
           getInTransit(), head, tail, pausedCounter.get(), getOutstandingTransactions(),
           getActiveSessions(), maxSessions,
+          (executorMode ? ", in-flight=" + getInFlight() + "/" + maxInFlight : ""),
           (tps != null ? ", " + tps.toString() : "")
         );
+        if (journal != null)
+            ps.printf ("%s%s%n", indent, journal);
         if (metrics != null)
             metrics.dump (ps, indent);
     }
@@ -716,6 +919,11 @@ public class TransactionManager
         String key = getKey(GROUPS, id);
         String grp;
         // now add participants of Group 
+        if (journal != null) {
+            for (String g : journal.getGroups (id))
+                participantsChain.addAll (getParticipants (g));
+            return participantsChain;
+        }
         while ( (grp = (String) psp.inp (key)) != null) {
             participantsChain.addAll (getParticipants (grp));
         }
@@ -805,6 +1013,10 @@ public class TransactionManager
         }
     }
     protected void syncTail () {
+        if (journal != null) {
+            journal.setTail (tail);
+            return;
+        }
         synchronized (psp) {
             commitOff (psp);
             psp.inp (TAIL);
@@ -812,6 +1024,22 @@ public class TransactionManager
             commitOn (psp);
         }
     }
+    /**
+     * Replaces the persistent space with a {@link TransactionJournal} for
+     * transaction state. HEAD and TAIL are recovered from the journal.
+     */
+    protected void initJournal (File file) throws ConfigurationException {
+        try {
+            journal = new TransactionJournal (
+              file, cfg.getLong ("journal-max-size", DEFAULT_JOURNAL_MAX_SIZE), getLog()
+            );
+        } catch (IOException e) {
+            throw new ConfigurationException ("journal " + file, e);
+        }
+        journal.start();
+        tail = journal.getTail (cfg.getLong ("initial-tail", 1));
+        head = Math.max (journal.getHead (tail), tail);
+    }
     protected void initTailLock () {
         tailLock = TAILLOCK + "." + Integer.toString (this.hashCode());
         sp.put (tailLock, TAILLOCK);
@@ -828,14 +1056,17 @@ public class TransactionManager
         sp.out(tailLock, lock);
     }
     protected boolean tailDone () {
-        String stateKey = getKey(STATE, tail);
-        if (DONE.equals (psp.rdp (stateKey))) {
+        Object state = journal != null ?
+          journal.getState (tail) : psp.rdp (getKey(STATE, tail));
+        if (DONE.equals (state)) {
             purge (tail, true);
             return true;
         }
         return false;
     }
     protected long nextId () {
+        if (journal != null)
+            return HEAD_UPDATER.getAndIncrement (this);
         long h;
         synchronized (psp) {
             commitOff (psp);
@@ -850,6 +1081,10 @@ public class TransactionManager
         snapshot (id, context, null);
     }
     protected void snapshot (long id, Serializable context, Integer status) {
+        if (journal != null) {
+            journal.snapshot (id, context, status);
+            return;
+        }
         String contextKey = getKey (CONTEXT, id);
         synchronized (psp) {
             commitOff (psp);
@@ -865,6 +1100,10 @@ public class TransactionManager
         }
     }
     protected void setState (long id, Integer state) {
+        if (journal != null) {
+            journal.setState (id, state);
+            return;
+        }
         String stateKey  = getKey (STATE, id);
         synchronized (psp) {
             commitOff (psp);
@@ -875,10 +1114,16 @@ public class TransactionManager
         }
     }
     protected void addGroup (long id, String groupName) {
-        if (groupName != null)
+        if (groupName != null && journal != null)
+            journal.addGroup (id, groupName);
+        else if (groupName != null)
             psp.out (getKey (GROUPS, id), groupName);
     }
     protected void purge (long id, boolean full) {
+        if (journal != null) {
+            journal.purge (id, full);
+            return;
+        }
         String stateKey   = getKey (STATE, id);
         String contextKey = getKey (CONTEXT, id);
         String groupsKey  = getKey (GROUPS, id);
@@ -911,13 +1156,18 @@ public class TransactionManager
         try {
             String stateKey   = getKey (STATE, id);
             String contextKey = getKey (CONTEXT, id);
-            Integer state = (Integer) psp.rdp (stateKey);
+            Integer state = journal != null ?
+              journal.getState (id) : (Integer) psp.rdp (stateKey);
             if (state == null) {
                 evt.addMessage ("unknown stateKey " + stateKey);
-                SpaceUtil.wipe (psp, contextKey);   // just in case ...
+                if (journal != null)
+                    journal.purge (id, true);
+                else
+                    SpaceUtil.wipe (psp, contextKey);   // just in case ...
                 return;
             }
-            Serializable context = (Serializable) psp.rdp (contextKey);
+            Serializable context = journal != null ?
+              journal.getContext (id) : (Serializable) psp.rdp (contextKey);
             if (context != null)
                 evt.addMessage (context);
 
@@ -934,6 +1184,32 @@ public class TransactionManager
             Logger.log (evt);
         }
     }
+    protected void startExecutor () {
+        inFlight = new Semaphore (maxInFlight);
+        executor = new ForkJoinPool (executorThreads, pool -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread (pool);
+            t.setName (getName() + "-" + t.getPoolIndex());
+            return t;
+        }, null, true);
+        activeSessions.addAndGet (executorThreads);
+        new Thread (this::dispatch, getName() + "-dispatcher").start();
+    }
+    private void submit (Object context) {
+        ForkJoinPool pool = executor;
+        try {
+            if (pool == null)
+                throw new RejectedExecutionException ("executor stopped");
+            pool.execute (() -> {
+                Thread t = Thread.currentThread();
+                execute (t instanceof ForkJoinWorkerThread ? ((ForkJoinWorkerThread) t).getPoolIndex() : 0, context);
+            });
+        } catch (RejectedExecutionException e) {
+            isp.push (queue, context);
+        }
+    }
+    private boolean isPaused (Object context) {
+        return context instanceof Pausable && ((Pausable) context).getPausedTransaction() != null;
+    }
     protected synchronized void checkRetryTask () {
         if (retryTask == null) {
             retryTask = new RetryTask();
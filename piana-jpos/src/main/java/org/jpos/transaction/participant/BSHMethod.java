@@ -21,7 +21,10 @@ package org.jpos.transaction.participant;
 import bsh.EvalError;
 import bsh.Interpreter;
 import org.jdom2.Element;
+import org.jpos.bsh.BSHScript;
 
+import javax.script.Bindings;
+import javax.script.ScriptException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.Collection;
@@ -39,6 +42,9 @@ public class BSHMethod {
     
     private String bshData;
     private boolean source;
+    private boolean compiled;
+    private JSR223Script jsr223;
+    private volatile BSHScript script;
     
     
     /** Creates a BSHMethod from a JDom Element.
@@ -50,11 +56,19 @@ public class BSHMethod {
      *
      *  If the 'file' attribute is specified, a 'cache'
      *  attribute may be specified as well which can take the values true|false
-     *  and indicates wether to load the script to memory or to read from the 
-     *  file for every script evaluation.
+     *  and indicates wether to load the script to memory once or to read
+     *  it again from the file whenever its modification time changes.
      *
      *  If the 'file' attibute is not specified then the text contained by the 
      *  element is set to be evaluated by the new BSHMethod. 
+     *
+     *  Scripts run on interpreters pooled per thread, see {@link BSHScript}.
+     *  A 'compiled' attribute (true|false) has the script parsed once per
+     *  thread instead of once per evaluation.
+     *
+     *  An 'engine' attribute (e.g. 'nashorn') runs the script on that JSR-223
+     *  engine instead, precompiled; arguments and results are exchanged
+     *  through the engine's bindings.
      *  <pre>
      *  Example 1 : 
      *          &lt;prepare>
@@ -68,6 +82,12 @@ public class BSHMethod {
      *
      *  Example 2 :
      *          &lt;routing file='cfg\files\routing1.bsh' cache='false'/>
+     *
+     *  Example 3 :
+     *          &lt;prepare engine='nashorn'>
+     *                  var K = Java.type("org.jpos.transaction.TransactionConstants");
+     *                  result = K.PREPARED | K.READONLY;
+     *          &lt;/prepare>
      *  </pre>
      */ 
     public static BSHMethod createBshMethod(Element e) throws IOException {
@@ -75,15 +95,23 @@ public class BSHMethod {
             return null;
         }
         String file = e.getAttributeValue("file");
+        String engine = e.getAttributeValue("engine");
+        boolean compiled = "true".equalsIgnoreCase(e.getAttributeValue("compiled"));
         String bsh;
-        if (file != null) {
+        if (engine != null) {
+            bsh = file != null ? file : e.getTextTrim();
+            if (bsh == null || bsh.equals("")) {
+                return null;
+            }
+            return new BSHMethod(bsh, file != null, engine);
+        } else if (file != null) {
             boolean cache = false;
             String cacheAtt = e.getAttributeValue("cache");
             if (cacheAtt != null) {
                 cache = cacheAtt.equalsIgnoreCase("true"); 
             }
             if (!cache) {
-                return new BSHMethod(file, true);
+                return new BSHMethod(file, true, compiled);
             } else {
                 bsh = "";
                 FileReader f = new FileReader(file);
@@ -92,14 +120,14 @@ public class BSHMethod {
                     bsh += (char) c; 
                 }
                 f.close();
-                return new BSHMethod(bsh, false);
+                return new BSHMethod(bsh, false, compiled);
             }
         } else {
             bsh = e.getTextTrim();
             if (bsh == null || bsh.equals("")) {
                 return null;
             }
-            return new BSHMethod(bsh, false);
+            return new BSHMethod(bsh, false, compiled);
         }
     }
         
@@ -114,6 +142,28 @@ public class BSHMethod {
         this.source = source; 
     }
 
+    /** Creates a BSHMethod.
+     *  @param bshData - May either be the file to source or the script itself to
+     *                  evaluate.
+     *  @param source - If true indicates that the bshData passed is a file to 
+     *                  source. Otherwise the string itself is evaluated.
+     *  @param compiled - If true the script is parsed once per thread.
+     */
+    public BSHMethod(String bshData, boolean source, boolean compiled) {
+        this(bshData, source);
+        this.compiled = compiled;
+    }
+
+    /** Creates a BSHMethod running on a JSR-223 engine.
+     *  @param scriptData - May either be the file to compile or the script itself.
+     *  @param file - If true indicates that scriptData is a file.
+     *  @param engine - script engine name, e.g. 'nashorn'.
+     */
+    public BSHMethod(String scriptData, boolean file, String engine) {
+        this(scriptData, file);
+        this.jsr223 = new JSR223Script(engine, file ? scriptData : null, file ? null : scriptData);
+    }
+
     /** Sets the given arguments to the Interpreter, evaluates the script and 
      *  returns the object stored on the variable named resultName.
      *
@@ -122,8 +172,10 @@ public class BSHMethod {
      *                      is called. All keys must be Strings.
      */
     public Object execute(Map arguments, String resultName) throws EvalError, IOException {
-        Interpreter i = initInterpreter(arguments);
-        return i.get(resultName);
+        Map result = new HashMap();
+        result.put(resultName, null);
+        eval(arguments, result);
+        return result.get(resultName);
     }
     
     /** Sets the given arguments to the Interpreter, evaluates the script and 
@@ -137,16 +189,59 @@ public class BSHMethod {
      *                      wich`s contents are to be returned.
      */
     public Map execute(Map arguments, Collection returnNames) throws EvalError, IOException {
-        Interpreter i = initInterpreter(arguments);
         Map result = new HashMap();
-        String rName;
         for (Object returnName : returnNames) {
-            rName = (String) returnName;
-            result.put(rName, i.get(rName));
+            result.put((String) returnName, null);
         }
+        eval(arguments, result);
         return result;
     }
-    
+
+    protected void eval(Map arguments, Map variables) throws EvalError, IOException {
+        if (jsr223 != null) {
+            evalScript(arguments, variables);
+            return;
+        }
+        BSHScript s = script;
+        if (s == null) {
+            script = s = source ?
+              BSHScript.forFile(bshData, compiled) : BSHScript.forText(bshData, compiled);
+        }
+        s.eval(arguments, variables);
+    }
+
+    private void evalScript(Map<String,?> arguments, Map<String,Object> variables)
+        throws EvalError, IOException
+    {
+        try {
+            JSR223Script.Compiled c = jsr223.get();
+            Bindings bindings = c.bindings();
+            try {
+                for (Map.Entry<String,?> entry : arguments.entrySet()) {
+                    bindings.put(entry.getKey(), entry.getValue());
+                }
+                c.script.eval(bindings);
+                for (Map.Entry<String,Object> entry : variables.entrySet()) {
+                    entry.setValue(bindings.get(entry.getKey()));
+                }
+            } finally {
+                for (String name : arguments.keySet()) {
+                    bindings.remove(name);
+                }
+                for (String name : variables.keySet()) {
+                    bindings.remove(name);
+                }
+            }
+        } catch (ScriptException e) {
+            EvalError ee = new EvalError(e.getMessage(), null, null);
+            ee.initCause(e);
+            throw ee;
+        }
+    }
+
+    /** Sets the given arguments to a new Interpreter and evaluates the script,
+     *  without going through the pooled interpreters used by execute.
+     */
     protected Interpreter initInterpreter(Map arguments) throws EvalError, IOException {
         Interpreter i = new Interpreter();
         Map.Entry entry;
@@ -16,11 +16,11 @@
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+
 package org.jpos.transaction.participant;
 
-import java.util.Arrays;
-import java.util.Set;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.StringTokenizer;
 import java.io.Serializable;
 import java.util.regex.Pattern;
@@ -36,7 +36,20 @@ import org.jpos.util.Caller;
 
 import static org.jpos.transaction.ContextConstants.*;
 
+/**
+ * Validates the request's fields against the <code>mandatory</code> and
+ * <code>optional</code> lists (field numbers and/or {@link ContextConstants}
+ * names such as PCODE or CARD), putting the parsed values in the Context.
+ * Any other field present in the request is reported as an extra field.
+ * <p>
+ * The lists are compiled once (and again only if they change) into a plan:
+ * a bitmap of the fields that are always valid, the steps to run in
+ * configuration order, and the validators for the named entries. The extra
+ * field check works on the message's field presence bitmap, which compact
+ * messages ({@link ISOMsg#setCompact(boolean)}) hold natively.
+ */
 public class CheckFields implements TransactionParticipant, Configurable {
+    private static final int WORDS = 3; // presence bitmap covers fields 1..192
     private Configuration cfg;
     private String request;
     private Pattern PCODE_PATTERN = Pattern.compile("^[\\d|\\w]{6}$");
@@ -46,6 +59,7 @@ public class CheckFields implements TransactionParticipant, Configurable {
     private Pattern CAPTUREDATE_PATTERN = Pattern.compile("^\\d{4}");
     private Pattern ORIGINAL_DATA_ELEMENTS_PATTERN = Pattern.compile("^\\d{30,41}$");
     private boolean ignoreCardValidation = false;
+    private volatile Plan plan;
 
     public int prepare (long id, Serializable context) {
         Context ctx = (Context) context;
@@ -56,10 +70,15 @@ public class CheckFields implements TransactionParticipant, Configurable {
                 ctx.getResult().fail(CMF.INVALID_TRANSACTION, Caller.info(), "'%s' not available in Context", request);
                 return ABORTED | NO_JOIN | READONLY;
             }
-            Set<String> validFields = new HashSet<>();
-            assertFields (ctx, m, cfg.get ("mandatory", ""), true, validFields, rc);
-            assertFields (ctx, m, cfg.get ("optional", ""), false, validFields, rc);
-            assertNoExtraFields (m, validFields, rc);
+            Plan p = getPlan();
+            long valid = 0L;
+            for (Step s : p.steps) {
+                if (s.validator != null)
+                    valid |= s.validator.validate (ctx, m, s.mandatory, rc);
+                else if (s.mandatory && !(s.field > 0 ? m.hasField(s.field) : m.hasField(s.name)))
+                    rc.fail(CMF.MISSING_FIELD, Caller.info(), s.name);
+            }
+            assertNoExtraFields (m, p, valid, rc);
         } catch (Throwable t) {
             rc.fail(CMF.SYSTEM_ERROR, Caller.info(), t.getMessage());
             ctx.log(t);
@@ -71,75 +90,80 @@ public class CheckFields implements TransactionParticipant, Configurable {
         this.cfg = cfg;
         request = cfg.get ("request", ContextConstants.REQUEST.toString());
         ignoreCardValidation = cfg.getBoolean("ignore-card-validation", false);
+        plan = null;
     }
 
-    private void assertFields(Context ctx, ISOMsg m, String fields, boolean mandatory, Set<String> validFields, Result rc) {
-        StringTokenizer st = new StringTokenizer (fields, ", ");
-        while (st.hasMoreTokens()) {
-            String s = st.nextToken();
-            ContextConstants k = null;
-            try {
-                k = ContextConstants.valueOf(s);
-            } catch (IllegalArgumentException ignored) { }
-            if (k != null) {
-                switch (k) {
-                    case PCODE:
-                        putPCode(ctx, m, mandatory, validFields, rc);
-                        break;
-                    case CARD:
-                        putCard(ctx, m, mandatory, validFields, rc);
-                        break;
-                    case TID:
-                        putTid(ctx, m, mandatory, validFields, rc);
-                        break;
-                    case MID:
-                        putMid(ctx, m, mandatory, validFields, rc);
-                        break;
-                    case TRANSMISSION_TIMESTAMP:
-                        putTimestamp(ctx, m, TRANSMISSION_TIMESTAMP.toString(), 7, mandatory, validFields, rc);
-                        break;
-                    case TRANSACTION_TIMESTAMP:
-                        putTimestamp(ctx, m, TRANSACTION_TIMESTAMP.toString(), 12, mandatory, validFields, rc);
-                        break;
-                    case POS_DATA_CODE:
-                        putPDC(ctx, m, mandatory, validFields, rc);
-                        break;
-                    case CAPTURE_DATE:
-                        putCaptureDate(ctx, m, mandatory, validFields, rc);
-                        break;
-                    case AMOUNT:
-                        putAmount(ctx, m, mandatory, validFields, rc);
-                        break;
-                    case ORIGINAL_DATA_ELEMENTS:
-                        putOriginalDataElements(ctx, m, mandatory, validFields, rc);
-                        break;
-                    default:
-                        k = null;
-                }
-            }
-            if (k == null) {
-                if (mandatory && !m.hasField(s))
-                    rc.fail(CMF.MISSING_FIELD, Caller.info(), s);
-                else
-                    validFields.add(s);
-            }
+    private Plan getPlan() {
+        String mandatory = cfg.get ("mandatory", "");
+        String optional = cfg.get ("optional", "");
+        Plan p = plan;
+        if (p == null || !p.mandatory.equals (mandatory) || !p.optional.equals (optional))
+            plan = p = new Plan (mandatory, optional);
+        return p;
+    }
+
+    private Validator validator (ContextConstants k) {
+        switch (k) {
+            case PCODE:
+                return this::putPCode;
+            case CARD:
+                return this::putCard;
+            case TID:
+                return this::putTid;
+            case MID:
+                return this::putMid;
+            case TRANSMISSION_TIMESTAMP:
+                return (ctx, m, mandatory, rc) -> putTimestamp(ctx, m, TRANSMISSION_TIMESTAMP.toString(), 7, mandatory, rc);
+            case TRANSACTION_TIMESTAMP:
+                return (ctx, m, mandatory, rc) -> putTimestamp(ctx, m, TRANSACTION_TIMESTAMP.toString(), 12, mandatory, rc);
+            case POS_DATA_CODE:
+                return this::putPDC;
+            case CAPTURE_DATE:
+                return this::putCaptureDate;
+            case AMOUNT:
+                return this::putAmount;
+            case ORIGINAL_DATA_ELEMENTS:
+                return this::putOriginalDataElements;
+            default:
+                return null;
         }
     }
-    private void assertNoExtraFields (ISOMsg m, Set validFields, Result rc) {
-        StringBuffer sb = new StringBuffer();
-        for (int i=1; i<=m.getMaxField(); i++) { // we start at 1, MTI is always valid
-            String s = Integer.toString (i);
-            if (m.hasField(i) && !validFields.contains (s)) {
-                if (sb.length() > 0)
-                    sb.append (' ');
-                sb.append (s);
+
+    private void assertNoExtraFields (ISOMsg m, Plan p, long valid, Result rc) {
+        StringBuilder sb = null;
+        for (int w=0; w<WORDS; w++) {
+            long extra = m.getPresenceBits(w) & ~p.valid[w];
+            if (w == 0)
+                extra &= ~valid;
+            while (extra != 0L) {
+                int bit = Long.numberOfTrailingZeros (extra);
+                extra &= extra - 1;
+                sb = appendField (sb, (w << 6) + bit + 1);
             }
         }
-        if (sb.length() > 0)
+        int max = m.getMaxField();
+        for (int i = WORDS*64 + 1; i <= max; i++) {
+            if (m.hasField(i) && !p.isValid(i))
+                sb = appendField (sb, i);
+        }
+        if (sb != null)
             rc.fail(CMF.EXTRA_FIELD, Caller.info(), sb.toString());
     }
 
-    private void putCard (Context ctx, ISOMsg m, boolean mandatory, Set<String> validFields, Result rc) {
+    private static StringBuilder appendField (StringBuilder sb, int i) {
+        if (sb == null)
+            sb = new StringBuilder();
+        else
+            sb.append (' ');
+        return sb.append (i);
+    }
+
+    private static long bit (int fldno) {
+        return 1L << (fldno - 1);
+    }
+
+    private long putCard (Context ctx, ISOMsg m, boolean mandatory, Result rc) {
+        long valid = 0L;
         try {
             Card.Builder cb = Card.builder().isomsg(m);
             if (ignoreCardValidation)
@@ -147,15 +171,15 @@ public class CheckFields implements TransactionParticipant, Configurable {
             Card card = cb.build();
             ctx.put (ContextConstants.CARD.toString(), card);
             if (card.hasTrack1())
-                validFields.add("45");
+                valid |= bit(45);
             if (card.hasTrack2())
-                validFields.add("35");
+                valid |= bit(35);
             if (card.getPan() != null && m.hasField(2))
-                validFields.add("2");
+                valid |= bit(2);
             if (card.getExp() != null && m.hasField(14))
-                validFields.add("14");
+                valid |= bit(14);
         } catch (InvalidCardException e) {
-            validFields.addAll(Arrays.asList("2", "14", "35", "45"));
+            valid = bit(2) | bit(14) | bit(35) | bit(45);
             if (mandatory) {
                 rc.fail((m.hasAny("2", "14", "35", "45") ? CMF.INVALID_CARD_NUMBER : CMF.MISSING_FIELD),
                   Caller.info(), e.getMessage());
@@ -163,76 +187,81 @@ public class CheckFields implements TransactionParticipant, Configurable {
             else
                 rc.warn(Caller.info(), e.getMessage());
         }
+        return valid;
     }
 
-    private void putPCode (Context ctx, ISOMsg m, boolean mandatory, Set<String> validFields, Result rc) {
+    private long putPCode (Context ctx, ISOMsg m, boolean mandatory, Result rc) {
         if (m.hasField(3)) {
             String s = m.getString(3);
-            validFields.add("3");
             if (PCODE_PATTERN.matcher(s).matches()) {
                 ctx.put(ContextConstants.PCODE.toString(), m.getString(3));
             } else
                 rc.fail(CMF.INVALID_FIELD, Caller.info(), "Invalid PCODE '%s'", s);
+            return bit(3);
         } else if (mandatory) {
             rc.fail(CMF.MISSING_FIELD, Caller.info(), "PCODE");
         }
+        return 0L;
     }
 
-    private void putTid (Context ctx, ISOMsg m, boolean mandatory, Set<String> validFields, Result rc) {
+    private long putTid (Context ctx, ISOMsg m, boolean mandatory, Result rc) {
         if (m.hasField(41)) {
             String s = m.getString(41);
-            validFields.add("41");
             if (TID_PATTERN.matcher(s).matches()) {
                 ctx.put(ContextConstants.TID.toString(), m.getString(41));
             } else
                 rc.fail(CMF.INVALID_FIELD, Caller.info(), "Invalid TID '%s'", s);
+            return bit(41);
         } else if (mandatory) {
             rc.fail(CMF.MISSING_FIELD, Caller.info(), "TID");
         }
+        return 0L;
     }
 
-    private void putMid (Context ctx, ISOMsg m, boolean mandatory, Set<String> validFields, Result rc) {
+    private long putMid (Context ctx, ISOMsg m, boolean mandatory, Result rc) {
         if (m.hasField(42)) {
             String s = m.getString(42);
-            validFields.add("42");
             if (MID_PATTERN.matcher(s).matches()) {
                 ctx.put(ContextConstants.MID.toString(), m.getString(42));
             } else
                 rc.fail(CMF.INVALID_FIELD, Caller.info(), "Invalid MID '%s'", s);
+            return bit(42);
         } else if (mandatory) {
             rc.fail(CMF.MISSING_FIELD, Caller.info(), "MID");
         }
+        return 0L;
     }
-    private void putTimestamp (Context ctx, ISOMsg m, String key, int fieldNumber, boolean mandatory, Set<String> validFields, Result rc) {
+    private long putTimestamp (Context ctx, ISOMsg m, String key, int fieldNumber, boolean mandatory, Result rc) {
         if (m.hasField(fieldNumber)) {
             String s = m.getString(fieldNumber);
-            validFields.add(Integer.toString(fieldNumber));
             if (TIMESTAMP_PATTERN.matcher(s).matches())
                 ctx.put (key, ISODate.parseISODate(s));
             else
                 rc.fail(CMF.INVALID_FIELD, Caller.info(), "Invalid %s '%s'", key, s);
+            return bit(fieldNumber);
         } else if (mandatory) {
             rc.fail(CMF.MISSING_FIELD, Caller.info(), TRANSMISSION_TIMESTAMP.toString());
         }
+        return 0L;
     }
 
-    private void putCaptureDate (Context ctx, ISOMsg m, boolean mandatory, Set<String> validFields, Result rc) {
+    private long putCaptureDate (Context ctx, ISOMsg m, boolean mandatory, Result rc) {
         if (m.hasField(17)) {
             String s = m.getString(17);
-            validFields.add("17");
             if (CAPTUREDATE_PATTERN.matcher(s).matches())
                 ctx.put (CAPTURE_DATE.toString(), ISODate.parseISODate(s + "120000"));
             else
                 rc.fail(CMF.INVALID_FIELD, Caller.info(), "Invalid %s '%s'", CAPTURE_DATE, s);
+            return bit(17);
         } else if (mandatory) {
             rc.fail(CMF.MISSING_FIELD, Caller.info(), CAPTURE_DATE.toString());
         }
+        return 0L;
     }
 
-    private void putPDC (Context ctx, ISOMsg m, boolean mandatory, Set<String> validFields, Result rc) {
+    private long putPDC (Context ctx, ISOMsg m, boolean mandatory, Result rc) {
         if (m.hasField(22)) {
             byte[] b = m.getBytes(22);
-            validFields.add("22");
             if (b.length != 16) {
                 rc.fail(
                   CMF.INVALID_FIELD,
@@ -244,23 +273,26 @@ public class CheckFields implements TransactionParticipant, Configurable {
             else {
                 ctx.put(ContextConstants.POS_DATA_CODE.toString(), PosDataCode.valueOf(m.getBytes(22)));
             }
+            return bit(22);
         } else if (mandatory) {
             rc.fail(CMF.MISSING_FIELD, Caller.info(), ContextConstants.POS_DATA_CODE.toString());
         }
+        return 0L;
     }
 
-    private void putAmount (Context ctx, ISOMsg m, boolean mandatory,Set<String> validFields, Result rc) {
+    private long putAmount (Context ctx, ISOMsg m, boolean mandatory, Result rc) {
         Object o4 = m.getComponent(4);
         Object o5 = m.getComponent(5);
         ISOAmount a4 = null;
         ISOAmount a5 = null;
+        long valid = 0L;
         if (o4 instanceof ISOAmount) {
             a4 = (ISOAmount) o4;
-            validFields.add("4");
+            valid |= bit(4);
         }
         if (o5 instanceof ISOAmount) {
             a5 = (ISOAmount) o5;
-            validFields.add("5");
+            valid |= bit(5);
         }
         if (a5 != null) {
             ctx.put (AMOUNT.toString(), a5);
@@ -272,12 +304,12 @@ public class CheckFields implements TransactionParticipant, Configurable {
         }
         if (mandatory && (a4 == null && a5 == null))
             rc.fail(CMF.MISSING_FIELD, Caller.info(), ContextConstants.AMOUNT.toString());
+        return valid;
     }
 
-    private void putOriginalDataElements (Context ctx, ISOMsg m, boolean mandatory, Set<String> validFields, Result rc) {
+    private long putOriginalDataElements (Context ctx, ISOMsg m, boolean mandatory, Result rc) {
         String s = m.getString(56);
         if (s != null) {
-            validFields.add("56");
             if (ORIGINAL_DATA_ELEMENTS_PATTERN.matcher(s).matches()) {
                 ctx.put (ORIGINAL_MTI.toString(), s.substring(0,4));
                 ctx.put (ORIGINAL_STAN.toString(), s.substring(4,16));
@@ -285,8 +317,102 @@ public class CheckFields implements TransactionParticipant, Configurable {
             } else {
                 rc.fail(CMF.INVALID_FIELD, Caller.info(), "Invalid %s '%s'", ORIGINAL_DATA_ELEMENTS, s);
             }
+            return bit(56);
         } else if (mandatory) {
             rc.fail(CMF.MISSING_FIELD, Caller.info(), ContextConstants.ORIGINAL_DATA_ELEMENTS.toString());
         }
+        return 0L;
+    }
+
+    /**
+     * Validates a {@link ContextConstants} entry.
+     * @return presence bits (fields 1-64) of the fields it accounts for
+     */
+    interface Validator {
+        long validate (Context ctx, ISOMsg m, boolean mandatory, Result rc);
+    }
+
+    /**
+     * A plain field, or a {@link ContextConstants} entry with its validator.
+     */
+    static final class Step {
+        final String name;
+        final int field;
+        final boolean mandatory;
+        final Validator validator;
+
+        Step (String name, int field, boolean mandatory, Validator validator) {
+            this.name = name;
+            this.field = field;
+            this.mandatory = mandatory;
+            this.validator = validator;
+        }
+    }
+
+    /**
+     * Compiled <code>mandatory</code> and <code>optional</code> lists.
+     */
+    final class Plan {
+        final String mandatory;
+        final String optional;
+        final Step[] steps;
+        final long[] valid = new long[WORDS];
+        final int[] validOverflow;
+
+        Plan (String mandatory, String optional) {
+            this.mandatory = mandatory;
+            this.optional = optional;
+            List<Step> l = new ArrayList<>();
+            List<Integer> overflow = new ArrayList<>();
+            compile (mandatory, true, l, overflow);
+            compile (optional, false, l, overflow);
+            steps = l.toArray (new Step[l.size()]);
+            validOverflow = new int[overflow.size()];
+            for (int i=0; i<validOverflow.length; i++)
+                validOverflow[i] = overflow.get(i);
+        }
+
+        boolean isValid (int fldno) {
+            if (fldno > 0 && fldno <= WORDS*64)
+                return (valid[(fldno-1) >> 6] & bit(fldno)) != 0L;
+            for (int i : validOverflow)
+                if (i == fldno)
+                    return true;
+            return false;
+        }
+
+        private void compile (String fields, boolean mandatory, List<Step> l, List<Integer> overflow) {
+            StringTokenizer st = new StringTokenizer (fields, ", ");
+            while (st.hasMoreTokens()) {
+                String s = st.nextToken();
+                Validator v = null;
+                try {
+                    v = validator (ContextConstants.valueOf(s));
+                } catch (IllegalArgumentException ignored) { }
+                if (v != null) {
+                    l.add (new Step (s, 0, mandatory, v));
+                    continue;
+                }
+                int fldno = fieldNumber (s);
+                l.add (new Step (s, fldno, mandatory, null));
+                if (fldno > WORDS*64)
+                    overflow.add (fldno);
+                else if (fldno > 0)
+                    valid[(fldno-1) >> 6] |= bit(fldno);
+            }
+        }
+
+        /**
+         * @return the top level field number <code>s</code> stands for, 0 if
+         * it's not one (i.e. a path such as 127.2 or a leading zero)
+         */
+        private int fieldNumber (String s) {
+            try {
+                int i = Integer.parseInt (s);
+                return i > 0 && Integer.toString (i).equals (s) ? i : 0;
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
     }
 }
@@ -27,11 +27,11 @@ import org.jpos.transaction.TransactionParticipant;
 import org.jpos.util.Log;
 
 import javax.script.Invocable;
-import javax.script.ScriptEngine;
-import javax.script.ScriptEngineManager;
 import javax.script.ScriptException;
-import java.io.FileReader;
+import java.io.IOException;
 import java.io.Serializable;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * A TransactionParticipant whose prepare, commit and abort methods can be
@@ -50,6 +50,10 @@ import java.io.Serializable;
  *     &lt;participant class="org.jpos.transaction.participant.JSParticipant" logger="Q2" realm="js"
  *     src='deploy/test.js' /&gt;
  *
+ *     The script is precompiled, and compiled and evaluated again whenever
+ *     its modification time changes. An 'engine' attribute selects a JSR-223
+ *     engine other than 'nashorn'.
+ *
  *     test.js may look like this (all functions are optional)
  *
  *     var K = Java.type("org.jpos.transaction.TransactionConstants");
@@ -81,58 +85,59 @@ import java.io.Serializable;
 public class JSParticipant extends Log
     implements TransactionParticipant, AbortParticipant, XmlConfigurable 
 {
-    private Invocable js;
+    private JSR223Script script;
+    private volatile Functions js;
     boolean trace;
-    boolean hasPrepare;
-    boolean hasPrepareForAbort;
-    boolean hasCommit;
-    boolean hasAbort;
 
     public int prepare (long id, Serializable context) {
-        return hasPrepare ? invokeWithResult("prepare", id, context) : PREPARED | READONLY;
+        return invokeWithResult("prepare", id, context);
     }
     public int prepareForAbort (long id, Serializable context) {
-        return hasPrepareForAbort ? invokeWithResult("prepareForAbort", id, context) : PREPARED | READONLY;
+        return invokeWithResult("prepareForAbort", id, context);
     }
     public void commit(long id, Serializable context) {
-        if (hasCommit)
-            invokeNoResult("commit", id, context);
+        invokeNoResult("commit", id, context);
     }
 
     public void abort(long id, Serializable context) {
-        if (hasAbort)
-            invokeNoResult("abort", id, context);
+        invokeNoResult("abort", id, context);
     }
 
     public void setConfiguration(Element e) throws ConfigurationException {
-	    try (FileReader src = new FileReader(e.getAttributeValue("src")))  {
-            trace = "yes".equals(e.getAttributeValue("trace"));
-            ScriptEngine engine = new ScriptEngineManager().getEngineByName("nashorn");
-            engine.eval(src);
-            js = (Invocable) engine;
-            hasPrepare = hasFunction ("prepare");
-            hasPrepareForAbort = hasFunction ("prepareForAbort");
-            hasCommit = hasFunction ("commit");
-            hasAbort = hasFunction ("abort");
+        trace = "yes".equals(e.getAttributeValue("trace"));
+        script = new JSR223Script(
+          e.getAttributeValue("engine", "nashorn"), e.getAttributeValue("src"), null
+        );
+        try {
+            functions();
         } catch (Exception ex) {
             throw new ConfigurationException(ex.getMessage(), ex);
         }
     }
 
-    private boolean hasFunction (String functionName) throws ConfigurationException {
-        try {
-            js.invokeFunction(functionName, 0L, new Context());
-            return true;
-        } catch (NoSuchMethodException e) {
-            return false;
-        } catch (ScriptException e) {
-            throw new ConfigurationException (e);
+    /**
+     * @return the script's functions, evaluating the script again if its
+     * file has changed since last time
+     */
+    private Functions functions() throws ScriptException, IOException {
+        JSR223Script.Compiled c = script.get();
+        Functions f = js;
+        if (f == null || f.compiled != c) {
+            synchronized (this) {
+                f = js;
+                if (f == null || f.compiled != c)
+                    js = f = new Functions(c);
+            }
         }
+        return f;
     }
 
     private int invokeWithResult (String functionName, long id, Serializable context) {
         try {
-            return (Integer) js.invokeFunction(functionName, id, context);
+            Functions f = functions();
+            if (!f.has(functionName))
+                return PREPARED | READONLY;
+            return (Integer) f.invocable.invokeFunction(functionName, id, context);
         } catch (Exception e) {
             if (context instanceof Context) {
                 Context ctx = (Context) context;
@@ -145,7 +150,9 @@ public class JSParticipant extends Log
     }
     private void invokeNoResult (String functionName, long id, Serializable context) {
         try {
-            js.invokeFunction(functionName, id, context);
+            Functions f = functions();
+            if (f.has(functionName))
+                f.invocable.invokeFunction(functionName, id, context);
         } catch (Exception e) {
             if (context instanceof Context) {
                 Context ctx = (Context) context;
@@ -155,4 +162,24 @@ public class JSParticipant extends Log
             }
         }
     }
+
+    private static class Functions {
+        final JSR223Script.Compiled compiled;
+        final Invocable invocable;
+        final Set<String> names = new HashSet<>();
+
+        Functions (JSR223Script.Compiled compiled) throws ScriptException {
+            this.compiled = compiled;
+            compiled.script.eval();
+            invocable = (Invocable) compiled.engine;
+            for (String name : new String[] { "prepare", "prepareForAbort", "commit", "abort" }) {
+                if (compiled.engine.get(name) != null)
+                    names.add(name);
+            }
+        }
+
+        boolean has (String name) {
+            return names.contains(name);
+        }
+    }
 }
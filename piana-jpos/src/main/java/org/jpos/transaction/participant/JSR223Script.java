@@ -0,0 +1,101 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2017 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jpos.transaction.participant;
+
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+/**
+ * A JSR-223 script (inline text or file) precompiled to a {@link CompiledScript}.
+ * <p>
+ * File scripts are compiled again, on a new engine, when their modification
+ * time changes, so state left in the old engine by the old script goes away.
+ */
+class JSR223Script {
+    private static final ScriptEngineManager manager = new ScriptEngineManager();
+    private final String engineName;
+    private final String file;
+    private final String text;
+    private volatile Compiled compiled;
+
+    JSR223Script (String engineName, String file, String text) {
+        this.engineName = engineName;
+        this.file = file;
+        this.text = text;
+    }
+
+    /**
+     * @return the compiled script, recompiled if its file has changed
+     */
+    Compiled get () throws ScriptException, IOException {
+        Compiled c = compiled;
+        long lastModified = file != null ? new File (file).lastModified() : 0L;
+        if (c == null || c.lastModified != lastModified) {
+            synchronized (this) {
+                c = compiled;
+                if (c == null || c.lastModified != lastModified)
+                    compiled = c = compile (lastModified);
+            }
+        }
+        return c;
+    }
+
+    private Compiled compile (long lastModified) throws ScriptException, IOException {
+        ScriptEngine engine = manager.getEngineByName (engineName);
+        if (engine == null)
+            throw new ScriptException ("Script engine '" + engineName + "' not found");
+        if (!(engine instanceof Compilable))
+            throw new ScriptException ("Script engine '" + engineName + "' can not compile scripts");
+        try (Reader r = file != null ? new FileReader (file) : new StringReader (text)) {
+            return new Compiled (engine, ((Compilable) engine).compile (r), lastModified);
+        }
+    }
+
+    static class Compiled {
+        final ScriptEngine engine;
+        final CompiledScript script;
+        final long lastModified;
+        private final ThreadLocal<Bindings> bindings;
+
+        Compiled (ScriptEngine engine, CompiledScript script, long lastModified) {
+            this.engine = engine;
+            this.script = script;
+            this.lastModified = lastModified;
+            this.bindings = ThreadLocal.withInitial (engine::createBindings);
+        }
+
+        /**
+         * @return this thread's bindings, creating them (for some engines,
+         * a whole new global scope) only once per thread
+         */
+        Bindings bindings () {
+            return bindings.get();
+        }
+    }
+}
@@ -19,25 +19,66 @@
 package org.jpos.transaction.participant;
 
 import org.jdom2.Element;
+import org.jpos.core.Configurable;
+import org.jpos.core.Configuration;
 import org.jpos.core.ConfigurationException;
 import org.jpos.core.XmlConfigurable;
 import org.jpos.transaction.AbortParticipant;
 import org.jpos.transaction.TransactionConstants;
 import org.jpos.transaction.TransactionManager;
 import org.jpos.transaction.TransactionParticipant;
+import org.jpos.util.Chronometer;
 
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * Runs its participants concurrently and merges their results.
+ * <p>
+ * By default every participant runs on a new thread, on every phase.
+ * With <code>executor</code> set to true they run on a pool owned by the
+ * TransactionManager instead (see {@link TransactionManager#getParticipantExecutor(String, int)}),
+ * named by <code>executor-name</code> (default "join") and sized by the
+ * <code>executor-threads</code> property of the first Join that uses it
+ * (default 64). The pool is shut down when the TransactionManager stops.
+ * Nested Joins should use a pool of their own.
+ * <p>
+ * A <code>timeout</code> (millis, property or per participant attribute)
+ * bounds how long the Join waits for a participant; a prepare that doesn't
+ * make it in time counts as ABORTED and is cancelled: if it hasn't started
+ * it never runs, otherwise its thread is interrupted. A participant that
+ * ignores the interrupt runs to completion (holding its pool thread) and
+ * its result is discarded. Commits and aborts are never cancelled, the
+ * Join just stops waiting for them, which is why a TransactionManager
+ * that recycles contexts refuses Join participants. Per participant times and timeouts
+ * are recorded in the TransactionManager's metrics.
+ * <pre>
+ * &lt;participant class="org.jpos.transaction.participant.Join"&gt;
+ *   &lt;property name="executor" value="true" /&gt;
+ *   &lt;property name="timeout" value="5000" /&gt;
+ *   &lt;participant class="..." /&gt;
+ *   &lt;participant class="..." timeout="1000" /&gt;
+ * &lt;/participant&gt;
+ * </pre>
+ */
 @SuppressWarnings("unchecked")
 public class Join
        implements TransactionConstants, AbortParticipant, 
-                  XmlConfigurable
+                  Configurable, XmlConfigurable
 {
     private TransactionManager mgr;
     private List participants = new ArrayList ();
+    private List<Long> timeouts = new ArrayList<> ();
+    private ExecutorService executor;
+    private long timeout;
 
     public int prepare (long id, Serializable o) {
         return mergeActions(
@@ -55,12 +96,34 @@ public class Join
     public void abort  (long id, Serializable o) { 
         joinRunners(abort (createRunners(id, o)));
     }
+    public void setConfiguration (Configuration cfg)
+        throws ConfigurationException
+    {
+        timeout = cfg.getLong ("timeout", 0L);
+        if (timeout < 0L)
+            throw new ConfigurationException ("Invalid timeout " + timeout);
+        if (cfg.getBoolean ("executor", false)) {
+            int threads = cfg.getInt ("executor-threads", 64);
+            if (threads < 1)
+                throw new ConfigurationException ("executor-threads < 1");
+            if (mgr == null)
+                throw new ConfigurationException ("executor requires a TransactionManager");
+            executor = mgr.getParticipantExecutor ("join-" + cfg.get ("executor-name", "join"), threads);
+        }
+    }
     public void setConfiguration (Element e)
         throws ConfigurationException
     {
         Iterator iter = e.getChildren ("participant").iterator();
         while (iter.hasNext()) {
-            participants.add (mgr.createParticipant ((Element) iter.next()));
+            Element pe = (Element) iter.next();
+            participants.add (mgr.createParticipant (pe));
+            String t = pe.getAttributeValue ("timeout");
+            try {
+                timeouts.add (t != null ? Long.parseLong (t.trim()) : null);
+            } catch (NumberFormatException ex) {
+                throw new ConfigurationException ("Invalid timeout '" + t + "'", ex);
+            }
         }
     }
     public void setTransactionManager (TransactionManager mgr) {
@@ -89,6 +152,10 @@ public class Join
             runners[i] = new Runner (
                 (TransactionParticipant) iter.next(), id, o
             );
+            Long t = i < timeouts.size() ? timeouts.get (i) : null;
+            runners[i].timeout = t != null ? t : timeout;
+            runners[i].executor = executor;
+            runners[i].mgr = mgr;
         }
         return runners;
     }
@@ -119,11 +186,17 @@ public class Join
     }
     public static class Runner implements Runnable {
         TransactionParticipant p;
-        public int rc;
+        public volatile int rc;
         long id;
         int mode;
         Serializable ctx;
         Thread t;
+        Future<?> future;
+        ExecutorService executor;
+        TransactionManager mgr;
+        long timeout;
+        volatile boolean timedOut;
+        private final AtomicBoolean done = new AtomicBoolean();
         public static final int PREPARE = 0;
         public static final int PREPARE_FOR_ABORT = 1;
         public static final int COMMIT = 2;
@@ -131,6 +204,9 @@ public class Join
         public static final String[] MODES = {
             "prepare", "prepareForAbort", "commit", "abort"
         };
+        private static final String[] METRICS = {
+            "-prepare", "-prepare-for-abort", "-commit", "-abort"
+        };
 
         public Runner (TransactionParticipant p, long id, Serializable ctx) {
             this.p = p;
@@ -150,13 +226,15 @@ public class Join
             createThread (ABORT);
         }
         public void run() {
+            Chronometer c = new Chronometer();
+            int action = rc;
             switch (mode) {
                 case PREPARE:
-                    rc = p.prepare(id, ctx);
+                    action = p.prepare(id, ctx);
                     break;
                 case PREPARE_FOR_ABORT:
                     if (p instanceof AbortParticipant)
-                        rc = ((AbortParticipant)p).prepareForAbort (id, ctx);
+                        action = ((AbortParticipant)p).prepareForAbort (id, ctx);
                     break;
                 case COMMIT:
                     if ((rc & NO_JOIN) == 0)
@@ -167,19 +245,62 @@ public class Join
                         p.abort (id, ctx);
                     break;
             }
+            if (done.compareAndSet (false, true))
+                rc = action;
+            if (mgr != null)
+                mgr.recordMetric (p.getClass().getName() + METRICS[mode], c.elapsed());
         }
         public void join () {
             try {
-                t.join ();
-            } catch (InterruptedException e) { }
+                if (future != null) {
+                    if (timeout > 0L)
+                        future.get (timeout, TimeUnit.MILLISECONDS);
+                    else
+                        future.get ();
+                } else {
+                    t.join (timeout);
+                    if (t.isAlive())
+                        timeout ();
+                }
+            } catch (TimeoutException e) {
+                timeout ();
+            } catch (ExecutionException e) {
+                // participant threw, same as an uncaught exception in thread mode
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        /**
+         * @return true if the participant didn't complete within the timeout
+         */
+        public boolean isTimedOut() {
+            return timedOut;
+        }
+        private void timeout () {
+            if (!done.compareAndSet (false, true))
+                return; // completed just in time
+            timedOut = true;
+            if (mode == PREPARE || mode == PREPARE_FOR_ABORT) {
+                rc = ABORTED;
+                if (future != null)
+                    future.cancel (true);
+                else
+                    t.interrupt();
+            }
+            if (mgr != null)
+                mgr.recordMetric (p.getClass().getName() + METRICS[mode] + "-timeout", timeout);
         }
         private void createThread (int m) {
+            this.mode = m;
+            if (executor != null) {
+                future = executor.submit (this);
+                return;
+            }
             this.t = new Thread(this);
             t.setName (
                 MODES[m] +
                 this.getClass().getName() + ":" + p.getClass().getName()
             );
-            this.mode = m;
             t.start();
         }
     }
@@ -0,0 +1,378 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2017 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jpos.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.jpos.iso.ISOMsg;
+import org.jpos.transaction.Context;
+
+/**
+ * Hands {@link LogEvent}s over to a dedicated writer thread so that
+ * {@link Logger#log(LogEvent)} doesn't run the listener chain (and its
+ * I/O) on the caller's thread.
+ * <p>
+ * Events are queued in a bounded lock-free ring buffer; the writer drains
+ * up to <code>batchSize</code> events at a time, runs them through the
+ * logger's listeners and then flushes every listener implementing
+ * {@link Flushable} once per batch (see {@link SimpleLogListener}).
+ * <p>
+ * Messages are often modified, or recycled (see
+ * {@link org.jpos.transaction.ContextPool}), right after being logged, so
+ * queued events hold a copy of their {@link ISOMsg} payloads and a rendered
+ * copy of their {@link Context} payloads. Events must not be modified
+ * once logged, nor other payloads they carry.
+ *
+ * @see Logger#setAsyncDispatcher(AsyncLogDispatcher)
+ */
+public class AsyncLogDispatcher implements Runnable, AsyncLogDispatcherMBean {
+    /**
+     * What to do when the ring buffer is full.
+     */
+    public enum OverflowPolicy {
+        /** wait for the writer to make room */
+        BLOCK,
+        /** discard the oldest queued event */
+        DROP_OLDEST,
+        /** discard the new event */
+        DROP;
+
+        /**
+         * @param s policy name, i.e. "block", "drop-oldest" or "drop"
+         * @return policy
+         */
+        public static OverflowPolicy of (String s) {
+            return valueOf (s.trim().toUpperCase().replace ('-', '_'));
+        }
+    }
+
+    private static final Set<AsyncLogDispatcher> active = ConcurrentHashMap.newKeySet();
+    private static final ThreadLocal<Boolean> writer = new ThreadLocal<>();
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos (50L);
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos (100L);
+
+    private final Logger logger;
+    private final OverflowPolicy policy;
+    private final LogEvent[] batch;
+    private final Object[] items;
+    private final AtomicLongArray seq;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    private volatile long dispatched;
+    private volatile boolean running = true;
+    private volatile boolean waiting;
+    private volatile boolean busy;
+    private final Thread thread;
+
+    /**
+     * @param logger logger whose listeners are to be run
+     * @param capacity ring buffer size (rounded up to a power of two)
+     * @param policy overflow policy
+     * @param batchSize max events written between listener flushes
+     */
+    public AsyncLogDispatcher (Logger logger, int capacity, OverflowPolicy policy, int batchSize) {
+        if (capacity <= 0 || batchSize <= 0)
+            throw new IllegalArgumentException ("capacity and batchSize must be > 0");
+        int n = Math.max (2, Integer.highestOneBit (capacity - 1) << 1);
+        this.logger = logger;
+        this.policy = policy;
+        this.items = new Object[n];
+        this.seq = new AtomicLongArray (n);
+        for (int i=0; i<n; i++)
+            seq.set (i, i);
+        this.mask = n - 1;
+        this.batch = new LogEvent[batchSize];
+        thread = new Thread (this, "async-logger-" + logger.getName());
+        thread.setDaemon (true);
+        thread.start();
+        active.add (this);
+    }
+
+    /**
+     * Queues an event according to the overflow policy.
+     * @param evt event to log
+     * @return false if the caller has to dispatch the event itself
+     * (dispatcher closed or called from within the writer thread)
+     */
+    public boolean offer (LogEvent evt) {
+        if (!running || Thread.currentThread() == thread)
+            return false;
+        evt.setDumpedAt();
+        freeze (evt);
+        switch (policy) {
+            case BLOCK:
+                while (!enqueue (evt)) {
+                    if (!running)
+                        return false;
+                    LockSupport.unpark (thread);
+                    LockSupport.parkNanos (this, BLOCK_PARK_NANOS);
+                }
+                break;
+            case DROP_OLDEST:
+                while (!enqueue (evt)) {
+                    if (dequeue() != null)
+                        dropped.increment();
+                }
+                break;
+            default:
+                if (!enqueue (evt)) {
+                    dropped.increment();
+                    return true;
+                }
+        }
+        if (waiting)
+            LockSupport.unpark (thread);
+        return true;
+    }
+
+    /**
+     * Waits for queued events to be written.
+     * @param timeout max time to wait in millis
+     * @return true if the queue was drained
+     */
+    public boolean flush (long timeout) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos (timeout);
+        while (busy || getQueueDepth() > 0) {
+            if (!thread.isAlive() || System.nanoTime() >= deadline)
+                return false;
+            LockSupport.unpark (thread);
+            LockSupport.parkNanos (this, TimeUnit.MILLISECONDS.toNanos (1L));
+        }
+        return true;
+    }
+
+    /**
+     * Stops the writer thread after it drains the queue (waiting up to
+     * <code>timeout</code> millis); whatever is left is written by the caller.
+     * Subsequent events are dispatched synchronously.
+     * @param timeout max time to wait in millis
+     */
+    public void close (long timeout) {
+        running = false;
+        active.remove (this);
+        LockSupport.unpark (thread);
+        try {
+            thread.join (timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!thread.isAlive()) {
+            LogEvent evt;
+            while ((evt = dequeue()) != null)
+                logger.dispatch (evt);
+        }
+    }
+
+    /**
+     * Flushes every active dispatcher, used by Q2 on shutdown.
+     * @param timeout max time to wait for each dispatcher, in millis
+     */
+    public static void flushAll (long timeout) {
+        for (AsyncLogDispatcher d : active)
+            d.flush (timeout);
+    }
+
+    /**
+     * @return true if called from a dispatcher thread; listeners
+     * implementing {@link Flushable} may defer flushing to the end of the batch
+     */
+    public static boolean isWriterThread() {
+        return writer.get() != null;
+    }
+
+    @Override
+    public void run() {
+        writer.set (Boolean.TRUE);
+        while (running || getQueueDepth() > 0) {
+            busy = true;
+            int n = 0;
+            LogEvent evt;
+            while (n < batch.length && (evt = dequeue()) != null)
+                batch[n++] = evt;
+            if (n == 0) {
+                busy = false;
+                waiting = true;
+                if (running && getQueueDepth() == 0)
+                    LockSupport.parkNanos (this, IDLE_PARK_NANOS);
+                waiting = false;
+                continue;
+            }
+            for (int i=0; i<n; i++) {
+                try {
+                    logger.dispatch (batch[i]);
+                } catch (Throwable ignored) {
+                    // keep the writer alive
+                }
+                batch[i] = null;
+            }
+            flushListeners();
+            dispatched += n;
+            busy = false;
+        }
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return (int) Math.max (0L, tail.get() - head.get());
+    }
+
+    @Override
+    public int getQueueCapacity() {
+        return items.length;
+    }
+
+    @Override
+    public int getBatchSize() {
+        return batch.length;
+    }
+
+    @Override
+    public String getOverflowPolicy() {
+        return policy.name().toLowerCase().replace ('_', '-');
+    }
+
+    @Override
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    @Override
+    public long getDispatched() {
+        return dispatched;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Replaces payload elements that are likely to change after the event
+     * is logged: ISOMsgs are cloned and Contexts rendered.
+     * @param evt event about to be queued
+     */
+    static void freeze (LogEvent evt) {
+        List<Object> payLoad = evt.getPayLoad();
+        synchronized (payLoad) {
+            ListIterator<Object> i = payLoad.listIterator();
+            while (i.hasNext()) {
+                Object o = i.next();
+                if (o instanceof ISOMsg)
+                    i.set (((ISOMsg) o).clone());
+                else if (o instanceof Context)
+                    i.set (new Rendered ((Context) o));
+            }
+        }
+    }
+
+    private void flushListeners() {
+        for (Object l : logger.listeners.toArray()) {
+            if (l instanceof Flushable) {
+                try {
+                    ((Flushable) l).flush();
+                } catch (IOException ignored) {
+                    // listener will report on next write
+                }
+            }
+        }
+    }
+
+    // Bounded multi-producer/multi-consumer queue (D. Vyukov), the writer is
+    // the only regular consumer, producers dequeue under DROP_OLDEST.
+    private boolean enqueue (LogEvent evt) {
+        long pos = tail.get();
+        for (;;) {
+            int idx = (int) (pos & mask);
+            long dif = seq.get (idx) - pos;
+            if (dif == 0) {
+                if (tail.compareAndSet (pos, pos + 1)) {
+                    items[idx] = evt;
+                    seq.lazySet (idx, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (dif < 0) {
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    private LogEvent dequeue () {
+        long pos = head.get();
+        for (;;) {
+            int idx = (int) (pos & mask);
+            long dif = seq.get (idx) - (pos + 1);
+            if (dif == 0) {
+                if (head.compareAndSet (pos, pos + 1)) {
+                    LogEvent evt = (LogEvent) items[idx];
+                    items[idx] = null;
+                    seq.lazySet (idx, pos + mask + 1);
+                    return evt;
+                }
+                pos = head.get();
+            } else if (dif < 0) {
+                return null;
+            } else {
+                pos = head.get();
+            }
+        }
+    }
+
+    /**
+     * Loggeable dumped at the time it was queued.
+     */
+    static final class Rendered implements Loggeable {
+        private final String[] lines;
+
+        Rendered (Loggeable l) {
+            ByteArrayOutputStream b = new ByteArrayOutputStream();
+            try {
+                PrintStream p = new PrintStream (b, false, "UTF-8");
+                l.dump (p, "");
+                p.flush();
+                lines = b.toString ("UTF-8").split ("\\r?\\n");
+            } catch (UnsupportedEncodingException e) {
+                throw new AssertionError (e);
+            }
+        }
+
+        @Override
+        public void dump (PrintStream p, String indent) {
+            for (String line : lines)
+                p.println (indent + line);
+        }
+    }
+}
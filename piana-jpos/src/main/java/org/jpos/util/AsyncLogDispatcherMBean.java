@@ -0,0 +1,52 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2017 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jpos.util;
+
+public interface AsyncLogDispatcherMBean {
+    /**
+     * @return number of queued events
+     */
+    int getQueueDepth();
+
+    /**
+     * @return ring buffer size
+     */
+    int getQueueCapacity();
+
+    /**
+     * @return max number of events written between listener flushes
+     */
+    int getBatchSize();
+
+    /**
+     * @return overflow policy (block, drop-oldest or drop)
+     */
+    String getOverflowPolicy();
+
+    /**
+     * @return number of events discarded because the queue was full
+     */
+    long getDropped();
+
+    /**
+     * @return number of events written by the dispatcher thread
+     */
+    long getDispatched();
+}
@@ -0,0 +1,314 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2017 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jpos.util;
+
+import org.jpos.core.Configurable;
+import org.jpos.core.Configuration;
+import org.jpos.core.ConfigurationException;
+import org.jpos.iso.ISOBinaryField;
+import org.jpos.iso.ISOComponent;
+import org.jpos.iso.ISOException;
+import org.jpos.iso.ISOField;
+import org.jpos.iso.ISOHeader;
+import org.jpos.iso.ISOMsg;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Writes LogEvents to memory-mapped segment files in a compact binary
+ * form instead of XML.
+ * <p>
+ * Realm, tag and timestamps are stored as such, ISOMsgs as their field
+ * values (no packager required to read them back) and Strings as UTF-8.
+ * Other payload objects are rendered once, at log time, exactly as
+ * {@link LogEvent#dump(PrintStream, String)} would. Journals can be
+ * turned back into the regular XML log with {@link BinaryLogReader}
+ * (or the Q2 <code>journal</code> CLI command).
+ * <p>
+ * Configuration properties:
+ * <ul>
+ * <li>directory - where segments are created (default "log")
+ * <li>prefix - segment file prefix (default "journal")
+ * <li>segment-size - segment size in bytes (default 64MB)
+ * <li>sync - force segment contents to disk on every flush (default false)
+ * </ul>
+ *
+ * @see BinaryLogReader
+ */
+public class BinaryLogListener implements LogListener, Configurable, Destroyable, Flushable {
+    static final int MAGIC = 0x6A504C31; // "jPL1"
+    static final String SUFFIX = ".jnl";
+    static final byte EVENT    = 'E';
+    static final byte FROZEN   = 'F';
+    static final byte STRING   = 'S';
+    static final byte BINARY   = 'B';
+    static final byte ISOMSG   = 'M';
+    static final byte VERBATIM = 'V';
+    static final byte NULL     = 'N';
+    static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private File dir = new File ("log");
+    private String prefix = "journal";
+    private int segmentSize = DEFAULT_SEGMENT_SIZE;
+    private boolean sync;
+    private int seq;
+    private MappedByteBuffer segment;
+    private ByteBuffer rec = ByteBuffer.allocate (8192);
+    private final ByteArrayOutputStream text = new ByteArrayOutputStream (1024);
+    private final PrintStream textOut = new PrintStream (text);
+
+    public BinaryLogListener () {
+        super();
+    }
+
+    /**
+     * @param dir directory where segments are created
+     * @param prefix segment file prefix
+     * @param segmentSize segment size in bytes
+     */
+    public BinaryLogListener (File dir, String prefix, int segmentSize) {
+        this.dir = dir;
+        this.prefix = prefix;
+        this.segmentSize = segmentSize;
+    }
+
+    @Override
+    public void setConfiguration (Configuration cfg) throws ConfigurationException {
+        dir = new File (cfg.get ("directory", "log"));
+        prefix = cfg.get ("prefix", "journal");
+        segmentSize = cfg.getInt ("segment-size", DEFAULT_SEGMENT_SIZE);
+        sync = cfg.getBoolean ("sync", false);
+        if (segmentSize < 1024)
+            throw new ConfigurationException ("segment-size should be >= 1024");
+    }
+
+    @Override
+    public synchronized LogEvent log (LogEvent ev) {
+        try {
+            rec.clear();
+            encode (ev);
+            rec.flip();
+            write (rec);
+        } catch (IOException | ISOException e) {
+            ev.addMessage (e);
+        }
+        return ev;
+    }
+
+    @Override
+    public synchronized void flush () {
+        if (sync && segment != null)
+            segment.force();
+    }
+
+    @Override
+    public synchronized void destroy () {
+        if (segment != null) {
+            if (segment.remaining() >= 4)
+                segment.putInt (0);
+            segment.force();
+            segment = null;
+        }
+    }
+
+    /**
+     * @return current segment file, null if none has been created yet
+     */
+    public synchronized File getSegmentFile () {
+        return segment != null ? segmentFile (seq) : null;
+    }
+
+    private void write (ByteBuffer b) throws IOException {
+        int len = b.remaining();
+        if (segment == null || segment.remaining() < len + 8) {
+            destroy();
+            openSegment (len);
+        }
+        segment.putInt (len);
+        segment.put (b);
+    }
+
+    private void openSegment (int len) throws IOException {
+        if (!dir.exists() && !dir.mkdirs())
+            throw new IOException ("can't create " + dir);
+        seq = Math.max (seq, lastSequence()) + 1;
+        int size = Math.max (segmentSize, len + 12);
+        try (RandomAccessFile raf = new RandomAccessFile (segmentFile (seq), "rw")) {
+            // the mapping stays valid after the file is closed
+            segment = raf.getChannel().map (FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        segment.putInt (MAGIC);
+    }
+
+    private File segmentFile (int n) {
+        return new File (dir, String.format ("%s-%06d%s", prefix, n, SUFFIX));
+    }
+
+    private int lastSequence () {
+        int last = 0;
+        String[] names = dir.list();
+        if (names != null) {
+            for (String n : names) {
+                if (n.startsWith (prefix + "-") && n.endsWith (SUFFIX)) {
+                    try {
+                        last = Math.max (last, Integer.parseInt (
+                          n.substring (prefix.length() + 1, n.length() - SUFFIX.length())));
+                    } catch (NumberFormatException ignored) {
+                        // not ours
+                    }
+                }
+            }
+        }
+        return last;
+    }
+
+    private void encode (LogEvent ev) throws ISOException {
+        if (ev.getClass() != LogEvent.class) {
+            putByte (FROZEN);
+            putString (ev.getRealm());
+            putString (ev.toString());
+            return;
+        }
+        ev.setDumpedAt();
+        Instant dumpedAt = ev.getDumpedAt();
+        putByte (EVENT);
+        putLong (dumpedAt.getEpochSecond());
+        putInt (dumpedAt.getNano());
+        putLong (Duration.between (ev.getCreatedAt(), dumpedAt).toMillis());
+        putByte ((byte) (ev.isNoArmor() ? 1 : 0));
+        putString (ev.getRealm());
+        String tag = ev.getTag();
+        putString (tag);
+        String indent = tag != null ? "    " : "";
+        synchronized (ev.getPayLoad()) {
+            putInt (ev.getPayLoad().size());
+            for (Object o : ev.getPayLoad()) {
+                if (o == null) {
+                    putByte (NULL);
+                } else if (o instanceof String) {
+                    putByte (STRING);
+                    putString ((String) o);
+                } else if (o.getClass() == ISOMsg.class) {
+                    putByte (ISOMSG);
+                    encode ((ISOMsg) o, indent);
+                } else {
+                    putByte (VERBATIM);
+                    putString (render (o, indent));
+                }
+            }
+        }
+    }
+
+    private void encode (ISOMsg m, String indent) throws ISOException {
+        String newIndent = indent + "  ";
+        putByte ((byte) m.getDirection());
+        putInt (m.getFieldNumber());
+        putString (m.getPackager() != null ? m.getPackager().getDescription() : null);
+        ISOHeader h = m.getISOHeader();
+        putString (h instanceof Loggeable ? render (h, newIndent) : null);
+        int countPos = rec.position();
+        putInt (0);
+        int count = 0;
+        int maxField = m.getMaxField();
+        for (int i=0; i<=maxField; i++) {
+            ISOComponent c = m.getComponent (i);
+            if (c == null)
+                continue;
+            if (c.getClass() == ISOField.class) {
+                if (c.getValue() == null)
+                    continue;
+                putInt (i);
+                putByte (STRING);
+                putString ((String) c.getValue());
+            } else if (c.getClass() == ISOBinaryField.class) {
+                putInt (i);
+                putByte (BINARY);
+                putBytes (c.getBytes());
+            } else if (c.getClass() == ISOMsg.class) {
+                putInt (i);
+                putByte (ISOMSG);
+                encode ((ISOMsg) c, newIndent);
+            } else {
+                putInt (i);
+                putByte (VERBATIM);
+                text.reset();
+                c.dump (textOut, newIndent);
+                textOut.flush();
+                putString (text.toString());
+            }
+            count++;
+        }
+        rec.putInt (countPos, count);
+    }
+
+    /**
+     * Renders an object the way {@link LogEvent#dump(PrintStream, String)} does.
+     */
+    private String render (Object o, String indent) {
+        text.reset();
+        LogEvent.dump (textOut, indent, o);
+        textOut.flush();
+        return text.toString();
+    }
+
+    private void ensure (int n) {
+        if (rec.remaining() < n) {
+            ByteBuffer b = ByteBuffer.allocate (Math.max (rec.capacity() << 1, rec.position() + n));
+            rec.flip();
+            b.put (rec);
+            rec = b;
+        }
+    }
+    private void putByte (byte b) {
+        ensure (1);
+        rec.put (b);
+    }
+    private void putInt (int i) {
+        ensure (4);
+        rec.putInt (i);
+    }
+    private void putLong (long l) {
+        ensure (8);
+        rec.putLong (l);
+    }
+    private void putBytes (byte[] b) {
+        if (b == null) {
+            putInt (-1);
+        } else {
+            ensure (4 + b.length);
+            rec.putInt (b.length);
+            rec.put (b);
+        }
+    }
+    private void putString (String s) {
+        putBytes (s != null ? s.getBytes (StandardCharsets.UTF_8) : null);
+    }
+}
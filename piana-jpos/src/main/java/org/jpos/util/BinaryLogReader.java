@@ -0,0 +1,234 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2017 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jpos.util;
+
+import org.jpos.iso.ISOBinaryField;
+import org.jpos.iso.ISOField;
+import org.jpos.iso.ISOMsg;
+import org.jpos.iso.packager.XMLPackager;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Renders journals written by {@link BinaryLogListener} back into the
+ * regular XML log format.
+ */
+public class BinaryLogReader {
+    private final PrintStream p;
+
+    /**
+     * @param p where to render events
+     */
+    public BinaryLogReader (PrintStream p) {
+        this.p = p;
+    }
+
+    /**
+     * Renders a segment file, or all segment files in a directory (in sequence order).
+     * @param f segment file or directory
+     * @return number of events rendered
+     * @throws IOException on error
+     */
+    public int render (File f) throws IOException {
+        int n = 0;
+        for (File segment : segments (f))
+            n += renderSegment (segment);
+        return n;
+    }
+
+    /**
+     * @param f segment file or directory
+     * @return segment files, sorted by name
+     */
+    public static List<File> segments (File f) {
+        List<File> l = new ArrayList<>();
+        if (f.isDirectory()) {
+            File[] files = f.listFiles ((dir, name) -> name.endsWith (BinaryLogListener.SUFFIX));
+            if (files != null) {
+                Arrays.sort (files);
+                l.addAll (Arrays.asList (files));
+            }
+        } else {
+            l.add (f);
+        }
+        return l;
+    }
+
+    private int renderSegment (File f) throws IOException {
+        ByteBuffer buf;
+        try (RandomAccessFile raf = new RandomAccessFile (f, "r")) {
+            buf = raf.getChannel().map (FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        }
+        if (buf.remaining() < 4 || buf.getInt() != BinaryLogListener.MAGIC)
+            throw new IOException ("invalid journal " + f);
+        int n = 0;
+        try {
+            while (buf.remaining() >= 4) {
+                int len = buf.getInt();
+                if (len <= 0 || len > buf.remaining())
+                    break; // end of segment (or partially written record)
+                ByteBuffer rec = buf.slice();
+                rec.limit (len);
+                buf.position (buf.position() + len);
+                renderEvent (rec);
+                n++;
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException ("corrupted journal " + f, e);
+        }
+        return n;
+    }
+
+    private void renderEvent (ByteBuffer b) {
+        byte type = b.get();
+        if (type == BinaryLogListener.FROZEN) {
+            getString (b); // realm
+            p.print (getString (b));
+            return;
+        }
+        Instant dumpedAt = Instant.ofEpochSecond (b.getLong(), b.getInt());
+        long lifespan = b.getLong();
+        boolean noArmor = b.get() != 0;
+        String realm = getString (b);
+        LogEvent evt = new LogEvent (getString (b));
+        evt.setSource (new SimpleLogSource (null, realm));
+        evt.setNoArmor (noArmor);
+        evt.setTimestamps (dumpedAt.minusMillis (lifespan), dumpedAt);
+        int count = b.getInt();
+        for (int i=0; i<count; i++) {
+            byte kind = b.get();
+            switch (kind) {
+                case BinaryLogListener.NULL:
+                    evt.addMessage (null);
+                    break;
+                case BinaryLogListener.STRING:
+                    evt.addMessage (getString (b));
+                    break;
+                case BinaryLogListener.ISOMSG:
+                    evt.addMessage (getMsg (b));
+                    break;
+                default:
+                    evt.addMessage (new Verbatim (getString (b)));
+            }
+        }
+        evt.dump (p, "");
+    }
+
+    private Msg getMsg (ByteBuffer b) {
+        Msg m = new Msg();
+        m.direction = b.get();
+        m.fieldNumber = b.getInt();
+        m.description = getString (b);
+        m.header = getString (b);
+        int count = b.getInt();
+        for (int i=0; i<count; i++) {
+            int fldno = b.getInt();
+            byte kind = b.get();
+            switch (kind) {
+                case BinaryLogListener.STRING:
+                    m.fields.add (new ISOField (fldno, getString (b))::dump);
+                    break;
+                case BinaryLogListener.BINARY:
+                    m.fields.add (new ISOBinaryField (fldno, getBytes (b))::dump);
+                    break;
+                case BinaryLogListener.ISOMSG:
+                    m.fields.add (getMsg (b));
+                    break;
+                default:
+                    m.fields.add (new Verbatim (getString (b)));
+            }
+        }
+        return m;
+    }
+
+    private static byte[] getBytes (ByteBuffer b) {
+        int len = b.getInt();
+        if (len < 0)
+            return null;
+        byte[] d = new byte[len];
+        b.get (d);
+        return d;
+    }
+
+    private static String getString (ByteBuffer b) {
+        byte[] d = getBytes (b);
+        return d != null ? new String (d, StandardCharsets.UTF_8) : null;
+    }
+
+    /**
+     * Text already rendered at log time, indentation included.
+     */
+    private static class Verbatim implements Loggeable {
+        final String text;
+        Verbatim (String text) {
+            this.text = text;
+        }
+        @Override
+        public void dump (PrintStream p, String indent) {
+            p.print (text);
+        }
+    }
+
+    /**
+     * ISOMsg as stored in the journal, rendered like {@link ISOMsg#dump(PrintStream, String)}.
+     */
+    private static class Msg implements Loggeable {
+        int direction;
+        int fieldNumber;
+        String description;
+        String header;
+        final List<Loggeable> fields = new ArrayList<>();
+
+        @Override
+        public void dump (PrintStream p, String indent) {
+            p.print (indent + "<" + XMLPackager.ISOMSG_TAG);
+            switch (direction) {
+                case ISOMsg.INCOMING:
+                    p.print (" direction=\"incoming\"");
+                    break;
+                case ISOMsg.OUTGOING:
+                    p.print (" direction=\"outgoing\"");
+                    break;
+            }
+            if (fieldNumber != -1)
+                p.print (" "+XMLPackager.ID_ATTR +"=\""+fieldNumber +"\"");
+            p.println (">");
+            String newIndent = indent + "  ";
+            if (description != null)
+                p.println (newIndent + "<!-- " + description + " -->");
+            if (header != null)
+                p.print (header);
+            for (Loggeable f : fields)
+                f.dump (p, newIndent);
+            p.println (indent + "</" + XMLPackager.ISOMSG_TAG+">");
+        }
+    }
+}
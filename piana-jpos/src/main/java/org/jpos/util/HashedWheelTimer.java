@@ -0,0 +1,277 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2017 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Approximate timer for large numbers of short lived timeouts that are
+ * usually cancelled before they expire (i.e. request/response timeouts).
+ *
+ * <p>Timeouts are hashed into a wheel of <code>ticksPerWheel</code> buckets
+ * that a single worker thread visits every <code>tickDuration</code>, so
+ * scheduling and cancelling are O(1) and don't contend on a shared lock,
+ * at the expense of up to one tick of extra delay.
+ * Tasks run on the worker thread and must not block, as that delays every
+ * other timeout sharing the timer; hand blocking work off to an executor.
+ */
+public class HashedWheelTimer implements Runnable {
+    private static volatile HashedWheelTimer defaultTimer;
+    private static final int MAX_TRANSFERS_PER_TICK = 100000;
+
+    private final Bucket[] wheel;
+    private final int mask;
+    private final long tickNanos;
+    private final String name;
+    private final Queue<Timeout> incoming = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    private volatile long startNanos;
+    private volatile boolean running;
+    private volatile Thread worker;
+    private long tick;
+
+    /**
+     * @param name worker thread name
+     * @param tickDuration tick duration
+     * @param unit tick duration unit
+     * @param ticksPerWheel number of buckets (rounded up to a power of two)
+     */
+    public HashedWheelTimer (String name, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+        if (tickDuration <= 0 || ticksPerWheel <= 0)
+            throw new IllegalArgumentException ("tickDuration and ticksPerWheel must be > 0");
+        int n = Integer.highestOneBit (ticksPerWheel - 1) << 1;
+        wheel = new Bucket[Math.max (1, n)];
+        for (int i=0; i<wheel.length; i++)
+            wheel[i] = new Bucket();
+        mask = wheel.length - 1;
+        tickNanos = unit.toNanos (tickDuration);
+        this.name = name;
+    }
+
+    /**
+     * @return shared timer (10ms ticks, 512 buckets)
+     */
+    public static HashedWheelTimer getDefault() {
+        if (defaultTimer == null) {
+            synchronized (HashedWheelTimer.class) {
+                if (defaultTimer == null)
+                    defaultTimer = new HashedWheelTimer ("wheel-timer", 10L, TimeUnit.MILLISECONDS, 512);
+            }
+        }
+        return defaultTimer;
+    }
+
+    /**
+     * Schedules a one-shot task.
+     * @param task task to run on expiration
+     * @param delay delay
+     * @param unit delay unit
+     * @return handle that can be used to cancel the task
+     */
+    public Timeout newTimeout (Runnable task, long delay, TimeUnit unit) {
+        if (!running)
+            start();
+        Timeout t = new Timeout (task, System.nanoTime() - startNanos + unit.toNanos (delay));
+        incoming.add (t);
+        return t;
+    }
+
+    /**
+     * Stops the worker thread and waits for it to exit (unless called from
+     * a task); pending timeouts never expire.
+     */
+    public synchronized void stop() {
+        running = false;
+        Thread w = worker;
+        worker = null;
+        if (w != null) {
+            w.interrupt();
+            if (w != Thread.currentThread()) {
+                try {
+                    w.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        Thread me = Thread.currentThread();
+        while (running && worker == me) {
+            long deadline = startNanos + (tick + 1) * tickNanos;
+            long now;
+            while ((now = System.nanoTime()) < deadline && running)
+                LockSupport.parkNanos (deadline - now);
+            removeCancelled();
+            transferIncoming();
+            wheel[(int) (tick & mask)].expire (now - startNanos);
+            tick++;
+        }
+    }
+
+    private synchronized void start() {
+        if (!running) {
+            // forget what a previous run left behind, deadlines are relative to startNanos
+            for (Bucket b : wheel)
+                b.clear();
+            incoming.clear();
+            cancelled.clear();
+            tick = 0L;
+            startNanos = System.nanoTime();
+            running = true; // publishes startNanos to newTimeout callers
+            worker = new Thread (this, name);
+            worker.setDaemon (true);
+            worker.start();
+        }
+    }
+
+    private void transferIncoming() {
+        for (int i=0; i<MAX_TRANSFERS_PER_TICK; i++) {
+            Timeout t = incoming.poll();
+            if (t == null)
+                break;
+            if (t.state != Timeout.INIT)
+                continue;
+            long calculated = t.deadline / tickNanos;
+            t.remainingRounds = (calculated - tick) / wheel.length;
+            wheel[(int) (Math.max (calculated, tick) & mask)].add (t);
+        }
+    }
+
+    private void removeCancelled() {
+        Timeout t;
+        while ((t = cancelled.poll()) != null) {
+            if (t.bucket != null)
+                t.bucket.remove (t);
+        }
+    }
+
+    /**
+     * Handle to a scheduled task.
+     */
+    public final class Timeout {
+        static final int INIT = 0;
+        static final int CANCELLED = 1;
+        static final int EXPIRED = 2;
+        private final Runnable task;
+        private final long deadline;
+        volatile int state;
+        long remainingRounds;
+        Timeout next, prev;
+        Bucket bucket;
+
+        Timeout (Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * @return true if this call cancelled the task
+         */
+        public boolean cancel() {
+            if (!STATE.compareAndSet (this, INIT, CANCELLED))
+                return false;
+            cancelled.add (this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state == EXPIRED;
+        }
+
+        void expire() {
+            if (STATE.compareAndSet (this, INIT, EXPIRED)) {
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    Logger.log (new LogEvent (name, t));
+                }
+            }
+        }
+    }
+
+    private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+      AtomicIntegerFieldUpdater.newUpdater (Timeout.class, "state");
+
+    /**
+     * Doubly linked list of timeouts, only accessed by the worker thread.
+     */
+    private static final class Bucket {
+        Timeout head, tail;
+
+        void add (Timeout t) {
+            t.bucket = this;
+            if (head == null) {
+                head = tail = t;
+            } else {
+                tail.next = t;
+                t.prev = tail;
+                tail = t;
+            }
+        }
+
+        void expire (long now) {
+            Timeout t = head;
+            while (t != null) {
+                Timeout next = t.next;
+                if (t.isCancelled()) {
+                    remove (t);
+                } else if (t.remainingRounds <= 0) {
+                    if (t.deadline <= now) {
+                        remove (t);
+                        t.expire();
+                    }
+                } else {
+                    t.remainingRounds--;
+                }
+                t = next;
+            }
+        }
+
+        void clear() {
+            while (head != null)
+                remove (head);
+        }
+
+        void remove (Timeout t) {
+            if (t.bucket != this)
+                return;
+            if (t.prev != null)
+                t.prev.next = t.next;
+            if (t.next != null)
+                t.next.prev = t.prev;
+            if (t == head)
+                head = t.next;
+            if (t == tail)
+                tail = t.prev;
+            t.prev = t.next = null;
+            t.bucket = null;
+        }
+    }
+}
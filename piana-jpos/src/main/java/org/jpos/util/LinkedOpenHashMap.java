@@ -0,0 +1,316 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2017 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jpos.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Unsynchronized, insertion ordered hash map using open addressing.
+ * <p>
+ * Keys and values live in two parallel arrays, in insertion order, and a
+ * linear probing index table points into them, so that, unlike
+ * {@link java.util.LinkedHashMap}, <code>put</code> allocates nothing
+ * once the arrays are big enough, and {@link #clear()} keeps them for
+ * reuse. Removed entries leave a hole in the arrays that is reclaimed
+ * when they fill up.
+ * <p>
+ * Iteration order is insertion order; entries returned by the entry set
+ * iterator are views, valid until the map is next modified.
+ */
+public class LinkedOpenHashMap<K,V> extends AbstractMap<K,V> {
+    private static final Object NULL_KEY = new Object();
+    private static final Object REMOVED = new Object();
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private Object[] keys;
+    private Object[] values;
+    private int[] index;  // 1-based positions in keys/values, 0 = free
+    private int used;     // positions taken in keys/values, including removed
+    private int size;
+    private int modCount;
+    private Set<Map.Entry<K,V>> entrySet;
+
+    public LinkedOpenHashMap () {
+        this (DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity number of entries the map can hold before growing
+     */
+    public LinkedOpenHashMap (int capacity) {
+        capacity = Math.max (capacity, 2);
+        keys = new Object[capacity];
+        values = new Object[capacity];
+        index = new int[tableSize (capacity)];
+    }
+
+    @Override
+    public int size () {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty () {
+        return size == 0;
+    }
+
+    @Override
+    public boolean containsKey (Object key) {
+        return find (mask (key)) >= 0;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get (Object key) {
+        int pos = find (mask (key));
+        return pos >= 0 ? (V) values[pos] : null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V put (K key, V value) {
+        Object k = mask (key);
+        int pos = find (k);
+        if (pos >= 0) {
+            V old = (V) values[pos];
+            values[pos] = value;
+            return old;
+        }
+        if (used == keys.length)
+            rebuild (size >= keys.length / 2 ? keys.length * 2 : keys.length);
+        pos = used++;
+        keys[pos] = k;
+        values[pos] = value;
+        insert (k, pos);
+        size++;
+        modCount++;
+        return null;
+    }
+
+    @Override
+    public V remove (Object key) {
+        int pos = find (mask (key));
+        return pos >= 0 ? removeAt (pos) : null;
+    }
+
+    /**
+     * Removes all entries, keeping the allocated arrays.
+     */
+    @Override
+    public void clear () {
+        if (used > 0) {
+            Arrays.fill (keys, 0, used, null);
+            Arrays.fill (values, 0, used, null);
+            Arrays.fill (index, 0);
+            used = size = 0;
+            modCount++;
+        }
+    }
+
+    @Override
+    public Set<Map.Entry<K,V>> entrySet () {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Map.Entry<K,V>>() {
+                @Override
+                public Iterator<Map.Entry<K,V>> iterator () {
+                    return new EntryIterator();
+                }
+                @Override
+                public int size () {
+                    return size;
+                }
+                @Override
+                public void clear () {
+                    LinkedOpenHashMap.this.clear();
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    private int find (Object k) {
+        int mask = index.length - 1;
+        for (int i = hash (k) & mask; ; i = (i + 1) & mask) {
+            int slot = index[i];
+            if (slot == 0)
+                return -1;
+            Object o = keys[slot - 1];
+            if (o == k || o != REMOVED && o.equals (k))
+                return slot - 1;
+        }
+    }
+
+    private void insert (Object k, int pos) {
+        int mask = index.length - 1;
+        int i = hash (k) & mask;
+        while (index[i] != 0)
+            i = (i + 1) & mask;
+        index[i] = pos + 1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V removeAt (int pos) {
+        V old = (V) values[pos];
+        keys[pos] = REMOVED;  // the index slot stays, as a tombstone
+        values[pos] = null;
+        size--;
+        modCount++;
+        return old;
+    }
+
+    /**
+     * Compacts the arrays, dropping removed entries, to a new capacity
+     * and rebuilds the index (which also drops its tombstones).
+     */
+    private void rebuild (int capacity) {
+        Object[] k = keys.length == capacity ? keys : new Object[capacity];
+        Object[] v = values.length == capacity ? values : new Object[capacity];
+        int n = 0;
+        for (int i = 0; i < used; i++) {
+            if (keys[i] != REMOVED) {
+                k[n] = keys[i];
+                v[n++] = values[i];
+            }
+        }
+        Arrays.fill (k, n, used, null);
+        Arrays.fill (v, n, used, null);
+        keys = k;
+        values = v;
+        used = n;
+        int tableSize = tableSize (capacity);
+        if (index.length == tableSize)
+            Arrays.fill (index, 0);
+        else
+            index = new int[tableSize];
+        for (int i = 0; i < n; i++)
+            insert (keys[i], i);
+    }
+
+    private static int tableSize (int capacity) {
+        // at most half full, counting tombstones
+        return Integer.highestOneBit (capacity * 2 - 1) << 1;
+    }
+
+    private static int hash (Object k) {
+        int h = k.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static Object mask (Object key) {
+        return key != null ? key : NULL_KEY;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K> K unmask (Object k) {
+        return k != NULL_KEY ? (K) k : null;
+    }
+
+    private class EntryIterator implements Iterator<Map.Entry<K,V>> {
+        private int next = advance (0);
+        private int last = -1;
+        private int expectedModCount = modCount;
+
+        @Override
+        public boolean hasNext () {
+            return next < used;
+        }
+
+        @Override
+        public Map.Entry<K,V> next () {
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            if (next >= used)
+                throw new NoSuchElementException();
+            last = next;
+            next = advance (next + 1);
+            return new Entry (last);
+        }
+
+        @Override
+        public void remove () {
+            if (last < 0)
+                throw new IllegalStateException();
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            removeAt (last);
+            expectedModCount = modCount;
+            last = -1;
+        }
+
+        private int advance (int i) {
+            while (i < used && keys[i] == REMOVED)
+                i++;
+            return i;
+        }
+    }
+
+    private class Entry implements Map.Entry<K,V> {
+        private final int pos;
+
+        Entry (int pos) {
+            this.pos = pos;
+        }
+
+        @Override
+        public K getKey () {
+            return unmask (keys[pos]);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V getValue () {
+            return (V) values[pos];
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V setValue (V value) {
+            V old = (V) values[pos];
+            values[pos] = value;
+            return old;
+        }
+
+        @Override
+        public boolean equals (Object o) {
+            if (!(o instanceof Map.Entry))
+                return false;
+            Map.Entry<?,?> e = (Map.Entry<?,?>) o;
+            return Objects.equals (getKey(), e.getKey()) && Objects.equals (getValue(), e.getValue());
+        }
+
+        @Override
+        public int hashCode () {
+            return Objects.hashCode (getKey()) ^ Objects.hashCode (getValue());
+        }
+
+        @Override
+        public String toString () {
+            return getKey() + "=" + getValue();
+        }
+    }
+}
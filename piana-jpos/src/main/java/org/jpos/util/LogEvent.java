@@ -90,6 +90,30 @@ public class LogEvent {
     public void setNoArmor (boolean noArmor) {
         this.noArmor = noArmor;
     }
+    /**
+     * Stamps the event with the current time, used when it is
+     * dumped later by an {@link AsyncLogDispatcher}.
+     */
+    void setDumpedAt () {
+        if (dumpedAt == null)
+            dumpedAt = Instant.now();
+    }
+    Instant getCreatedAt () {
+        return createdAt;
+    }
+    Instant getDumpedAt () {
+        return dumpedAt;
+    }
+    boolean isNoArmor () {
+        return noArmor;
+    }
+    /**
+     * Used by {@link BinaryLogReader} to restore the original timestamps.
+     */
+    void setTimestamps (Instant createdAt, Instant dumpedAt) {
+        this.createdAt = createdAt;
+        this.dumpedAt = dumpedAt;
+    }
     protected String dumpHeader (PrintStream p, String indent) {
         if (noArmor) {
             p.println("");
@@ -131,57 +155,59 @@ public class LogEvent {
             } else
                 newIndent = "";
             synchronized (payLoad) {
-                for (Object o : payLoad) {
-                    if (o instanceof Loggeable)
-                        ((Loggeable) o).dump(p, newIndent);
-                    else if (o instanceof SQLException) {
-                        SQLException e = (SQLException) o;
-                        p.println(newIndent + "<SQLException>"
-                                + e.getMessage() + "</SQLException>");
-                        p.println(newIndent + "<SQLState>"
-                                + e.getSQLState() + "</SQLState>");
-                        p.println(newIndent + "<VendorError>"
-                                + e.getErrorCode() + "</VendorError>");
-                        ((Throwable) o).printStackTrace(p);
-                    } else if (o instanceof Throwable) {
-                        p.println(newIndent + "<exception name=\""
-                                + ((Throwable) o).getMessage() + "\">");
-                        p.print(newIndent);
-                        ((Throwable) o).printStackTrace(p);
-                        p.println(newIndent + "</exception>");
-                    } else if (o instanceof Object[]) {
-                        Object[] oa = (Object[]) o;
-                        p.print(newIndent + "[");
-                        for (int j = 0; j < oa.length; j++) {
-                            if (j > 0)
-                                p.print(",");
-                            p.print(oa[j].toString());
-                        }
-                        p.println("]");
-                    } else if (o instanceof Element) {
-                        p.println("");
-                        p.println(newIndent + "<![CDATA[");
-                        XMLOutputter out = new XMLOutputter(Format.getPrettyFormat());
-                        out.getFormat().setLineSeparator("\n");
-                        try {
-                            out.output((Element) o, p);
-                        } catch (IOException ex) {
-                            ex.printStackTrace(p);
-                        }
-                        p.println("");
-                        p.println(newIndent + "]]>");
-                    } else if (o != null) {
-                        p.println(newIndent + o.toString());
-                    } else {
-                        p.println(newIndent + "null");
-                    }
-            }
+                for (Object o : payLoad)
+                    dump (p, newIndent, o);
             }
             if (tag != null)
                 p.println (indent + "</" + tag + ">");
         }
         dumpTrailer (p, outer);
     }
+    static void dump (PrintStream p, String newIndent, Object o) {
+        if (o instanceof Loggeable)
+            ((Loggeable) o).dump(p, newIndent);
+        else if (o instanceof SQLException) {
+            SQLException e = (SQLException) o;
+            p.println(newIndent + "<SQLException>"
+                    + e.getMessage() + "</SQLException>");
+            p.println(newIndent + "<SQLState>"
+                    + e.getSQLState() + "</SQLState>");
+            p.println(newIndent + "<VendorError>"
+                    + e.getErrorCode() + "</VendorError>");
+            ((Throwable) o).printStackTrace(p);
+        } else if (o instanceof Throwable) {
+            p.println(newIndent + "<exception name=\""
+                    + ((Throwable) o).getMessage() + "\">");
+            p.print(newIndent);
+            ((Throwable) o).printStackTrace(p);
+            p.println(newIndent + "</exception>");
+        } else if (o instanceof Object[]) {
+            Object[] oa = (Object[]) o;
+            p.print(newIndent + "[");
+            for (int j = 0; j < oa.length; j++) {
+                if (j > 0)
+                    p.print(",");
+                p.print(oa[j].toString());
+            }
+            p.println("]");
+        } else if (o instanceof Element) {
+            p.println("");
+            p.println(newIndent + "<![CDATA[");
+            XMLOutputter out = new XMLOutputter(Format.getPrettyFormat());
+            out.getFormat().setLineSeparator("\n");
+            try {
+                out.output((Element) o, p);
+            } catch (IOException ex) {
+                ex.printStackTrace(p);
+            }
+            p.println("");
+            p.println(newIndent + "]]>");
+        } else if (o != null) {
+            p.println(newIndent + o.toString());
+        } else {
+            p.println(newIndent + "null");
+        }
+    }
     public String getRealm() {
         return source != null ? source.getRealm() : "";
     }
@@ -51,6 +51,7 @@ public class Logger implements LogProducer,Configurable
     Configuration cfg;
     String name;
     List<LogListener> listeners;
+    private volatile AsyncLogDispatcher dispatcher;
     public static final String NRPREFIX = "logger.";
 
     public Logger () {
@@ -93,16 +94,36 @@ public class Logger implements LogProducer,Configurable
             l = getLogger(Q2.LOGGER_NAME);
         }
         if (l != null && l.hasListeners ()) {
-            Iterator i = l.listeners.iterator();
-            while (i.hasNext() && evt != null) {
-                try {
-                    evt = ((LogListener) i.next()).log(evt);
-                } catch (Throwable t) {
-                    evt.addMessage (t);
-                }
+            AsyncLogDispatcher d = l.dispatcher;
+            if (d == null || !d.offer (evt))
+                l.dispatch (evt);
+        }
+    }
+    /**
+     * Runs <code>evt</code> through this logger's listeners on the caller's thread.
+     * @param evt event to log
+     */
+    void dispatch (LogEvent evt) {
+        Iterator i = listeners.iterator();
+        while (i.hasNext() && evt != null) {
+            try {
+                evt = ((LogListener) i.next()).log(evt);
+            } catch (Throwable t) {
+                evt.addMessage (t);
             }
         }
     }
+    /**
+     * Hands events over to an {@link AsyncLogDispatcher} instead of
+     * running the listeners on the caller's thread.
+     * @param dispatcher dispatcher (null to log synchronously)
+     */
+    public void setAsyncDispatcher (AsyncLogDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+    public AsyncLogDispatcher getAsyncDispatcher () {
+        return dispatcher;
+    }
     /**
      * associates this Logger with a name using NameRegistrar
      * @param name name to register
@@ -117,6 +138,11 @@ public class Logger implements LogProducer,Configurable
      */
     public void destroy () {
         NameRegistrar.unregister (NRPREFIX+name);
+        AsyncLogDispatcher d = dispatcher;
+        if (d != null) {
+            dispatcher = null;
+            d.close (Q2.SHUTDOWN_TIMEOUT);
+        }
         removeAllListeners ();
     }
     /**
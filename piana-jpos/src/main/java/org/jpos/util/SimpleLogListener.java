@@ -18,6 +18,7 @@
 
 package org.jpos.util;
 
+import java.io.Flushable;
 import java.io.PrintStream;
 
 /**
@@ -26,7 +27,7 @@ import java.io.PrintStream;
  * @see org.jpos.core.Configurable
  * @since jPOS 1.2
  */
-public class SimpleLogListener implements LogListener {
+public class SimpleLogListener implements LogListener, Flushable {
     PrintStream p;
 
     public SimpleLogListener () {
@@ -49,9 +50,18 @@ public class SimpleLogListener implements LogListener {
     public synchronized LogEvent log (LogEvent ev) {
         if (p != null) {
             ev.dump (p, "");
-            p.flush();
+            if (!AsyncLogDispatcher.isWriterThread())
+                p.flush();
         }
         return ev;
     }
+    /**
+     * Called by {@link AsyncLogDispatcher} once per batch.
+     */
+    @Override
+    public synchronized void flush() {
+        if (p != null)
+            p.flush();
+    }
 }
 
@@ -0,0 +1,128 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2017 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jpos.bsh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BSHScriptTest {
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("bshscript", ".bsh");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testInterpretedVariablesDontLeak() throws Throwable {
+        BSHScript script = BSHScript.forText("if (x != void) { result = \"leaked\"; } x = a != void ? a + 1 : null;", false);
+        checkVariablesDontLeak(script);
+    }
+
+    @Test
+    public void testCompiledVariablesDontLeak() throws Throwable {
+        BSHScript script = BSHScript.forText("if (x != void) { result = \"leaked\"; } x = a != void ? a + 1 : null;", true);
+        checkVariablesDontLeak(script);
+    }
+
+    private void checkVariablesDontLeak(BSHScript script) throws Throwable {
+        for (int i = 0; i < 3; i++) {
+            Map<String,Object> vars = new HashMap<>();
+            vars.put("x", null);
+            vars.put("result", null);
+            script.eval(Collections.singletonMap("a", i), vars);
+            assertEquals("x", i + 1, vars.get("x"));
+            assertNull("result", vars.get("result"));
+        }
+        Map<String,Object> vars = new HashMap<>();
+        vars.put("x", null);
+        script.eval(Collections.<String,Object>emptyMap(), vars);
+        assertNull("x", vars.get("x"));
+    }
+
+    @Test
+    public void testCompiledReturnValue() throws Throwable {
+        Object message = new Object();
+        Map<String,Object> args = Collections.singletonMap("message", message);
+        assertEquals("explicit", "ret", BSHScript.forText("int result = 2; return \"ret\";", true).eval(args, null));
+        assertSame("last statement", message, BSHScript.forText("m = message", true).eval(args, null));
+        assertNull("empty", BSHScript.forText("// nothing", true).eval(args, null));
+    }
+
+    @Test
+    public void testArgumentAssignment() throws Throwable {
+        for (boolean compiled : new boolean[] { false, true }) {
+            Map<String,Object> vars = new HashMap<>();
+            vars.put("message", null);
+            BSHScript.forText("message = message + \"!\";", compiled)
+              .eval(Collections.singletonMap("message", "hello"), vars);
+            assertEquals("compiled=" + compiled, "hello!", vars.get("message"));
+        }
+    }
+
+    @Test
+    public void testReentrant() throws Throwable {
+        BSHScript script = BSHScript.forText(
+          "if (n == 0) return \"\";"
+            + "m = new HashMap(); m.put(\"n\", n - 1); m.put(\"self\", self);"
+            + "return n + self.eval(m, null);", true);
+        Map<String,Object> args = new HashMap<>();
+        args.put("n", 3);
+        args.put("self", script);
+        assertEquals("321", script.eval(args, null));
+    }
+
+    @Test
+    public void testFileReloadedOnChange() throws Throwable {
+        for (boolean compiled : new boolean[] { false, true }) {
+            write("return \"one\";");
+            file.setLastModified(1000000L);
+            BSHScript script = BSHScript.forFile(file.getPath(), compiled);
+            assertSame(script, BSHScript.forFile(file.getPath(), compiled));
+            assertEquals("one", script.eval(Collections.<String,Object>emptyMap(), null));
+            write("return \"two\";");
+            file.setLastModified(2000000L);
+            assertEquals("two", script.eval(Collections.<String,Object>emptyMap(), null));
+        }
+    }
+
+    private void write(String text) throws IOException {
+        try (FileWriter w = new FileWriter(file)) {
+            w.write(text);
+        }
+    }
+}
@@ -27,6 +27,7 @@ import static org.junit.Assert.fail;
 import static org.mockito.Mockito.*;
 
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.net.*;
 import java.util.ArrayList;
@@ -66,6 +67,7 @@ import org.jpos.iso.packager.XMLPackager;
 import org.jpos.util.LogEvent;
 import org.jpos.util.Logger;
 import org.jpos.util.NameRegistrar;
+import org.jpos.iso.packager.ISO87BPackager;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
@@ -1131,4 +1133,226 @@ public class BaseChannelTest {
         byte[] result = aSCIIChannel.streamReceive();
         assertEquals("result.length", 0, result.length);
     }
+
+    @Test
+    public void testZeroCopyReceive() throws Throwable {
+        try (ServerSocket ss = new ServerSocket(0)) {
+            BaseChannel[] pair = connectedPair(ss, new NACChannel(new ISO87BPackager(), ISOUtil.hex2byte("6000010002")));
+            BaseChannel client = pair[0];
+            BaseChannel server = pair[1];
+            server.setZeroCopyReceive(true);
+            for (int i=0; i<20; i++) {
+                ISOMsg m = newRequest(i);
+                m.set(48, ISOUtil.zeropad(i, i*50 + 1)); // grows the receive buffer
+                client.send(m);
+                ISOMsg r = server.receive();
+                assertEquals("0200", r.getMTI());
+                assertEquals(m.getString(11), r.getString(11));
+                assertEquals(m.getString(48), r.getString(48));
+                assertEquals("6000010002", ISOUtil.hexString(r.getHeader()));
+                assertSame(server, r.getSource());
+            }
+            assertEquals(20, server.getCounters()[ISOChannel.RX]);
+            client.disconnect();
+            server.disconnect();
+        }
+    }
+
+    @Test
+    public void testZeroCopySend() throws Throwable {
+        try (ServerSocket ss = new ServerSocket(0)) {
+            BaseChannel[] pair = connectedPair(ss, new NACChannel(new ISO87BPackager(), ISOUtil.hex2byte("6000010002")));
+            BaseChannel client = pair[0];
+            BaseChannel server = pair[1];
+            client.setZeroCopySend(true);
+            for (int i=0; i<20; i++) {
+                ISOMsg m = newRequest(i);
+                m.set(48, ISOUtil.zeropad(i, i*50 + 1));
+                client.send(m);
+                ISOMsg r = server.receive();
+                assertEquals("0200", r.getMTI());
+                assertEquals(m.getString(11), r.getString(11));
+                assertEquals(m.getString(48), r.getString(48));
+                assertEquals("6000010002", ISOUtil.hexString(r.getHeader()));
+            }
+            assertEquals(20, client.getCounters()[ISOChannel.TX]);
+            client.disconnect();
+            server.disconnect();
+        }
+    }
+
+    @Test
+    public void testZeroCopyReceiveKeepAlive() throws Throwable {
+        try (ServerSocket ss = new ServerSocket(0)) {
+            BaseChannel[] pair = connectedPair(ss, new ASCIIChannel(new ISO87BPackager()));
+            BaseChannel client = pair[0];
+            BaseChannel server = pair[1];
+            server.setZeroCopyReceive(true);
+            client.getSocket().setSoTimeout(5000);
+            client.getSocket().getOutputStream().write("0000".getBytes());
+            client.send(newRequest(1));
+            ISOMsg r = server.receive();
+            assertEquals("000001", r.getString(11));
+            byte[] echo = new byte[4];
+            new DataInputStream(client.getSocket().getInputStream()).readFully(echo);
+            assertEquals("keep-alive echo", "0000", new String(echo));
+            client.disconnect();
+            server.disconnect();
+        }
+    }
+
+    @Test
+    public void testZeroCopyReceiveAllocation() throws Throwable {
+        java.lang.management.ThreadMXBean mx = java.lang.management.ManagementFactory.getThreadMXBean();
+        if (!(mx instanceof com.sun.management.ThreadMXBean))
+            return;
+        com.sun.management.ThreadMXBean tmx = (com.sun.management.ThreadMXBean) mx;
+        if (!tmx.isThreadAllocatedMemorySupported())
+            return;
+        tmx.setThreadAllocatedMemoryEnabled(true);
+        final int n = 5000;
+        long tid = Thread.currentThread().getId();
+        ISOPackager p = new ISO87BPackager();
+
+        try (ServerSocket ss = new ServerSocket(0)) {
+            BaseChannel[] pair = connectedPair(ss, new ASCIIChannel(p));
+            final BaseChannel client = pair[0];
+            BaseChannel server = pair[1];
+            server.setZeroCopyReceive(true);
+            Thread sender = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i=0; i<2*n; i++)
+                            client.send(newRequest(i));
+                    } catch (Exception ignored) { }
+                }
+            };
+            sender.start();
+
+            for (int i=0; i<n; i++)   // warm up
+                server.receive();
+            long start = tmx.getThreadAllocatedBytes(tid);
+            for (int i=0; i<n; i++)
+                server.receive();
+            long receive = tmx.getThreadAllocatedBytes(tid) - start;
+
+            // what it takes just to build the resulting ISOMsg
+            byte[] image = newRequest(0).pack();
+            for (int i=0; i<n; i++)
+                unpackOnly(server, p, image);
+            start = tmx.getThreadAllocatedBytes(tid);
+            for (int i=0; i<n; i++)
+                unpackOnly(server, p, image);
+            long unpack = tmx.getThreadAllocatedBytes(tid) - start;
+
+            sender.join();
+            client.disconnect();
+            server.disconnect();
+            assertTrue("receive overhead " + (receive - unpack)/n + " bytes/msg",
+              (receive - unpack) / n < 64);
+        }
+    }
+
+    private static ISOMsg unpackOnly (BaseChannel source, ISOPackager p, byte[] image) throws ISOException {
+        ISOMsg m = p.createISOMsg();
+        m.setSource(source);
+        m.setPackager(p);
+        m.unpack(image);
+        return m;
+    }
+
+    private static ISOMsg newRequest (int stan) throws ISOException {
+        ISOMsg m = new ISOMsg("0200");
+        m.setPackager(new ISO87BPackager());
+        m.set(2, "4111111111111111");
+        m.set(3, "000000");
+        m.set(4, "000000001000");
+        m.set(11, ISOUtil.zeropad(stan % 1000000, 6));
+        m.set(41, "29110001");
+        m.set(49, "840");
+        return m;
+    }
+
+    private static BaseChannel[] connectedPair (final ServerSocket ss, BaseChannel prototype) throws Exception {
+        final BaseChannel server = (BaseChannel) prototype.clone();
+        Thread acceptor = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    server.accept(ss);
+                } catch (IOException ignored) { }
+            }
+        };
+        acceptor.start();
+        BaseChannel client = (BaseChannel) prototype.clone();
+        client.setHost("localhost", ss.getLocalPort());
+        client.connect();
+        acceptor.join();
+        return new BaseChannel[] { client, server };
+    }
+
+    @Test
+    public void testCoalesceWrites() throws Throwable {
+        ASCIIChannel prototype = new ASCIIChannel(new ISO87BPackager());
+        prototype.setCoalesceWrites(true);
+        prototype.setMaxBatchSize(16);
+        prototype.setMaxLinger(200L);
+        final int threads = 4;
+        final int n = 500;
+        try (ServerSocket ss = new ServerSocket(0)) {
+            BaseChannel[] pair = connectedPair(ss, prototype);
+            final BaseChannel client = pair[0];
+            final BaseChannel server = pair[1];
+            assertTrue("client socket is channel backed", client.getSocket().getChannel() != null);
+            client.setTimeout(5000);
+            server.setTimeout(5000);
+
+            Thread echo = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i=0; i<threads*n; i++) {
+                            ISOMsg m = server.receive();
+                            m.setResponseMTI();
+                            server.send(m);
+                        }
+                    } catch (Exception ignored) { }
+                }
+            };
+            echo.start();
+            Thread[] senders = new Thread[threads];
+            for (int t=0; t<threads; t++) {
+                final int base = t*n;
+                senders[t] = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (int i=0; i<n; i++)
+                                client.send(newRequest(base + i));
+                        } catch (Exception ignored) { }
+                    }
+                };
+                senders[t].start();
+            }
+            java.util.BitSet stans = new java.util.BitSet();
+            for (int i=0; i<threads*n; i++) {
+                ISOMsg r = client.receive();
+                assertEquals("0210", r.getMTI());
+                stans.set(Integer.parseInt(r.getString(11)));
+            }
+            assertEquals(threads*n, stans.cardinality());
+            for (Thread t : senders)
+                t.join();
+            echo.join();
+
+            CoalescingWriter cw = client.getCoalescingWriter();
+            assertEquals(threads*n, cw.getFrameCount());
+            assertTrue(cw.getWriteCount() <= cw.getFrameCount());
+            assertEquals(threads*n, server.getCoalescingWriter().getFrameCount());
+            client.disconnect();
+            server.disconnect();
+            assertNull(client.getCoalescingWriter());
+        }
+    }
 }
@@ -0,0 +1,208 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2017 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.iso;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jpos.iso.channel.ASCIIChannel;
+import org.junit.Test;
+
+public class CoalescingWriterTest {
+
+    @Test
+    public void testSendBlocksWhenQueueFull() throws Throwable {
+        GatedOutputStream out = new GatedOutputStream();
+        final CoalescingWriter cw = new CoalescingWriter(new ASCIIChannel(), new StreamSocket(out), 1, 0L, 1);
+        cw.start();
+        send(cw, "A");
+        assertTrue("writer busy", out.writing.await(5, TimeUnit.SECONDS));
+        send(cw, "B");
+        assertEquals(1, cw.getQueueSize());
+
+        final Throwable[] error = new Throwable[1];
+        Thread sender = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    send(cw, "C");
+                } catch (Throwable t) {
+                    error[0] = t;
+                }
+            }
+        };
+        sender.start();
+        sender.join(300L);
+        assertTrue("sender blocked on full queue", sender.isAlive());
+
+        out.gate.countDown();
+        sender.join(5000L);
+        assertFalse(sender.isAlive());
+        assertEquals(null, error[0]);
+        cw.close();
+        assertEquals("ABC", out.toString());
+        assertEquals(3L, cw.getFrameCount());
+    }
+
+    @Test
+    public void testCloseWritesPendingFrames() throws Throwable {
+        final GatedOutputStream out = new GatedOutputStream();
+        CoalescingWriter cw = new CoalescingWriter(new ASCIIChannel(), new StreamSocket(out), 1, 0L, 16);
+        cw.start();
+        send(cw, "A");
+        assertTrue("writer busy", out.writing.await(5, TimeUnit.SECONDS));
+        send(cw, "B");
+        send(cw, "C");
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(200L);
+                } catch (InterruptedException ignored) { }
+                out.gate.countDown();
+            }
+        }.start();
+        cw.close();
+        assertEquals("ABC", out.toString());
+        assertEquals(0, cw.getQueueSize());
+        try {
+            send(cw, "D");
+            fail("Expected IOException to be thrown");
+        } catch (IOException ex) {
+            assertEquals("writer closed", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testBlockedSendFailsWhenWriterDies() throws Throwable {
+        GatedOutputStream out = new GatedOutputStream();
+        out.fail = true;
+        final CoalescingWriter cw = new CoalescingWriter(new ASCIIChannel(), new StreamSocket(out), 1, 0L, 1);
+        cw.start();
+        send(cw, "A");
+        assertTrue("writer busy", out.writing.await(5, TimeUnit.SECONDS));
+        send(cw, "B");
+        out.gate.countDown();
+        try {
+            send(cw, "C");
+            fail("Expected IOException to be thrown");
+        } catch (IOException ex) {
+            assertEquals("writer closed", ex.getMessage());
+        }
+        assertEquals(0, cw.getQueueSize());
+    }
+
+    @Test
+    public void testRejectsNonBlockingChannel() throws Throwable {
+        try (ServerSocketChannel server = ServerSocketChannel.open();
+             SocketChannel client = SocketChannel.open())
+        {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            client.connect(server.getLocalAddress());
+            client.configureBlocking(false);
+            try {
+                new CoalescingWriter(new ASCIIChannel(), client.socket(), 1, 0L, 1);
+                fail("Expected IOException to be thrown");
+            } catch (IOException ex) {
+                assertEquals("socket channel is in non-blocking mode", ex.getMessage());
+            }
+        }
+    }
+
+    private static void send(CoalescingWriter cw, String frame) throws IOException {
+        OutputStream os = cw.getOutputStream();
+        os.write(frame.getBytes());
+        os.flush();
+    }
+
+    /**
+     * Collects written bytes; the first write blocks until the gate opens.
+     */
+    static class GatedOutputStream extends OutputStream {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch gate = new CountDownLatch(1);
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        volatile boolean fail;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            writing.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException ignored) { }
+            if (fail)
+                throw new IOException("write failed");
+            synchronized (written) {
+                written.write(b, off, len);
+            }
+        }
+
+        @Override
+        public String toString() {
+            synchronized (written) {
+                return written.toString();
+            }
+        }
+    }
+
+    /**
+     * Unconnected socket whose output goes to the given stream.
+     */
+    static class StreamSocket extends Socket {
+        private final OutputStream out;
+        private volatile boolean closed;
+
+        StreamSocket(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return out;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed;
+        }
+
+        @Override
+        public synchronized void close() {
+            closed = true;
+        }
+    }
+}
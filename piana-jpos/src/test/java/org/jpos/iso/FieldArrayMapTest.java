@@ -0,0 +1,125 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2017 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.iso;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+public class FieldArrayMapTest {
+    @Test
+    public void testBehavesLikeTreeMap() {
+        Random r = new Random (8583L);
+        FieldArrayMap m = new FieldArrayMap();
+        TreeMap<Integer,Object> t = new TreeMap<>();
+        for (int n=0; n<20000; n++) {
+            int k = r.nextInt (210) - 8;
+            if (r.nextInt (3) == 0) {
+                assertEquals (t.remove (k), m.remove (k));
+            } else {
+                String v = Integer.toString (n);
+                assertEquals (t.put (k, v), m.put (k, v));
+            }
+            assertEquals (t.size(), m.size());
+            assertEquals (t.containsKey (k), m.containsKey (k));
+            assertEquals (t.get (k), m.get ((Object) k));
+        }
+        assertEquals (t, m);
+        assertEquals (new ArrayList<>(t.keySet()), new ArrayList<>(m.keySet()));
+        assertEquals (t.lastKey().intValue(), m.maxField());
+    }
+
+    @Test
+    public void testPresenceBitmap() {
+        FieldArrayMap m = new FieldArrayMap();
+        assertEquals (-1, m.nextField (1));
+        assertEquals (Integer.MIN_VALUE, m.maxField());
+        m.put (0, "0100");
+        m.put (FieldArrayMap.BITMAP, "bitmap");
+        assertEquals (0, m.maxField());
+        for (int i : new int[] { 2, 63, 64, 65, 128, 129, 192 })
+            m.put (i, "x");
+        List<Integer> l = new ArrayList<>();
+        for (int i = m.nextField (1); i > 0; i = m.nextField (i+1))
+            l.add (i);
+        assertEquals ("[2, 63, 64, 65, 128, 129, 192]", l.toString());
+        assertEquals (192, m.maxField());
+        assertEquals ("[-1, 0, 2, 63, 64, 65, 128, 129, 192]", m.keySet().toString());
+        m.put (500, "x");
+        m.put (-5, "x");
+        assertEquals (500, m.maxField());
+        assertEquals ("[-5, -1, 0, 2, 63, 64, 65, 128, 129, 192, 500]", m.keySet().toString());
+    }
+
+    @Test
+    public void testNullValues() {
+        FieldArrayMap m = new FieldArrayMap();
+        m.put (10, null);
+        assertTrue (m.containsKey (10));
+        assertNull (m.get (10));
+        assertEquals (1, m.size());
+        m.remove (10);
+        assertFalse (m.containsKey (10));
+        assertEquals (0, m.size());
+    }
+
+    @Test
+    public void testIterator() {
+        FieldArrayMap m = new FieldArrayMap();
+        for (int i=0; i<=192; i++)
+            m.put (i, Integer.toString (i));
+        Iterator<Map.Entry<Integer,Object>> iter = m.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<Integer,Object> e = iter.next();
+            if (e.getKey() % 2 == 0)
+                iter.remove();
+            else
+                e.setValue ("odd");
+        }
+        assertEquals (96, m.size());
+        assertNull (m.get (2));
+        assertEquals ("odd", m.get (191));
+    }
+
+    @Test
+    public void testClone() {
+        FieldArrayMap m = new FieldArrayMap();
+        m.put (2, "a");
+        m.put (300, "b");
+        FieldArrayMap c = m.clone();
+        c.put (2, "c");
+        c.put (3, "d");
+        c.remove (300);
+        assertEquals ("a", m.get (2));
+        assertFalse (m.containsKey (3));
+        assertEquals ("b", m.get (300));
+        assertEquals (2, m.size());
+        assertEquals (2, c.size());
+    }
+}
@@ -20,9 +20,19 @@ package org.jpos.iso;
 
 import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.jpos.iso.packager.ISO87APackager;
+import org.jpos.iso.packager.ISO87BPackager;
 import org.jpos.util.Logger;
 import org.junit.Before;
 import org.junit.Test;
@@ -86,4 +96,84 @@ public class ISOBasePackagerTest {
         assertThat(iSOBasePackager.getFieldPackager(0), is(iSOFieldPackager));
     }
 
+    @Test
+    public void testPackByteBuffer() throws ISOException {
+        for (ISOPackager p : new ISOPackager[] { new ISO87APackager(), new ISO87BPackager() }) {
+            ISOMsg m = new ISOMsg("0200");
+            m.setPackager(p);
+            m.set(2, "4111111111111111");
+            m.set(3, "000000");
+            m.set(4, "000000001000");
+            m.set(11, "123");
+            m.set(35, "4111111111111111=2512101");
+            m.set(48, ISOUtil.zeropad(7, 999));
+            m.set(52, ISOUtil.hex2byte("0102030405060708"));
+            m.set(70, "301");
+            byte[] expected = m.pack();
+
+            ByteBuffer buf = ByteBuffer.allocate(expected.length + 10);
+            Arrays.fill(buf.array(), (byte) 0xFF);
+            buf.position(3);
+            assertThat(m.pack(buf), is(expected.length));
+            assertThat(buf.position(), is(3 + expected.length));
+            assertArrayEquals(expected, Arrays.copyOfRange(buf.array(), 3, 3 + expected.length));
+        }
+    }
+
+    @Test
+    public void testPackByteBufferOverflow() throws ISOException {
+        ISOMsg m = new ISOMsg("0800");
+        m.setPackager(new ISO87BPackager());
+        m.set(11, "000001");
+        m.set(70, "301");
+        byte[] expected = m.pack();
+        ByteBuffer buf = ByteBuffer.allocate(expected.length - 1);
+        buf.position(1);
+        try {
+            m.pack(buf);
+            fail("BufferOverflowException expected");
+        } catch (BufferOverflowException e) {
+            assertThat(buf.position(), is(1));
+        }
+    }
+
+    @Test
+    public void testUnpackInPlaceShortImage() throws ISOException {
+        ISOMsg m = new ISOMsg("0800");
+        m.setPackager(new ISO87BPackager());
+        m.set(11, "000001");
+        m.set(41, "29110001");
+        byte[] b = m.pack();
+        ISOMsg m1 = new ISOMsg();
+        assertEquals(b.length, new ISO87BPackager().unpack(m1, b, 0, b.length));
+        try {
+            // the rest of the frame is still in the buffer, left over from a longer message
+            new ISO87BPackager().unpack(new ISOMsg(), b, 0, b.length - 3);
+            fail("ISOException expected");
+        } catch (ISOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("image too short"));
+        }
+    }
+
+    @Test
+    public void testUnpackInPlaceOverride() throws ISOException {
+        ISOMsg m = new ISOMsg("0800");
+        m.setPackager(new ISO87BPackager());
+        m.set(11, "000001");
+        byte[] image = m.pack();
+        byte[] b = new byte[image.length + 4];
+        System.arraycopy(image, 0, b, 2, image.length);
+        final int[] calls = new int[1];
+        ISO87BPackager p = new ISO87BPackager() {
+            @Override
+            public int unpack(ISOComponent c, byte[] b) throws ISOException {
+                calls[0]++;
+                return super.unpack(c, b);
+            }
+        };
+        ISOMsg m1 = new ISOMsg();
+        assertEquals(image.length, p.unpack(m1, b, 2, image.length));
+        assertEquals("override called", 1, calls[0]);
+        assertEquals("000001", m1.getString(11));
+    }
 }
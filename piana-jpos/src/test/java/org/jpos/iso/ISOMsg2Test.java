@@ -66,6 +66,44 @@ public class ISOMsg2Test {
         assumeThat(System.getProperty("executeQuickRunningTestsOnly", "false"), is("false"));
     }
 
+    @Test
+    public void testCompactStorage() throws Throwable {
+        ISOMsg m = new ISOMsg("0200");
+        m.setCompact(true);
+        assertTrue("m.isCompact()", m.isCompact());
+        m.set(2, "4111111111111111");
+        m.set(11, "000001");
+        m.set(41, "29110001");
+        m.set("127.2", "nested");
+        m.set(new ISOBinaryField(52, new byte[8]));
+        assertEquals("m.getMaxField()", 127, m.getMaxField());
+        assertEquals("m.getString(\"127.2\")", "nested", m.getString("127.2"));
+
+        ISOMsg tree = (ISOMsg) m.clone();
+        tree.setCompact(false);
+        assertFalse("tree.isCompact()", tree.isCompact());
+        m.setPackager(new ISO87APackager());
+        tree.setPackager(new ISO87APackager());
+        m.unset(127);
+        tree.unset(127);
+        assertTrue("same image", Arrays.equals(tree.pack(), m.pack()));
+        assertEquals("m.getMaxField()", 52, m.getMaxField());
+        assertEquals("fields", tree.getChildren().keySet(), m.getChildren().keySet());
+
+        ISOMsg c = (ISOMsg) m.clone();
+        c.set(11, "000002");
+        assertEquals("m.getString(11)", "000001", m.getString(11));
+        assertTrue("c.isCompact()", c.isCompact());
+
+        ISOMsg u = new ISOMsg();
+        u.setCompact(true);
+        u.setPackager(new ISO87APackager());
+        u.unpack(m.pack());
+        assertEquals("u.getString(2)", "4111111111111111", u.getString(2));
+        assertTrue("u.hasField(52)", u.hasField(52));
+        assertFalse("u.hasField(127)", u.hasField(127));
+    }
+
     @Test
     public void testClone() throws Throwable {
         byte[] header = new byte[2];
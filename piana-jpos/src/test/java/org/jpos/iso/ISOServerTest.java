@@ -22,7 +22,24 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
 
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+import org.jpos.core.ConfigurationException;
+import org.jpos.core.SimpleConfiguration;
+import org.jpos.iso.channel.ASCIIChannel;
+import org.jpos.iso.channel.NACChannel;
+import org.jpos.iso.channel.XMLChannel;
+import org.jpos.iso.packager.ISO87BPackager;
+import org.jpos.iso.packager.XMLPackager;
 import org.jpos.util.NameRegistrar;
+import org.jpos.util.ThreadPool;
 import org.junit.Test;
 
 public class ISOServerTest {
@@ -46,4 +63,224 @@ public class ISOServerTest {
             assertEquals("ex.getMessage()", "server.testISOServerName", ex.getMessage());
         }
     }
+
+    @Test
+    public void testNioEchoASCIIChannel() throws Throwable {
+        int port = freePort();
+        ISOServer server = newNioServer(port, new ASCIIChannel(new XMLPackager()));
+        try {
+            ASCIIChannel[] clients = new ASCIIChannel[5];
+            for (int i=0; i<clients.length; i++) {
+                clients[i] = new ASCIIChannel("localhost", port, new XMLPackager());
+                connect(clients[i]);
+            }
+            for (int n=0; n<3; n++) {
+                for (int i=0; i<clients.length; i++) {
+                    ISOMsg m = new ISOMsg("0800");
+                    m.set(11, Integer.toString(i*10 + n));
+                    clients[i].send(m);
+                }
+                for (int i=0; i<clients.length; i++) {
+                    ISOMsg r = clients[i].receive();
+                    assertEquals("0810", r.getMTI());
+                    assertEquals(Integer.toString(i*10 + n), r.getString(11));
+                }
+            }
+            assertEquals(clients.length, server.getActiveConnections());
+            for (ASCIIChannel c : clients)
+                c.disconnect();
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void testNioEchoNACChannelWithHeader() throws Throwable {
+        int port = freePort();
+        byte[] tpdu = ISOUtil.hex2byte("6000010002");
+        ISOServer server = newNioServer(port, new NACChannel(new ISO87BPackager(), tpdu));
+        try {
+            NACChannel client = new NACChannel("localhost", port, new ISO87BPackager(), tpdu);
+            connect(client);
+            ISOMsg m = new ISOMsg("0800");
+            m.set(11, "000001");
+            m.set(41, "29110001");
+            client.send(m);
+            ISOMsg r = client.receive();
+            assertEquals("0810", r.getMTI());
+            assertEquals("000001", r.getString(11));
+            assertEquals("6000020001", ISOUtil.hexString(r.getHeader()));
+            client.disconnect();
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void testNioKeepAliveEchoASCIIChannel() throws Throwable {
+        int port = freePort();
+        ISOServer server = newNioServer(port, new ASCIIChannel(new XMLPackager()));
+        try (Socket s = connect(port)) {
+            DataInputStream in = new DataInputStream(s.getInputStream());
+            OutputStream out = s.getOutputStream();
+            ISOMsg m = new ISOMsg("0800");
+            m.set(11, "000001");
+            m.setPackager(new XMLPackager());
+            byte[] b = m.pack();
+            out.write(("0000" + ISOUtil.zeropad(b.length, 4)).getBytes(StandardCharsets.ISO_8859_1));
+            out.write(b);
+            out.flush();
+
+            byte[] len = new byte[4];
+            in.readFully(len);
+            assertEquals("keep-alive echo", "0000", new String(len, StandardCharsets.ISO_8859_1));
+            in.readFully(len);
+            byte[] reply = new byte[Integer.parseInt(new String(len, StandardCharsets.ISO_8859_1))];
+            in.readFully(reply);
+            ISOMsg r = new ISOMsg();
+            r.setPackager(new XMLPackager());
+            r.unpack(reply);
+            assertEquals("0810", r.getMTI());
+            assertEquals("000001", r.getString(11));
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void testNioZeroLengthNotExpected() throws Throwable {
+        int port = freePort();
+        ISOServer server = newNioServer(port, new NACChannel(new ISO87BPackager(), null));
+        try (Socket s = connect(port)) {
+            s.getOutputStream().write(new byte[2]);
+            s.getOutputStream().flush();
+            try {
+                new DataInputStream(s.getInputStream()).readFully(new byte[2]);
+                fail("Expected the server to close the connection");
+            } catch (EOFException expected) {
+                // zero length frames close the session unless expect-keep-alive is set
+            }
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void testNioNotSupportedByChannel() throws Throwable {
+        ISOServer server = new ISOServer(0, new XMLChannel(new XMLPackager()), null);
+        Properties props = new Properties();
+        props.put("nio", "true");
+        server.setConfiguration(new SimpleConfiguration(props));
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void testNioRejectsSocketFactory() throws Throwable {
+        ISOServer server = new ISOServer(0, new ASCIIChannel(new XMLPackager()), null);
+        server.setSocketFactory(port -> new ServerSocket(port));
+        Properties props = new Properties();
+        props.put("nio", "true");
+        server.setConfiguration(new SimpleConfiguration(props));
+    }
+
+    @Test
+    public void testNioMaxSessions() throws Throwable {
+        int port = freePort();
+        ISOServer server = newNioServer(port, new ASCIIChannel(new XMLPackager()), new ThreadPool(1, 1));
+        try {
+            ASCIIChannel first = new ASCIIChannel("localhost", port, new XMLPackager());
+            connect(first);
+            ISOMsg m = new ISOMsg("0800");
+            m.set(11, "000001");
+            first.send(m);
+            assertEquals("0810", first.receive().getMTI());
+
+            try (Socket second = connect(port)) { // sits in the backlog
+                m.setPackager(new XMLPackager());
+                byte[] b = m.pack();
+                OutputStream out = second.getOutputStream();
+                out.write(ISOUtil.zeropad(b.length, 4).getBytes(StandardCharsets.ISO_8859_1));
+                out.write(b);
+                out.flush();
+                DataInputStream in = new DataInputStream(second.getInputStream());
+                second.setSoTimeout(1000);
+                try {
+                    in.readByte();
+                    fail("Expected the second session to wait for the first one");
+                } catch (SocketTimeoutException expected) {
+                    // not accepted yet
+                }
+                first.disconnect();
+                second.setSoTimeout(5000);
+                byte[] len = new byte[4];
+                in.readFully(len);
+                byte[] reply = new byte[Integer.parseInt(new String(len, StandardCharsets.ISO_8859_1))];
+                in.readFully(reply);
+                ISOMsg r = new ISOMsg();
+                r.setPackager(new XMLPackager());
+                r.unpack(reply);
+                assertEquals("0810", r.getMTI());
+            }
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    private ISOServer newNioServer(int port, ServerChannel channel) throws Throwable {
+        return newNioServer(port, channel, null);
+    }
+
+    private ISOServer newNioServer(int port, ServerChannel channel, ThreadPool pool) throws Throwable {
+        ISOServer server = new ISOServer(port, channel, pool);
+        Properties props = new Properties();
+        props.put("nio", "true");
+        props.put("nio-threads", "2");
+        server.setConfiguration(new SimpleConfiguration(props));
+        server.addISORequestListener(new ISORequestListener() {
+            @Override
+            public boolean process(ISOSource source, ISOMsg m) {
+                try {
+                    m.setResponseMTI();
+                    source.send(m);
+                } catch (Exception e) {
+                    fail(e.getMessage());
+                }
+                return true;
+            }
+        });
+        new Thread(server).start();
+        return server;
+    }
+
+    private static void connect(BaseChannel channel) throws Exception {
+        for (int i=0; i<50 && !channel.isConnected(); i++) {
+            try {
+                channel.connect();
+            } catch (java.io.IOException e) {
+                // server not listening yet
+            }
+            if (!channel.isConnected())
+                Thread.sleep(100);
+        }
+        channel.setTimeout(5000);
+    }
+
+    private static Socket connect(int port) throws Exception {
+        for (int i=0; ; i++) {
+            try {
+                Socket s = new Socket("localhost", port);
+                s.setSoTimeout(5000);
+                return s;
+            } catch (java.io.IOException e) {
+                if (i == 50)
+                    throw e;
+                Thread.sleep(100); // server not listening yet
+            }
+        }
+    }
+
+    private static int freePort() throws Exception {
+        try (ServerSocket ss = new ServerSocket(0)) {
+            return ss.getLocalPort();
+        }
+    }
 }
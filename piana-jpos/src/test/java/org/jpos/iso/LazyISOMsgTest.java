@@ -0,0 +1,187 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2017 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jpos.iso;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.jpos.iso.packager.GenericPackager;
+import org.jpos.iso.packager.PostPackager;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LazyISOMsgTest {
+    PostPackager packager;
+    byte[] image;
+
+    @Before
+    public void setUp() throws ISOException {
+        packager = new PostPackager();
+        ((ISOMsgFieldPackager) packager.getFieldPackager(127)).setLazy(true);
+
+        ISOMsg m = new ISOMsg("0200");
+        m.setPackager(packager);
+        m.set(11, "000001");
+        m.set("127.2", "SWITCHKEY");
+        m.set("127.9", "123");
+        image = m.pack();
+    }
+
+    private ISOMsg unpack() throws ISOException {
+        ISOMsg m = new ISOMsg();
+        m.setPackager(packager);
+        m.unpack(image);
+        return m;
+    }
+
+    @Test
+    public void testUnpackIsDeferred() throws ISOException {
+        ISOMsg m = unpack();
+        LazyISOMsg inner = (LazyISOMsg) m.getComponent(127);
+        assertFalse(inner.isUnpacked());
+        assertNotNull(inner.getImage());
+        assertEquals("000001", m.getString(11));
+    }
+
+    @Test
+    public void testRepackVerbatim() throws ISOException {
+        ISOMsg m = unpack();
+        assertArrayEquals(image, m.pack());
+        ByteBuffer buf = ByteBuffer.allocate(image.length);
+        m.pack(buf);
+        assertArrayEquals(image, buf.array());
+        LazyISOMsg inner = (LazyISOMsg) m.getComponent(127);
+        assertFalse("packing the parent doesn't unpack the lazy field", inner.isUnpacked());
+    }
+
+    @Test
+    public void testReadKeepsImage() throws ISOException {
+        ISOMsg m = unpack();
+        assertEquals("SWITCHKEY", m.getString("127.2"));
+        assertEquals("123", m.getString("127.9"));
+        assertTrue(m.hasField("127.9"));
+        assertFalse(m.hasField("127.3"));
+        LazyISOMsg inner = (LazyISOMsg) m.getComponent(127);
+        assertTrue(inner.isUnpacked());
+        assertNotNull(inner.getImage());
+        assertArrayEquals(image, m.pack());
+    }
+
+    @Test
+    public void testReadBytesKeepsImage() throws ISOException {
+        String xml =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n" +
+            "<!DOCTYPE isopackager SYSTEM \"genericpackager.dtd\">\n" +
+            "<isopackager>\n" +
+            "  <isofield id=\"0\" length=\"4\" name=\"MTI\" class=\"org.jpos.iso.IFA_NUMERIC\"/>\n" +
+            "  <isofield id=\"1\" length=\"16\" name=\"BITMAP\" class=\"org.jpos.iso.IFA_BITMAP\"/>\n" +
+            "  <isofieldpackager id=\"48\" length=\"999\" name=\"ADDITIONAL DATA\"\n" +
+            "      class=\"org.jpos.iso.IFA_LLLBINARY\" packager=\"org.jpos.iso.packager.GenericSubFieldPackager\"\n" +
+            "      emitBitmap=\"false\" lazy=\"true\">\n" +
+            "    <isofield id=\"1\" length=\"4\" name=\"SUB 1\" class=\"org.jpos.iso.IFA_BINARY\"/>\n" +
+            "  </isofieldpackager>\n" +
+            "</isopackager>\n";
+        GenericPackager p = new GenericPackager(new ByteArrayInputStream(xml.getBytes(ISOUtil.CHARSET)));
+        byte[] key = ISOUtil.hex2byte("CAFEBABE");
+        ISOMsg m = new ISOMsg("0100");
+        m.setPackager(p);
+        m.set("48.1", key);
+        byte[] b = m.pack();
+
+        ISOMsg m1 = new ISOMsg();
+        m1.setPackager(p);
+        m1.unpack(b);
+        byte[] value = m1.getBytes("48.1");
+        assertArrayEquals(key, value);
+        value[0] = 0;
+        assertArrayEquals(key, m1.getBytes("48.1"));
+        LazyISOMsg inner = (LazyISOMsg) m1.getValue(48);
+        assertArrayEquals(key, inner.getBytes(1));
+        assertTrue(inner.isUnpacked());
+        assertNotNull(inner.getImage());
+        assertArrayEquals(b, m1.pack());
+    }
+
+    @Test
+    public void testModify() throws ISOException {
+        ISOMsg m = unpack();
+        m.set("127.9", "456");
+        LazyISOMsg inner = (LazyISOMsg) m.getComponent(127);
+        assertNull(inner.getImage());
+        byte[] b = m.pack();
+        assertFalse(Arrays.equals(image, b));
+
+        ISOMsg m1 = new ISOMsg();
+        m1.setPackager(packager);
+        m1.unpack(b);
+        assertEquals("SWITCHKEY", m1.getString("127.2"));
+        assertEquals("456", m1.getString("127.9"));
+    }
+
+    @Test
+    public void testClone() throws ISOException {
+        ISOMsg m = unpack();
+        ISOMsg c = (ISOMsg) m.clone();
+        c.set("127.2", "OTHERKEY");
+        assertEquals("SWITCHKEY", m.getString("127.2"));
+        assertArrayEquals(image, m.pack());
+        assertEquals("OTHERKEY", c.getString("127.2"));
+    }
+
+    @Test
+    public void testGenericPackagerLazyAttribute() throws ISOException {
+        String xml =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n" +
+            "<!DOCTYPE isopackager SYSTEM \"genericpackager.dtd\">\n" +
+            "<isopackager>\n" +
+            "  <isofield id=\"0\" length=\"4\" name=\"MTI\" class=\"org.jpos.iso.IFA_NUMERIC\"/>\n" +
+            "  <isofield id=\"1\" length=\"16\" name=\"BITMAP\" class=\"org.jpos.iso.IFA_BITMAP\"/>\n" +
+            "  <isofieldpackager id=\"48\" length=\"999\" name=\"ADDITIONAL DATA\"\n" +
+            "      class=\"org.jpos.iso.IFA_LLLBINARY\" packager=\"org.jpos.iso.packager.GenericSubFieldPackager\"\n" +
+            "      emitBitmap=\"false\" lazy=\"true\">\n" +
+            "    <isofield id=\"1\" length=\"2\" name=\"SUB 1\" class=\"org.jpos.iso.IFA_LLCHAR\"/>\n" +
+            "    <isofield id=\"2\" length=\"3\" name=\"SUB 2\" class=\"org.jpos.iso.IF_CHAR\"/>\n" +
+            "  </isofieldpackager>\n" +
+            "</isopackager>\n";
+        GenericPackager p = new GenericPackager(new ByteArrayInputStream(xml.getBytes(ISOUtil.CHARSET)));
+        assertTrue(((ISOMsgFieldPackager) p.getFieldPackager(48)).isLazy());
+
+        ISOMsg m = new ISOMsg("0100");
+        m.setPackager(p);
+        m.set("48.1", "AB");
+        m.set("48.2", "XYZ");
+        byte[] b = m.pack();
+
+        ISOMsg m1 = new ISOMsg();
+        m1.setPackager(p);
+        m1.unpack(b);
+        assertFalse(((LazyISOMsg) m1.getComponent(48)).isUnpacked());
+        assertEquals("XYZ", m1.getString("48.2"));
+        assertArrayEquals(b, m1.pack());
+    }
+}
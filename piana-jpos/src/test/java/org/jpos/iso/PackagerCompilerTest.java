@@ -0,0 +1,172 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2017 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jpos.iso;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+
+import org.jpos.iso.packager.BASE24Packager;
+import org.jpos.iso.packager.CompiledGenericPackager;
+import org.jpos.iso.packager.GenericPackager;
+import org.jpos.iso.packager.ISO87APackager;
+import org.jpos.iso.packager.ISO87BPackager;
+import org.jpos.iso.packager.ISO93BPackager;
+import org.jpos.iso.packager.PostPackager;
+import org.junit.Test;
+
+public class PackagerCompilerTest {
+    private ISOMsg createMsg (ISOBasePackager p, boolean secondary) throws ISOException {
+        ISOMsg m = new ISOMsg("0200");
+        for (int i=2; i<p.fld.length && i <= (secondary ? 128 : 64); i++) {
+            ISOFieldPackager fp = p.fld[i];
+            if (fp instanceof ISOStringFieldPackager) {
+                boolean fixed = ((ISOStringFieldPackager) fp).getPrefixer().getPackedLength() == 0;
+                m.set(i, ISOUtil.zeropad(i, fixed ? fp.getLength() : Math.min(fp.getLength(), 11)));
+            } else if (fp instanceof ISOBinaryFieldPackager) {
+                boolean fixed = ((ISOBinaryFieldPackager) fp).getPrefixer().getPackedLength() == 0;
+                byte[] b = new byte[fixed ? fp.getLength() : Math.min(fp.getLength(), 7)];
+                for (int j=0; j<b.length; j++)
+                    b[j] = (byte) (i + j);
+                m.set(i, b);
+            } else if (fp instanceof IFA_AMOUNT) {
+                m.set(i, "D" + ISOUtil.zeropad(i, fp.getLength() - 1));
+            }
+        }
+        m.recalcBitMap();
+        return m;
+    }
+
+    private void assertSame (ISOBasePackager p, ISOMsg m) throws ISOException {
+        ISOBasePackager c = PackagerCompiler.compile(p);
+        byte[] expected = p.pack(m);
+        assertArrayEquals(p.getDescription(), expected, c.pack(m));
+
+        ByteBuffer buf = ByteBuffer.allocate(expected.length + 4);
+        buf.position(2);
+        assertEquals(expected.length, c.pack(m, buf));
+        for (int i=0; i<expected.length; i++)
+            assertEquals(expected[i], buf.array()[i+2]);
+
+        ISOMsg m1 = new ISOMsg();
+        assertEquals(expected.length, c.unpack(m1, expected));
+        for (int i=-1; i<=128; i++)
+            assertEquals(p.getDescription() + " field " + i, m.getString(i), m1.getString(i));
+        assertArrayEquals(expected, p.pack(m1));
+    }
+
+    @Test
+    public void testStandardPackagers() throws ISOException {
+        for (ISOBasePackager p : new ISOBasePackager[] {
+          new ISO87APackager(), new ISO87BPackager(), new ISO93BPackager(), new PostPackager(), new BASE24Packager(),
+          new GenericPackager("jar:packager/iso87ascii.xml"), new GenericPackager("jar:packager/iso87binary.xml"),
+          new GenericPackager("jar:packager/iso93ascii.xml"), new GenericPackager("jar:packager/iso93binary.xml") })
+        {
+            assertSame(p, createMsg(p, false));
+            assertSame(p, createMsg(p, true));
+        }
+    }
+
+    @Test
+    public void testInnerMessage() throws ISOException {
+        PostPackager p = new PostPackager();
+        ISOMsg m = createMsg(p, true);
+        m.set("127.2", "SWITCHKEY");
+        m.set("127.9", "123");
+        m.recalcBitMap();
+        assertSame(p, m);
+    }
+
+    @Test
+    public void testUnpackError() throws ISOException {
+        ISOBasePackager p = new ISO87BPackager();
+        ISOMsg m = createMsg(p, false);
+        byte[] b = p.pack(m);
+        ISOBasePackager c = PackagerCompiler.compile(p);
+        try {
+            c.unpack(new ISOMsg(), java.util.Arrays.copyOf(b, b.length - 3));
+            fail("ISOException expected");
+        } catch (ISOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("unpacking field=64"));
+        }
+    }
+
+    @Test
+    public void testUnpackInPlaceShortImage() throws ISOException {
+        for (ISOBasePackager p : new ISOBasePackager[] { new ISO87APackager(), new ISO87BPackager() }) {
+            ISOMsg m = createMsg(p, false);
+            byte[] b = p.pack(m);
+            ISOBasePackager c = PackagerCompiler.compile(p);
+            try {
+                c.unpack(new ISOMsg(), b, 0, b.length - 3);
+                fail("ISOException expected");
+            } catch (ISOException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("unpacking field=64"));
+            }
+        }
+    }
+
+    @Test
+    public void testPackError() throws ISOException {
+        ISOBasePackager c = PackagerCompiler.compile(new ISO87APackager());
+        ISOMsg m = new ISOMsg("0200");
+        m.set(3, "1234567");
+        m.recalcBitMap();
+        try {
+            c.pack(m);
+            fail("ISOException expected");
+        } catch (ISOException e) {
+            assertEquals("error packing field 3", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testUnsupported() throws ISOException {
+        ISOBasePackager p = new ISO87BPackager();
+        p.setThirdBitmapField(65);
+        try {
+            PackagerCompiler.compile(p);
+            fail("ISOException expected");
+        } catch (ISOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("tertiary"));
+        }
+    }
+
+    @Test
+    public void testCompiledGenericPackager() throws ISOException {
+        CompiledGenericPackager p = new CompiledGenericPackager("jar:packager/iso87binary.xml");
+        assertTrue(p.isCompiled());
+        GenericPackager g = new GenericPackager("jar:packager/iso87binary.xml");
+        ISOMsg m = createMsg(g, true);
+        m.setPackager(p);
+        byte[] b = m.pack();
+        assertArrayEquals(g.pack(m), b);
+        ISOMsg m1 = new ISOMsg();
+        m1.setPackager(p);
+        m1.unpack(b);
+        assertEquals(m.getString(2), m1.getString(2));
+        assertEquals(m.getString(70), m1.getString(70));
+        assertFalse(new CompiledGenericPackager().isCompiled());
+    }
+}
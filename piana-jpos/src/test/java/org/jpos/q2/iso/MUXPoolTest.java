@@ -21,10 +21,17 @@ package org.jpos.q2.iso;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
 
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
 import org.jdom2.Element;
 import org.jpos.iso.ISOMsg;
+import org.jpos.iso.ISOResponseListener;
+import org.jpos.iso.MUX;
 import org.junit.Test;
 
 public class MUXPoolTest {
@@ -86,4 +93,35 @@ public class MUXPoolTest {
         mUXPool.stopService();
         assertNull("mUXPool.getName()", mUXPool.getName());
     }
+
+    @Test
+    public void testRequestAsync() throws Throwable {
+        MUXPool mUXPool = new MUXPool();
+        ISOMsg resp = new ISOMsg("0810");
+        mUXPool.mux = new MUX[] { new TestMUX(resp) };
+        CompletableFuture<ISOMsg> f = mUXPool.requestAsync(new ISOMsg("0800"), Duration.ofSeconds(1L));
+        assertSame("response", resp, f.get(1L, TimeUnit.SECONDS));
+        f = new TestMUX(null).requestAsync(new ISOMsg("0800"), Duration.ofSeconds(1L));
+        assertNull("expired", f.get(1L, TimeUnit.SECONDS));
+    }
+
+    static class TestMUX implements MUX {
+        ISOMsg resp;
+        TestMUX(ISOMsg resp) {
+            this.resp = resp;
+        }
+        public ISOMsg request(ISOMsg m, long timeout) {
+            return resp;
+        }
+        public void request(ISOMsg m, long timeout, ISOResponseListener r, Object handBack) {
+            if (resp != null)
+                r.responseReceived(resp, handBack);
+            else
+                r.expired(handBack);
+        }
+        public void send(ISOMsg m) { }
+        public boolean isConnected() {
+            return true;
+        }
+    }
 }
@@ -0,0 +1,118 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2017 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.q2.iso;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.jdom2.Element;
+import org.jpos.core.SimpleConfiguration;
+import org.jpos.iso.ISOException;
+import org.jpos.iso.ISOMsg;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PendingRequestsTest {
+    private QMUX mux;
+
+    @Before
+    public void setUp() throws Exception {
+        mux = new QMUX();
+        mux.setName ("pending-test");
+        mux.setConfiguration (new SimpleConfiguration());
+        Element e = new Element ("qmux");
+        e.addContent (new Element ("space").setText ("tspace:pending-test"));
+        e.addContent (new Element ("in").setText ("pending-test-receive"));
+        e.addContent (new Element ("out").setText ("pending-test-send"));
+        mux.setPersist (e);
+        mux.initService();
+    }
+
+    @Test
+    public void testFindAndRemove() throws Exception {
+        PendingRequests table = new PendingRequests (16, mux::sameKey);
+        QMUX.PendingRequest r = mux.new PendingRequest (msg ("0800", "000001"), false, null, null);
+        assertTrue (table.add (r));
+        assertFalse ("duplicate", table.add (mux.new PendingRequest (msg ("0800", "1"), false, null, null)));
+        ISOMsg resp = msg ("0810", "1");
+        assertSame (r, table.find (mux.hash (resp), resp));
+        assertEquals (1, table.size());
+        table.remove (r);
+        assertNull (table.find (mux.hash (resp), resp));
+        assertEquals (0, table.size());
+    }
+
+    @Test
+    public void testCollisionsAreVerified() throws Exception {
+        PendingRequests table = new PendingRequests (16, mux::sameKey);
+        QMUX.PendingRequest[] r = new QMUX.PendingRequest[10];
+        for (int i=0; i<r.length; i++) {
+            r[i] = new CollidingRequest (msg ("0200", Integer.toString (i)));
+            assertTrue (table.add (r[i]));
+        }
+        for (int i=0; i<r.length; i++)
+            assertSame (r[i], table.find (42L, msg ("0210", Integer.toString (i))));
+        assertNull (table.find (42L, msg ("0210", "99")));
+        table.remove (r[3]);
+        assertNull (table.find (42L, msg ("0210", "3")));
+        assertSame (r[9], table.find (42L, msg ("0210", "9")));
+    }
+
+    @Test
+    public void testCompletedRequestsAreSkipped() throws Exception {
+        PendingRequests table = new PendingRequests (16, mux::sameKey);
+        QMUX.PendingRequest r = mux.new PendingRequest (msg ("0800", "7"), false, null, null);
+        table.add (r);
+        r.complete (null);
+        ISOMsg resp = msg ("0810", "7");
+        assertNull (table.find (mux.hash (resp), resp));
+        assertTrue ("completed but not yet removed entry does not block new requests",
+          table.add (mux.new PendingRequest (msg ("0800", "7"), false, null, null)));
+    }
+
+    @Test
+    public void testGrow() throws Exception {
+        PendingRequests table = new PendingRequests (16, mux::sameKey);
+        int initial = table.capacity();
+        for (int i=0; i<1000; i++)
+            assertTrue (table.add (mux.new PendingRequest (msg ("0800", Integer.toString (i)), false, null, null)));
+        assertTrue (table.capacity() > initial);
+        assertEquals (1000, table.size());
+        for (int i=0; i<1000; i++) {
+            ISOMsg resp = msg ("0810", Integer.toString (i));
+            assertEquals (resp.getString (11), table.find (mux.hash (resp), resp).request.getString (11));
+        }
+    }
+
+    private ISOMsg msg (String mti, String stan) throws ISOException {
+        ISOMsg m = new ISOMsg (mti);
+        m.set (11, stan);
+        m.set (41, "29110001");
+        return m;
+    }
+
+    class CollidingRequest extends QMUX.PendingRequest {
+        CollidingRequest (ISOMsg m) {
+            mux.super (m, 42L, false, null, null);
+        }
+    }
+}
@@ -20,16 +20,29 @@ package org.jpos.q2.iso;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
 import org.jdom2.Element;
+import org.jpos.core.SimpleConfiguration;
 import org.jpos.iso.Connector;
+import org.jpos.iso.ISOException;
 import org.jpos.iso.ISOMsg;
 import org.jpos.iso.ISORequestListener;
+import org.jpos.iso.ISOResponseListener;
+import org.jpos.iso.ISOUtil;
 import org.jpos.iso.channel.PADChannel;
 import org.jpos.iso.packager.EuroSubFieldPackager;
+import org.jpos.space.Space;
+import org.jpos.space.SpaceFactory;
 import org.jpos.util.NameRegistrar;
 import org.junit.Test;
 
@@ -258,4 +271,166 @@ public class QMUXTest {
             assertNull("qMUX.sp", qMUX.sp);
         }
     }
+
+    @Test
+    public void testRequestResponse() throws Throwable {
+        QMUX mux = startMUX ("qmux-response");
+        Thread responder = respond ("qmux-response", 1);
+        ISOMsg resp = mux.request (createMsg ("0800", "1"), 5000L);
+        assertNotNull ("response", resp);
+        assertEquals ("0810", resp.getMTI());
+        assertEquals ("000001", resp.getString (11));
+        assertEquals (0, mux.getPendingRequests());
+        assertEquals (1, mux.getRXCounter());
+        responder.join();
+        mux.stopService();
+    }
+
+    @Test
+    public void testRequestTimeout() throws Throwable {
+        QMUX mux = startMUX ("qmux-timeout");
+        long start = System.currentTimeMillis();
+        assertNull (mux.request (createMsg ("0800", "2"), 100L));
+        assertTrue (System.currentTimeMillis() - start >= 100L);
+        assertEquals (0, mux.getPendingRequests());
+        assertTrue (mux.getCountersAsString().contains ("rx_expired=1"));
+        assertNull ("no timeout, no wait", mux.request (createMsg ("0800", "3"), 0L));
+        mux.stopService();
+    }
+
+    @Test
+    public void testAsyncRequest() throws Throwable {
+        QMUX mux = startMUX ("qmux-async");
+        Thread responder = respond ("qmux-async", 1);
+        CountDownLatch done = new CountDownLatch (2);
+        AtomicReference<Object> received = new AtomicReference<>();
+        AtomicReference<Object> expired = new AtomicReference<>();
+        ISOResponseListener rl = new ISOResponseListener() {
+            public void responseReceived (ISOMsg resp, Object handBack) {
+                received.set (handBack);
+                done.countDown();
+            }
+            public void expired (Object handBack) {
+                expired.set (handBack);
+                done.countDown();
+            }
+        };
+        mux.request (createMsg ("0200", "4"), 5000L, rl, "answered");
+        responder.join();
+        mux.request (createMsg ("0200", "5"), 100L, rl, "expired");
+        assertTrue (done.await (5, TimeUnit.SECONDS));
+        assertEquals ("answered", received.get());
+        assertEquals ("expired", expired.get());
+        assertEquals (0, mux.getPendingRequests());
+        mux.stopService();
+    }
+
+    @Test
+    public void testRequestAsyncFuture() throws Throwable {
+        QMUX mux = startMUX ("qmux-future");
+        Thread responder = respond ("qmux-future", 2);
+        CompletableFuture<ISOMsg> f1 = mux.requestAsync (createMsg ("0100", "7"), Duration.ofSeconds (5L));
+        CompletableFuture<ISOMsg> f2 = mux.requestAsync (createMsg ("0100", "8"), Duration.ofSeconds (5L));
+        CompletableFuture.allOf (f1, f2).get (5L, TimeUnit.SECONDS);
+        assertEquals ("000007", f1.get().getString (11));
+        assertEquals ("000008", f2.get().getString (11));
+        responder.join();
+
+        CompletableFuture<ISOMsg> expired = mux.requestAsync (createMsg ("0100", "9"), Duration.ofMillis (100L));
+        assertNull (expired.get (5L, TimeUnit.SECONDS));
+        CompletableFuture<ISOMsg> cancelled = mux.requestAsync (createMsg ("0100", "10"), Duration.ofSeconds (5L));
+        assertTrue (cancelled.cancel (false));
+        assertEquals (0, mux.getPendingRequests());
+        assertTrue (mux.getCountersAsString().contains ("rx=2, "));
+        assertTrue (mux.getCountersAsString().contains ("rx_pending=0"));
+        mux.stopService();
+    }
+
+    @Test
+    public void testDuplicateKey() throws Throwable {
+        QMUX mux = startMUX ("qmux-duplicate");
+        mux.request (createMsg ("0800", "6"), 1000L, null, null);
+        try {
+            mux.request (createMsg ("0800", "000006"), 1000L);
+            fail ("Expected ISOException to be thrown");
+        } catch (ISOException ex) {
+            assertTrue (ex.getMessage().startsWith ("Duplicate key"));
+        }
+        mux.stopService();
+    }
+
+    @Test
+    public void testSameKey() throws Throwable {
+        QMUX mux = startMUX ("qmux-samekey");
+        String[][] pairs = {
+          { "0100", "0110" }, { "0101", "0110" }, { "0400", "0410" }, { "0401", "0410" },
+          { "0420", "0430" }, { "0800", "0810" }, { "1804", "1814" }, { "2100", "2110" }
+        };
+        for (String[] p : pairs) {
+            ISOMsg req = createMsg (p[0], "12 ");
+            ISOMsg resp = createMsg (p[1], "000012");
+            resp.set (41, "0029110001");
+            assertEquals (mux.getKey (req), mux.getKey (resp));
+            assertEquals (mux.hash (req), mux.hash (resp));
+            assertTrue (mux.sameKey (req, resp));
+            resp.set (11, "13");
+            assertFalse (mux.sameKey (req, resp));
+        }
+        ISOMsg req = createMsg ("0800", " 123456 ");
+        ISOMsg resp = createMsg ("0810", "123456");
+        assertTrue ("padded STAN of 6 or more is kept untrimmed", mux.getKey (req).endsWith ("29110001 123456 "));
+        assertFalse (mux.getKey (req).equals (mux.getKey (resp)));
+        assertFalse (mux.hash (req) == mux.hash (resp));
+        assertFalse (mux.sameKey (req, resp));
+        resp.set (11, " 123456 ");
+        assertEquals (mux.getKey (req), mux.getKey (resp));
+        assertEquals (mux.hash (req), mux.hash (resp));
+        assertTrue (mux.sameKey (req, resp));
+        try {
+            mux.hash (new ISOMsg ("0800"));
+            fail ("Expected ISOException to be thrown");
+        } catch (ISOException ex) {
+            assertTrue (ex.getMessage().startsWith ("Key fields not found"));
+        }
+    }
+
+    private QMUX startMUX (String name) throws Exception {
+        QMUX mux = new QMUX();
+        mux.setName (name);
+        mux.setConfiguration (new SimpleConfiguration());
+        Element e = new Element ("qmux");
+        e.addContent (new Element ("space").setText ("tspace:" + name));
+        e.addContent (new Element ("in").setText ("receive"));
+        e.addContent (new Element ("out").setText ("send"));
+        mux.setPersist (e);
+        mux.initService();
+        mux.startService();
+        return mux;
+    }
+
+    private Thread respond (String name, int count) {
+        Space sp = SpaceFactory.getSpace ("tspace:" + name);
+        Thread t = new Thread (() -> {
+            try {
+                for (int i=0; i<count; i++) {
+                    ISOMsg m = (ISOMsg) sp.in ("send", 5000L);
+                    if (m == null)
+                        return;
+                    m = (ISOMsg) m.clone();
+                    m.setResponseMTI();
+                    m.set (11, ISOUtil.zeropad (m.getString (11), 6));
+                    sp.out ("receive", m);
+                }
+            } catch (ISOException ignored) { }
+        });
+        t.start();
+        return t;
+    }
+
+    private ISOMsg createMsg (String mti, String stan) throws ISOException {
+        ISOMsg m = new ISOMsg (mti);
+        m.set (11, stan);
+        m.set (41, "29110001");
+        return m;
+    }
 }
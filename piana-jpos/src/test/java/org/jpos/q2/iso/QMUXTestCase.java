@@ -35,8 +35,6 @@ import org.jpos.space.SpaceFactory;
 import org.jpos.util.NameRegistrar;
 import org.junit.*;
 
-import java.lang.reflect.Field;
-
 @SuppressWarnings("unchecked")
 public class QMUXTestCase
         implements ISOResponseListener {
@@ -69,10 +67,10 @@ public class QMUXTestCase
     public void testExpiredMessage() throws Exception {
         mux.request(createMsg("000001"), 500L, this, "Handback One");
         assertFalse("expired called too fast", expiredCalled);
-        assertNotNull("Space doesn't contain message key", getInternalSpace(mux).rdp("send.0800000000029110001000001.req"));
+        assertEquals("Request not pending", 1, ((QMUX) mux).getPendingRequests());
         Thread.sleep(1000L);
         assertTrue("expired has not been called after 1 second", expiredCalled);
-        assertNull("Cleanup failed, Space still contains message key", getInternalSpace(mux).rdp("send.0800000000029110001000001.req"));
+        assertEquals("Cleanup failed, request still pending", 0, ((QMUX) mux).getPendingRequests());
         assertEquals("Handback One not received", "Handback One", receivedHandback);
     }
 
@@ -83,14 +81,14 @@ public class QMUXTestCase
         assertFalse("expired called too fast", expiredCalled);
         ISOMsg m = (ISOMsg) sp.in("send", 500L);
         assertNotNull("Message not received by pseudo-channel", m);
-        assertNotNull("Space doesn't contain message key", getInternalSpace(mux).rdp("send.0800000000029110001000002.req"));
+        assertEquals("Request not pending", 1, ((QMUX) mux).getPendingRequests());
         m.setResponseMTI();
         sp.out("receive", m);
         Thread.sleep(100L);
         assertNotNull("Response not received", responseMsg);
         Thread.sleep(1000L);
         assertFalse("Response received but expired was called", expiredCalled);
-        assertNull("Cleanup failed, Space still contains message key", getInternalSpace(mux).rdp("send.0800000000029110001000002.req"));
+        assertEquals("Cleanup failed, request still pending", 0, ((QMUX) mux).getPendingRequests());
         assertEquals("Handback Two not received", "Handback Two", receivedHandback);
     }
 
@@ -137,10 +135,4 @@ public class QMUXTestCase
             assertEquals(((QMUX) mux).getKey(request), ((QMUX) mux).getKey(response));
         }
     }
-
-    private Space getInternalSpace (MUX mux) throws NoSuchFieldException, IllegalAccessException {
-        Field field = mux.getClass().getDeclaredField("isp");
-        field.setAccessible(true);
-        return (Space) field.get(mux);
-    }
 }
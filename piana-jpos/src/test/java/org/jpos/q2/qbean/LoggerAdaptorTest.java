@@ -20,11 +20,14 @@ package org.jpos.q2.qbean;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import org.jdom2.Element;
+import org.jpos.core.SimpleConfiguration;
+import org.jpos.util.AsyncLogDispatcher;
 import org.junit.Test;
 
 public class LoggerAdaptorTest {
@@ -88,6 +91,27 @@ public class LoggerAdaptorTest {
         }
     }
 
+    @Test
+    public void testAsyncStartService() throws Throwable {
+        LoggerAdaptor loggerAdaptor = new LoggerAdaptor();
+        loggerAdaptor.setName("async-logger-test");
+        loggerAdaptor.setPersist(new Element("logger"));
+        SimpleConfiguration cfg = new SimpleConfiguration();
+        cfg.put("async", "true");
+        cfg.put("queue-size", "100");
+        cfg.put("overflow-policy", "drop-oldest");
+        loggerAdaptor.setConfiguration(cfg);
+        loggerAdaptor.initService();
+        loggerAdaptor.startService();
+        AsyncLogDispatcher d = loggerAdaptor.logger.getAsyncDispatcher();
+        assertNotNull("dispatcher", d);
+        assertEquals("capacity", 128, d.getQueueCapacity());
+        assertEquals("policy", "drop-oldest", d.getOverflowPolicy());
+        loggerAdaptor.stopService();
+        assertNull("dispatcher", loggerAdaptor.logger.getAsyncDispatcher());
+        assertFalse("running", d.isRunning());
+    }
+
     @Test
     public void testStopService() throws Throwable {
         LoggerAdaptor loggerAdaptor = new LoggerAdaptor();
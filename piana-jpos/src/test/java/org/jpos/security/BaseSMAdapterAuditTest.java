@@ -0,0 +1,127 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2017 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.security;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.jpos.core.ConfigurationException;
+import org.jpos.core.SimpleConfiguration;
+import org.jpos.util.LogEvent;
+import org.jpos.util.Logger;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BaseSMAdapterAuditTest {
+    List<LogEvent> events;
+    Logger logger;
+
+    @Before
+    public void setUp() {
+        events = new ArrayList<LogEvent>();
+        logger = new Logger();
+        logger.addListener(ev -> {
+            events.add(ev);
+            return ev;
+        });
+    }
+
+    @Test
+    public void testFull() throws Throwable {
+        BaseSMAdapter sm = create("full", 1);
+        generate(sm, 3, 1);
+        assertEquals(4, events.size());
+        assertEquals(4L, sm.getMetrics().get("Generate Key").getTotalCount());
+        assertEquals(1L, sm.getMetrics().get("Generate Key-failure").getTotalCount());
+    }
+
+    @Test
+    public void testOff() throws Throwable {
+        BaseSMAdapter sm = create("off", 1);
+        generate(sm, 3, 1);
+        assertEquals(0, events.size());
+        assertEquals(4L, sm.getMetrics().get("Generate Key").getTotalCount());
+    }
+
+    @Test
+    public void testFailures() throws Throwable {
+        BaseSMAdapter sm = create("failures", 1);
+        generate(sm, 3, 2);
+        assertEquals(2, events.size());
+        assertSame(SMException.class, events.get(0).getPayLoad().get(1).getClass());
+    }
+
+    @Test
+    public void testSampled() throws Throwable {
+        BaseSMAdapter sm = create("sampled", 10);
+        generate(sm, 25, 1);
+        assertEquals(4, events.size()); // operations 0, 10 and 20, plus the failure
+        assertEquals(26L, sm.getMetrics().get("Generate Key").getTotalCount());
+    }
+
+    @Test
+    public void testNoListeners() throws Throwable {
+        BaseSMAdapter sm = create("full", 1);
+        logger.removeAllListeners();
+        generate(sm, 1, 1);
+        assertEquals(0, events.size());
+        assertEquals(2L, sm.getMetrics().get("Generate Key").getTotalCount());
+    }
+
+    @Test
+    public void testInvalidAuditMode() throws Throwable {
+        try {
+            create("verbose", 1);
+            fail("Expected ConfigurationException to be thrown");
+        } catch (ConfigurationException ex) {
+            assertEquals("Invalid audit mode verbose", ex.getMessage());
+        }
+    }
+
+    private BaseSMAdapter create(String audit, int sampleRate) throws ConfigurationException {
+        Properties props = new Properties();
+        props.put("audit", audit);
+        props.put("audit-sample-rate", Integer.toString(sampleRate));
+        return new BaseSMAdapter(new SimpleConfiguration(props), logger, "audit") {
+            @Override
+            protected SecureDESKey generateKeyImpl(short keyLength, String keyType) throws SMException {
+                if (keyType == null)
+                    throw new SMException("Key type required");
+                return new SecureDESKey(keyLength, keyType, new byte[16], new byte[3]);
+            }
+        };
+    }
+
+    private static void generate(BaseSMAdapter sm, int succeeded, int failed) throws SMException {
+        for (int i = 0; i < succeeded; i++)
+            assertNotNull(sm.generateKey(SMAdapter.LENGTH_DES3_2KEY, SMAdapter.TYPE_ZPK));
+        for (int i = 0; i < failed; i++) {
+            try {
+                sm.generateKey(SMAdapter.LENGTH_DES3_2KEY, null);
+                fail("Expected SMException to be thrown");
+            } catch (SMException ignored) { }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2017 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.security;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+import org.jpos.core.SimpleConfiguration;
+import org.jpos.iso.ISOUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class IndexedKeyFileTest {
+    File file;
+    File logFile;
+    IndexedKeyFile ks;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("keys", ".properties");
+        logFile = new File(file.getPath() + ".log");
+        ks = create(0);
+    }
+
+    @After
+    public void tearDown() {
+        ks.destroy();
+        file.delete();
+        logFile.delete();
+    }
+
+    @Test
+    public void testSetKeyIsLoggedThenCompacted() throws Throwable {
+        SecureDESKey k = key("0123456789ABCDEF0123456789ABCDEF");
+        ks.setKey("zpk", k);
+        assertTrue("change log", logFile.length() > 0);
+        SecureDESKey found = (SecureDESKey) ks.getKey("zpk");
+        assertArrayEquals(k.getKeyBytes(), found.getKeyBytes());
+        assertSame(found, ks.getKey("zpk"));
+
+        IndexedKeyFile other = create(0); // replays the change log, then compacts it
+        assertArrayEquals(k.getKeyBytes(), other.getKey("zpk").getKeyBytes());
+        assertEquals(0L, logFile.length());
+        assertArrayEquals(k.getKeyBytes(), new SimpleKeyFile(file.getPath()).getKey("zpk").getKeyBytes());
+    }
+
+    @Test
+    public void testReadsSimpleKeyFile() throws Throwable {
+        SecureDESKey k = key("FEDCBA9876543210FEDCBA9876543210");
+        new SimpleKeyFile(file.getPath()).setKey("bdk", k);
+        ks.poll();
+        SecureDESKey found = (SecureDESKey) ks.getKey("bdk");
+        assertArrayEquals(k.getKeyBytes(), found.getKeyBytes());
+        assertArrayEquals(k.getKeyCheckValue(), found.getKeyCheckValue());
+        assertEquals(k.getKeyType(), found.getKeyType());
+        assertEquals(k.getKeyLength(), found.getKeyLength());
+        assertEquals(1, ks.getKeys().size());
+    }
+
+    @Test
+    public void testTornRecordIsIgnored() throws Throwable {
+        SecureDESKey k = key("0123456789ABCDEF0123456789ABCDEF");
+        ks.setKey("zpk", k);
+        try (FileOutputStream out = new FileOutputStream(logFile, true)) {
+            out.write("zpk=org.jpos.security.SecureDESKey 128 ZPK 0011".getBytes(StandardCharsets.ISO_8859_1));
+        }
+        IndexedKeyFile other = create(0);
+        assertArrayEquals(k.getKeyBytes(), other.getKey("zpk").getKeyBytes());
+    }
+
+    @Test
+    public void testUnknownAlias() throws Throwable {
+        try {
+            ks.getKey("unknown");
+            fail("Expected SecureKeyStoreException to be thrown");
+        } catch (SecureKeyStore.SecureKeyStoreException ex) {
+            assertEquals("Key can't be retrieved. Unknown alias: unknown", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testSetKeyThrowsSecureKeyStoreException() throws Throwable {
+        try {
+            ks.setKey("pk", new SecurePrivateKey("RSA_SK", new byte[8]));
+            fail("Expected SecureKeyStoreException to be thrown");
+        } catch (SecureKeyStore.SecureKeyStoreException ex) {
+            assertEquals("Unsupported SecureKey class: org.jpos.security.SecurePrivateKey", ex.getMessage());
+        }
+    }
+
+    private IndexedKeyFile create(long pollInterval) throws Exception {
+        Properties props = new Properties();
+        props.put("key-file", file.getPath());
+        props.put("poll-interval", Long.toString(pollInterval));
+        IndexedKeyFile k = new IndexedKeyFile();
+        k.setConfiguration(new SimpleConfiguration(props));
+        return k;
+    }
+
+    private static SecureDESKey key(String hex) {
+        return new SecureDESKey(SMAdapter.LENGTH_DES3_2KEY, SMAdapter.TYPE_ZPK,
+          ISOUtil.hex2byte(hex), ISOUtil.hex2byte("A1B2C3"));
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2017 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.security.jceadapter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Properties;
+
+import org.jpos.core.SimpleConfiguration;
+import org.jpos.iso.ISOUtil;
+import org.jpos.security.EncryptedPIN;
+import org.jpos.security.KeySerialNumber;
+import org.jpos.security.SMAdapter;
+import org.jpos.security.SecureDESKey;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DukptKeyCacheTest {
+    static final String BDK = "0123456789ABCDEFFEDCBA9876543210";
+    static final String ZERO = "00000000000000000000000000000000";
+    static final String PAN = "4012345678909";
+
+    File lmk;
+    JCESecurityModule sm;
+    JCESecurityModule cachedSm;
+    SecureDESKey bdk;
+
+    @Before
+    public void setUp() throws Exception {
+        lmk = File.createTempFile("dukpt", ".lmk");
+        sm = createSM(lmk, true, 0);
+        cachedSm = createSM(lmk, false, 2);
+        bdk = sm.importBDK(BDK, ZERO, ZERO);
+    }
+
+    @After
+    public void tearDown() {
+        lmk.delete();
+    }
+
+    @Test
+    public void testAnsX924Vectors() throws Exception {
+        // ANS X9.24-1:2009 A.4, PIN 1234, 3DES
+        String[][] vectors = {
+            { "E00001", "1B9C1845EB993A7A" }, { "E00002", "10A01C8D02C69107" },
+            { "E00003", "18DC07B94797B466" }, { "E00004", "0BC79509D5645DF7" },
+            { "E00005", "5BC0AF22AD87B327" }, { "E00006", "A16DF70AE36158D8" },
+            { "E00007", "27711C16CB257F8E" }, { "E00008", "50E55547A5027551" },
+            { "E00009", "536CF7F678ACFC8D" }, { "E0000A", "EDABBA23221833FE" },
+            { "E00010", "D5D9638559EF53D6" }, { "E00015", "72105C22EBC791E6" },
+            { "EFF800", "33365F5CC6F23C35" }, { "EFF801", "3A86BF003F835C9D" },
+            { "EFF804", "BA83243305712099" }, { "EFFC00", "DEFC6F09F8927B71" },
+            { "F00000", "73EC88AD0AC5830E" }, { "E00002", "10A01C8D02C69107" }
+        };
+        for (String[] v : vectors) {
+            EncryptedPIN pinUnderDuk = new EncryptedPIN(ISOUtil.hex2byte(v[1]), SMAdapter.FORMAT01, PAN);
+            KeySerialNumber ksn = new KeySerialNumber("987654", "3210", v[0]);
+            assertEquals(v[0], "1234", sm.decryptPIN(sm.importPIN(pinUnderDuk, ksn, bdk, true)));
+            assertEquals(v[0], "1234", cachedSm.decryptPIN(cachedSm.importPIN(pinUnderDuk, ksn, bdk, true)));
+        }
+    }
+
+    @Test
+    public void testCachedMatchesUncached() throws Exception {
+        EncryptedPIN pinUnderLmk = sm.encryptPIN("1234", PAN);
+        int[] counters = { 0, 1, 2, 3, 7, 8, 0x1F, 0x20, 6, 0x7FF, 0x800, 0x801, 0x800, 0x1FFFFF, 5, 5 };
+        for (boolean tdes : new boolean[] { true, false }) {
+            for (int c : counters) {
+                for (String device : new String[] { "3210", "3211", "3212" }) {
+                    KeySerialNumber ksn = new KeySerialNumber("987654", device,
+                      String.format("%06X", 0xE00000 | c));
+                    assertArrayEquals(device + "/" + c + "/" + tdes,
+                      sm.exportPIN(pinUnderLmk, ksn, bdk, tdes, SMAdapter.FORMAT01).getPINBlock(),
+                      cachedSm.exportPIN(pinUnderLmk, ksn, bdk, tdes, SMAdapter.FORMAT01).getPINBlock());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testEvictionWipes() {
+        DukptKeyCache cache = new DukptKeyCache(1, 60000L);
+        byte[] ipek = new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 };
+        DukptKeyCache.Device d1 = cache.put("a", ipek);
+        d1.set(0, new byte[] { 9, 9, 9, 9, 9, 9, 9, 9 });
+        byte[] reg = d1.register[0];
+        assertSame(d1, cache.put("a", new byte[8]));
+        cache.put("b", new byte[8]);
+        assertEquals(1, cache.size());
+        assertNull(cache.get("a"));
+        assertTrue(d1.wiped);
+        assertArrayEquals(new byte[8], ipek);
+        assertArrayEquals(new byte[8], reg);
+    }
+
+    @Test
+    public void testExpiration() {
+        DukptKeyCache cache = new DukptKeyCache(10, 0L);
+        byte[] ipek = new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 };
+        DukptKeyCache.Device d = cache.put("a", ipek);
+        assertNull(cache.get("a"));
+        assertTrue(d.wiped);
+        assertArrayEquals(new byte[8], ipek);
+        assertNotSame(d, cache.put("a", new byte[8]));
+    }
+
+    private static JCESecurityModule createSM(File lmk, boolean rebuild, int cacheSize) throws Exception {
+        Properties props = new Properties();
+        props.put("lmk", lmk.getAbsolutePath());
+        props.put("rebuildlmk", Boolean.toString(rebuild));
+        props.put("provider", "org.bouncycastle.jce.provider.BouncyCastleProvider");
+        props.put("dukpt-cache-size", Integer.toString(cacheSize));
+        JCESecurityModule sm = new JCESecurityModule();
+        sm.setConfiguration(new SimpleConfiguration(props));
+        return sm;
+    }
+}
@@ -18,7 +18,9 @@
 
 package org.jpos.security.jceadapter;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
@@ -27,9 +29,12 @@ import static org.mockito.Mockito.mock;
 
 import java.security.Key;
 import java.security.Provider;
+import java.util.Arrays;
 
 import javax.crypto.spec.SecretKeySpec;
 
+import org.jpos.iso.ISOUtil;
+import org.jpos.security.SMAdapter;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -405,4 +410,50 @@ public class JCEHandlerTest {
             assertNull("ex.getNested()", ex.getNested());
         }
     }
+
+    @Test
+    public void testCachedCipherReuse() throws Throwable {
+        JCEHandler handler = new JCEHandler(new com.sun.crypto.provider.SunJCE());
+        byte[] keyBytes = ISOUtil.hex2byte("0123456789ABCDEFFEDCBA9876543210");
+        Key key = handler.formDESKey(SMAdapter.LENGTH_DES3_2KEY, keyBytes);
+        Key sameKey = handler.formDESKey(SMAdapter.LENGTH_DES3_2KEY, keyBytes.clone());
+        byte[] data = ISOUtil.hex2byte("0011223344556677");
+        byte[] encrypted = handler.encryptData(data, key);
+        assertArrayEquals("cached", encrypted, handler.encryptData(data, sameKey));
+        assertArrayEquals("round trip", data, handler.decryptData(encrypted, sameKey));
+        assertEquals(2, handler.engines.get().ciphers.size());
+
+        byte[] iv = new byte[8];
+        byte[] cbc1 = handler.encryptDataCBC(data, key, iv);
+        byte[] cbc2 = handler.encryptDataCBC(data, key, iv);
+        assertFalse("iv chained", Arrays.equals(cbc1, cbc2));
+        assertArrayEquals(cbc1, handler.encryptDataCBC(data, key, new byte[8]));
+
+        try {
+            handler.encryptData(new byte[3], key);
+            fail("Expected JCEHandlerException to be thrown");
+        } catch (JCEHandlerException ex) {
+            assertArrayEquals("failed cipher discarded", encrypted, handler.encryptData(data, key));
+        }
+    }
+
+    @Test
+    public void testCacheIsBounded() throws Throwable {
+        JCEHandler handler = new JCEHandler(new com.sun.crypto.provider.SunJCE());
+        byte[] data = new byte[8];
+        for (int i = 0; i < JCEHandler.ENGINE_CACHE_SIZE * 2; i++)
+            handler.encryptData(data, handler.formDESKey(SMAdapter.LENGTH_DES, ISOUtil.hex2byte(ISOUtil.zeropad(i, 16))));
+        assertEquals(JCEHandler.ENGINE_CACHE_SIZE, handler.engines.get().ciphers.size());
+    }
+
+    @Test
+    public void testMacEnginesPerKey() throws Throwable {
+        JCEHandler handler = new JCEHandler(new com.sun.crypto.provider.SunJCE());
+        byte[] data = "some data".getBytes();
+        byte[] mac1 = handler.generateMAC(data, new SecretKeySpec(new byte[16], "HmacSHA256"), "HmacSHA256");
+        byte[] mac2 = handler.generateMAC(data, new SecretKeySpec(new byte[] { 1 }, "HmacSHA256"), "HmacSHA256");
+        assertFalse(Arrays.equals(mac1, mac2));
+        assertArrayEquals(mac1, handler.generateMAC(data, new SecretKeySpec(new byte[16], "HmacSHA256"), "HmacSHA256"));
+        assertEquals(2, handler.engines.get().macs.size());
+    }
 }
@@ -0,0 +1,182 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2017 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.security.jceadapter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+
+import org.jpos.core.SimpleConfiguration;
+import org.jpos.iso.ISOUtil;
+import org.jpos.security.BatchResult;
+import org.jpos.security.EncryptedPIN;
+import org.jpos.security.KeySerialNumber;
+import org.jpos.security.MKDMethod;
+import org.jpos.security.SKDMethod;
+import org.jpos.security.SMAdapter;
+import org.jpos.security.SMException;
+import org.jpos.security.SecureDESKey;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JCESecurityModuleBatchTest {
+    static final int SIZE = JCESecurityModule.MIN_PARALLEL_BATCH * 2;
+
+    File lmk;
+    JCESecurityModule sm;
+
+    @Before
+    public void setUp() throws Exception {
+        lmk = File.createTempFile("batch", ".lmk");
+        Properties props = new Properties();
+        props.put("lmk", lmk.getAbsolutePath());
+        props.put("rebuildlmk", "true");
+        props.put("provider", "org.bouncycastle.jce.provider.BouncyCastleProvider");
+        props.put("batch-parallelism", "4");
+        sm = new JCESecurityModule();
+        sm.setConfiguration(new SimpleConfiguration(props));
+    }
+
+    @After
+    public void tearDown() {
+        sm.destroy();
+        lmk.delete();
+    }
+
+    @Test
+    public void testTranslatePINBatch() throws Throwable {
+        SecureDESKey zpkA = sm.generateKey(SMAdapter.LENGTH_DES3_2KEY, SMAdapter.TYPE_ZPK);
+        SecureDESKey zpkB = sm.generateKey(SMAdapter.LENGTH_DES3_2KEY, SMAdapter.TYPE_ZPK);
+        EncryptedPIN[] pins = new EncryptedPIN[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            EncryptedPIN pinUnderLmk = sm.encryptPIN(ISOUtil.zeropad(i, 4), "123456789012");
+            pins[i] = sm.exportPIN(pinUnderLmk, zpkA, SMAdapter.FORMAT01);
+        }
+        pins[3] = new EncryptedPIN(new byte[8], SMAdapter.FORMAT01, "123456789012", false);
+
+        List<BatchResult<EncryptedPIN>> results = sm.translatePINBatch(pins, zpkA, zpkB, SMAdapter.FORMAT01);
+        assertEquals(SIZE, results.size());
+        for (int i = 0; i < SIZE; i++) {
+            if (i == 3) {
+                assertFalse(results.get(i).isSuccess());
+                assertNotNull(results.get(i).getException());
+                continue;
+            }
+            EncryptedPIN expected = sm.translatePIN(pins[i], zpkA, zpkB, SMAdapter.FORMAT01);
+            assertArrayEquals("pin " + i, expected.getPINBlock(), results.get(i).get().getPINBlock());
+        }
+    }
+
+    @Test
+    public void testTranslateDukptPINBatch() throws Throwable {
+        SecureDESKey bdk = sm.generateKey(SMAdapter.LENGTH_DES3_2KEY, SMAdapter.TYPE_BDK);
+        SecureDESKey zpk = sm.generateKey(SMAdapter.LENGTH_DES3_2KEY, SMAdapter.TYPE_ZPK);
+        EncryptedPIN pinUnderLmk = sm.encryptPIN("1234", "123456789012");
+        EncryptedPIN[] pins = new EncryptedPIN[SIZE];
+        KeySerialNumber[] ksns = new KeySerialNumber[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            ksns[i] = new KeySerialNumber("987654", "3210", String.format("%06X", 0xE00000 + i + 1));
+            pins[i] = sm.exportPIN(pinUnderLmk, ksns[i], bdk, true, SMAdapter.FORMAT01);
+        }
+        List<BatchResult<EncryptedPIN>> results =
+          sm.translatePINBatch(pins, ksns, bdk, zpk, SMAdapter.FORMAT01, true);
+        for (int i = 0; i < SIZE; i++) {
+            EncryptedPIN expected = sm.translatePIN(pins[i], ksns[i], bdk, zpk, SMAdapter.FORMAT01, true);
+            assertArrayEquals("pin " + i, expected.getPINBlock(), results.get(i).get().getPINBlock());
+        }
+    }
+
+    @Test
+    public void testVerifyCVVBatch() throws Throwable {
+        SecureDESKey cvkA = sm.generateKey(SMAdapter.LENGTH_DES, SMAdapter.TYPE_CVK);
+        SecureDESKey cvkB = sm.generateKey(SMAdapter.LENGTH_DES, SMAdapter.TYPE_CVK);
+        String[] accountNos = new String[SIZE];
+        String[] cvvs = new String[SIZE];
+        Date[] expDates = new Date[SIZE];
+        String[] serviceCodes = new String[SIZE];
+        Date expDate = new Date();
+        for (int i = 0; i < SIZE; i++) {
+            accountNos[i] = "41111111111" + ISOUtil.zeropad(i, 5);
+            expDates[i] = expDate;
+            serviceCodes[i] = "101";
+            cvvs[i] = sm.calculateCVV(accountNos[i], cvkA, cvkB, expDate, "101");
+        }
+        cvvs[5] = cvvs[5].equals("000") ? "001" : "000";
+        List<BatchResult<Boolean>> results =
+          sm.verifyCVVBatch(accountNos, cvkA, cvkB, cvvs, expDates, serviceCodes);
+        for (int i = 0; i < SIZE; i++)
+            assertEquals("cvv " + i, i != 5, results.get(i).get());
+    }
+
+    @Test
+    public void testVerifyARQCBatch() throws Throwable {
+        SecureDESKey imkac = sm.generateKey(SMAdapter.LENGTH_DES3_2KEY, SMAdapter.TYPE_MK_AC);
+        String[] accountNos = new String[SIZE];
+        String[] acctSeqNos = new String[SIZE];
+        byte[][] arqcs = new byte[SIZE][];
+        byte[][] atcs = new byte[SIZE][];
+        byte[][] upns = new byte[SIZE][];
+        byte[][] transData = new byte[SIZE][];
+        for (int i = 0; i < SIZE; i++) {
+            accountNos[i] = "54111111111" + ISOUtil.zeropad(i, 5);
+            acctSeqNos[i] = "00";
+            atcs[i] = new byte[] { 0, (byte) i };
+            upns[i] = new byte[] { 1, 2, 3, (byte) i };
+            transData[i] = new byte[16];
+            arqcs[i] = sm.calculateARQC(MKDMethod.OPTION_A, SKDMethod.MCHIP, imkac, accountNos[i],
+              acctSeqNos[i], atcs[i], upns[i], transData[i]);
+        }
+        arqcs[7] = new byte[8];
+        List<BatchResult<Boolean>> results = sm.verifyARQCBatch(MKDMethod.OPTION_A, SKDMethod.MCHIP, imkac,
+          accountNos, acctSeqNos, arqcs, atcs, upns, transData);
+        for (int i = 0; i < SIZE; i++)
+            assertEquals("arqc " + i, i != 7, results.get(i).get());
+    }
+
+    @Test
+    public void testGenerateCBC_MACBatch() throws Throwable {
+        SecureDESKey tak = sm.generateKey(SMAdapter.LENGTH_DES3_2KEY, SMAdapter.TYPE_TAK);
+        byte[][] data = new byte[SIZE][];
+        for (int i = 0; i < SIZE; i++)
+            data[i] = ISOUtil.zeropad(i, 40).getBytes();
+        List<BatchResult<byte[]>> results = sm.generateCBC_MACBatch(data, tak);
+        for (int i = 0; i < SIZE; i++)
+            assertArrayEquals("mac " + i, sm.generateCBC_MAC(data[i], tak), results.get(i).get());
+    }
+
+    @Test
+    public void testBatchLengthMismatch() throws Throwable {
+        SecureDESKey bdk = sm.generateKey(SMAdapter.LENGTH_DES3_2KEY, SMAdapter.TYPE_BDK);
+        try {
+            sm.translatePINBatch(new EncryptedPIN[2], new KeySerialNumber[1], bdk, bdk, SMAdapter.FORMAT01, true);
+            fail("Expected SMException to be thrown");
+        } catch (SMException ex) {
+            assertTrue(ex.getMessage().startsWith("Batch parameters length mismatch"));
+        }
+    }
+}
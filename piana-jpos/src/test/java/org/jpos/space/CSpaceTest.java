@@ -0,0 +1,274 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2017 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.space;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.jpos.iso.ISOUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+@SuppressWarnings("unchecked")
+public class CSpaceTest implements SpaceListener {
+    CSpace<String, Object> sp;
+    Object notifiedValue = null;
+
+    @Before
+    public void setUp() {
+        sp = new CSpace<String, Object>();
+    }
+
+    @After
+    public void tearDown() {
+        Set keySet = new HashSet(sp.getKeySet());
+        for (Object key : keySet) {
+            while (sp.inp(key) != null);
+        }
+        sp.gc();
+        sp = null;
+    }
+
+    @Test
+    public void testSimpleOut() {
+        sp.out("testSimpleOut_Key", "ABC");
+        sp.out("testSimpleOut_Key", "XYZ");
+        assertEquals(2, sp.size("testSimpleOut_Key"));
+        assertEquals("ABC", sp.rdp("testSimpleOut_Key"));
+        assertEquals("ABC", sp.inp("testSimpleOut_Key"));
+        assertEquals("XYZ", sp.rdp("testSimpleOut_Key"));
+        assertEquals("XYZ", sp.inp("testSimpleOut_Key"));
+        assertNull(sp.rdp("Test"));
+        assertNull(sp.inp("Test"));
+        assertTrue(sp.isEmpty());
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullEntry() {
+        sp.out("testNull", null);
+    }
+
+    @Test
+    public void testExpiration() {
+        sp.out("testExpiration_Key", "ABC", 50);
+        assertEquals("ABC", sp.rdp("testExpiration_Key"));
+        ISOUtil.sleep(60);
+        assertNull(sp.rdp("testExpiration_Key"));
+        assertNull(sp.inp("testExpiration_Key"));
+    }
+
+    @Test
+    public void testGC() {
+        sp.out("testGC_Key", "ABC", 50);
+        sp.out("testGC_Key", "XYZ", 50);
+        assertEquals("ABC", sp.rdp("testGC_Key"));
+        ISOUtil.sleep(60);
+        assertEquals("testGC_Key", sp.getKeysAsString());
+        sp.gc();
+        assertEquals("", sp.getKeysAsString());
+    }
+
+    @Test
+    public void testOutRdpInpRdp() {
+        Object o = Boolean.TRUE;
+        String k = "testOutRdpInpRdp_Key";
+        sp.out(k, o);
+        assertEquals(o, sp.rdp(k));
+        assertEquals(o, sp.rd(k));
+        assertEquals(o, sp.rd(k, 1000));
+        assertEquals(o, sp.inp(k));
+        assertNull(sp.rdp(k));
+        assertNull(sp.rd(k, 100));
+    }
+
+    @Test
+    public void testTemplate() {
+        final String KEY = "TestTemplate_Key";
+        sp.out(KEY, "123");
+        sp.out(KEY, "456");
+        sp.out(KEY, "789");
+        Template tmpl = new ObjectTemplate(KEY, "456");
+        assertEquals("123", sp.rdp(KEY));
+        assertEquals("456", sp.rdp(tmpl));
+        assertEquals("456", sp.inp(tmpl));
+        assertNull(sp.rdp(tmpl));
+        assertNull(sp.inp(tmpl));
+        assertEquals("123", sp.inp(KEY));
+        assertEquals("789", sp.inp(KEY));
+        assertNull(sp.rdp(KEY));
+    }
+
+    @Test
+    public void testMD5Template() {
+        final String KEY = "TestMD5Template_Key";
+        sp.out(KEY, "123");
+        sp.out(KEY, "456", 60000L);
+        Template tmpl = new MD5Template(KEY, "456");
+        assertEquals("456", sp.rdp(tmpl));
+        assertEquals("456", sp.inp(tmpl));
+        assertNull(sp.inp(tmpl));
+        assertEquals("123", sp.inp(KEY));
+    }
+
+    @Test
+    public void testTemplateWaitsForMatch() throws Exception {
+        final String KEY = "TestTemplateWait_Key";
+        new Thread() {
+            public void run() {
+                ISOUtil.sleep(100L);
+                sp.out(KEY, "ABC");
+                sp.out(KEY, "XYZ");
+            }
+        }.start();
+        assertEquals("XYZ", sp.in(new ObjectTemplate(KEY, "XYZ"), 5000L));
+        assertEquals("ABC", sp.inp(KEY));
+    }
+
+    @Test
+    public void testNotify() {
+        sp.addListener("TestDelayNotify_Key", this, 500);
+        sp.out("TestNotify_Key", "ABCCBA");
+        assertNull(notifiedValue);
+        sp.addListener("TestNotify_Key", this);
+        sp.out("TestNotify_Key", "ABCCBA");
+        assertEquals("ABCCBA", notifiedValue);
+        sp.out("TestNotify_Key", "012345");
+        assertEquals("012345", notifiedValue);
+        sp.removeListener("TestNotify_Key", this);
+        sp.out("TestNotify_Key", "NOTNOTIFIED");
+        assertEquals("012345", notifiedValue);
+        sp.out("TestDelayNotify_Key", "OLD");
+        assertEquals("OLD", notifiedValue);
+        ISOUtil.sleep(600);
+        sp.out("TestDelayNotify_Key", "NEW");
+        assertEquals("OLD", notifiedValue);
+    }
+
+    @Test
+    public void testPush() {
+        sp.push("PUSH", "ONE");
+        sp.push("PUSH", "TWO");
+        sp.push("PUSH", "THREE", 60000L);
+        sp.out("PUSH", "FOUR");
+        assertEquals("THREE", sp.rdp("PUSH"));
+        assertEquals("THREE", sp.inp("PUSH"));
+        assertEquals("TWO", sp.inp("PUSH"));
+        assertEquals("ONE", sp.inp("PUSH"));
+        assertEquals("FOUR", sp.inp("PUSH"));
+        assertNull(sp.rdp("PUSH"));
+    }
+
+    @Test
+    public void testPut() {
+        sp.out("PUT", "ONE");
+        sp.out("PUT", "TWO");
+        sp.put("PUT", "ZERO");
+        assertEquals(1, sp.size("PUT"));
+        assertEquals("ZERO", sp.inp("PUT"));
+        assertNull(sp.rdp("PUT"));
+    }
+
+    @Test
+    public void testExistWithTimeout() {
+        assertFalse(sp.existAny(new String[] { "KA", "KB" }));
+        assertFalse(sp.existAny(new String[] { "KA", "KB" }, 200L));
+        new Thread() {
+            public void run() {
+                ISOUtil.sleep(500L);
+                sp.out("KB", Boolean.TRUE);
+            }
+        }.start();
+        long now = System.currentTimeMillis();
+        assertTrue(sp.existAny(new String[] { "KA", "KB" }, 5000L));
+        long elapsed = System.currentTimeMillis() - now;
+        assertTrue("elapsed " + elapsed, elapsed >= 400L && elapsed < 4000L);
+    }
+
+    @Test
+    public void testNRDWithDelay() {
+        long now  = System.currentTimeMillis();
+        sp.out("NRD", "NRDTEST", 1000L);
+        assertNotNull(sp.nrd("NRD", 500L));
+        assertNull(sp.nrd("NRD", 5000L));
+        long elapsed = System.currentTimeMillis() - now;
+        assertTrue("Invalid elapsed time " + elapsed, elapsed >= 1000L && elapsed <= 2000L);
+    }
+
+    @Test
+    public void testInWakesUpOnOut() throws Exception {
+        final AtomicReference<Object> result = new AtomicReference<Object>();
+        Thread t = new Thread() {
+            public void run() {
+                result.set (sp.in("WAKEUP"));
+            }
+        };
+        t.start();
+        ISOUtil.sleep(100L);
+        sp.out("OTHER", "NOT-ME");
+        ISOUtil.sleep(100L);
+        assertTrue("waiter should still be blocked", t.isAlive());
+        sp.out("WAKEUP", "ME");
+        t.join(5000L);
+        assertFalse(t.isAlive());
+        assertEquals("ME", result.get());
+        assertEquals("NOT-ME", sp.inp("OTHER"));
+        assertEquals("idle keys are discarded", 0, sp.getKeySet().size());
+    }
+
+    @Test
+    public void testConcurrentProducersConsumers() throws Exception {
+        final int threads = 4;
+        final int count = 10000;
+        final Set<Object> seen = ConcurrentHashMap.newKeySet();
+        final CountDownLatch done = new CountDownLatch(threads);
+        ExecutorService es = Executors.newFixedThreadPool(threads * 2);
+        for (int i=0; i<threads; i++) {
+            final int id = i;
+            es.execute(() -> {
+                for (int j=0; j<count; j++)
+                    sp.out("K" + (j % 8), id + "." + j);
+            });
+            es.execute(() -> {
+                for (int j=0; j<count; j++) {
+                    Object o = sp.in("K" + (j % 8), 10000L);
+                    if (o != null)
+                        seen.add(o);
+                }
+                done.countDown();
+            });
+        }
+        assertTrue(done.await(60, TimeUnit.SECONDS));
+        es.shutdown();
+        assertEquals(threads * count, seen.size());
+        assertTrue(sp.isEmpty());
+    }
+
+    public void notify(Object key, Object value) {
+        this.notifiedValue = value;
+    }
+}
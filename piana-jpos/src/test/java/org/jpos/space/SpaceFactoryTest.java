@@ -20,6 +20,7 @@ package org.jpos.space;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -39,6 +40,13 @@ public class SpaceFactoryTest {
 	assertTrue("result.isEmpty()", result.isEmpty());
     }
 
+    @Test
+    public void testGetCSpace() throws Throwable {
+	Space sp = SpaceFactory.getSpace("cspace:testCSpace");
+	assertTrue("sp instanceof CSpace", sp instanceof CSpace);
+	assertSame("sp", sp, SpaceFactory.getSpace("cspace:testCSpace"));
+    }
+
     public void testGetSpaceThrowsNullPointerException1() throws Throwable {
 	try {
 	    SpaceFactory.getSpace("testSpaceFactoryScheme",
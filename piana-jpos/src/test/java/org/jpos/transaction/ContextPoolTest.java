@@ -0,0 +1,175 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2017 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jpos.transaction;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jdom2.Element;
+import org.jpos.core.ConfigurationException;
+import org.jpos.core.SimpleConfiguration;
+import org.jpos.iso.ISOMsg;
+import org.jpos.iso.LazyISOMsg;
+import org.jpos.transaction.participant.Join;
+import org.jpos.util.Profiler;
+import org.junit.After;
+import org.junit.Test;
+
+public class ContextPoolTest implements TransactionConstants {
+    private TransactionManager txnmgr;
+
+    @After
+    public void tearDown() {
+        if (txnmgr != null)
+            txnmgr.destroy();
+    }
+
+    @Test
+    public void testDisabledPoolCreatesContexts() {
+        ContextPool pool = new ContextPool();
+        Context ctx = pool.borrow();
+        assertFalse(ctx.isConfined());
+        pool.release(0, ctx);
+        assertNotSame(ctx, pool.borrow());
+        assertNull(pool.borrowMessage());
+    }
+
+    @Test
+    public void testRelease() {
+        ContextPool pool = new ContextPool();
+        pool.enable(2, 4, true, new String[] { "REQUEST", "RESPONSE", "OTHER" });
+        Context ctx = pool.borrow();
+        assertTrue(ctx.isConfined());
+        ISOMsg m = new ISOMsg("0800");
+        Profiler prof = ctx.getProfiler();
+        ctx.put("REQUEST", m);
+        ctx.put("RESPONSE", m);
+        ctx.put("OTHER", new LazyISOMsg());
+        ctx.put("KEY", "value", true);
+        pool.release(1, ctx);
+
+        assertSame(ctx, pool.borrow());
+        assertTrue(ctx.getMap().isEmpty());
+        assertSame("profiler reused", prof, ctx.getProfiler());
+        assertSame(m, pool.borrowMessage());
+        assertFalse(m.hasField(0));
+        assertNull("same message released once, subclasses not at all", pool.borrowMessage());
+    }
+
+    @Test
+    public void testTransactionManagerRecycles() throws Exception {
+        int count = 20;
+        CountDownLatch committed = new CountDownLatch(count);
+        txnmgr = start("recycle", committed, false);
+        ContextPool pool = ContextPool.getPool("recycle");
+        Map<Context,Boolean> queued = new IdentityHashMap<>();
+        for (int i = 0; i < count; i++) {
+            Context ctx = pool.borrow();
+            assertTrue(ctx.isConfined());
+            ctx.put("REQUEST", new ISOMsg("0200"));
+            queued.put(ctx, true);
+            txnmgr.queue(ctx);
+        }
+        assertTrue("all transactions committed", committed.await(10, TimeUnit.SECONDS));
+        Context ctx = null;
+        for (int i = 0; i < 100 && (ctx == null || !queued.containsKey(ctx)); i++) {
+            ctx = pool.borrow();
+            if (!queued.containsKey(ctx))
+                Thread.sleep(10L);
+        }
+        assertTrue("context recycled", queued.containsKey(ctx));
+        assertTrue(ctx.getMap().isEmpty());
+        ISOMsg m = pool.borrowMessage();
+        assertTrue("message recycled", m != null);
+        assertTrue(m.getChildren().isEmpty());
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void testRecycleRejectsJoin() throws Exception {
+        // init() would only log it
+        create("recycle-join", new CountDownLatch(1), true).initService();
+    }
+
+    private TransactionManager start(String name, CountDownLatch committed, boolean join) throws Exception {
+        TransactionManager tm = create(name, committed, join);
+        tm.init();
+        tm.start();
+        return tm;
+    }
+
+    private TransactionManager create(String name, CountDownLatch committed, boolean join) throws Exception {
+        TransactionManager tm = new TransactionManager() {
+            @Override
+            protected void initParticipants(Element config) {
+                List<TransactionParticipant> participants = new ArrayList<>();
+                if (join)
+                    participants.add(new Join());
+                participants.add(new CommitCounter(committed));
+                groups.put(DEFAULT_GROUP, participants);
+            }
+        };
+        Properties props = new Properties();
+        props.put("queue", name);
+        props.put("space", "tspace:" + name);
+        props.put("persistent-space", "tspace:" + name + "-persistent");
+        props.put("sessions", "2");
+        props.put("debug", "false");
+        props.put("recycle", "true");
+        props.put("confined-contexts", "true");
+        props.put("recycle-messages", "REQUEST, RESPONSE");
+        tm.setName(name);
+        tm.setConfiguration(new SimpleConfiguration(props));
+        tm.setPersist(new Element("txnmgr"));
+        return tm;
+    }
+
+    static class CommitCounter implements TransactionParticipant {
+        private final CountDownLatch committed;
+
+        CommitCounter(CountDownLatch committed) {
+            this.committed = committed;
+        }
+
+        @Override
+        public int prepare(long id, Serializable context) {
+            return PREPARED | READONLY;
+        }
+
+        @Override
+        public void commit(long id, Serializable context) {
+            committed.countDown();
+        }
+
+        @Override
+        public void abort(long id, Serializable context) { }
+    }
+}
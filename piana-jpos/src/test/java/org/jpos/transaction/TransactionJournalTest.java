@@ -0,0 +1,183 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2017 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.transaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+import org.jpos.util.Log;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TransactionJournalTest {
+    private File file;
+    private TransactionJournal journal;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile ("txnmgr", ".journal");
+        file.delete();
+        journal = open (1024L*1024L);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        journal.close();
+        file.delete();
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        assertEquals (1L, journal.getHead (1L));
+        assertEquals (1L, journal.getTail (1L));
+        Context ctx = new Context();
+        ctx.put ("PERSISTENT", "ABC", true);
+        journal.snapshot (1L, ctx, TransactionManager.PREPARING);
+        journal.snapshot (2L, ctx, TransactionManager.PREPARING);
+        journal.addGroup (2L, "groupA");
+        journal.addGroup (2L, "groupB");
+        journal.setState (2L, TransactionManager.COMMITTING);
+        journal.snapshot (3L, ctx, TransactionManager.PREPARING);
+        journal.snapshot (3L, null, TransactionManager.DONE);
+        journal.purge (3L, false);
+        journal.snapshot (4L, ctx, TransactionManager.PREPARING);
+        journal.snapshot (4L, null, TransactionManager.DONE);
+        journal.purge (4L, true);
+        journal.close();
+
+        journal = open (1024L*1024L);
+        assertEquals (5L, journal.getHead (1L));
+        assertEquals (TransactionManager.PREPARING, journal.getState (1L));
+        assertEquals ("ABC", ((Context) journal.getContext (1L)).getString ("PERSISTENT"));
+        assertEquals (TransactionManager.COMMITTING, journal.getState (2L));
+        assertEquals (Arrays.asList ("groupA", "groupB"), journal.getGroups (2L));
+        assertEquals (TransactionManager.DONE, journal.getState (3L));
+        assertNull (journal.getContext (3L));
+        assertNull (journal.getState (4L));
+        assertEquals (3, journal.size());
+    }
+
+    @Test
+    public void testTailDiscardsOlderTransactions() throws Exception {
+        journal.snapshot (10L, null, TransactionManager.DONE);
+        journal.snapshot (11L, null, TransactionManager.PREPARING);
+        journal.setTail (11L);
+        journal.close();
+        journal = open (1024L*1024L);
+        assertEquals (11L, journal.getTail (1L));
+        assertEquals (12L, journal.getHead (1L));
+        assertNull (journal.getState (10L));
+        assertEquals (TransactionManager.PREPARING, journal.getState (11L));
+    }
+
+    @Test
+    public void testTornRecordIsTruncated() throws Exception {
+        journal.snapshot (1L, null, TransactionManager.COMMITTING);
+        journal.close();
+        long len = file.length();
+        try (FileOutputStream out = new FileOutputStream (file, true)) {
+            out.write (new byte[] { 0, 0, 0, 40, 1, 2, 3 });
+        }
+        journal = open (1024L*1024L);
+        assertEquals (len, file.length());
+        assertEquals (TransactionManager.COMMITTING, journal.getState (1L));
+        journal.setState (1L, TransactionManager.DONE);
+        journal.close();
+        journal = open (1024L*1024L);
+        assertEquals (TransactionManager.DONE, journal.getState (1L));
+    }
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        final int threads = 16;
+        final int count = 200;
+        final CountDownLatch done = new CountDownLatch (threads);
+        for (int i=0; i<threads; i++) {
+            final long base = i * count;
+            new Thread (() -> {
+                for (long id=base; id<base+count; id++) {
+                    journal.snapshot (id, null, TransactionManager.PREPARING);
+                    journal.setState (id, TransactionManager.COMMITTING);
+                    journal.snapshot (id, null, TransactionManager.DONE);
+                    journal.purge (id, true);
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+        assertEquals (threads * count * 4L, journal.getRecordCount());
+        assertTrue ("syncs=" + journal.getSyncCount() + " should be shared",
+          journal.getSyncCount() < threads * count * 3L);
+        assertEquals (0, journal.size());
+    }
+
+    @Test
+    public void testCheckpoint() throws Exception {
+        journal.close();
+        journal = open (4096L);
+        Context ctx = new Context();
+        ctx.put ("PERSISTENT", "XYZ", true);
+        journal.snapshot (0L, ctx, TransactionManager.COMMITTING);
+        journal.addGroup (0L, "group");
+        for (long id=1L; id<1000L; id++) {
+            journal.snapshot (id, ctx, TransactionManager.PREPARING);
+            journal.snapshot (id, null, TransactionManager.DONE);
+            journal.purge (id, true);
+        }
+        journal.setTail (0L);
+        journal.setState (0L, TransactionManager.COMMITTING);
+        assertTrue ("journal size " + file.length(), file.length() < 16384L);
+        journal.close();
+        journal = open (4096L);
+        assertEquals (1000L, journal.getHead (0L));
+        assertEquals (1, journal.size());
+        assertEquals (TransactionManager.COMMITTING, journal.getState (0L));
+        assertEquals (Arrays.asList ("group"), journal.getGroups (0L));
+        assertEquals ("XYZ", ((Context) journal.getContext (0L)).getString ("PERSISTENT"));
+    }
+
+    @Test
+    public void testTransactionManagerJournalMode() throws Exception {
+        TransactionManager tm = new TransactionManager();
+        tm.journal = journal;
+        tm.head = tm.tail = 1L;
+        long id = tm.nextId();
+        assertEquals (1L, id);
+        assertEquals (2L, tm.getHead());
+        tm.snapshot (id, new Context(), TransactionManager.PREPARING);
+        tm.setState (id, TransactionManager.COMMITTING);
+        assertEquals (TransactionManager.COMMITTING, journal.getState (id));
+        tm.snapshot (id, null, TransactionManager.DONE);
+        assertTrue (tm.tailDone());
+        assertNull (journal.getState (id));
+    }
+
+    private TransactionJournal open (long maxSize) throws Exception {
+        TransactionJournal j = new TransactionJournal (file, maxSize, Log.getLog ("Q2", "journal"));
+        j.start();
+        return j;
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2017 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.transaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jdom2.Element;
+import org.jpos.core.ConfigurationException;
+import org.jpos.core.SimpleConfiguration;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+public class TransactionManagerExecutorTest {
+    private static final ScheduledExecutorService remoteHost = Executors.newSingleThreadScheduledExecutor();
+    private TransactionManager txnmgr;
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    @After
+    public void tearDown() {
+        if (txnmgr != null)
+            txnmgr.destroy();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        remoteHost.shutdown();
+    }
+
+    @Test
+    public void testPausedTransactionsHoldNoThread() throws Exception {
+        int count = 500;
+        CountDownLatch committed = new CountDownLatch (count);
+        txnmgr = start ("executor-paused", 2, 1000, committed);
+        long start = System.currentTimeMillis();
+        for (int i=0; i<count; i++)
+            txnmgr.queue (new Context());
+        assertTrue ("all transactions committed", committed.await (20, TimeUnit.SECONDS));
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue ("transactions waited concurrently, elapsed=" + elapsed, elapsed < 10000L);
+        assertTrue ("max in-flight " + maxInFlight.get(), maxInFlight.get() > 2);
+        waitForInFlight (0);
+        assertEquals (0, txnmgr.getPausedCounter());
+        assertEquals (txnmgr.getHead(), txnmgr.getTail());
+    }
+
+    @Test
+    public void testMaxInFlight() throws Exception {
+        int count = 50;
+        CountDownLatch committed = new CountDownLatch (count);
+        txnmgr = start ("executor-limit", 4, 10, committed);
+        for (int i=0; i<count; i++)
+            txnmgr.queue (new Context());
+        assertTrue ("all transactions committed", committed.await (20, TimeUnit.SECONDS));
+        assertTrue ("max in-flight " + maxInFlight.get(), maxInFlight.get() <= 10);
+        waitForInFlight (0);
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void testInvalidMaxInFlight() throws Exception {
+        TransactionManager tm = new TransactionManager();
+        Properties props = new Properties();
+        props.put ("executor", "true");
+        props.put ("max-in-flight", "0");
+        tm.setConfiguration (new SimpleConfiguration (props));
+    }
+
+    private TransactionManager start (String name, int threads, int limit, CountDownLatch committed)
+      throws Exception
+    {
+        TransactionManager tm = new TransactionManager();
+        Properties props = new Properties();
+        props.put ("queue", name);
+        props.put ("space", "tspace:" + name);
+        props.put ("persistent-space", "tspace:" + name + "-persistent");
+        props.put ("executor", "true");
+        props.put ("executor-threads", Integer.toString (threads));
+        props.put ("max-in-flight", Integer.toString (limit));
+        props.put ("debug", "false");
+        tm.setName (name);
+        tm.setConfiguration (new SimpleConfiguration (props));
+        tm.setPersist (new Element ("txnmgr"));
+        tm.init();
+        List<TransactionParticipant> participants = new ArrayList<>();
+        participants.add (new RemoteHostParticipant (tm));
+        participants.add (new CommitCounter (committed));
+        tm.groups.put (TransactionManager.DEFAULT_GROUP, participants);
+        tm.start();
+        return tm;
+    }
+
+    private void waitForInFlight (int n) throws InterruptedException {
+        for (int i=0; i<100 && txnmgr.getInFlight() != n; i++)
+            Thread.sleep (50L);
+        assertEquals (n, txnmgr.getInFlight());
+    }
+
+    /**
+     * Pauses and gets resumed 100ms later from a different thread,
+     * as a participant waiting on a remote host would.
+     */
+    class RemoteHostParticipant implements TransactionParticipant {
+        final TransactionManager tm;
+        RemoteHostParticipant (TransactionManager tm) {
+            this.tm = tm;
+        }
+        @Override
+        public int prepare (long id, Serializable context) {
+            Context ctx = (Context) context;
+            if (ctx.get ("RESPONSE") != null)
+                return PREPARED | NO_JOIN;
+            maxInFlight.accumulateAndGet (tm.getInFlight(), Math::max);
+            remoteHost.schedule (() -> {
+                ctx.put ("RESPONSE", Boolean.TRUE);
+                ctx.resume();
+            }, 100L, TimeUnit.MILLISECONDS);
+            return PREPARED | PAUSE;
+        }
+    }
+
+    static class CommitCounter implements TransactionParticipant {
+        final CountDownLatch committed;
+        CommitCounter (CountDownLatch committed) {
+            this.committed = committed;
+        }
+        @Override
+        public int prepare (long id, Serializable context) {
+            return PREPARED | READONLY;
+        }
+        @Override
+        public void commit (long id, Serializable context) {
+            committed.countDown();
+        }
+    }
+}
@@ -21,6 +21,7 @@ package org.jpos.transaction;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
@@ -34,6 +35,7 @@ import java.io.UnsupportedEncodingException;
 import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 import org.jdom2.Comment;
 import org.jdom2.Element;
@@ -605,4 +607,14 @@ public class TransactionManagerTest {
             assertNull("transactionManager.psp", transactionManager.psp);
         }
     }
+
+    @Test
+    public void testParticipantExecutor() throws Throwable {
+        ExecutorService pool = transactionManager.getParticipantExecutor("join-test", 1);
+        assertSame(pool, transactionManager.getParticipantExecutor("join-test", 2));
+        transactionManager.shutdownParticipantExecutors();
+        assertTrue(pool.isShutdown());
+        assertNotSame(pool, transactionManager.getParticipantExecutor("join-test", 1));
+        transactionManager.shutdownParticipantExecutors();
+    }
 }
@@ -376,4 +376,46 @@ public class BSHMethodTest {
             assertThat(ex.getMessage(), allOf(notNullValue(), containsString("line 1, column 1")));
         }
     }
+
+    @Test
+    public void testExecuteCompiled() throws Throwable {
+        Element e = new Element("prepare");
+        e.setAttribute("compiled", "true");
+        e.addContent("result = value * 2;");
+        BSHMethod m = BSHMethod.createBshMethod(e);
+        for (int i = 0; i < 3; i++) {
+            arguments.put("value", i);
+            assertEquals("result", i * 2, m.execute(arguments, "result"));
+        }
+    }
+
+    @Test
+    public void testExecuteOnScriptEngine() throws Throwable {
+        Element e = new Element("prepare");
+        e.setAttribute("engine", "nashorn");
+        e.addContent("var result = value + '!'; var other = 'x';");
+        BSHMethod m = BSHMethod.createBshMethod(e);
+        Collection<String> returnNames = new ArrayList();
+        returnNames.add("result");
+        returnNames.add("other");
+        for (int i = 0; i < 3; i++) {
+            arguments.put("value", "v" + i);
+            Map result = m.execute(arguments, returnNames);
+            assertEquals("result", "v" + i + "!", result.get("result"));
+            assertEquals("other", "x", result.get("other"));
+        }
+    }
+
+    @Test
+    public void testExecuteOnScriptEngineThrowsEvalError() throws Throwable {
+        Element e = new Element("prepare");
+        e.setAttribute("engine", "nashorn");
+        e.addContent("throw 'boom';");
+        try {
+            BSHMethod.createBshMethod(e).execute(arguments, "result");
+            fail("Expected EvalError to be thrown");
+        } catch (EvalError ex) {
+            assertThat(ex.getMessage(), containsString("boom"));
+        }
+    }
 }
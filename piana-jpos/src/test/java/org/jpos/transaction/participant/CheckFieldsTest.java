@@ -127,6 +127,30 @@ public class CheckFieldsTest implements TransactionConstants {
         assertEquals("41 42", rc.failure().getMessage());
     }
 
+    @Test
+    public void testExtraFieldsBeyondPrimaryBitmap () throws ISOException {
+        for (boolean compact : new boolean[] { false, true }) {
+            Context ctx = new Context();
+            ISOMsg m = new ISOMsg("0200");
+            m.setCompact(compact);
+            m.set(3, "000000");
+            m.set(11, "000001");
+            m.set(70, "301");
+            m.set(100, "123456");
+            m.set(150, "X");
+            m.set(200, "Y");
+            ctx.put(ContextConstants.REQUEST.toString(), m);
+            cfg.put("mandatory", "11, 100");
+            cfg.put("optional", "PCODE");
+            int action = cf.prepare(1L, ctx);
+            assertEquals(ABORTED | NO_JOIN | READONLY, action);
+            Result rc = ctx.getResult();
+            assertEquals(CMF.EXTRA_FIELD, rc.failure().getIrc());
+            assertEquals("70 150 200", rc.failure().getMessage());
+            assertEquals("000000", ctx.get(ContextConstants.PCODE.toString()));
+        }
+    }
+
     @Test
     public void testInvalidPCode () {
         Context ctx = new Context();
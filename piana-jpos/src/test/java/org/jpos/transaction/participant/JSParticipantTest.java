@@ -0,0 +1,83 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2017 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jpos.transaction.participant;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import org.jdom2.Element;
+import org.jpos.transaction.Context;
+import org.jpos.transaction.TransactionConstants;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JSParticipantTest implements TransactionConstants {
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("participant", ".js");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testPrepare() throws Throwable {
+        write("var prepare = function(id, ctx) { ctx.put('ID', id); return 1; }");
+        JSParticipant p = createParticipant();
+        Context ctx = new Context();
+        assertEquals(PREPARED, p.prepare(10L, ctx));
+        assertEquals(10L, ctx.get("ID"));
+        assertEquals("missing function", PREPARED | READONLY, p.prepareForAbort(10L, ctx));
+        p.commit(10L, ctx);
+    }
+
+    @Test
+    public void testReloadedOnChange() throws Throwable {
+        write("var prepare = function(id, ctx) { return 1; }");
+        file.setLastModified(1000000L);
+        JSParticipant p = createParticipant();
+        assertEquals(PREPARED, p.prepare(1L, new Context()));
+        write("var prepare = function(id, ctx) { return 0; }");
+        file.setLastModified(2000000L);
+        assertEquals(ABORTED, p.prepare(2L, new Context()));
+    }
+
+    private JSParticipant createParticipant() throws Throwable {
+        JSParticipant p = new JSParticipant();
+        Element e = new Element("participant");
+        e.setAttribute("src", file.getPath());
+        p.setConfiguration(e);
+        return p;
+    }
+
+    private void write(String text) throws IOException {
+        try (FileWriter w = new FileWriter(file)) {
+            w.write(text);
+        }
+    }
+}
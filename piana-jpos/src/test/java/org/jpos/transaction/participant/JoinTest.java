@@ -0,0 +1,154 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2017 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jpos.transaction.participant;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jdom2.Element;
+import org.jpos.core.ConfigurationException;
+import org.jpos.core.SimpleConfiguration;
+import org.jpos.transaction.Context;
+import org.jpos.transaction.TransactionConstants;
+import org.jpos.transaction.TransactionManager;
+import org.jpos.transaction.TransactionParticipant;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JoinTest implements TransactionConstants {
+    private TransactionManager mgr;
+
+    @Before
+    public void setUp() throws Exception {
+        mgr = new TransactionManager() {
+            @Override
+            public TransactionParticipant createParticipant(Element e) throws ConfigurationException {
+                try {
+                    return (TransactionParticipant) Class.forName(e.getAttributeValue("class")).newInstance();
+                } catch (Exception ex) {
+                    throw new ConfigurationException(ex);
+                }
+            }
+        };
+        Properties props = new Properties();
+        props.put("space", "tspace:join-test");
+        mgr.setConfiguration(new SimpleConfiguration(props));
+        Slow.interrupted = new CountDownLatch(1);
+    }
+
+    @Test
+    public void testThreadMode() throws Exception {
+        Join join = createJoin(new Properties(), null);
+        Context ctx = new Context();
+        assertEquals(PREPARED | READONLY, join.prepare(1L, ctx));
+        assertTrue(((String) ctx.get(Fast.class.getName())).startsWith("prepare"));
+    }
+
+    @Test
+    public void testExecutorMode() throws Exception {
+        Properties props = new Properties();
+        props.put("executor", "true");
+        props.put("executor-name", "join-test");
+        props.put("executor-threads", "2");
+        Join join = createJoin(props, null);
+        for (int i = 0; i < 10; i++) {
+            Context ctx = new Context();
+            assertEquals(PREPARED | READONLY, join.prepare(i, ctx));
+            assertTrue(((String) ctx.get(Fast.class.getName())).startsWith("join-join-test-"));
+            assertTrue(((String) ctx.get(Other.class.getName())).startsWith("join-join-test-"));
+            join.commit(i, ctx);
+        }
+        assertEquals(10L, mgr.getMetrics().get(Fast.class.getName() + "-prepare").getTotalCount());
+        assertEquals(10L, mgr.getMetrics().get(Other.class.getName() + "-commit").getTotalCount());
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        Properties props = new Properties();
+        props.put("executor", "true");
+        props.put("executor-name", "join-test-timeout");
+        Join join = createJoin(props, "100");
+        long start = System.currentTimeMillis();
+        assertEquals(ABORTED, join.prepare(1L, new Context()) & PREPARED);
+        assertTrue(System.currentTimeMillis() - start < 1000L);
+        assertEquals(1L, mgr.getMetrics().get(Slow.class.getName() + "-prepare-timeout").getTotalCount());
+        assertTrue("timed out participant cancelled", Slow.interrupted.await(1L, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testThreadModeTimeout() throws Exception {
+        Join join = createJoin(new Properties(), "100");
+        assertEquals(ABORTED, join.prepare(1L, new Context()) & PREPARED);
+        assertTrue("timed out participant interrupted", Slow.interrupted.await(1L, TimeUnit.SECONDS));
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void testInvalidTimeout() throws Exception {
+        Join join = new Join();
+        join.setTransactionManager(mgr);
+        Element e = new Element("participant");
+        e.addContent(new Element("participant").setAttribute("class", Fast.class.getName()).setAttribute("timeout", "abc"));
+        join.setConfiguration(e);
+    }
+
+    private Join createJoin(Properties props, String slowTimeout) throws ConfigurationException {
+        Join join = new Join();
+        join.setTransactionManager(mgr);
+        join.setConfiguration(new SimpleConfiguration(props));
+        Element e = new Element("participant");
+        e.addContent(new Element("participant").setAttribute("class", Fast.class.getName()));
+        e.addContent(new Element("participant").setAttribute("class", Other.class.getName()));
+        if (slowTimeout != null) {
+            e.addContent(new Element("participant")
+              .setAttribute("class", Slow.class.getName()).setAttribute("timeout", slowTimeout));
+        }
+        join.setConfiguration(e);
+        return join;
+    }
+
+    public static class Fast implements TransactionParticipant {
+        @Override
+        public int prepare(long id, Serializable context) {
+            ((Context) context).put(getClass().getName(), Thread.currentThread().getName());
+            return PREPARED | READONLY;
+        }
+    }
+
+    public static class Other extends Fast { }
+
+    public static class Slow implements TransactionParticipant {
+        static volatile CountDownLatch interrupted;
+
+        @Override
+        public int prepare(long id, Serializable context) {
+            try {
+                Thread.sleep(2000L);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return PREPARED;
+        }
+    }
+}
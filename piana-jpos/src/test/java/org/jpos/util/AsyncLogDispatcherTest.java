@@ -0,0 +1,200 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2017 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jpos.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Flushable;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jpos.iso.ISOMsg;
+import org.jpos.transaction.Context;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AsyncLogDispatcherTest {
+    private Logger logger;
+    private LogSource source;
+    private Collector collector;
+    private AsyncLogDispatcher dispatcher;
+
+    @Before
+    public void setUp() {
+        logger = new Logger();
+        collector = new Collector();
+        logger.addListener(collector);
+        source = new SimpleLogSource(logger, "test");
+    }
+
+    @After
+    public void tearDown() {
+        if (dispatcher != null)
+            dispatcher.close(1000L);
+    }
+
+    @Test
+    public void testDispatch() throws Exception {
+        start(1024, AsyncLogDispatcher.OverflowPolicy.BLOCK, 16);
+        Thread[] threads = new Thread[4];
+        for (int t=0; t<threads.length; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i=0; i<500; i++)
+                        Logger.log(new LogEvent(source, "test", i));
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        assertTrue(dispatcher.flush(5000L));
+        assertEquals(2000, collector.events.size());
+        assertEquals(2000L, dispatcher.getDispatched());
+        assertEquals(0L, dispatcher.getDropped());
+        assertNotSame(Thread.currentThread(), collector.thread);
+        assertTrue("flushed once per batch", collector.flushes.get() <= 2000);
+    }
+
+    @Test
+    public void testDrop() throws Exception {
+        start(4, AsyncLogDispatcher.OverflowPolicy.DROP, 1);
+        collector.gate = new CountDownLatch(1);
+        for (int i=0; i<20; i++)
+            Logger.log(new LogEvent(source, "test", i));
+        collector.gate.countDown();
+        assertTrue(dispatcher.flush(5000L));
+        assertTrue(dispatcher.getDropped() > 0);
+        assertEquals(20L, collector.events.size() + dispatcher.getDropped());
+        assertEquals(0, collector.events.get(0).getPayLoad().get(0));
+    }
+
+    @Test
+    public void testDropOldest() throws Exception {
+        start(4, AsyncLogDispatcher.OverflowPolicy.DROP_OLDEST, 1);
+        collector.gate = new CountDownLatch(1);
+        for (int i=0; i<20; i++)
+            Logger.log(new LogEvent(source, "test", i));
+        collector.gate.countDown();
+        assertTrue(dispatcher.flush(5000L));
+        assertTrue(dispatcher.getDropped() > 0);
+        assertEquals(20L, collector.events.size() + dispatcher.getDropped());
+        LogEvent last = collector.events.get(collector.events.size() - 1);
+        assertEquals(19, last.getPayLoad().get(0));
+    }
+
+    @Test
+    public void testBlock() throws Exception {
+        start(2, AsyncLogDispatcher.OverflowPolicy.BLOCK, 1);
+        collector.delay = 1L;
+        for (int i=0; i<50; i++)
+            Logger.log(new LogEvent(source, "test", i));
+        assertTrue(dispatcher.flush(5000L));
+        assertEquals(50, collector.events.size());
+        assertEquals(0L, dispatcher.getDropped());
+        for (int i=0; i<50; i++)
+            assertEquals(i, collector.events.get(i).getPayLoad().get(0));
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        start(1024, AsyncLogDispatcher.OverflowPolicy.BLOCK, 16);
+        collector.delay = 1L;
+        for (int i=0; i<20; i++)
+            Logger.log(new LogEvent(source, "test", i));
+        dispatcher.close(5000L);
+        assertFalse(dispatcher.isRunning());
+        assertEquals(20, collector.events.size());
+        Logger.log(new LogEvent(source, "test", "sync"));
+        assertEquals(21, collector.events.size());
+        assertSame(Thread.currentThread(), collector.thread);
+    }
+
+    @Test
+    public void testPayloadSnapshot() throws Exception {
+        start(1024, AsyncLogDispatcher.OverflowPolicy.BLOCK, 16);
+        collector.gate = new CountDownLatch(1);
+        ISOMsg m = new ISOMsg("0200");
+        m.set(11, "000001");
+        Context ctx = new Context();
+        ctx.put("STAN", "000001");
+        LogEvent evt = new LogEvent(source, "test", m);
+        evt.addMessage(ctx);
+        Logger.log(evt);
+        m.set(11, "999999");
+        m.setMTI("0210");
+        ctx.put("STAN", "999999");
+        collector.gate.countDown();
+        assertTrue(dispatcher.flush(5000L));
+        assertEquals(1, collector.events.size());
+        String dump = collector.events.get(0).toString();
+        assertTrue(dump, dump.contains("\"0200\""));
+        assertTrue(dump, dump.contains("000001"));
+        assertFalse(dump, dump.contains("0210"));
+        assertFalse(dump, dump.contains("999999"));
+    }
+
+    @Test
+    public void testOverflowPolicy() {
+        assertEquals(AsyncLogDispatcher.OverflowPolicy.DROP_OLDEST, AsyncLogDispatcher.OverflowPolicy.of("drop-oldest"));
+        assertEquals(AsyncLogDispatcher.OverflowPolicy.BLOCK, AsyncLogDispatcher.OverflowPolicy.of("Block"));
+    }
+
+    private void start(int capacity, AsyncLogDispatcher.OverflowPolicy policy, int batchSize) {
+        dispatcher = new AsyncLogDispatcher(logger, capacity, policy, batchSize);
+        logger.setAsyncDispatcher(dispatcher);
+        assertEquals(capacity, dispatcher.getQueueCapacity());
+    }
+
+    static class Collector implements LogListener, Flushable {
+        final List<LogEvent> events = new CopyOnWriteArrayList<>();
+        final AtomicInteger flushes = new AtomicInteger();
+        volatile Thread thread;
+        volatile CountDownLatch gate;
+        volatile long delay;
+
+        @Override
+        public LogEvent log(LogEvent ev) {
+            try {
+                if (gate != null)
+                    gate.await(5L, TimeUnit.SECONDS);
+                if (delay > 0L)
+                    Thread.sleep(delay);
+            } catch (InterruptedException ignored) { }
+            thread = Thread.currentThread();
+            events.add(ev);
+            return ev;
+        }
+
+        @Override
+        public void flush() {
+            flushes.incrementAndGet();
+        }
+    }
+}
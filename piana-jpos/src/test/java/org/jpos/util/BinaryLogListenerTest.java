@@ -0,0 +1,117 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2017 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jpos.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+
+import org.jpos.iso.ISOAmount;
+import org.jpos.iso.ISOMsg;
+import org.jpos.iso.ISOUtil;
+import org.jpos.iso.packager.ISO87BPackager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BinaryLogListenerTest {
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("journal").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for (File f : BinaryLogReader.segments(dir))
+            f.delete();
+        dir.delete();
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        BinaryLogListener listener = new BinaryLogListener(dir, "test", 1 << 20);
+        LogSource source = new SimpleLogSource(null, "test-realm");
+        StringBuilder expected = new StringBuilder();
+
+        ISOMsg m = new ISOMsg("0200");
+        m.setPackager(new ISO87BPackager());
+        m.setHeader(ISOUtil.hex2byte("6000010002"));
+        m.setDirection(ISOMsg.OUTGOING);
+        m.set(2, "4111111111111111");
+        m.set(11, "000001");
+        m.set(48, "<xml/>");
+        m.set(52, ISOUtil.hex2byte("0102030405060708"));
+        m.set(new ISOAmount(4, 840, new BigDecimal("10.00")));
+        ISOMsg inner = new ISOMsg(127);
+        inner.set(2, "inner");
+        m.set(inner);
+
+        LogEvent[] events = new LogEvent[] {
+            new LogEvent(source, "send", m),
+            new LogEvent(source, "error", new Exception("boom")),
+            new LogEvent(source, "info"),
+            new LogEvent("no-source", "text"),
+            new FrozenLogEvent(new LogEvent(source, "frozen", "x")),
+        };
+        events[2].addMessage(null);
+        events[2].addMessage(new Object[] { "a", 1 });
+        for (LogEvent evt : events) {
+            listener.log(evt);
+            expected.append(evt.toString());
+        }
+        listener.destroy();
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        PrintStream p = new PrintStream(baos);
+        assertEquals(events.length, new BinaryLogReader(p).render(dir));
+        p.flush();
+        assertEquals(expected.toString(), baos.toString());
+    }
+
+    @Test
+    public void testSegmentRoll() throws Exception {
+        BinaryLogListener listener = new BinaryLogListener(dir, "test", 1024);
+        LogSource source = new SimpleLogSource(null, "roll");
+        StringBuilder expected = new StringBuilder();
+        for (int i=0; i<100; i++) {
+            LogEvent evt = new LogEvent(source, "event", ISOUtil.zeropad(i, 50));
+            listener.log(evt);
+            expected.append(evt.toString());
+        }
+        LogEvent big = new LogEvent(source, "big", ISOUtil.zeropad(1, 4000));
+        listener.log(big);
+        expected.append(big.toString());
+        listener.destroy();
+        assertTrue(BinaryLogReader.segments(dir).size() > 2);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        PrintStream p = new PrintStream(baos);
+        assertEquals(101, new BinaryLogReader(p).render(dir));
+        p.flush();
+        assertEquals(expected.toString(), baos.toString());
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2017 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HashedWheelTimerTest {
+    private HashedWheelTimer timer;
+
+    @Before
+    public void setUp() {
+        timer = new HashedWheelTimer ("test-timer", 5L, TimeUnit.MILLISECONDS, 8);
+    }
+
+    @After
+    public void tearDown() {
+        timer.stop();
+    }
+
+    @Test
+    public void testExpire() throws Exception {
+        CountDownLatch latch = new CountDownLatch (1);
+        long start = System.nanoTime();
+        HashedWheelTimer.Timeout t = timer.newTimeout (latch::countDown, 50L, TimeUnit.MILLISECONDS);
+        assertTrue ("expired", latch.await (5, TimeUnit.SECONDS));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis (System.nanoTime() - start);
+        assertTrue ("expired too early " + elapsed, elapsed >= 50L);
+        assertTrue (t.isExpired());
+        assertFalse (t.cancel());
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        HashedWheelTimer.Timeout t = timer.newTimeout (runs::incrementAndGet, 30L, TimeUnit.MILLISECONDS);
+        assertTrue (t.cancel());
+        assertTrue (t.isCancelled());
+        Thread.sleep (100L);
+        assertEquals (0, runs.get());
+        assertFalse (t.isExpired());
+    }
+
+    @Test
+    public void testDelayLongerThanWheel() throws Exception {
+        // 8 buckets of 5ms, the timeout has to survive a few rounds
+        CountDownLatch early = new CountDownLatch (1);
+        CountDownLatch late = new CountDownLatch (1);
+        long start = System.nanoTime();
+        timer.newTimeout (early::countDown, 10L, TimeUnit.MILLISECONDS);
+        timer.newTimeout (late::countDown, 200L, TimeUnit.MILLISECONDS);
+        assertTrue (early.await (5, TimeUnit.SECONDS));
+        assertTrue (late.await (5, TimeUnit.SECONDS));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis (System.nanoTime() - start);
+        assertTrue ("expired too early " + elapsed, elapsed >= 200L);
+    }
+
+    @Test
+    public void testRestart() throws Exception {
+        CountDownLatch first = new CountDownLatch (1);
+        timer.newTimeout (first::countDown, 5L, TimeUnit.MILLISECONDS);
+        assertTrue (first.await (5, TimeUnit.SECONDS));
+        Thread.sleep (100L); // let the wheel turn a few times
+        AtomicInteger stale = new AtomicInteger();
+        timer.newTimeout (stale::incrementAndGet, 20L, TimeUnit.MILLISECONDS);
+        timer.stop();
+
+        CountDownLatch second = new CountDownLatch (1);
+        long start = System.nanoTime();
+        timer.newTimeout (second::countDown, 50L, TimeUnit.MILLISECONDS);
+        assertTrue ("expired", second.await (5, TimeUnit.SECONDS));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis (System.nanoTime() - start);
+        assertTrue ("expired too early " + elapsed, elapsed >= 50L);
+        Thread.sleep (50L);
+        assertEquals ("pending timeouts don't survive a stop", 0, stale.get());
+    }
+
+    @Test
+    public void testManyTimeouts() throws Exception {
+        int count = 10000;
+        CountDownLatch latch = new CountDownLatch (count / 2);
+        AtomicInteger runs = new AtomicInteger();
+        for (int i=0; i<count; i++) {
+            HashedWheelTimer.Timeout t = timer.newTimeout (() -> {
+                runs.incrementAndGet();
+                latch.countDown();
+            }, 10L + i % 50, TimeUnit.MILLISECONDS);
+            if (i % 2 == 1)
+                t.cancel();
+        }
+        assertTrue (latch.await (5, TimeUnit.SECONDS));
+        Thread.sleep (100L);
+        assertEquals (count / 2, runs.get());
+    }
+}
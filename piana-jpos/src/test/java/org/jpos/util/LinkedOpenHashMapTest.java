@@ -0,0 +1,114 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2017 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jpos.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LinkedOpenHashMapTest {
+    @Test
+    public void testInsertionOrder() {
+        Map<String,Object> m = new LinkedOpenHashMap<>(2);
+        m.put("c", 1);
+        m.put("a", 2);
+        m.put("b", 3);
+        m.put("a", 4);
+        assertEquals("{c=1, a=4, b=3}", m.toString());
+        m.remove("c");
+        m.put("c", 5);
+        assertEquals("{a=4, b=3, c=5}", m.toString());
+    }
+
+    @Test
+    public void testNullKeyAndValue() {
+        Map<String,Object> m = new LinkedOpenHashMap<>();
+        m.put(null, "x");
+        m.put("k", null);
+        assertEquals("x", m.get(null));
+        assertTrue(m.containsKey("k"));
+        assertNull(m.get("k"));
+        assertEquals(2, m.size());
+        assertEquals("x", m.remove(null));
+        assertFalse(m.containsKey(null));
+    }
+
+    @Test
+    public void testClear() {
+        Map<String,Object> m = new LinkedOpenHashMap<>();
+        for (int i = 0; i < 100; i++)
+            m.put("k" + i, i);
+        m.clear();
+        assertTrue(m.isEmpty());
+        assertNull(m.get("k1"));
+        m.put("k1", "again");
+        assertEquals("{k1=again}", m.toString());
+    }
+
+    @Test
+    public void testIteratorRemoveAndSetValue() {
+        Map<String,Object> m = new LinkedOpenHashMap<>();
+        for (int i = 0; i < 10; i++)
+            m.put("k" + i, i);
+        for (Iterator<Map.Entry<String,Object>> it = m.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String,Object> e = it.next();
+            if ((Integer) e.getValue() % 2 == 0)
+                it.remove();
+            else
+                e.setValue("odd");
+        }
+        assertEquals("{k1=odd, k3=odd, k5=odd, k7=odd, k9=odd}", m.toString());
+    }
+
+    @Test
+    public void testMatchesLinkedHashMap() {
+        Random r = new Random(1);
+        Map<Integer,Integer> expected = new LinkedHashMap<>();
+        Map<Integer,Integer> m = new LinkedOpenHashMap<>(4);
+        for (int i = 0; i < 100000; i++) {
+            Integer k = r.nextInt(200);
+            switch (r.nextInt(4)) {
+                case 0:
+                    assertEquals(expected.remove(k), m.remove(k));
+                    break;
+                case 1:
+                    assertEquals(expected.get(k), m.get(k));
+                    break;
+                default:
+                    assertEquals(expected.put(k, i), m.put(k, i));
+            }
+            assertEquals(expected.size(), m.size());
+        }
+        assertEquals(expected, m);
+        assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(m.keySet()));
+        List<Integer> values = new ArrayList<>(m.values());
+        assertEquals(new ArrayList<>(expected.values()), values);
+    }
+}
@@ -0,0 +1,190 @@
+package ir.piana.dev.swch.socket;
+
+import org.HdrHistogram.Recorder;
+import org.jpos.iso.BaseChannel;
+import org.jpos.iso.ISOException;
+import org.jpos.iso.ISOMsg;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * One channel of a {@link LoadGenerator} run: a sender thread issuing
+ * requests on a fixed schedule, whether or not earlier ones were answered,
+ * and a receiver thread matching responses to requests by STAN (field 11).
+ * <p>
+ * Latency is measured from the time a request was <i>scheduled</i> to be
+ * sent, not from the time it actually went out, so stalls on either side
+ * (the server, the socket or this generator) are charged to every request
+ * they delayed, i.e. the results are corrected for coordinated omission.
+ * The time from the actual send is recorded too, for comparison.
+ */
+class LoadConnection {
+    private final LoadGenerator generator;
+    private final BaseChannel channel;
+    private final int index;
+    private final long intervalNanos;
+    private final long offsetNanos;
+    private final Map<String, Pending> pending = new ConcurrentHashMap<>();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong unmatched = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private Thread sender;
+    private Thread receiver;
+    private volatile boolean receiving;
+
+    LoadConnection(LoadGenerator generator, BaseChannel channel, int index, long intervalNanos, long offsetNanos) {
+        this.generator = generator;
+        this.channel = channel;
+        this.index = index;
+        this.intervalNanos = intervalNanos;
+        this.offsetNanos = offsetNanos;
+    }
+
+    void connect() throws IOException {
+        channel.connect();
+    }
+
+    /**
+     * Starts sending at <code>start + offset</code>, stops scheduling at <code>end</code>.
+     */
+    void start(long start, long end) {
+        receiving = true;
+        receiver = new Thread(this::receive, "load-receiver-" + index);
+        receiver.setDaemon(true);
+        receiver.start();
+        sender = new Thread(() -> send(start + offsetNanos, end), "load-sender-" + index);
+        sender.setDaemon(true);
+        sender.start();
+    }
+
+    void awaitSender() throws InterruptedException {
+        sender.join();
+    }
+
+    void stop() {
+        receiving = false;
+        try {
+            channel.disconnect();
+        } catch (IOException ignored) {
+            // closing anyway
+        }
+    }
+
+    /**
+     * Gives up on requests scheduled before <code>deadline</code> that are
+     * still unanswered, recording each one as if answered <code>now</code>,
+     * so timeouts stay in the latency distribution instead of hiding its tail.
+     * @return number of requests that timed out
+     */
+    long expire(long now, long deadline) {
+        Recorder corrected = generator.getRecorder();
+        Recorder uncorrected = generator.getUncorrectedRecorder();
+        long max = generator.getHighestTrackableValue();
+        long n = 0;
+        for (Map.Entry<String, Pending> e : pending.entrySet()) {
+            Pending p = e.getValue();
+            // a response may be removing it right now, only one of us records it
+            if (p.intended < deadline && pending.remove(e.getKey(), p)) {
+                corrected.recordValue(Math.min(max, Math.max(0L, now - p.intended) / 1000L));
+                uncorrected.recordValue(Math.min(max, Math.max(0L, now - p.sent) / 1000L));
+                n++;
+            }
+        }
+        timeouts.addAndGet(n);
+        return n;
+    }
+
+    boolean isConnected() {
+        return channel.isConnected();
+    }
+
+    int getPending() {
+        return pending.size();
+    }
+
+    long getSent() {
+        return sent.get();
+    }
+
+    long getReceived() {
+        return received.get();
+    }
+
+    long getUnmatched() {
+        return unmatched.get();
+    }
+
+    long getTimeouts() {
+        return timeouts.get();
+    }
+
+    long getErrors() {
+        return errors.get();
+    }
+
+    private void send(long next, long end) {
+        while (next < end) {
+            long now = System.nanoTime();
+            if (now < next) {
+                LockSupport.parkNanos(next - now);
+                continue;
+            }
+            // behind schedule: send right away, the lag shows up as latency
+            String stan = generator.nextStan();
+            try {
+                ISOMsg m = generator.createMessage(stan);
+                pending.put(stan, new Pending(next, System.nanoTime()));
+                channel.send(m);
+                sent.incrementAndGet();
+            } catch (IOException | ISOException e) {
+                pending.remove(stan);
+                errors.incrementAndGet();
+                if (!channel.isConnected())
+                    break;
+            }
+            next += intervalNanos;
+        }
+    }
+
+    private void receive() {
+        Recorder corrected = generator.getRecorder();
+        Recorder uncorrected = generator.getUncorrectedRecorder();
+        long max = generator.getHighestTrackableValue();
+        while (receiving) {
+            try {
+                ISOMsg m = channel.receive();
+                long now = System.nanoTime();
+                Pending p = pending.remove(m.getString(11));
+                if (p == null) {
+                    unmatched.incrementAndGet();
+                    continue;
+                }
+                received.incrementAndGet();
+                corrected.recordValue(Math.min(max, (now - p.intended) / 1000L));
+                uncorrected.recordValue(Math.min(max, (now - p.sent) / 1000L));
+            } catch (IOException | ISOException e) {
+                if (receiving) {
+                    errors.incrementAndGet();
+                    if (!channel.isConnected())
+                        break;
+                }
+            }
+        }
+    }
+
+    static class Pending {
+        final long intended;
+        final long sent;
+
+        Pending(long intended, long sent) {
+            this.intended = intended;
+            this.sent = sent;
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package ir.piana.dev.swch.socket;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.jpos.iso.BaseChannel;
+import org.jpos.iso.ISODate;
+import org.jpos.iso.ISOException;
+import org.jpos.iso.ISOMsg;
+import org.jpos.iso.ISOPackager;
+import org.jpos.iso.ISOUtil;
+import org.jpos.iso.channel.ASCIIChannel;
+import org.jpos.iso.channel.NACChannel;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Open loop load generator for a QServer/PianaServer.
+ * <p>
+ * Opens <code>connections</code> ASCII or NAC channels and sends a mix of
+ * 0100, 0200 and 0800 requests at a fixed aggregate <code>rate</code>,
+ * regardless of how fast responses come back, matching responses by STAN.
+ * Every second it prints the interval throughput and latency; at the end it
+ * prints the coordinated-omission-corrected latency distribution (measured
+ * from each request's scheduled send time) and writes it to an .hgrm file,
+ * along with the uncorrected one (measured from the actual send time), so
+ * runs against different builds can be plotted side by side.
+ * <pre>
+ * java ir.piana.dev.swch.socket.LoadGenerator --host localhost --port 6001 \
+ *      --connections 10 --rate 2000 --duration 60 --warmup 10 \
+ *      --mix 0100:2,0200:7,0800:1 --hgrm build-1234.hgrm
+ * </pre>
+ * Options (defaults in brackets): host [localhost], port [6001],
+ * channel ascii|nac [ascii], packager [org.jpos.iso.packager.ISO87BPackager],
+ * header (NAC TPDU, hex) [6000000000], connections [1], rate (requests per
+ * second, all connections) [100], duration (seconds) [30], warmup (seconds,
+ * not reported) [5], timeout (millis) [30000], mix [0200:1], terminal
+ * [29110001], hgrm [latency.hgrm].
+ * <p>
+ * Requests unanswered after <code>timeout</code> are given up on, counted
+ * as timeouts (reported on their own) and recorded in both latency
+ * distributions with the time they had been waiting, so a server that
+ * stops answering shows up in the tail instead of vanishing from it.
+ */
+public class LoadGenerator {
+    private final Map<String, String> options;
+    private final String[] mtis;
+    private final int[] weights;
+    private final int totalWeight;
+    private final long timeoutMillis;
+    private final long highestTrackableValue;
+    private final Recorder recorder;
+    private final Recorder uncorrectedRecorder;
+    private final AtomicInteger stan = new AtomicInteger();
+    private final String terminal;
+    private final List<LoadConnection> connections = new ArrayList<>();
+
+    public LoadGenerator(Map<String, String> options) {
+        this.options = options;
+        String[] mix = get("mix", "0200:1").split(",");
+        mtis = new String[mix.length];
+        weights = new int[mix.length];
+        int total = 0;
+        for (int i = 0; i < mix.length; i++) {
+            String[] s = mix[i].trim().split(":");
+            mtis[i] = s[0];
+            weights[i] = s.length > 1 ? Integer.parseInt(s[1]) : 1;
+            if (!"0100".equals(mtis[i]) && !"0200".equals(mtis[i]) && !"0800".equals(mtis[i]))
+                throw new IllegalArgumentException("Unsupported MTI " + mtis[i]);
+            if (weights[i] <= 0)
+                throw new IllegalArgumentException("Invalid weight " + mix[i]);
+            total += weights[i];
+        }
+        totalWeight = total;
+        timeoutMillis = Long.parseLong(get("timeout", "30000"));
+        terminal = get("terminal", "29110001");
+        // microseconds; responses later than twice the timeout are clamped
+        highestTrackableValue = TimeUnit.MILLISECONDS.toMicros(timeoutMillis) * 2;
+        recorder = new Recorder(highestTrackableValue, 3);
+        uncorrectedRecorder = new Recorder(highestTrackableValue, 3);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 == args.length) {
+                System.err.println("usage: LoadGenerator [--option value]... (see javadoc)");
+                System.exit(1);
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        new LoadGenerator(options).run();
+    }
+
+    public void run() throws Exception {
+        int n = Integer.parseInt(get("connections", "1"));
+        double rate = Double.parseDouble(get("rate", "100"));
+        long duration = TimeUnit.SECONDS.toNanos(Long.parseLong(get("duration", "30")));
+        long warmup = TimeUnit.SECONDS.toNanos(Long.parseLong(get("warmup", "5")));
+        if (n <= 0 || rate <= 0)
+            throw new IllegalArgumentException("connections and rate must be > 0");
+
+        // each connection carries rate/n, their schedules staggered evenly
+        long interval = (long) (TimeUnit.SECONDS.toNanos(1) * n / rate);
+        for (int i = 0; i < n; i++) {
+            LoadConnection c = new LoadConnection(this, createChannel(), i, interval, interval * i / n);
+            c.connect();
+            connections.add(c);
+        }
+        System.out.printf("%d connection(s) to %s:%s, %.1f req/s, mix %s%n",
+          n, get("host", "localhost"), get("port", "6001"), rate, get("mix", "0200:1"));
+
+        Histogram corrected = new Histogram(highestTrackableValue, 3);
+        Histogram uncorrected = new Histogram(highestTrackableValue, 3);
+        Histogram interval1s = null;
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        long end = start + warmup + duration;
+        long measureFrom = start + warmup;
+        for (LoadConnection c : connections)
+            c.start(start, end);
+
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        long drainUntil = end + timeoutNanos;
+        long tick = start;
+        long measuredTimeouts = 0;
+        while (true) {
+            boolean measuring = tick >= measureFrom;
+            tick += TimeUnit.SECONDS.toNanos(1);
+            long now = System.nanoTime();
+            if (tick > now)
+                TimeUnit.NANOSECONDS.sleep(tick - now);
+            now = System.nanoTime();
+            long expired = 0;
+            for (LoadConnection c : connections)
+                expired += c.expire(now, now - timeoutNanos);
+            interval1s = recorder.getIntervalHistogram(interval1s);
+            Histogram raw = uncorrectedRecorder.getIntervalHistogram();
+            if (measuring) {
+                corrected.add(interval1s);
+                uncorrected.add(raw);
+                measuredTimeouts += expired;
+            }
+            report(tick - start, interval1s, expired, measuring);
+            if (now >= end && (pending() == 0 || now >= drainUntil))
+                break;
+            if (!connected()) {
+                System.out.println("All connections lost");
+                break;
+            }
+        }
+        for (LoadConnection c : connections) {
+            c.awaitSender();
+            measuredTimeouts += c.expire(System.nanoTime(), Long.MAX_VALUE);
+            c.stop();
+        }
+        corrected.add(recorder.getIntervalHistogram());
+        uncorrected.add(uncorrectedRecorder.getIntervalHistogram());
+        summary(corrected, uncorrected, measuredTimeouts, duration);
+    }
+
+    /**
+     * @return next STAN, shared by all connections
+     */
+    String nextStan() {
+        return ISOUtil.zeropad((stan.getAndIncrement() & Integer.MAX_VALUE) % 999999 + 1, 6);
+    }
+
+    /**
+     * @param stan field 11
+     * @return a request, its MTI picked according to the configured mix
+     */
+    ISOMsg createMessage(String stan) throws ISOException {
+        int w = ThreadLocalRandom.current().nextInt(totalWeight);
+        int i = 0;
+        while (w >= weights[i])
+            w -= weights[i++];
+        String mti = mtis[i];
+        Date now = new Date();
+        ISOMsg m = new ISOMsg(mti);
+        m.set(7, ISODate.getDateTime(now));
+        m.set(11, stan);
+        if ("0800".equals(mti)) {
+            m.set(70, "301");
+        } else {
+            m.set(2, "4111111111111111");
+            m.set(3, "000000");
+            m.set(4, "000000010000");
+            m.set(12, ISODate.getTime(now));
+            m.set(13, ISODate.getDate(now));
+            m.set(14, "2512");
+            m.set(22, "051");
+            m.set(35, "4111111111111111=25121010000000000000");
+            m.set(37, ISOUtil.zeropad(stan, 12));
+            m.set(42, "MERCHANT0000001");
+            m.set(49, "364");
+        }
+        m.set(41, terminal);
+        return m;
+    }
+
+    Recorder getRecorder() {
+        return recorder;
+    }
+
+    Recorder getUncorrectedRecorder() {
+        return uncorrectedRecorder;
+    }
+
+    long getHighestTrackableValue() {
+        return highestTrackableValue;
+    }
+
+    private BaseChannel createChannel() throws Exception {
+        String host = get("host", "localhost");
+        int port = Integer.parseInt(get("port", "6001"));
+        ISOPackager p = (ISOPackager) Class.forName(
+          get("packager", "org.jpos.iso.packager.ISO87BPackager")).newInstance();
+        String type = get("channel", "ascii");
+        BaseChannel channel;
+        if ("ascii".equalsIgnoreCase(type))
+            channel = new ASCIIChannel(host, port, p);
+        else if ("nac".equalsIgnoreCase(type))
+            channel = new NACChannel(host, port, p, ISOUtil.hex2byte(get("header", "6000000000")));
+        else
+            throw new IllegalArgumentException("Unsupported channel " + type);
+        return channel;
+    }
+
+    private boolean connected() {
+        for (LoadConnection c : connections)
+            if (c.isConnected())
+                return true;
+        return false;
+    }
+
+    private int pending() {
+        int n = 0;
+        for (LoadConnection c : connections)
+            n += c.getPending();
+        return n;
+    }
+
+    /**
+     * @param h latencies recorded in the last second, timeouts included
+     * @param expired requests that timed out in the last second
+     */
+    private void report(long elapsed, Histogram h, long expired, boolean measuring) {
+        long sent = 0, received = 0, timeouts = 0, errors = 0;
+        for (LoadConnection c : connections) {
+            sent += c.getSent();
+            received += c.getReceived();
+            timeouts += c.getTimeouts();
+            errors += c.getErrors();
+        }
+        System.out.printf("%5ds %s sent=%d received=%d pending=%d timeouts=%d errors=%d"
+            + " | %d rsp/s p50=%.2fms p99=%.2fms max=%.2fms%n",
+          TimeUnit.NANOSECONDS.toSeconds(elapsed), measuring ? "    " : "warm",
+          sent, received, pending(), timeouts, errors,
+          h.getTotalCount() - expired, h.getValueAtPercentile(50.0) / 1000.0,
+          h.getValueAtPercentile(99.0) / 1000.0, h.getMaxValue() / 1000.0);
+    }
+
+    /**
+     * @param measuredTimeouts timeouts recorded in the histograms, i.e. after warmup
+     */
+    private void summary(Histogram corrected, Histogram uncorrected, long measuredTimeouts, long duration)
+      throws IOException {
+        long sent = 0, received = 0, unmatched = 0, timeouts = 0, errors = 0;
+        for (LoadConnection c : connections) {
+            sent += c.getSent();
+            received += c.getReceived();
+            unmatched += c.getUnmatched();
+            timeouts += c.getTimeouts();
+            errors += c.getErrors();
+        }
+        PrintStream out = System.out;
+        out.printf("%nsent=%d received=%d unmatched=%d timeouts=%d errors=%d, %.1f rsp/s measured%n",
+          sent, received, unmatched, timeouts, errors,
+          (corrected.getTotalCount() - measuredTimeouts) / (duration / 1e9));
+        out.printf("Latency (ms), corrected for coordinated omission, %d timeout(s) recorded at their waiting time:%n",
+          measuredTimeouts);
+        corrected.outputPercentileDistribution(out, 1000.0);
+
+        String hgrm = get("hgrm", "latency.hgrm");
+        try (PrintStream p = new PrintStream(new FileOutputStream(hgrm))) {
+            corrected.outputPercentileDistribution(p, 1000.0);
+        }
+        String raw = hgrm.endsWith(".hgrm")
+          ? hgrm.substring(0, hgrm.length() - 5) + "-uncorrected.hgrm" : hgrm + "-uncorrected";
+        try (PrintStream p = new PrintStream(new FileOutputStream(raw))) {
+            uncorrected.outputPercentileDistribution(p, 1000.0);
+        }
+        out.printf("Wrote %s and %s%n", hgrm, raw);
+    }
+
+    private String get(String name, String defaultValue) {
+        String v = options.get(name);
+        return v != null ? v : defaultValue;
+    }
+}